@@ -15,6 +15,11 @@ public class GameTime {
 
     private final long window;
 
+    /**
+     * Steps the simulation at a fixed rate independent of the frame rate
+     */
+    private final TickClock clock = new TickClock();
+
     public GameTime(long glfwWindow) {
         window = glfwWindow;
         currentTime = glfwGetTime();
@@ -25,10 +30,46 @@ public class GameTime {
         currentTime = glfwGetTime();
         delta = currentTime - lastTime; // almost always 0.01666666666666666
         lastTime = currentTime;
+        clock.advance(delta);
+    }
+
+    /**
+     * Advances by a set amount instead of the real time, for scripted runs
+     */
+    public void update(double delta) {
+        this.delta = delta;
+        currentTime += delta;
+        lastTime = currentTime;
+        clock.advance(delta);
+    }
+
+    /**
+     * Use as {@code while(gameTime.tick()) { ... }} to run the simulation steps due this frame
+     */
+    public boolean tick() {
+        return clock.tick();
     }
 
     public double getDelta() {
         return delta;
     }
+
+    /**
+     * The fixed number of seconds each simulation tick covers
+     */
+    public double getTickDelta() {
+        return clock.getTickDelta();
+    }
+
+    /**
+     * How far the frame is between the previous and the latest tick, for interpolating rendering
+     */
+    public float getAlpha() {
+        return (float) clock.getAlpha();
+    }
+
+    public TickClock getClock() {
+        return clock;
+    }
 }
 
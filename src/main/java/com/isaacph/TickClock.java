@@ -0,0 +1,108 @@
+package com.isaacph;
+
+/**
+ * Fixed time step simulation clock.
+ * Real time is added to an accumulator, and the simulation steps forward in fixed
+ * ticks while the accumulator holds at least one tick's worth of time. Rendering uses
+ * {@link #getAlpha()} to interpolate between the last two ticks.
+ * It has no dependency on GLFW so the server can run the same tick model.
+ */
+public class TickClock {
+
+    public static final int DEFAULT_TICK_RATE = 60;
+    /**
+     * Ticks allowed per frame before time is dropped, so a long stall does not
+     * turn into a spiral of catch-up ticks that each make the next frame slower
+     */
+    public static final int DEFAULT_MAX_TICKS_PER_FRAME = 5;
+
+    private final double tickDelta;
+    private final int maxTicksPerFrame;
+    private double accumulator = 0;
+    private int ticksThisFrame = 0;
+    private long tickCount = 0;
+    private double droppedTime = 0;
+    private long lastNanos = -1;
+
+    public TickClock() {
+        this(DEFAULT_TICK_RATE, DEFAULT_MAX_TICKS_PER_FRAME);
+    }
+
+    public TickClock(int tickRate, int maxTicksPerFrame) {
+        this.tickDelta = 1.0 / tickRate;
+        this.maxTicksPerFrame = maxTicksPerFrame;
+    }
+
+    /**
+     * Adds elapsed real time, call once per frame before running ticks
+     */
+    public void advance(double delta) {
+        if(delta > 0) {
+            accumulator += delta;
+        }
+        ticksThisFrame = 0;
+    }
+
+    /**
+     * Advances by the real time since the last call, measured with {@link System#nanoTime()}
+     */
+    public void advance() {
+        long now = System.nanoTime();
+        advance(lastNanos < 0 ? 0 : (now - lastNanos) / 1e9);
+        lastNanos = now;
+    }
+
+    /**
+     * Consumes one tick of accumulated time, use as {@code while(clock.tick()) { simulate(); }}
+     * @return true if the simulation should step once more this frame
+     */
+    public boolean tick() {
+        if(accumulator < tickDelta) {
+            return false;
+        }
+        if(ticksThisFrame >= maxTicksPerFrame) {
+            // too far behind, give up on the extra time instead of trying to catch up
+            double excess = accumulator - (accumulator % tickDelta);
+            droppedTime += excess;
+            accumulator -= excess;
+            return false;
+        }
+        accumulator -= tickDelta;
+        ++ticksThisFrame;
+        ++tickCount;
+        return true;
+    }
+
+    /**
+     * How far between the previous and the latest tick the current frame is, from 0 to 1
+     */
+    public double getAlpha() {
+        return Math.min(accumulator / tickDelta, 1.0);
+    }
+
+    /**
+     * Seconds until the next tick is due, for loops that sleep between ticks
+     */
+    public double getTimeUntilTick() {
+        return Math.max(tickDelta - accumulator, 0);
+    }
+
+    public double getTickDelta() {
+        return tickDelta;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public int getTicksThisFrame() {
+        return ticksThisFrame;
+    }
+
+    /**
+     * Total seconds thrown away because the catch-up cap was reached
+     */
+    public double getDroppedTime() {
+        return droppedTime;
+    }
+}
@@ -7,13 +7,21 @@ import org.joml.Vector4f;
 import com.isaacph.GameTime;
 import com.isaacph.render.BoxRenderer;
 import com.isaacph.render.Font;
+import com.isaacph.render.Framebuffer;
+import com.isaacph.render.TextureRenderer;
 
 import java.util.ArrayList;
 
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL14.glBlendFuncSeparate;
+
 public class Chatbox {
 
     private Font font;
     private BoxRenderer boxRender;
+    private TextureRenderer textureRender;
     private GameTime time;
 
     public ArrayList<String> lines;
@@ -33,47 +41,138 @@ public class Chatbox {
     public final ArrayList<String> commands = new ArrayList<>();
     public final ArrayList<String> prevCommands = new ArrayList<>();
 
+    private final Matrix4f boxMatrix = new Matrix4f();
+    private final Vector4f drawColor = new Vector4f();
+    private final StringBuilder typingLine = new StringBuilder();
+
+    /**
+     * When retained, the panel is rendered into {@link #layer} only when its contents change,
+     * and each frame just draws that texture with the current fade
+     */
+    public boolean retained;
+    private Framebuffer layer;
+    private boolean dirty = true;
+    private boolean layerFocus;
+    private final StringBuilder layerTypingLine = new StringBuilder();
+    private final Matrix4f layerProjection = new Matrix4f();
+    private final float[] clearColor = new float[4];
+    /**
+     * Space the panel covers above the first line's baseline and below the last
+     */
+    private static final float PANEL_TOP = 40.0f, PANEL_BOTTOM = 10.0f;
+
     public Chatbox(Font f, BoxRenderer b, GameTime gameTime) {
+        this(f, b, null, gameTime);
+    }
+
+    /**
+     * @param t used to draw the cached panel, if null the panel is redrawn every frame
+     */
+    public Chatbox(Font f, BoxRenderer b, TextureRenderer t, GameTime gameTime) {
         lines = new ArrayList<>();
         typing = new StringBuffer();
         font = f;
         boxRender = b;
+        textureRender = t;
+        retained = t != null;
         time = gameTime;
         jump = font.getSize() - 4.0f;
         displayLines = (int) (200.0f / jump);
     }
 
+    /**
+     * Runs once per simulation tick
+     */
     public void update() {
         if(!focus) {
-            focusTimer -= time.getDelta();
+            focusTimer -= time.getTickDelta();
             if(focusTimer < 0) {
                 focusTimer = 0;
             }
         } else {
             focusTimer = FOCUS_TIME;
-            lineTimer += time.getDelta();
+            lineTimer += time.getTickDelta();
         }
     }
 
     public void draw(Matrix4f ortho) {
-        boxRender.draw(new Matrix4f(ortho).translate(x + width / 2, y + displayLines * jump / 2 - 30.0f, 0)
-            .scale(width, displayLines * jump + 20.0f, 0), new Vector4f(0, 0, 0, 0.3f * focusTimer / FOCUS_TIME));
+        float fade = focusTimer / FOCUS_TIME;
+        if(fade <= 0) return;
+        buildTypingLine();
+        if(!retained) {
+            drawPanel(ortho, fade);
+            return;
+        }
+
+        float top = y - PANEL_TOP;
+        float height = displayLines * jump + PANEL_TOP + PANEL_BOTTOM;
+        int layerWidth = (int) Math.ceil(width), layerHeight = (int) Math.ceil(height);
+        if(layer == null) {
+            layer = new Framebuffer(layerWidth, layerHeight);
+            dirty = true;
+        } else if(layer.getWidth() != layerWidth || layer.getHeight() != layerHeight) {
+            layer.resize(layerWidth, layerHeight);
+            dirty = true;
+        }
+        if(focus != layerFocus || (focus && layerTypingLine.compareTo(typingLine) != 0)) {
+            dirty = true;
+        }
+
+        if(dirty) {
+            layer.bind();
+            glGetFloatv(GL_COLOR_CLEAR_VALUE, clearColor);
+            glClearColor(0, 0, 0, 0);
+            glClear(GL_COLOR_BUFFER_BIT);
+            // keep the layer's alpha correct (premultiplied) instead of multiplying it by itself
+            glBlendFuncSeparate(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA, GL_ONE, GL_ONE_MINUS_SRC_ALPHA);
+            // top and bottom swapped so the texture comes out upright when drawn in the y-down ortho
+            layerProjection.setOrtho(x, x + layerWidth, top, top + layerHeight, 0.0f, 1.0f);
+            drawPanel(layerProjection, 1.0f);
+            glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+            glClearColor(clearColor[0], clearColor[1], clearColor[2], clearColor[3]);
+            layer.unbind();
+            layerFocus = focus;
+            layerTypingLine.setLength(0);
+            layerTypingLine.append(typingLine);
+            dirty = false;
+        }
+
+        glActiveTexture(GL_TEXTURE0);
+        layer.getColor().bind();
+        glBlendFunc(GL_ONE, GL_ONE_MINUS_SRC_ALPHA);
+        textureRender.draw(boxMatrix.set(ortho).translate(x + layerWidth / 2.0f, top + layerHeight / 2.0f, 0)
+            .scale(layerWidth, layerHeight, 1), drawColor.set(fade));
+        glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+    }
+
+    private void buildTypingLine() {
+        typingLine.setLength(0);
+        if(!focus) return;
+        typingLine.append("> ").append(typing);
+        if((int) (lineTimer * 4) % 2 != 0) {
+            typingLine.append('|');
+        }
+    }
+
+    /**
+     * Draws the background box and the visible lines
+     */
+    private void drawPanel(Matrix4f ortho, float fade) {
+        boxRender.draw(boxMatrix.set(ortho).translate(x + width / 2, y + displayLines * jump / 2 - 30.0f, 0)
+            .scale(width, displayLines * jump + 20.0f, 0), drawColor.set(0, 0, 0, 0.3f * fade));
+        drawColor.set(1, 1, 1, fade);
         float pos = y;
         for (int i = 0;
              i < displayLines - 1;
              ++i) {
             int next = lines.size() - (displayLines - 1) + i;
             if (next >= 0 && next < lines.size()) {
-                font.draw(lines.get(lines.size() - (displayLines - 1) + i), x, pos, ortho, new Vector4f(1, 1, 1, focusTimer / FOCUS_TIME));
+                font.draw(lines.get(lines.size() - (displayLines - 1) + i), x, pos, ortho, drawColor);
             }
             pos += jump;
         }
         if(focus) {
-            if((int) (lineTimer * 4) % 2 == 0) {
-                font.draw("> " + typing.toString(), x, pos, ortho, new Vector4f(1, 1, 1, focusTimer / FOCUS_TIME));
-            } else {
-                font.draw("> " + typing.toString() + "|", x, pos, ortho, new Vector4f(1, 1, 1, focusTimer / FOCUS_TIME));
-            }
+            font.draw(typingLine, x, pos, ortho, drawColor);
         }
     }
 
@@ -82,6 +181,21 @@ public class Chatbox {
             lines.remove(0);
         }
         lines.add(s);
+        dirty = true;
+    }
+
+    /**
+     * Forces the cached panel to be redrawn, for when lines are changed directly
+     */
+    public void invalidate() {
+        dirty = true;
+    }
+
+    public void cleanUp() {
+        if(layer != null) {
+            layer.cleanUp();
+            layer = null;
+        }
     }
 
     public void println(String s) {
@@ -0,0 +1,76 @@
+package com.isaacph.client;
+
+/**
+ * Command line options for running the client without a visible window,
+ * e.g. {@code --headless --frames=600 --size=1280x720 --dump=out --dump-every=100 --context=osmesa --max-alloc=0}
+ */
+public class HeadlessOptions {
+
+    enum Context {
+        /**
+         * The platform's normal context, in a hidden window
+         */
+        NATIVE,
+        /**
+         * An EGL context, which can run on a GPU without a display server
+         */
+        EGL,
+        /**
+         * GLFW's null platform with an OSMesa context, Mesa's software rasterizer with no display at all
+         */
+        OSMESA
+    }
+
+    public int frames = 600;
+    public int width = 800, height = 600;
+    /**
+     * Directory framebuffer dumps are written to, or null to not dump
+     */
+    public String dumpDirectory = null;
+    /**
+     * Dump every n-th frame, 0 to only dump the last frame
+     */
+    public int dumpEvery = 0;
+    public Context context = Context.NATIVE;
+    /**
+     * Frames run before allocations are counted, so class loading and JIT warmup are not included
+     */
+    public int warmupFrames = 120;
+    /**
+     * Fail the run if any frame after warmup allocates more bytes than this, -1 to not check.
+     * This covers whole frames with their GL calls, AllocationTest covers the paths that need no context
+     */
+    public long maxAllocation = -1;
+
+    /**
+     * Returns null if the arguments do not ask for headless mode
+     */
+    public static HeadlessOptions parse(String... args) {
+        HeadlessOptions options = null;
+        for(String arg : args) {
+            if(arg.equals("--headless")) {
+                options = new HeadlessOptions();
+            }
+        }
+        if(options == null) return null;
+        for(String arg : args) {
+            String[] kv = arg.split("=", 2);
+            if(kv.length < 2) continue;
+            switch(kv[0]) {
+                case "--frames" -> options.frames = Integer.parseInt(kv[1]);
+                case "--size" -> {
+                    String[] size = kv[1].toLowerCase().split("x");
+                    options.width = Integer.parseInt(size[0]);
+                    options.height = Integer.parseInt(size[1]);
+                }
+                case "--dump" -> options.dumpDirectory = kv[1];
+                case "--dump-every" -> options.dumpEvery = Integer.parseInt(kv[1]);
+                case "--context" -> options.context = Context.valueOf(kv[1].toUpperCase());
+                case "--warmup" -> options.warmupFrames = Integer.parseInt(kv[1]);
+                case "--max-alloc" -> options.maxAllocation = Long.parseLong(kv[1]);
+                default -> throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        return options;
+    }
+}
@@ -5,11 +5,28 @@ import org.lwjgl.glfw.*;
 import org.lwjgl.opengl.*;
 
 import com.isaacph.GameTime;
+import com.isaacph.entity.AnimationSystem;
+import com.isaacph.entity.EntityStore;
+import com.isaacph.entity.MovementSystem;
 import com.isaacph.render.BoxRenderer;
 import com.isaacph.render.Camera;
+import com.isaacph.render.DepthSorter;
 import com.isaacph.render.Font;
+import com.isaacph.render.Framebuffer;
+import com.isaacph.render.GpuProfiler;
+import com.isaacph.render.InstancedSpriteRenderer;
 import com.isaacph.render.Shaders;
-import com.isaacph.util.MathUtil;
+import com.isaacph.render.TextureLoader;
+import com.isaacph.render.TextureRenderer;
+import com.isaacph.util.FrameProfiler;
+import com.isaacph.util.VectorSupport;
+
+import java.io.IOException;
+import java.lang.Math;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
 
 import static org.lwjgl.glfw.Callbacks.*;
 import static org.lwjgl.glfw.GLFW.*;
@@ -21,28 +38,79 @@ public class Main {
     // The window handle
     private long window;
     private BoxRenderer boxRenderer;
+    private TextureRenderer textureRenderer;
+    private TextureLoader textureLoader;
+    private InstancedSpriteRenderer entityRenderer;
+    private TextureLoader.Handle entitySheet;
+
+    /**
+     * Seconds per frame that may be spent uploading textures
+     */
+    private static final double TEXTURE_UPLOAD_BUDGET = 0.002;
 
     // this state info will likely be moved
     public int screenWidth = 800, screenHeight = 600;
     public final Vector2f mousePosition = new Vector2f();
     public final Vector2i mouseWorldPosition = new Vector2i();
     public final Vector2f mouseViewPosition = new Vector2f();
+    private final double[] cursorX = new double[1], cursorY = new double[1];
+    private final Vector2f mouseWorldScratch = new Vector2f();
+    private final Matrix4f cursorMatrix = new Matrix4f();
+    private final Vector4f cursorColor = new Vector4f(0.5f);
 
     public GameTime gameTime;
     public Camera camera;
     public Font font;
+    public GpuProfiler gpuProfiler;
+    public FrameProfiler frameProfiler;
+    public ProfilerHud profilerHud;
+    public final PowerGovernor powerGovernor = new PowerGovernor();
+    private int phaseEvents, phaseCamera, phaseEntities, phaseChat, phaseCommands, phaseUploads, phaseView, phaseDraw, phaseSwap;
 
     public Chatbox chatbox;
 
+    public final EntityStore entities = new EntityStore();
+    public final MovementSystem movementSystem = new MovementSystem(-50, -50, 50, 50);
+    public final AnimationSystem animationSystem = new AnimationSystem(8);
+    private final Random random = new Random();
+    private final Matrix4f entityMatrix = new Matrix4f();
+    private final Vector4f entityColor = new Vector4f(1);
+    private static final int ENTITY_SHEET_COLUMNS = 4, ENTITY_SHEET_ROWS = 1;
+    private static final int ENTITY_LAYER = 1;
+    private final DepthSorter depthSorter = new DepthSorter();
+
     private Mode mode = Mode.PLAY;
 
+    /**
+     * Set when running without a visible window, see {@link HeadlessOptions}
+     */
+    private final HeadlessOptions headless;
+    private static final double HEADLESS_DELTA = 1.0 / 60.0;
+    private boolean allocationCheckFailed = false;
+
     enum Mode {
         PLAY, EDIT
     }
 
+    public Main() {
+        this(null);
+    }
+
+    public Main(HeadlessOptions headless) {
+        this.headless = headless;
+        if(headless != null) {
+            screenWidth = headless.width;
+            screenHeight = headless.height;
+        }
+    }
+
     public void run() {
         init();
-        loop();
+        if(headless != null) {
+            runHeadless();
+        } else {
+            loop();
+        }
         cleanUp();
 
         // Free the window callbacks and destroy the window
@@ -59,6 +127,11 @@ public class Main {
         // will print the error message in System.err.
         GLFWErrorCallback.createPrint(System.err).set();
 
+        if(headless != null && headless.context == HeadlessOptions.Context.OSMESA) {
+            // no display at all, the context comes from Mesa's software rasterizer
+            glfwInitHint(GLFW_PLATFORM, GLFW_PLATFORM_NULL);
+        }
+
         // Initialize GLFW. Most GLFW functions will not work before doing this.
         if ( !glfwInit() )
             throw new IllegalStateException("Unable to initialize GLFW");
@@ -67,6 +140,11 @@ public class Main {
         glfwDefaultWindowHints(); // optional, the current window hints are already the default
         glfwWindowHint(GLFW_VISIBLE, GLFW_FALSE); // the window will stay hidden after creation
         glfwWindowHint(GLFW_RESIZABLE, GLFW_TRUE); // the window will be resizable
+        if(headless != null && headless.context == HeadlessOptions.Context.EGL) {
+            glfwWindowHint(GLFW_CONTEXT_CREATION_API, GLFW_EGL_CONTEXT_API);
+        } else if(headless != null && headless.context == HeadlessOptions.Context.OSMESA) {
+            glfwWindowHint(GLFW_CONTEXT_CREATION_API, GLFW_OSMESA_CONTEXT_API);
+        }
 
         // Create the window
         window = glfwCreateWindow(screenWidth, screenHeight, "Unnamed Game", NULL, NULL);
@@ -76,11 +154,13 @@ public class Main {
         // Make the OpenGL context current
         glfwMakeContextCurrent(window);
         // Enable v-sync
-        glfwSwapInterval(1);
+        glfwSwapInterval(headless == null ? 1 : 0);
 
         // Make the window visible
-        glfwShowWindow(window);
-        glfwFocusWindow(window);
+        if(headless == null) {
+            glfwShowWindow(window);
+            glfwFocusWindow(window);
+        }
         // This line is critical for LWJGL's interoperation with GLFW's
         // OpenGL context, or any context that is managed externally.
         // LWJGL detects the context that is current in the current thread,
@@ -96,26 +176,58 @@ public class Main {
         glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
 
         glfwSetWindowSizeCallback(window, (win, w, h) -> {
+            powerGovernor.wake();
             windowResize(w, h);
         });
+        glfwSetWindowFocusCallback(window, (win, focused) -> {
+            powerGovernor.setFocused(focused);
+        });
+        glfwSetCursorPosCallback(window, (win, x, y) -> {
+            powerGovernor.wake();
+        });
+        glfwSetScrollCallback(window, (win, x, y) -> {
+            powerGovernor.wake();
+        });
         glfwSetMouseButtonCallback(window, ((window1, button, action, mods) -> {
+            powerGovernor.wake();
             mouseButton(button, action, mods);
         }));
         glfwSetKeyCallback(window, ((window1, key, scancode, action, mods) -> {
+            powerGovernor.wake();
             keyboardButton(key, scancode, action, mods);
         }));
         glfwSetCharCallback(window, (win, codepoint) -> {
+            powerGovernor.wake();
             if(chatbox.focus) {
                 chatbox.typing.append((char) codepoint);
             }
         });
 
+        this.textureLoader = new TextureLoader(2);
+        this.gpuProfiler = new GpuProfiler();
         this.boxRenderer = new BoxRenderer();
+        this.textureRenderer = new TextureRenderer();
+        this.entityRenderer = new InstancedSpriteRenderer();
+        this.entityRenderer.size = 0.5f;
+        this.entityRenderer.setSheet(0, 0, 1.0f / ENTITY_SHEET_COLUMNS, 1.0f / ENTITY_SHEET_ROWS, ENTITY_SHEET_COLUMNS);
+        this.entitySheet = textureLoader.load("entities.png");
         this.gameTime = new GameTime(window);
         this.camera = new Camera(gameTime, window);
 
         this.font = new Font("font.ttf", 24, 512, 512);
-        this.chatbox = new Chatbox(font, boxRenderer, gameTime);
+        this.chatbox = new Chatbox(font, boxRenderer, textureRenderer, gameTime);
+
+        this.frameProfiler = new FrameProfiler(240);
+        phaseEvents = frameProfiler.register("events");
+        phaseCamera = frameProfiler.register("camera");
+        phaseEntities = frameProfiler.register("entities");
+        phaseChat = frameProfiler.register("chat update");
+        phaseCommands = frameProfiler.register("commands");
+        phaseUploads = frameProfiler.register("uploads");
+        phaseView = frameProfiler.register("view");
+        phaseDraw = frameProfiler.register("draw");
+        phaseSwap = frameProfiler.register("swap");
+        this.profilerHud = new ProfilerHud(frameProfiler, font, boxRenderer);
 
         windowResize(screenWidth, screenHeight);
     }
@@ -129,14 +241,9 @@ public class Main {
     }
 
     private void pollMousePosition() {
-        double[] mx = new double[1], my = new double[1];
-        glfwGetCursorPos(window, mx, my);
-        mousePosition.x = (float) mx[0];
-        mousePosition.y = (float) my[0];
-        Vector2f vpos = camera.screenToViewSpace(mousePosition);
-        Vector2f pos = Camera.viewToWorldSpace(vpos);
-        mouseWorldPosition.set(MathUtil.floor(pos.x), MathUtil.floor(pos.y));
-        mouseViewPosition.set(vpos);
+        glfwGetCursorPos(window, cursorX, cursorY);
+        mousePosition.set((float) cursorX[0], (float) cursorY[0]);
+        camera.pickTile(mousePosition.x, mousePosition.y, mouseViewPosition, mouseWorldPosition);
     }
 
     private void mouseButton(int button, int action, int mods) {
@@ -174,6 +281,8 @@ public class Main {
             }
         } else {
             if(key == GLFW_KEY_ESCAPE && action == GLFW_PRESS) {
+            } else if(key == GLFW_KEY_F3 && action == GLFW_PRESS) {
+                profilerHud.toggle();
             } else if(key == GLFW_KEY_ENTER && action == GLFW_PRESS) {
                 chatbox.enable();
             } else if(key == GLFW_KEY_SLASH && action == GLFW_PRESS) {
@@ -194,72 +303,302 @@ public class Main {
         // the window or has pressed the ESCAPE key.
         while ( !glfwWindowShouldClose(window) ) {
 
+            frameProfiler.beginFrame();
             gameTime.update();
 
-            // Poll for window events. Invokes window callbacks
-            pollMousePosition();
+            frame();
+
+            frameProfiler.begin(phaseSwap);
+            glfwSwapBuffers(window); // swap the color buffers, rendering what was drawn to the screen
+            frameProfiler.end(phaseSwap);
+            frameProfiler.endFrame();
+        }
+
+        Shaders.checkGLError("End main loop");
+    }
+
+    /**
+     * Runs a scripted camera path into an offscreen framebuffer with a fixed time step,
+     * printing frame time statistics and optionally dumping frames as PNGs for comparison
+     */
+    private void runHeadless() {
+        Path dump = headless.dumpDirectory == null ? null : Path.of(headless.dumpDirectory);
+        if(dump != null) {
+            try {
+                Files.createDirectories(dump);
+            } catch(IOException e) {
+                throw new RuntimeException("Could not create the dump directory " + dump, e);
+            }
+        }
+        Framebuffer target = new Framebuffer(screenWidth, screenHeight);
+        textureLoader.finish();
+        chatbox.println("Headless run of " + headless.frames + " frames");
+        double[] frameTimes = new double[headless.frames];
+        int frames = 0;
+        long steadyAllocated = 0, worstAllocated = 0;
+        Vector2f center = new Vector2f();
+        for(int i = 0; i < headless.frames && !glfwWindowShouldClose(window); ++i) {
+            long start = System.nanoTime();
+            frameProfiler.beginFrame();
+            gameTime.update(HEADLESS_DELTA);
+
+            float t = (float) (i * HEADLESS_DELTA);
+            camera.setCenter(center.set((float) Math.cos(t) * 4.0f, (float) Math.sin(t) * 4.0f));
+
+            target.bind();
+            frame();
+            frameProfiler.begin(phaseSwap);
+            glFinish(); // so frame times include the GPU's work
+            frameProfiler.end(phaseSwap);
+            frameProfiler.endFrame();
+            target.unbind(screenWidth, screenHeight);
+            frameTimes[frames++] = (System.nanoTime() - start) / 1e6;
+            if(i >= headless.warmupFrames) {
+                long allocated = frameProfiler.getFrameAllocation(0);
+                steadyAllocated += allocated;
+                worstAllocated = Math.max(worstAllocated, allocated);
+            }
+
+            boolean last = i == headless.frames - 1;
+            if(dump != null && (last || (headless.dumpEvery > 0 && i % headless.dumpEvery == 0))) {
+                String path = dump.resolve("frame_" + String.format("%05d", i) + ".png").toString();
+                if(!target.writePng(path)) {
+                    System.err.println("Failed to write " + path);
+                }
+            }
+        }
+        Shaders.checkGLError("End headless run");
+        target.cleanUp();
+
+        Arrays.sort(frameTimes, 0, frames);
+        double total = 0;
+        for(int i = 0; i < frames; ++i) total += frameTimes[i];
+        System.out.printf("Headless: %d frames at %d x %d, renderer %s%n", frames, screenWidth, screenHeight, glGetString(GL_RENDERER));
+        if(frames > 0) {
+            System.out.printf("frame ms: avg %.3f, p50 %.3f, p95 %.3f, p99 %.3f, max %.3f%n",
+                total / frames,
+                frameTimes[(int) Math.ceil(frames * 0.50) - 1],
+                frameTimes[(int) Math.ceil(frames * 0.95) - 1],
+                frameTimes[(int) Math.ceil(frames * 0.99) - 1],
+                frameTimes[frames - 1]);
+        }
+        for(int i = 0; i < frameProfiler.getPhaseNames().size(); ++i) {
+            System.out.printf("  %s: %.3f ms%n", frameProfiler.getPhaseNames().get(i), frameProfiler.getPhaseAverage(i) * 1000);
+        }
+        if(frameProfiler.isAllocationTracked() && frames > headless.warmupFrames) {
+            System.out.printf("allocated after %d warmup frames: %.1f B/frame avg, %d B worst%n",
+                headless.warmupFrames, steadyAllocated / (double) (frames - headless.warmupFrames), worstAllocated);
+            if(headless.maxAllocation >= 0 && worstAllocated > headless.maxAllocation) {
+                System.err.println("Allocation check failed: a steady state frame allocated " + worstAllocated
+                    + " bytes, the limit is " + headless.maxAllocation);
+                allocationCheckFailed = true;
+            }
+        }
+    }
+
+    /**
+     * Everything that happens in a frame except presenting it
+     */
+    private void frame() {
+        // Poll for window events. Invokes window callbacks
+        frameProfiler.begin(phaseEvents);
+        pollMousePosition();
+        if(headless != null) {
             glfwPollEvents();
+        } else {
+            powerGovernor.pollEvents();
+        }
+        frameProfiler.end(phaseEvents);
+
+        // the simulation runs in fixed ticks, as many as are due this frame
+        while(gameTime.tick()) {
+            frameProfiler.begin(phaseCamera);
+            camera.beginTick();
             if(!chatbox.focus) camera.move();
+            frameProfiler.end(phaseCamera);
 
             if(mode == Mode.EDIT) {
             } else if(mode == Mode.PLAY) {
+                frameProfiler.begin(phaseEntities);
+                float tickDelta = (float) gameTime.getTickDelta();
+                movementSystem.update(entities, tickDelta);
+                animationSystem.update(entities, tickDelta);
+                frameProfiler.end(phaseEntities);
             }
 
             // all updates go here
+            frameProfiler.begin(phaseChat);
             chatbox.update();
-            for(String cmd : chatbox.commands) {
-                try {
-                    if(cmd.startsWith("/")) {
-                        String[] args = cmd.substring(1).split("\\s");
-                        args[0] = args[0].toLowerCase();
-                        if(args[0].equals("test")) {
-                            chatbox.println("Testing!");
-                        } else if(args[0].equals("exit")) {
-                            glfwSetWindowShouldClose(this.window, true);
-                        } else if(args[0].equals("edit")) {
-                            mode = Mode.EDIT;
-                            chatbox.println("Editing enabled");
-                        } else if(args[0].equals("play")) {
-                            mode = Mode.PLAY;
-                            chatbox.println("Gameplay enabled");
-                        } else {
-                            chatbox.println("Unknown command!");
+            frameProfiler.end(phaseChat);
+        }
+        profilerHud.update(gameTime.getDelta());
+        frameProfiler.begin(phaseCommands);
+        for(int i = 0; i < chatbox.commands.size(); ++i) {
+            String cmd = chatbox.commands.get(i);
+            try {
+                if(cmd.startsWith("/")) {
+                    String[] args = cmd.substring(1).split("\\s");
+                    args[0] = args[0].toLowerCase();
+                    if(args[0].equals("test")) {
+                        chatbox.println("Testing!");
+                    } else if(args[0].equals("exit")) {
+                        glfwSetWindowShouldClose(this.window, true);
+                    } else if(args[0].equals("edit")) {
+                        mode = Mode.EDIT;
+                        chatbox.println("Editing enabled");
+                    } else if(args[0].equals("play")) {
+                        mode = Mode.PLAY;
+                        chatbox.println("Gameplay enabled");
+                    } else if(args[0].equals("gpu")) {
+                        for(String line : gpuProfiler.report()) {
+                            chatbox.println(line);
+                        }
+                    } else if(args[0].equals("profiler")) {
+                        profilerHud.toggle();
+                    } else if(args[0].equals("power")) {
+                        if(args.length > 1 && args[1].equalsIgnoreCase("off")) {
+                            powerGovernor.enabled = false;
+                        } else if(args.length > 1 && args[1].equalsIgnoreCase("on")) {
+                            powerGovernor.enabled = true;
                         }
+                        for(String line : powerGovernor.report()) {
+                            chatbox.println(line);
+                        }
+                    } else if(args[0].equals("spawn")) {
+                        int n = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+                        spawnEntities(n);
+                        chatbox.println("Spawned " + n + ", " + entities.count + " entities");
+                    } else if(args[0].equals("entities")) {
+                        if(args.length > 1 && args[1].equalsIgnoreCase("clear")) {
+                            entities.clear();
+                        } else if(args.length > 1 && args[1].equalsIgnoreCase("scalar")) {
+                            movementSystem.vectorized = false;
+                            animationSystem.vectorized = false;
+                        } else if(args.length > 1 && args[1].equalsIgnoreCase("vector")) {
+                            movementSystem.vectorized = VectorSupport.AVAILABLE;
+                            animationSystem.vectorized = movementSystem.vectorized;
+                        }
+                        chatbox.println(entities.count + " entities, " + (movementSystem.vectorized ? "vectorized" : "scalar")
+                            + String.format(", %.3f ms/tick", frameProfiler.getPhaseAverage(phaseEntities) * 1000));
+                    } else if(args[0].equals("chatcache")) {
+                        chatbox.retained = !chatbox.retained;
+                        chatbox.invalidate();
+                        chatbox.println("Chat caching " + (chatbox.retained ? "enabled" : "disabled"));
                     } else {
-                        //connection.queueSend(new ChatMessage(cmd));
-                        chatbox.println("Chat not implemented yet");
+                        chatbox.println("Unknown command!");
                     }
-                } catch(Exception e) {
-                    chatbox.println("Error processing command:");
-                    chatbox.println(e.getMessage());
-                    e.printStackTrace();
+                } else {
+                    //connection.queueSend(new ChatMessage(cmd));
+                    chatbox.println("Chat not implemented yet");
                 }
+            } catch(Exception e) {
+                chatbox.println("Error processing command:");
+                chatbox.println(e.getMessage());
+                e.printStackTrace();
             }
+        }
+        if(!chatbox.commands.isEmpty()) {
             chatbox.prevCommands.addAll(chatbox.commands);
             chatbox.commands.clear();
+        }
+        frameProfiler.end(phaseCommands);
+
+        frameProfiler.begin(phaseUploads);
+        textureLoader.update(TEXTURE_UPLOAD_BUDGET);
+        frameProfiler.end(phaseUploads);
+
+        frameProfiler.begin(phaseDraw);
+        gpuProfiler.beginFrame();
+        gpuProfiler.begin("clear");
+        glClear(GL_COLOR_BUFFER_BIT); // clear the framebuffer
+        gpuProfiler.end();
+
+        // everything drawing goes here
+        frameProfiler.begin(phaseView);
+        camera.updateView();
+        frameProfiler.end(phaseView);
+
+        if(mode == Mode.PLAY && entities.count > 0) {
+            gpuProfiler.begin("entities");
+            GL13.glActiveTexture(GL13.GL_TEXTURE0);
+            entitySheet.bind();
+            sortEntities(gameTime.getAlpha());
+            entityRenderer.draw(entityMatrix.set(camera.getProjView()).mul(Camera.worldToView), entityColor,
+                gameTime.getAlpha(), entities.count, entities.x, entities.y, entities.prevX, entities.prevY, entities.frame,
+                depthSorter.getOrder());
+            gpuProfiler.end();
+        }
 
-            glClear(GL_COLOR_BUFFER_BIT); // clear the framebuffer
+        gpuProfiler.begin("cursor");
+        boxRenderer.draw(cursorMatrix.set(camera.getProjView()).translate(mouseViewPosition.x, mouseViewPosition.y, 0).scale(0.25f),
+                cursorColor);
+        gpuProfiler.end();
 
-            // everything drawing goes here
-            camera.updateView();
+        gpuProfiler.begin("chat");
+        chatbox.draw(camera.getProjection());
+        gpuProfiler.end();
 
-            boxRenderer.draw(new Matrix4f(camera.getProjView()).translate(mouseViewPosition.x, mouseViewPosition.y, 0).scale(0.25f),
-                    new Vector4f(0.5f));
+        gpuProfiler.begin("profiler");
+        profilerHud.draw(camera.getProjection());
+        gpuProfiler.end();
+        gpuProfiler.endFrame();
+        frameProfiler.end(phaseDraw);
 
-            chatbox.draw(camera.getProjection());
+        powerGovernor.update(isAnimating());
+    }
 
-            glfwSwapBuffers(window); // swap the color buffers, rendering what was drawn to the screen
+    /**
+     * Adds entities around the camera with random velocities and animation phases
+     */
+    private void spawnEntities(int n) {
+        Vector2f center = Camera.viewToWorldSpace(camera.getCenter(), mouseWorldScratch);
+        for(int i = 0; i < n; ++i) {
+            float angle = random.nextFloat() * (float) Math.PI * 2;
+            float speed = 1 + random.nextFloat() * 4;
+            int id = entities.create(center.x + random.nextFloat() * 20 - 10, center.y + random.nextFloat() * 20 - 10,
+                (float) Math.cos(angle) * speed, (float) Math.sin(angle) * speed, ENTITY_SHEET_COLUMNS * ENTITY_SHEET_ROWS);
+            int index = entities.indexOf(id);
+            entities.frame[index] = random.nextInt(entities.frameCount[index]);
         }
+    }
 
-        Shaders.checkGLError("End main loop");
+    /**
+     * Orders entities back to front at their interpolated positions
+     */
+    private void sortEntities(float alpha) {
+        depthSorter.begin();
+        for(int i = 0; i < entities.count; ++i) {
+            float x = entities.prevX[i] + (entities.x[i] - entities.prevX[i]) * alpha;
+            float y = entities.prevY[i] + (entities.y[i] - entities.prevY[i]) * alpha;
+            depthSorter.add(ENTITY_LAYER, DepthSorter.depth(x, y), i);
+        }
+        depthSorter.sort();
+    }
+
+    /**
+     * True while the screen keeps changing without input, which keeps the loop at full rate
+     */
+    private boolean isAnimating() {
+        return chatbox.focus || chatbox.focusTimer > 0 || camera.isMoving() || entities.count > 0
+            || profilerHud.visible || textureLoader.getPending() > 0;
     }
 
     public void cleanUp() {
+        chatbox.cleanUp();
         boxRenderer.cleanUp();
+        textureRenderer.cleanUp();
+        entityRenderer.cleanUp();
+        entitySheet.cleanUp();
+        textureLoader.cleanUp();
+        gpuProfiler.cleanUp();
     }
 
     public static void main(String... args) {
-        new Main().run();
+        Main main = new Main(HeadlessOptions.parse(args));
+        main.run();
+        if(main.allocationCheckFailed) {
+            System.exit(1);
+        }
     }
 }
 
@@ -0,0 +1,140 @@
+package com.isaacph.client;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.glfw.GLFW.glfwPollEvents;
+import static org.lwjgl.glfw.GLFW.glfwWaitEventsTimeout;
+
+/**
+ * Decides how hard the main loop runs. While the player is interacting or something is
+ * animating it polls events and redraws every frame. After a while with nothing going on,
+ * or while the window is unfocused, it blocks in {@link org.lwjgl.glfw.GLFW#glfwWaitEventsTimeout(double)}
+ * and only redraws a few times a second. Any input wakes it straight back up.
+ */
+public class PowerGovernor {
+
+    public enum Mode {
+        ACTIVE, IDLE, BACKGROUND
+    }
+
+    /**
+     * Seconds without input or animation before going idle
+     */
+    public static final double IDLE_DELAY = 2.0;
+    public static final double IDLE_FRAME_TIME = 1.0 / 10.0;
+    public static final double BACKGROUND_FRAME_TIME = 1.0 / 2.0;
+
+    public boolean enabled = true;
+    private Mode mode = Mode.ACTIVE;
+    private boolean focused = true;
+    private long lastActivity = System.nanoTime();
+
+    /* time and process CPU time spent in each mode, for reporting */
+    private final com.sun.management.OperatingSystemMXBean os;
+    private final long[] wallNanos = new long[Mode.values().length];
+    private final long[] cpuNanos = new long[Mode.values().length];
+    private long sampleWall, sampleCpu;
+
+    public PowerGovernor() {
+        os = ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean bean ? bean : null;
+        sampleWall = System.nanoTime();
+        sampleCpu = processCpuTime();
+    }
+
+    /**
+     * Call from input callbacks, switches back to full rate immediately
+     */
+    public void wake() {
+        lastActivity = System.nanoTime();
+        if(mode != Mode.ACTIVE && focused) {
+            switchTo(Mode.ACTIVE);
+        }
+    }
+
+    public void setFocused(boolean focused) {
+        this.focused = focused;
+        if(focused) {
+            wake();
+        } else if(enabled) {
+            switchTo(Mode.BACKGROUND);
+        }
+    }
+
+    /**
+     * Picks the mode for the next frame
+     * @param busy true while something on screen is still changing without input
+     */
+    public void update(boolean busy) {
+        long now = System.nanoTime();
+        if(busy) {
+            lastActivity = now;
+        }
+        Mode next;
+        if(!enabled) {
+            next = Mode.ACTIVE;
+        } else if(!focused) {
+            next = Mode.BACKGROUND;
+        } else if((now - lastActivity) / 1e9 > IDLE_DELAY) {
+            next = Mode.IDLE;
+        } else {
+            next = Mode.ACTIVE;
+        }
+        if(next != mode) {
+            switchTo(next);
+        }
+    }
+
+    /**
+     * Processes window events, in the slower modes this waits for an event or the next low rate frame
+     */
+    public void pollEvents() {
+        switch(mode) {
+            case ACTIVE -> glfwPollEvents();
+            case IDLE -> glfwWaitEventsTimeout(IDLE_FRAME_TIME);
+            case BACKGROUND -> glfwWaitEventsTimeout(BACKGROUND_FRAME_TIME);
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    private void switchTo(Mode next) {
+        sample();
+        mode = next;
+    }
+
+    private void sample() {
+        long wall = System.nanoTime();
+        long cpu = processCpuTime();
+        wallNanos[mode.ordinal()] += wall - sampleWall;
+        cpuNanos[mode.ordinal()] += cpu - sampleCpu;
+        sampleWall = wall;
+        sampleCpu = cpu;
+    }
+
+    private long processCpuTime() {
+        return os == null ? 0 : Math.max(os.getProcessCpuTime(), 0);
+    }
+
+    /**
+     * Time spent in each mode and the process's CPU use during it, as a percentage of one core
+     */
+    public List<String> report() {
+        sample();
+        List<String> lines = new ArrayList<>();
+        lines.add("Power mode: " + mode + (enabled ? "" : " (power saving off)"));
+        for(Mode m : Mode.values()) {
+            long wall = wallNanos[m.ordinal()];
+            if(wall == 0) continue;
+            if(os == null) {
+                lines.add(String.format("%s: %.1f s", m, wall / 1e9));
+            } else {
+                lines.add(String.format("%s: %.1f s, %.1f%% CPU", m, wall / 1e9, 100.0 * cpuNanos[m.ordinal()] / wall));
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,109 @@
+package com.isaacph.client;
+
+import org.joml.Matrix4f;
+import org.joml.Vector4f;
+
+import com.isaacph.render.BoxRenderer;
+import com.isaacph.render.Font;
+import com.isaacph.util.FrameProfiler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Overlay showing frame time percentiles, a frame time graph and the time of each profiled phase
+ */
+public class ProfilerHud {
+
+    private final FrameProfiler profiler;
+    private final Font font;
+    private final BoxRenderer boxRenderer;
+
+    public boolean visible = false;
+    public float x = 10, y = 10;
+    public float width = 360;
+    public float graphHeight = 60;
+    /**
+     * Frame time that fills the graph's full height, in seconds
+     */
+    public float graphScale = 1.0f / 30.0f;
+    /**
+     * Text is only rebuilt this often so the overlay stays readable and cheap
+     */
+    private static final double TEXT_INTERVAL = 0.25;
+
+    private final List<String> text = new ArrayList<>();
+    private double textTimer = 0;
+    private final Matrix4f matrix = new Matrix4f();
+    private final Vector4f color = new Vector4f();
+
+    public ProfilerHud(FrameProfiler profiler, Font font, BoxRenderer boxRenderer) {
+        this.profiler = profiler;
+        this.font = font;
+        this.boxRenderer = boxRenderer;
+    }
+
+    public void toggle() {
+        visible = !visible;
+        textTimer = 0;
+    }
+
+    public void update(double delta) {
+        if(!visible) return;
+        textTimer -= delta;
+        if(textTimer <= 0) {
+            textTimer = TEXT_INTERVAL;
+            rebuildText();
+        }
+    }
+
+    private void rebuildText() {
+        text.clear();
+        text.add(String.format("frame %.2f ms  p50 %.2f  p95 %.2f  p99 %.2f",
+            profiler.getFrameAverage() * 1000,
+            profiler.getFramePercentile(0.5) * 1000,
+            profiler.getFramePercentile(0.95) * 1000,
+            profiler.getFramePercentile(0.99) * 1000));
+        if(profiler.isAllocationTracked()) {
+            text.add(String.format("allocated %.0f B/frame", profiler.getAllocationAverage()));
+        }
+        List<String> phases = profiler.getPhaseNames();
+        for(int i = 0; i < phases.size(); ++i) {
+            text.add(String.format("%s %.3f ms", phases.get(i), profiler.getPhaseAverage(i) * 1000));
+        }
+    }
+
+    public void draw(Matrix4f ortho) {
+        if(!visible) return;
+        float lineHeight = font.getSize();
+        float height = graphHeight + (text.size() + 1) * lineHeight;
+        boxRenderer.draw(matrix.set(ortho).translate(x + width / 2, y + height / 2, 0).scale(width, height, 0),
+            color.set(0, 0, 0, 0.6f));
+
+        // frame time graph, newest frame on the right
+        int samples = profiler.getSampleCount();
+        float barWidth = width / profiler.getCapacity();
+        float graphBottom = y + graphHeight;
+        for(int age = 0; age < samples; ++age) {
+            float frameTime = (float) profiler.getFrameTime(age);
+            float barHeight = Math.min(frameTime / graphScale, 1.0f) * graphHeight;
+            float barX = x + width - (age + 0.5f) * barWidth;
+            if(frameTime > graphScale * 0.5f) {
+                color.set(1.0f, 0.3f, 0.2f, 0.9f);
+            } else {
+                color.set(0.3f, 1.0f, 0.4f, 0.9f);
+            }
+            boxRenderer.draw(matrix.set(ortho).translate(barX, graphBottom - barHeight / 2, 0).scale(barWidth, barHeight, 0), color);
+        }
+        // 60 fps reference line
+        float targetY = graphBottom - Math.min(1.0f / 60.0f / graphScale, 1.0f) * graphHeight;
+        boxRenderer.draw(matrix.set(ortho).translate(x + width / 2, targetY, 0).scale(width, 1, 0), color.set(1, 1, 1, 0.5f));
+
+        float textY = graphBottom + lineHeight;
+        color.set(1);
+        for(String line : text) {
+            font.draw(line, x, textY, ortho, color);
+            textY += lineHeight;
+        }
+    }
+}
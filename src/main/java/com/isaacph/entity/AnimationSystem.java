@@ -0,0 +1,39 @@
+package com.isaacph.entity;
+
+import com.isaacph.util.VectorSupport;
+
+/**
+ * Steps every entity's sprite frame at a fixed rate, wrapping at the entity's frame count
+ */
+public class AnimationSystem {
+
+    /**
+     * Seconds each frame is shown, should be longer than a tick
+     */
+    public float period;
+    public boolean vectorized = VectorSupport.AVAILABLE;
+
+    public AnimationSystem(float framesPerSecond) {
+        this.period = 1.0f / framesPerSecond;
+    }
+
+    public void update(EntityStore store, float delta) {
+        if(vectorized) {
+            VectorKernels.animate(store.frame, store.frameCount, store.frameTime, 0, store.count, delta, period);
+        } else {
+            animate(store.frame, store.frameCount, store.frameTime, 0, store.count, delta, period);
+        }
+    }
+
+    static void animate(int[] frame, int[] frameCount, float[] frameTime, int from, int to, float delta, float period) {
+        for(int i = from; i < to; ++i) {
+            float t = frameTime[i] + delta;
+            if(t >= period) {
+                t -= period;
+                int f = frame[i] + 1;
+                frame[i] = f >= frameCount[i] ? 0 : f;
+            }
+            frameTime[i] = t;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.isaacph.entity;
+
+import com.isaacph.util.VectorSupport;
+
+import java.util.Random;
+
+/**
+ * Times the entity systems over a large store, scalar against vectorized.
+ * Run with {@code gradle benchmark -PbenchmarkClass=com.isaacph.entity.EntityBenchmark -PbenchmarkArgs="100000 600"} (entities, ticks).
+ */
+public class EntityBenchmark {
+
+    private static final float TICK = 1.0f / 60.0f;
+
+    public static void main(String... args) {
+        int entities = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+        System.out.println("Vector API " + (VectorSupport.AVAILABLE ? "available" : "not available"));
+        run("scalar", false, entities, ticks);
+        if(VectorSupport.AVAILABLE) {
+            run("vector", true, entities, ticks);
+        }
+    }
+
+    private static void run(String name, boolean vectorized, int entities, int ticks) {
+        EntityStore store = new EntityStore(entities);
+        Random random = new Random(1);
+        for(int i = 0; i < entities; ++i) {
+            store.create(random.nextFloat() * 100, random.nextFloat() * 100,
+                random.nextFloat() * 10 - 5, random.nextFloat() * 10 - 5, 4);
+        }
+        MovementSystem movement = new MovementSystem(0, 0, 100, 100);
+        AnimationSystem animation = new AnimationSystem(8);
+        movement.vectorized = vectorized;
+        animation.vectorized = vectorized;
+
+        // warm up so the JIT has compiled the loops before timing
+        for(int i = 0; i < ticks; ++i) {
+            movement.update(store, TICK);
+            animation.update(store, TICK);
+        }
+        long start = System.nanoTime();
+        for(int i = 0; i < ticks; ++i) {
+            movement.update(store, TICK);
+            animation.update(store, TICK);
+        }
+        double perTick = (System.nanoTime() - start) / 1e6 / ticks;
+        double checksum = 0;
+        for(int i = 0; i < store.count; ++i) checksum += store.x[i] + store.y[i] + store.frame[i];
+        System.out.printf("%s: %d entities, %.3f ms/tick (%.1f%% of a 60 Hz tick), checksum %.3f%n",
+            name, entities, perTick, perTick / (TICK * 1000) * 100, checksum);
+    }
+}
@@ -0,0 +1,151 @@
+package com.isaacph.entity;
+
+import java.util.Arrays;
+
+/**
+ * Entities stored as structure of arrays: each component is a primitive column indexed by
+ * the entity's dense index, so systems stream through contiguous arrays and the renderer
+ * can upload a column as is. Live entities always occupy indices 0 to count - 1; removing
+ * one moves the last entity into its slot. Entities are referred to from outside by a stable
+ * id, which {@link #indexOf(int)} maps to the current index.
+ */
+public class EntityStore {
+
+    public static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Number of live entities, the columns are only valid below this index
+     */
+    public int count = 0;
+
+    /* position at the latest tick and at the tick before it, for interpolated rendering */
+    public float[] x, y;
+    public float[] prevX, prevY;
+    public float[] vx, vy;
+    /* sprite animation, the frame advances every AnimationSystem period and wraps at frameCount */
+    public int[] frame, frameCount;
+    public float[] frameTime;
+
+    private int[] idOf;
+    private int[] indexOfId;
+    private int[] freeIds;
+    private int freeCount = 0;
+    private int nextId = 0;
+
+    public EntityStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public EntityStore(int capacity) {
+        x = new float[capacity];
+        y = new float[capacity];
+        prevX = new float[capacity];
+        prevY = new float[capacity];
+        vx = new float[capacity];
+        vy = new float[capacity];
+        frame = new int[capacity];
+        frameCount = new int[capacity];
+        frameTime = new float[capacity];
+        idOf = new int[capacity];
+        indexOfId = new int[capacity];
+        freeIds = new int[capacity];
+        Arrays.fill(indexOfId, -1);
+    }
+
+    public int getCapacity() {
+        return x.length;
+    }
+
+    /**
+     * Adds an entity and returns its id
+     */
+    public int create(float x, float y, float vx, float vy, int frameCount) {
+        if(count == getCapacity()) {
+            grow(getCapacity() * 2);
+        }
+        int id = freeCount > 0 ? freeIds[--freeCount] : nextId++;
+        int i = count++;
+        this.x[i] = x;
+        this.y[i] = y;
+        prevX[i] = x;
+        prevY[i] = y;
+        this.vx[i] = vx;
+        this.vy[i] = vy;
+        frame[i] = 0;
+        this.frameCount[i] = Math.max(frameCount, 1);
+        frameTime[i] = 0;
+        idOf[i] = id;
+        indexOfId[id] = i;
+        return id;
+    }
+
+    /**
+     * Removes an entity by id, the last entity takes over its index
+     */
+    public void remove(int id) {
+        int i = indexOf(id);
+        if(i < 0) {
+            throw new IllegalArgumentException("No entity with id " + id);
+        }
+        int last = --count;
+        if(i != last) {
+            x[i] = x[last];
+            y[i] = y[last];
+            prevX[i] = prevX[last];
+            prevY[i] = prevY[last];
+            vx[i] = vx[last];
+            vy[i] = vy[last];
+            frame[i] = frame[last];
+            frameCount[i] = frameCount[last];
+            frameTime[i] = frameTime[last];
+            idOf[i] = idOf[last];
+            indexOfId[idOf[i]] = i;
+        }
+        indexOfId[id] = -1;
+        freeIds[freeCount++] = id;
+    }
+
+    public void clear() {
+        for(int i = 0; i < count; ++i) {
+            indexOfId[idOf[i]] = -1;
+        }
+        count = 0;
+        freeCount = 0;
+        nextId = 0;
+    }
+
+    /**
+     * The entity's current index into the columns, or -1 if it does not exist
+     */
+    public int indexOf(int id) {
+        return id >= 0 && id < nextId ? indexOfId[id] : -1;
+    }
+
+    public int idAt(int index) {
+        return idOf[index];
+    }
+
+    /**
+     * Every id ever handed out is below this, so looping up to it visits entities in id order
+     */
+    public int getIdLimit() {
+        return nextId;
+    }
+
+    private void grow(int capacity) {
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        prevX = Arrays.copyOf(prevX, capacity);
+        prevY = Arrays.copyOf(prevY, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        frame = Arrays.copyOf(frame, capacity);
+        frameCount = Arrays.copyOf(frameCount, capacity);
+        frameTime = Arrays.copyOf(frameTime, capacity);
+        idOf = Arrays.copyOf(idOf, capacity);
+        int oldCapacity = indexOfId.length;
+        indexOfId = Arrays.copyOf(indexOfId, capacity);
+        Arrays.fill(indexOfId, oldCapacity, capacity, -1);
+        freeIds = Arrays.copyOf(freeIds, capacity);
+    }
+}
@@ -0,0 +1,50 @@
+package com.isaacph.entity;
+
+import com.isaacph.util.VectorSupport;
+
+/**
+ * Moves every entity by its velocity once per tick and bounces it off the edges of a rectangle.
+ * The previous position is kept so rendering can interpolate between ticks.
+ */
+public class MovementSystem {
+
+    public float minX, minY, maxX, maxY;
+    /**
+     * Uses the Vector API kernels when they are available, can be turned off to compare
+     */
+    public boolean vectorized = VectorSupport.AVAILABLE;
+
+    public MovementSystem(float minX, float minY, float maxX, float maxY) {
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    public void update(EntityStore store, float delta) {
+        int count = store.count;
+        System.arraycopy(store.x, 0, store.prevX, 0, count);
+        System.arraycopy(store.y, 0, store.prevY, 0, count);
+        if(vectorized) {
+            VectorKernels.move(store.x, store.vx, 0, count, delta, minX, maxX);
+            VectorKernels.move(store.y, store.vy, 0, count, delta, minY, maxY);
+        } else {
+            move(store.x, store.vx, 0, count, delta, minX, maxX);
+            move(store.y, store.vy, 0, count, delta, minY, maxY);
+        }
+    }
+
+    /**
+     * One axis of movement for entities from up to to, shared with the vector kernels for their tails
+     */
+    static void move(float[] p, float[] v, int from, int to, float delta, float min, float max) {
+        for(int i = from; i < to; ++i) {
+            float next = p[i] + v[i] * delta;
+            if(next < min || next > max) {
+                v[i] = -v[i];
+                next = Math.min(Math.max(next, min), max);
+            }
+            p[i] = next;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.isaacph.entity;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times keeping a {@link SpatialHash} up to date with moving entities, a few of them removed and
+ * created every tick, and querying every entity's neighbours, against a scan over every entity.
+ * SpatialHashTest checks the queries agree with that scan.
+ * Run with {@code gradle benchmark -PbenchmarkClass=com.isaacph.entity.SpatialBenchmark -PbenchmarkArgs="10000 50000 100000"} (entity counts).
+ */
+public class SpatialBenchmark {
+
+    private static final float TICK = 1.0f / 60.0f;
+    private static final int TICKS = 60;
+    private static final float RADIUS = 2.0f;
+    private static final int SAMPLES = 200;
+    private static final int CHURN = 20;
+
+    public static void main(String... args) {
+        int[] counts = args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+            : new int[] {10000, 50000, 100000};
+        for(int entities : counts) {
+            run(entities);
+        }
+    }
+
+    private static void run(int entities) {
+        // keep about one entity per 16 tiles whatever the count
+        float side = (float) Math.sqrt(entities * 16.0);
+        EntityStore store = new EntityStore(entities);
+        Random random = new Random(1);
+        for(int i = 0; i < entities; ++i) {
+            store.create(random.nextFloat() * side, random.nextFloat() * side,
+                random.nextFloat() * 10 - 5, random.nextFloat() * 10 - 5, 1);
+        }
+        MovementSystem movement = new MovementSystem(0, 0, side, side);
+        SpatialHash hash = new SpatialHash();
+        int[] found = new int[256];
+
+        long moveTime = 0, queryTime = 0, neighbours = 0;
+        // the first half of the ticks warm up the JIT
+        for(int tick = 0; tick < TICKS * 2; ++tick) {
+            movement.update(store, TICK);
+            // new entities get the ids removed the tick before, and this tick's removed ids stay dead until the next
+            for(int i = 0; i < CHURN; ++i) {
+                store.create(random.nextFloat() * side, random.nextFloat() * side,
+                    random.nextFloat() * 10 - 5, random.nextFloat() * 10 - 5, 1);
+            }
+            for(int i = 0; i < CHURN; ++i) {
+                store.remove(store.idAt(random.nextInt(store.count)));
+            }
+            long start = System.nanoTime();
+            hash.update(store);
+            long moved = System.nanoTime();
+            long total = 0;
+            for(int i = 0; i < store.count; ++i) {
+                total += hash.queryRadius(store.x[i], store.y[i], RADIUS, found);
+            }
+            long queried = System.nanoTime();
+            if(tick >= TICKS) {
+                moveTime += moved - start;
+                queryTime += queried - moved;
+                neighbours += total;
+            }
+        }
+
+        // time sampled queries done by scanning every entity instead
+        long scanStart = System.nanoTime();
+        long scanned = 0;
+        for(int s = 0; s < SAMPLES; ++s) {
+            float px = random.nextFloat() * side, py = random.nextFloat() * side;
+            for(int i = 0; i < store.count; ++i) {
+                float dx = store.x[i] - px, dy = store.y[i] - py;
+                if(dx * dx + dy * dy <= RADIUS * RADIUS) ++scanned;
+            }
+        }
+        double scanPerQuery = (System.nanoTime() - scanStart) / 1e6 / SAMPLES;
+
+        System.out.printf("%d entities: update %.3f ms/tick, %d radius %.1f queries %.3f ms/tick (%.1f neighbours each)%n",
+            entities, moveTime / 1e6 / TICKS, entities, RADIUS, queryTime / 1e6 / TICKS,
+            (double) neighbours / TICKS / entities);
+        System.out.printf("  scanning every entity: %.3f ms/query (%.1f neighbours each), all %d would take %.0f ms%n",
+            scanPerQuery, (double) scanned / SAMPLES, entities, scanPerQuery * entities);
+    }
+}
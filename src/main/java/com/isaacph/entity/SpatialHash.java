@@ -0,0 +1,300 @@
+package com.isaacph.entity;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over world space for finding moving objects near a point or inside a box.
+ * Objects are identified by int ids, such as {@link EntityStore} ids. Each occupied cell is an
+ * entry in an open addressing table from cell coordinates to a bucket of parallel id and position
+ * arrays, so a query reads each cell's positions in one sequential run. Inserting, moving and
+ * removing allocate nothing once the buckets have grown, removal swaps the last entry of a bucket
+ * into the hole, and a move that stays in its cell only updates the stored position.
+ * Queries visit the cells overlapping the query area and write matching ids into a caller's array.
+ * Cells default to the size of a {@link ByteGrid} so they line up with the tile chunks.
+ */
+public class SpatialHash {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int BUCKET_CAPACITY = 8;
+
+    private final float cellSize;
+    private final float inverseCellSize;
+
+    /* the cell table, capacity is a power of two */
+    private long[] cellKeys;
+    private int[][] bucketIds;
+    private float[][] bucketX, bucketY;
+    private int[] bucketCounts;
+    private int cellsUsed = 0;
+
+    /* per id, cellOf is -1 for ids not in the hash */
+    private int[] cellOf = new int[0];
+    private int[] indexInCell = new int[0];
+    private int size = 0;
+
+    public SpatialHash() {
+        this(ByteGrid.SIZE);
+    }
+
+    public SpatialHash(float cellSize) {
+        this.cellSize = cellSize;
+        this.inverseCellSize = 1.0f / cellSize;
+        allocateCells(256);
+    }
+
+    private void allocateCells(int capacity) {
+        cellKeys = new long[capacity];
+        bucketIds = new int[capacity][];
+        bucketX = new float[capacity][];
+        bucketY = new float[capacity][];
+        bucketCounts = new int[capacity];
+        Arrays.fill(cellKeys, EMPTY);
+        cellsUsed = 0;
+    }
+
+    private static long key(int cx, int cy) {
+        return (long) cx << 32 | (cy & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private int cellCoordinate(float v) {
+        return (int) Math.floor(v * inverseCellSize);
+    }
+
+    /**
+     * Slot of a cell in the table, or -1 if it has never held anything
+     */
+    private int findCell(long key) {
+        int mask = cellKeys.length - 1;
+        for(int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            long k = cellKeys[slot];
+            if(k == key) return slot;
+            if(k == EMPTY) return -1;
+        }
+    }
+
+    private int findOrAddCell(long key) {
+        int slot = findCell(key);
+        if(slot >= 0) return slot;
+        // emptied cells stay in the table, so clear them out instead of growing when it fills up
+        if((cellsUsed + 1) * 2 > cellKeys.length) rehash();
+        int mask = cellKeys.length - 1;
+        slot = hash(key) & mask;
+        while(cellKeys[slot] != EMPTY) slot = (slot + 1) & mask;
+        cellKeys[slot] = key;
+        bucketIds[slot] = new int[BUCKET_CAPACITY];
+        bucketX[slot] = new float[BUCKET_CAPACITY];
+        bucketY[slot] = new float[BUCKET_CAPACITY];
+        bucketCounts[slot] = 0;
+        ++cellsUsed;
+        return slot;
+    }
+
+    private void rehash() {
+        long[] oldKeys = cellKeys;
+        int[][] oldIds = bucketIds;
+        float[][] oldX = bucketX, oldY = bucketY;
+        int[] oldCounts = bucketCounts;
+        int live = 0;
+        for(int i = 0; i < oldKeys.length; ++i) {
+            if(oldKeys[i] != EMPTY && oldCounts[i] > 0) ++live;
+        }
+        int capacity = oldKeys.length;
+        while((live + 1) * 4 > capacity) capacity *= 2;
+        allocateCells(capacity);
+        int mask = capacity - 1;
+        for(int i = 0; i < oldKeys.length; ++i) {
+            if(oldKeys[i] == EMPTY || oldCounts[i] == 0) continue;
+            int slot = hash(oldKeys[i]) & mask;
+            while(cellKeys[slot] != EMPTY) slot = (slot + 1) & mask;
+            cellKeys[slot] = oldKeys[i];
+            bucketIds[slot] = oldIds[i];
+            bucketX[slot] = oldX[i];
+            bucketY[slot] = oldY[i];
+            bucketCounts[slot] = oldCounts[i];
+            ++cellsUsed;
+            for(int j = 0; j < oldCounts[i]; ++j) {
+                cellOf[oldIds[i][j]] = slot;
+            }
+        }
+    }
+
+    private void ensureId(int id) {
+        if(id < cellOf.length) return;
+        int capacity = Math.max(id + 1, cellOf.length * 2);
+        int old = cellOf.length;
+        cellOf = Arrays.copyOf(cellOf, capacity);
+        Arrays.fill(cellOf, old, capacity, -1);
+        indexInCell = Arrays.copyOf(indexInCell, capacity);
+    }
+
+    private void add(int id, int slot, float x, float y) {
+        int n = bucketCounts[slot];
+        if(n == bucketIds[slot].length) {
+            bucketIds[slot] = Arrays.copyOf(bucketIds[slot], n * 2);
+            bucketX[slot] = Arrays.copyOf(bucketX[slot], n * 2);
+            bucketY[slot] = Arrays.copyOf(bucketY[slot], n * 2);
+        }
+        bucketIds[slot][n] = id;
+        bucketX[slot][n] = x;
+        bucketY[slot][n] = y;
+        bucketCounts[slot] = n + 1;
+        cellOf[id] = slot;
+        indexInCell[id] = n;
+    }
+
+    private void take(int id) {
+        int slot = cellOf[id];
+        int index = indexInCell[id];
+        int last = --bucketCounts[slot];
+        if(index != last) {
+            int moved = bucketIds[slot][last];
+            bucketIds[slot][index] = moved;
+            bucketX[slot][index] = bucketX[slot][last];
+            bucketY[slot][index] = bucketY[slot][last];
+            indexInCell[moved] = index;
+        }
+        cellOf[id] = -1;
+    }
+
+    public boolean contains(int id) {
+        return id >= 0 && id < cellOf.length && cellOf[id] >= 0;
+    }
+
+    /**
+     * Adds an id at a position, or moves it there if it is already in the hash
+     */
+    public void insert(int id, float x, float y) {
+        if(contains(id)) {
+            move(id, x, y);
+            return;
+        }
+        ensureId(id);
+        add(id, findOrAddCell(key(cellCoordinate(x), cellCoordinate(y))), x, y);
+        ++size;
+    }
+
+    /**
+     * Updates an id's position, only moving it to another bucket if it changed cells
+     */
+    public void move(int id, float x, float y) {
+        if(!contains(id)) {
+            insert(id, x, y);
+            return;
+        }
+        int slot = cellOf[id];
+        long key = key(cellCoordinate(x), cellCoordinate(y));
+        if(cellKeys[slot] == key) {
+            bucketX[slot][indexInCell[id]] = x;
+            bucketY[slot][indexInCell[id]] = y;
+            return;
+        }
+        take(id);
+        add(id, findOrAddCell(key), x, y);
+    }
+
+    public void remove(int id) {
+        if(!contains(id)) return;
+        take(id);
+        --size;
+    }
+
+    public void clear() {
+        Arrays.fill(cellOf, -1);
+        allocateCells(cellKeys.length);
+        size = 0;
+    }
+
+    /**
+     * Makes the hash hold exactly the store's live entities: removes ids the store no longer has,
+     * inserts new ones and moves every one to its current position. An id the store removed and
+     * handed out again since the last update is moved to the new entity's position. Until the next
+     * update queries still return removed ids, so remove them here too if that matters mid tick.
+     */
+    public void update(EntityStore store) {
+        for(int id = 0; id < cellOf.length; ++id) {
+            if(cellOf[id] >= 0 && store.indexOf(id) < 0) remove(id);
+        }
+        for(int i = 0; i < store.count; ++i) {
+            move(store.idAt(i), store.x[i], store.y[i]);
+        }
+    }
+
+    /**
+     * Ids within a distance of a point
+     * @param out filled with the ids found, in no particular order
+     * @return the number of ids found, which may be more than fit in out
+     */
+    public int queryRadius(float px, float py, float radius, int[] out) {
+        float radiusSquared = radius * radius;
+        int found = 0;
+        int minX = cellCoordinate(px - radius), maxX = cellCoordinate(px + radius);
+        int minY = cellCoordinate(py - radius), maxY = cellCoordinate(py + radius);
+        for(int cx = minX; cx <= maxX; ++cx) {
+            for(int cy = minY; cy <= maxY; ++cy) {
+                int slot = findCell(key(cx, cy));
+                if(slot < 0) continue;
+                int[] ids = bucketIds[slot];
+                float[] xs = bucketX[slot], ys = bucketY[slot];
+                for(int i = 0, n = bucketCounts[slot]; i < n; ++i) {
+                    float dx = xs[i] - px, dy = ys[i] - py;
+                    if(dx * dx + dy * dy <= radiusSquared) {
+                        if(found < out.length) out[found] = ids[i];
+                        ++found;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Ids inside a box, edges included
+     * @return the number of ids found, which may be more than fit in out
+     */
+    public int queryBox(float minX, float minY, float maxX, float maxY, int[] out) {
+        int found = 0;
+        int cellMinX = cellCoordinate(minX), cellMaxX = cellCoordinate(maxX);
+        int cellMinY = cellCoordinate(minY), cellMaxY = cellCoordinate(maxY);
+        for(int cx = cellMinX; cx <= cellMaxX; ++cx) {
+            for(int cy = cellMinY; cy <= cellMaxY; ++cy) {
+                int slot = findCell(key(cx, cy));
+                if(slot < 0) continue;
+                int[] ids = bucketIds[slot];
+                float[] xs = bucketX[slot], ys = bucketY[slot];
+                int n = bucketCounts[slot];
+                // cells fully inside the box need no per id test
+                if(cx > cellMinX && cx < cellMaxX && cy > cellMinY && cy < cellMaxY) {
+                    for(int i = 0; i < n; ++i) {
+                        if(found < out.length) out[found] = ids[i];
+                        ++found;
+                    }
+                    continue;
+                }
+                for(int i = 0; i < n; ++i) {
+                    if(xs[i] >= minX && xs[i] <= maxX && ys[i] >= minY && ys[i] <= maxY) {
+                        if(found < out.length) out[found] = ids[i];
+                        ++found;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public float getCellSize() {
+        return cellSize;
+    }
+}
@@ -0,0 +1,48 @@
+package com.isaacph.entity;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API versions of the entity systems' loops, with the same results as the scalar loops.
+ * Only loaded when {@link com.isaacph.util.VectorSupport#AVAILABLE} is true.
+ */
+final class VectorKernels {
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    /* same shape as FLOATS so a float mask can be cast lane for lane */
+    private static final VectorSpecies<Integer> INTS = FLOATS.withLanes(int.class);
+
+    private VectorKernels() {}
+
+    static void move(float[] p, float[] v, int from, int to, float delta, float min, float max) {
+        int i = from;
+        int bound = from + FLOATS.loopBound(to - from);
+        for(; i < bound; i += FLOATS.length()) {
+            FloatVector position = FloatVector.fromArray(FLOATS, p, i);
+            FloatVector velocity = FloatVector.fromArray(FLOATS, v, i);
+            position = position.add(velocity.mul(delta));
+            VectorMask<Float> outside = position.lt(min).or(position.compare(VectorOperators.GT, max));
+            velocity.blend(velocity.neg(), outside).intoArray(v, i);
+            position.max(min).min(max).intoArray(p, i);
+        }
+        MovementSystem.move(p, v, i, to, delta, min, max);
+    }
+
+    static void animate(int[] frame, int[] frameCount, float[] frameTime, int from, int to, float delta, float period) {
+        int i = from;
+        int bound = from + FLOATS.loopBound(to - from);
+        for(; i < bound; i += FLOATS.length()) {
+            FloatVector t = FloatVector.fromArray(FLOATS, frameTime, i).add(delta);
+            VectorMask<Float> advance = t.compare(VectorOperators.GE, period);
+            t.sub(period, advance).intoArray(frameTime, i);
+            IntVector f = IntVector.fromArray(INTS, frame, i).add(1, advance.cast(INTS));
+            IntVector count = IntVector.fromArray(INTS, frameCount, i);
+            f.blend(0, f.compare(VectorOperators.GE, count)).intoArray(frame, i);
+        }
+        AnimationSystem.animate(frame, frameCount, frameTime, i, to, delta, period);
+    }
+}
@@ -1,10 +1,14 @@
 package com.isaacph.render;
 
 import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
 import org.joml.Vector2f;
+import org.joml.Vector2fc;
+import org.joml.Vector2i;
 import org.joml.Vector4f;
 
 import com.isaacph.GameTime;
+import com.isaacph.util.MathUtil;
 
 import static org.lwjgl.glfw.GLFW.*;
 
@@ -16,6 +20,15 @@ public class Camera {
     private float scale = 12.0f;
     private float scaleFactor;
     private Vector2f center = new Vector2f();
+    /**
+     * Where the center was at the previous tick, the view is drawn between the two
+     */
+    private final Vector2f previousCenter = new Vector2f();
+    private final Vector2f renderCenter = new Vector2f();
+    private boolean moving;
+    private final Vector2f moveScratch = new Vector2f();
+    private final Vector2f boundsScratch = new Vector2f();
+    private final Vector2f pickScratch = new Vector2f();
 
     private Matrix4f projection = new Matrix4f();
     private Matrix4f projView = new Matrix4f();
@@ -34,8 +47,16 @@ public class Camera {
         time = gameTime;
     }
 
+    /**
+     * Call at the start of every simulation tick, before {@link #move()}
+     */
+    public void beginTick() {
+        previousCenter.set(center);
+        moving = false;
+    }
+
     public void move() {
-        Vector2f dpos = new Vector2f();
+        Vector2f dpos = moveScratch.zero();
         if(glfwGetKey(window, GLFW_KEY_UP) == GLFW_PRESS) {
             dpos.y--;
         }
@@ -49,8 +70,9 @@ public class Camera {
             dpos.x++;
         }
         if(dpos.lengthSquared() > 0) {
-            dpos.normalize((float) time.getDelta() * 5.0f);
+            dpos.normalize((float) time.getTickDelta() * 5.0f);
             center.add(dpos);
+            moving = true;
         }
     }
 
@@ -59,7 +81,8 @@ public class Camera {
         view.identity();
         view.translate(windowWidth / 2.0f, windowHeight / 2.0f, 0);
         view.scale(scaleFactor);
-        view.translate(-center.x, -center.y, 0);
+        previousCenter.lerp(center, time.getAlpha(), renderCenter);
+        view.translate(-renderCenter.x, -renderCenter.y, 0);
         viewInv.set(view).invert();
         this.projView.set(projection).mul(view);
     }
@@ -78,6 +101,13 @@ public class Camera {
     public Matrix4f getProjection() { return projection; }
     public Matrix4f getProjView() { return projView; }
 
+    /**
+     * True if the camera moved during the last tick
+     */
+    public boolean isMoving() {
+        return moving;
+    }
+
     public float getScaleFactor() {
         return scaleFactor;
     }
@@ -90,35 +120,95 @@ public class Camera {
         this.scale = scale;
     }
 
-    public void setCenter(Vector2f center) {
-        this.center = new Vector2f(center);
+    public void setCenter(Vector2fc center) {
+        this.center.set(center);
+        this.previousCenter.set(center);
+    }
+
+    /**
+     * Transforms the point (x, y, 0, 1) by a matrix into dest, the same as
+     * multiplying a Vector4f by the matrix but without allocating one
+     */
+    private static Vector2f transform(Matrix4fc m, float x, float y, Vector2f dest) {
+        float w = m.m03() * x + m.m13() * y + m.m33();
+        return dest.set((m.m00() * x + m.m10() * y + m.m30()) * w,
+            (m.m01() * x + m.m11() * y + m.m31()) * w);
+    }
+
+    public Vector2f screenToViewSpace(Vector2fc screenSpace, Vector2f dest) {
+        return transform(viewInv, screenSpace.x(), screenSpace.y(), dest);
+    }
+
+    public Vector2f viewToScreenSpace(Vector2fc viewSpace, Vector2f dest) {
+        return transform(view, viewSpace.x(), viewSpace.y(), dest);
+    }
+
+    public Vector2f worldToScreenSpace(Vector2fc worldSpace, Vector2f dest) {
+        return viewToScreenSpace(worldToViewSpace(worldSpace, dest), dest);
+    }
+
+    public static Vector2f viewToWorldSpace(Vector2fc viewSpace, Vector2f dest) {
+        return transform(viewToWorld, viewSpace.x(), viewSpace.y(), dest);
+    }
+
+    public static Vector2f worldToViewSpace(Vector2fc worldSpace, Vector2f dest) {
+        return transform(worldToView, worldSpace.x(), worldSpace.y(), dest);
+    }
+
+    public static Vector2f worldToViewSpace(float x, float y, Vector2f dest) {
+        return transform(worldToView, x, y, dest);
+    }
+
+    public Vector2f screenToWorldSpace(Vector2fc screenSpace, Vector2f dest) {
+        return viewToWorldSpace(screenToViewSpace(screenSpace, dest), dest);
+    }
+
+    /**
+     * The tile under a point on the screen, done for the mouse every frame so it allocates nothing
+     * @param viewDest set to the point in view space
+     * @param dest set to the tile
+     */
+    public Vector2i pickTile(float screenX, float screenY, Vector2f viewDest, Vector2i dest) {
+        screenToViewSpace(pickScratch.set(screenX, screenY), viewDest);
+        Vector2f world = viewToWorldSpace(viewDest, pickScratch);
+        return dest.set(MathUtil.floor(world.x), MathUtil.floor(world.y));
+    }
+
+    /**
+     * The smallest world space box holding everything on screen, since the view is rotated the
+     * four corners of the screen are transformed and the box fit around them
+     * @param dest set to min x, min y, max x, max y
+     */
+    public Vector4f getWorldBounds(Vector4f dest) {
+        dest.set(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+        for(int corner = 0; corner < 4; ++corner) {
+            Vector2f point = screenToWorldSpace(boundsScratch.set((corner & 1) * windowWidth, (corner >> 1) * windowHeight), boundsScratch);
+            dest.set(Math.min(dest.x, point.x), Math.min(dest.y, point.y), Math.max(dest.z, point.x), Math.max(dest.w, point.y));
+        }
+        return dest;
     }
 
     public Vector2f screenToViewSpace(Vector2f screenSpace) {
-        Vector4f v = new Vector4f(screenSpace.x, screenSpace.y, 0, 1).mul(viewInv);
-        return new Vector2f(v.x * v.w, v.y * v.w);
+        return screenToViewSpace(screenSpace, new Vector2f());
     }
 
     public Vector2f viewToScreenSpace(Vector2f viewSpace) {
-        Vector4f v = new Vector4f(viewSpace.x, viewSpace.y, 0, 1).mul(view);
-        return new Vector2f(v.x * v.w, v.y * v.w);
+        return viewToScreenSpace(viewSpace, new Vector2f());
     }
 
     public Vector2f worldToScreenSpace(Vector2f worldSpace) {
-        return viewToScreenSpace(worldToViewSpace(worldSpace));
+        return worldToScreenSpace(worldSpace, new Vector2f());
     }
 
     public static Vector2f viewToWorldSpace(Vector2f viewSpace) {
-        Vector4f v = new Vector4f(viewSpace.x, viewSpace.y, 0, 1).mul(viewToWorld);
-        return new Vector2f(v.x * v.w, v.y * v.w);
+        return viewToWorldSpace(viewSpace, new Vector2f());
     }
 
     public static Vector2f worldToViewSpace(Vector2f worldSpace) {
-        Vector4f v = new Vector4f(worldSpace.x, worldSpace.y, 0, 1).mul(worldToView);
-        return new Vector2f(v.x * v.w, v.y * v.w);
+        return worldToViewSpace(worldSpace, new Vector2f());
     }
 
     public Vector2f screenToWorldSpace(Vector2f screenSpace) {
-        return viewToWorldSpace(screenToViewSpace(screenSpace));
+        return screenToWorldSpace(screenSpace, new Vector2f());
     }
 }
@@ -0,0 +1,19 @@
+package com.isaacph.render;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+
+/**
+ * What streaming chunks in needs from a renderer, so it can be driven without a GL context
+ */
+public interface ChunkBuilder {
+
+    /**
+     * Adds the chunk, or redoes it after its tiles changed
+     */
+    void build(ByteGrid grid);
+
+    /**
+     * Drops the chunk at the given grid position
+     */
+    void remove(int x, int y);
+}
@@ -0,0 +1,140 @@
+package com.isaacph.render;
+
+import java.util.Arrays;
+
+/**
+ * Orders draw commands back to front for the isometric view.
+ * With {@link Camera#viewToWorld}, a world position further along x + y is lower on screen and
+ * in front of everything above it, so commands are drawn in increasing layer, then increasing x + y.
+ * Each command gets a 32 bit key, the layer in the top bits and the depth quantized below it,
+ * and the keys are sorted with an LSD radix sort in O(n) using buffers that are kept between frames.
+ * Use as {@code begin(); add(...) for each command; sort();} and then draw in {@link #getOrder()}.
+ */
+public class DepthSorter {
+
+    public static final int LAYER_BITS = 8;
+    public static final int DEPTH_BITS = 32 - LAYER_BITS;
+    public static final int MAX_LAYER = (1 << LAYER_BITS) - 1;
+    private static final int MAX_DEPTH_KEY = (1 << DEPTH_BITS) - 1;
+    /**
+     * Depth steps per world unit, commands closer than this are in no particular order.
+     * 24 bits at this resolution cover a depth range of 65536 tiles in one frame.
+     */
+    public static final float DEPTH_RESOLUTION = 256.0f;
+
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+    private static final int PASSES = 32 / RADIX_BITS;
+
+    private int count = 0;
+    private float[] depths;
+    private int[] layers;
+    private int[] items;
+    private int[] keys, keysScratch;
+    private int[] order, orderScratch;
+    private final int[] histogram = new int[RADIX * PASSES];
+
+    public DepthSorter() {
+        this(1024);
+    }
+
+    public DepthSorter(int capacity) {
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        depths = depths == null ? new float[capacity] : Arrays.copyOf(depths, capacity);
+        layers = layers == null ? new int[capacity] : Arrays.copyOf(layers, capacity);
+        items = items == null ? new int[capacity] : Arrays.copyOf(items, capacity);
+        keys = new int[capacity];
+        keysScratch = new int[capacity];
+        order = new int[capacity];
+        orderScratch = new int[capacity];
+    }
+
+    public void begin() {
+        count = 0;
+    }
+
+    /**
+     * Adds a draw command
+     * @param layer drawn after every lower layer regardless of depth, from 0 to {@link #MAX_LAYER}
+     * @param depth x + y of the command's world position, see {@link #depth(float, float)}
+     * @param item what to draw, usually an index into the caller's own arrays
+     */
+    public void add(int layer, float depth, int item) {
+        if(count == depths.length) {
+            allocate(count * 2);
+        }
+        depths[count] = depth;
+        layers[count] = Math.min(Math.max(layer, 0), MAX_LAYER);
+        items[count] = item;
+        ++count;
+    }
+
+    public static float depth(float worldX, float worldY) {
+        return worldX + worldY;
+    }
+
+    /**
+     * Sorts the commands added since {@link #begin()}
+     * @return the number of commands
+     */
+    public int sort() {
+        if(count == 0) return 0;
+        // depth is made relative to the furthest command so the fixed point range is spent on this frame
+        float origin = Float.POSITIVE_INFINITY;
+        for(int i = 0; i < count; ++i) {
+            origin = Math.min(origin, depths[i]);
+        }
+        Arrays.fill(histogram, 0);
+        for(int i = 0; i < count; ++i) {
+            long quantized = (long) ((depths[i] - origin) * DEPTH_RESOLUTION);
+            int key = layers[i] << DEPTH_BITS | (int) Math.min(quantized, MAX_DEPTH_KEY);
+            keys[i] = key;
+            order[i] = items[i];
+            for(int pass = 0; pass < PASSES; ++pass) {
+                ++histogram[pass * RADIX + (key >>> (pass * RADIX_BITS) & (RADIX - 1))];
+            }
+        }
+
+        int[] srcKeys = keys, srcOrder = order, dstKeys = keysScratch, dstOrder = orderScratch;
+        for(int pass = 0; pass < PASSES; ++pass) {
+            int base = pass * RADIX;
+            int shift = pass * RADIX_BITS;
+            // every key has the same digit here, this pass would not move anything
+            if(histogram[base + (srcKeys[0] >>> shift & (RADIX - 1))] == count) continue;
+            int offset = 0;
+            for(int d = 0; d < RADIX; ++d) {
+                int n = histogram[base + d];
+                histogram[base + d] = offset;
+                offset += n;
+            }
+            for(int i = 0; i < count; ++i) {
+                int key = srcKeys[i];
+                int dst = histogram[base + (key >>> shift & (RADIX - 1))]++;
+                dstKeys[dst] = key;
+                dstOrder[dst] = srcOrder[i];
+            }
+            int[] t = srcKeys; srcKeys = dstKeys; dstKeys = t;
+            t = srcOrder; srcOrder = dstOrder; dstOrder = t;
+        }
+        // keep the sorted result in the arrays getOrder() returns
+        keys = srcKeys;
+        keysScratch = dstKeys;
+        order = srcOrder;
+        orderScratch = dstOrder;
+        return count;
+    }
+
+    /**
+     * The items in back to front order after {@link #sort()}, only the first {@link #getCount()} are valid
+     */
+    public int[] getOrder() {
+        return order;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
@@ -2,6 +2,7 @@ package com.isaacph.render;
 
 import com.isaacph.util.FileUtil;
 import org.joml.Matrix4f;
+import org.joml.Vector2f;
 import org.joml.Vector4f;
 import org.lwjgl.stb.*;
 import org.lwjgl.system.MemoryStack;
@@ -18,6 +19,50 @@ import static org.lwjgl.opengl.GL20.*;
 
 public class Font {
 
+    /**
+     * Glyph advances and bearings, and where each character of a string goes, with no GL involved
+     */
+    public static class Metrics {
+        private final float[] advance = new float[CHAR_COUNT];
+        private final float[] lsb = new float[CHAR_COUNT];
+        private final int size;
+
+        public Metrics(int size) {
+            this.size = size;
+        }
+
+        public void setGlyph(int c, float advance, float lsb) {
+            this.advance[c] = advance;
+            this.lsb[c] = lsb;
+        }
+
+        /**
+         * Puts the pen where the first glyph of the text is drawn
+         */
+        public Vector2f start(CharSequence text, float x, float y, Vector2f pen) {
+            return pen.set(text.length() == 0 ? x : x - lsb[text.charAt(0)], y);
+        }
+
+        /**
+         * Moves the pen past a character, a newline goes back to the line's start x one line down
+         */
+        public Vector2f advance(Vector2f pen, char c, float x) {
+            if(c == '\n') {
+                return pen.set(x, pen.y + size);
+            }
+            return pen.set(pen.x + advance[c], pen.y);
+        }
+
+        public float textWidth(CharSequence text) {
+            if(text.length() == 0) return 0;
+            float width = lsb[text.charAt(0)];
+            for(int i = 0; i < text.length(); ++i) {
+                width += advance[text.charAt(i)];
+            }
+            return width;
+        }
+    }
+
     private String source;
     private int size;
     private int shader;
@@ -26,16 +71,19 @@ public class Font {
     private int shaderColor;
 
     private static final int CHAR_COUNT = 128;
-    private float advance[] = new float[CHAR_COUNT];
-    private float lsb[] = new float[CHAR_COUNT];
+    private final Metrics metrics;
+    private final Vector2f pen = new Vector2f();
     private float aHeight, AHeight;
     private int texture;
 //    private int vao;
     private int vbo;
+    private static final Vector4f WHITE = new Vector4f(1);
+    private final Matrix4f glyphMatrix = new Matrix4f();
 
     public Font(String source, int size, int bmpWidth, int bmpHeight) {
         this.source = source;
         this.size = size;
+        this.metrics = new Metrics(size);
 
         int vertex = Shaders.createShader("textv.glsl", GL_VERTEX_SHADER);
         int fragment = Shaders.createShader("textf.glsl", GL_FRAGMENT_SHADER);
@@ -75,8 +123,7 @@ public class Font {
                 for(int i = 0; i < CHAR_COUNT; i++)
                 {
                     STBTruetype.stbtt_GetCodepointHMetrics(info, i, adv, l);
-                    advance[i] = adv.get(0) * scale;
-                    lsb[i] = l.get(0) * scale;
+                    metrics.setGlyph(i, adv.get(0) * scale, l.get(0) * scale);
                 }
             }
 
@@ -196,11 +243,11 @@ public class Font {
         Shaders.checkGLError("Font init " + source);
     }
 
-    public void draw(String text, float x, float y, Matrix4f proj) {
-        draw(text, x, y, proj, new Vector4f(1));
+    public void draw(CharSequence text, float x, float y, Matrix4f proj) {
+        draw(text, x, y, proj, WHITE);
     }
 
-    public void draw(String text, float x, float y, Matrix4f proj, Vector4f color) {
+    public void draw(CharSequence text, float x, float y, Matrix4f proj, Vector4f color) {
         if(text.length() == 0) {
             return;
         }
@@ -215,39 +262,32 @@ public class Font {
         glUniform1i(shaderSampler, 0);
         glActiveTexture(GL_TEXTURE0);
         glUniform4f(shaderColor, color.x, color.y, color.z, color.w);
+        glBindTexture(GL_TEXTURE_2D, texture);
         try(MemoryStack stack = MemoryStack.stackPush()) {
-            float currentX = x - lsb[text.charAt(0)], currentY = y;
-            for(char c : text.toCharArray()) {
-                if(c == '\n') {
-                    currentX = x;
-                    currentY += size;
-                } else if(c == ' ') {
-                    currentX += advance[' '];
-                } else {
-                    FloatBuffer buffer = stack.mallocFloat(16);
-                    Matrix4f mat = new Matrix4f();
-                    mat.translate(currentX, currentY, 0);
-//                    mat.scale(size);
-
-                    glUniformMatrix4fv(shaderMatrix, false, new Matrix4f(proj).mul(mat).get(buffer));
-                    glBindTexture(GL_TEXTURE_2D, texture);
-                    glDrawArrays(GL_TRIANGLES, (int) c*6, 6);
+            FloatBuffer buffer = stack.mallocFloat(16);
+            metrics.start(text, x, y, pen);
+            for(int i = 0; i < text.length(); ++i) {
+                char c = text.charAt(i);
+                if(c != '\n' && c != ' ') {
+                    glyphMatrix.set(proj).translate(pen.x, pen.y, 0);
+//                    glyphMatrix.scale(size);
 
-                    currentX += advance[c];
+                    glUniformMatrix4fv(shaderMatrix, false, glyphMatrix.get(buffer));
+                    glDrawArrays(GL_TRIANGLES, (int) c*6, 6);
                 }
+                metrics.advance(pen, c, x);
             }
         }
         glDisableVertexAttribArray(Shaders.Attribute.POSITION.position);
         glDisableVertexAttribArray(Shaders.Attribute.TEXTURE.position);
     }
 
-    public float textWidth(String text) {
-        if(text.isEmpty()) return 0;
-        float width = lsb[text.charAt(0)];
-        for(char c : text.toCharArray()) {
-            width += advance[c];
-        }
-        return width;
+    public float textWidth(CharSequence text) {
+        return metrics.textWidth(text);
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
     }
 
     public void cleanUp() {
@@ -0,0 +1,128 @@
+package com.isaacph.render;
+
+import org.joml.Vector2i;
+import org.lwjgl.stb.STBImageWrite;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+import static org.lwjgl.opengl.GL30.*;
+
+/**
+ * An offscreen render target with an RGBA color texture
+ */
+public class Framebuffer {
+
+    private final int fbo;
+    private final int[] previousViewport = new int[4];
+    private int previousFbo;
+    private Texture color;
+    private int width, height;
+
+    public Framebuffer(int width, int height) {
+        fbo = glGenFramebuffers();
+        resize(width, height);
+    }
+
+    /**
+     * Recreates the color texture at a new size, does nothing if the size is unchanged
+     */
+    public void resize(int width, int height) {
+        if(color != null && this.width == width && this.height == height) return;
+        if(color != null) color.cleanUp();
+        this.width = width;
+        this.height = height;
+        int texture = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, texture);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        color = new Texture(texture, new Vector2i(width, height));
+
+        int bound = glGetInteger(GL_FRAMEBUFFER_BINDING);
+        glBindFramebuffer(GL_FRAMEBUFFER, fbo);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, texture, 0);
+        int status = glCheckFramebufferStatus(GL_FRAMEBUFFER);
+        glBindFramebuffer(GL_FRAMEBUFFER, bound);
+        if(status != GL_FRAMEBUFFER_COMPLETE) {
+            throw new RuntimeException("Framebuffer incomplete: " + status + " at " + width + " x " + height);
+        }
+        Shaders.checkGLError("Framebuffer " + width + " x " + height);
+    }
+
+    /**
+     * Renders into this framebuffer and sets the viewport to cover it,
+     * remembering the previous framebuffer and viewport for {@link #unbind()}
+     */
+    public void bind() {
+        previousFbo = glGetInteger(GL_FRAMEBUFFER_BINDING);
+        glGetIntegerv(GL_VIEWPORT, previousViewport);
+        glBindFramebuffer(GL_FRAMEBUFFER, fbo);
+        glViewport(0, 0, width, height);
+    }
+
+    /**
+     * Goes back to the framebuffer and viewport that were in use when this was bound
+     */
+    public void unbind() {
+        glBindFramebuffer(GL_FRAMEBUFFER, previousFbo);
+        glViewport(previousViewport[0], previousViewport[1], previousViewport[2], previousViewport[3]);
+    }
+
+    /**
+     * Goes back to rendering to the window
+     * @param windowWidth width to restore the viewport to
+     * @param windowHeight height to restore the viewport to
+     */
+    public void unbind(int windowWidth, int windowHeight) {
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        glViewport(0, 0, windowWidth, windowHeight);
+    }
+
+    public Texture getColor() {
+        return color;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Reads the color attachment as tightly packed RGBA rows, bottom row first
+     */
+    public void readPixels(ByteBuffer rgba) {
+        int bound = glGetInteger(GL_FRAMEBUFFER_BINDING);
+        glBindFramebuffer(GL_FRAMEBUFFER, fbo);
+        glPixelStorei(GL_PACK_ALIGNMENT, 1);
+        glReadPixels(0, 0, width, height, GL_RGBA, GL_UNSIGNED_BYTE, rgba);
+        glBindFramebuffer(GL_FRAMEBUFFER, bound);
+        Shaders.checkGLError("Framebuffer read " + width + " x " + height);
+    }
+
+    /**
+     * Writes the color attachment to a PNG file
+     */
+    public boolean writePng(String path) {
+        ByteBuffer pixels = MemoryUtil.memAlloc(width * height * 4);
+        try {
+            readPixels(pixels);
+            STBImageWrite.stbi_flip_vertically_on_write(true);
+            return STBImageWrite.stbi_write_png(path, width, height, 4, pixels, width * 4);
+        } finally {
+            MemoryUtil.memFree(pixels);
+        }
+    }
+
+    public void cleanUp() {
+        glDeleteFramebuffers(fbo);
+        color.cleanUp();
+    }
+}
@@ -0,0 +1,189 @@
+package com.isaacph.render;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * Measures GPU time of named render passes with timestamp queries.
+ * Queries are kept for several frames before being read back, so reading them
+ * never waits on the GPU. Scopes may nest.
+ * If the context has no timer queries every method does nothing.
+ */
+public class GpuProfiler {
+
+    /**
+     * How many frames of queries are in flight before results are read
+     */
+    private static final int FRAMES = 4;
+    private static final int MAX_SCOPES = 64;
+    private static final int SKIPPED = -1;
+    /**
+     * Weight of the newest sample in the rolling average
+     */
+    private static final double SMOOTHING = 0.05;
+
+    private final boolean supported;
+    private final int[][] queries = new int[FRAMES][MAX_SCOPES * 2];
+    private final int[][] frameScopes = new int[FRAMES][MAX_SCOPES];
+    private final int[] frameScopeCount = new int[FRAMES];
+    private final boolean[] frameSubmitted = new boolean[FRAMES];
+    /**
+     * Index of the last end query issued in each frame, the one the GPU writes last
+     */
+    private final int[] lastQuery = new int[FRAMES];
+    /**
+     * Scope indexes of the open scopes, or {@link #SKIPPED} for a scope over the limits that records nothing
+     */
+    private int[] openScopes = new int[MAX_SCOPES];
+    private int openScopeCount = 0;
+    private int frame = 0;
+
+    private final Map<String, Integer> scopeIds = new HashMap<>();
+    private final List<String> scopeNames = new ArrayList<>();
+    private final double[] averageMs = new double[MAX_SCOPES];
+    private final double[] lastMs = new double[MAX_SCOPES];
+    private final boolean[] hasSample = new boolean[MAX_SCOPES];
+    private final double[] frameTotals = new double[MAX_SCOPES];
+
+    public GpuProfiler() {
+        GLCapabilities caps = GL.getCapabilities();
+        supported = caps.OpenGL33 || caps.GL_ARB_timer_query;
+        if(supported) {
+            for(int[] frameQueries : queries) {
+                glGenQueries(frameQueries);
+            }
+            Shaders.checkGLError("GPU profiler queries");
+        }
+    }
+
+    public boolean isSupported() {
+        return supported;
+    }
+
+    /**
+     * Reads back the oldest buffered frame if the GPU has finished it, then starts recording a new one
+     */
+    public void beginFrame() {
+        if(!supported) return;
+        int f = frame % FRAMES;
+        if(frameSubmitted[f]) {
+            collect(f);
+            frameSubmitted[f] = false;
+        }
+        frameScopeCount[f] = 0;
+        openScopeCount = 0;
+    }
+
+    public void endFrame() {
+        if(!supported) return;
+        while(openScopeCount > 0) {
+            end();
+        }
+        frameSubmitted[frame % FRAMES] = true;
+        ++frame;
+    }
+
+    public void begin(String name) {
+        if(!supported) return;
+        int f = frame % FRAMES;
+        int index = frameScopeCount[f];
+        if(openScopeCount == openScopes.length) openScopes = Arrays.copyOf(openScopes, openScopeCount * 2);
+        // the matching end() still pops, so a skipped scope leaves a marker instead of ending its parent
+        if(index >= MAX_SCOPES) {
+            openScopes[openScopeCount++] = SKIPPED;
+            return;
+        }
+        Integer id = scopeIds.get(name);
+        if(id == null) {
+            if(scopeNames.size() >= MAX_SCOPES) {
+                openScopes[openScopeCount++] = SKIPPED;
+                return;
+            }
+            id = scopeNames.size();
+            scopeNames.add(name);
+            scopeIds.put(name, id);
+        }
+        frameScopes[f][index] = id;
+        frameScopeCount[f] = index + 1;
+        openScopes[openScopeCount++] = index;
+        glQueryCounter(queries[f][index * 2], GL_TIMESTAMP);
+    }
+
+    public void end() {
+        if(!supported || openScopeCount == 0) return;
+        int index = openScopes[--openScopeCount];
+        if(index == SKIPPED) return;
+        int f = frame % FRAMES;
+        glQueryCounter(queries[f][index * 2 + 1], GL_TIMESTAMP);
+        lastQuery[f] = index * 2 + 1;
+    }
+
+    private void collect(int f) {
+        int count = frameScopeCount[f];
+        if(count == 0) return;
+        // the last end query issued is written last, so if it is ready the whole frame is,
+        // with nested scopes that is the outermost scope's end and not the last scope's
+        if(glGetQueryObjecti(queries[f][lastQuery[f]], GL_QUERY_RESULT_AVAILABLE) == GL_FALSE) {
+            return;
+        }
+        for(int i = 0; i < scopeNames.size(); ++i) {
+            frameTotals[i] = -1;
+        }
+        for(int i = 0; i < count; ++i) {
+            long start = glGetQueryObjecti64(queries[f][i * 2], GL_QUERY_RESULT);
+            long end = glGetQueryObjecti64(queries[f][i * 2 + 1], GL_QUERY_RESULT);
+            int id = frameScopes[f][i];
+            frameTotals[id] = Math.max(frameTotals[id], 0) + (end - start) / 1e6;
+        }
+        for(int id = 0; id < scopeNames.size(); ++id) {
+            if(frameTotals[id] < 0) continue;
+            lastMs[id] = frameTotals[id];
+            averageMs[id] = hasSample[id] ? averageMs[id] + (frameTotals[id] - averageMs[id]) * SMOOTHING : frameTotals[id];
+            hasSample[id] = true;
+        }
+    }
+
+    public double getAverageMs(String name) {
+        Integer id = scopeIds.get(name);
+        return id == null ? 0 : averageMs[id];
+    }
+
+    public List<String> getScopeNames() {
+        return scopeNames;
+    }
+
+    /**
+     * One line per pass with its rolling average and last GPU time
+     */
+    public List<String> report() {
+        List<String> lines = new ArrayList<>();
+        if(!supported) {
+            lines.add("GPU timer queries are not supported");
+            return lines;
+        }
+        for(int id = 0; id < scopeNames.size(); ++id) {
+            if(!hasSample[id]) continue;
+            lines.add(String.format("%s: %.3f ms avg, %.3f ms last", scopeNames.get(id), averageMs[id], lastMs[id]));
+        }
+        if(lines.isEmpty()) {
+            lines.add("No GPU timings yet");
+        }
+        return lines;
+    }
+
+    public void cleanUp() {
+        if(!supported) return;
+        for(int[] frameQueries : queries) {
+            glDeleteQueries(frameQueries);
+        }
+    }
+}
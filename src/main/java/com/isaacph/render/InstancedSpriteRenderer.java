@@ -0,0 +1,241 @@
+package com.isaacph.render;
+
+import org.joml.Matrix4f;
+import org.joml.Vector4f;
+import org.lwjgl.system.MemoryStack;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.glDrawArraysInstanced;
+import static org.lwjgl.opengl.GL33.glVertexAttribDivisor;
+import static org.lwjgl.system.MemoryUtil.*;
+
+/**
+ * Draws many sprites of the same sheet in one instanced draw call.
+ * Instance data comes straight from structure of arrays columns: each column is copied
+ * into its own buffer and read as a per instance attribute, so nothing is packed per sprite
+ * on the CPU. Positions are interpolated between the previous and latest tick in the shader.
+ */
+public class InstancedSpriteRenderer {
+
+    public final int program;
+    private final int vao;
+    private final int quadVbo;
+    private final int xVbo, yVbo, prevXVbo, prevYVbo, frameVbo;
+    private final int uniformMatrix, uniformColor, uniformSampler, uniformAlpha, uniformSize,
+        uniformSheetOrigin, uniformFrameSize, uniformColumns;
+    /**
+     * Instances the buffers currently have room for
+     */
+    private int capacity = 0;
+    /* one staging buffer reused for every column, floats and ints share its memory */
+    private FloatBuffer staging;
+    private IntBuffer stagingInts;
+    /* columns gathered into draw order, only used when drawing with an order */
+    private float[] gathered = new float[0];
+    private int[] gatheredInts = new int[0];
+
+    /**
+     * Size of each sprite in world units
+     */
+    public float size = 1;
+    private float sheetU = 0, sheetV = 0, frameWidth = 1, frameHeight = 1;
+    private int columns = 1;
+
+    public InstancedSpriteRenderer() {
+        float[] triangles = {
+            -0.5f, -0.5f, 0.0f, 0.0f,
+            -0.5f, +0.5f, 0.0f, 1.0f,
+            +0.5f, +0.5f, 1.0f, 1.0f,
+            +0.5f, +0.5f, 1.0f, 1.0f,
+            +0.5f, -0.5f, 1.0f, 0.0f,
+            -0.5f, -0.5f, 0.0f, 0.0f
+        };
+
+        int vert = Shaders.createShader("instancedspritev.glsl", GL_VERTEX_SHADER);
+        int frag = Shaders.createShader("instancedspritef.glsl", GL_FRAGMENT_SHADER);
+        program = glCreateProgram();
+        glAttachShader(program, vert);
+        glAttachShader(program, frag);
+        glBindAttribLocation(program, Shaders.Attribute.POSITION.position, "position");
+        glBindAttribLocation(program, Shaders.Attribute.TEXTURE.position, "texture");
+        glBindAttribLocation(program, Shaders.Attribute.INSTANCE_X.position, "instanceX");
+        glBindAttribLocation(program, Shaders.Attribute.INSTANCE_Y.position, "instanceY");
+        glBindAttribLocation(program, Shaders.Attribute.INSTANCE_PREV_X.position, "instancePrevX");
+        glBindAttribLocation(program, Shaders.Attribute.INSTANCE_PREV_Y.position, "instancePrevY");
+        glBindAttribLocation(program, Shaders.Attribute.INSTANCE_FRAME.position, "instanceFrame");
+        glLinkProgram(program);
+        Shaders.checkLinking(program);
+        glUseProgram(program);
+        glDeleteShader(vert);
+        glDeleteShader(frag);
+        Shaders.checkGLError("instanced sprite shader init");
+        uniformMatrix = glGetUniformLocation(program, "matrix");
+        uniformColor = glGetUniformLocation(program, "color");
+        uniformSampler = glGetUniformLocation(program, "sampler");
+        uniformAlpha = glGetUniformLocation(program, "alpha");
+        uniformSize = glGetUniformLocation(program, "size");
+        uniformSheetOrigin = glGetUniformLocation(program, "sheetOrigin");
+        uniformFrameSize = glGetUniformLocation(program, "frameSize");
+        uniformColumns = glGetUniformLocation(program, "columns");
+
+        vao = glGenVertexArrays();
+        glBindVertexArray(vao);
+
+        quadVbo = glGenBuffers();
+        glBindBuffer(GL_ARRAY_BUFFER, quadVbo);
+        glBufferData(GL_ARRAY_BUFFER, triangles, GL_STATIC_DRAW);
+        glEnableVertexAttribArray(Shaders.Attribute.POSITION.position);
+        glVertexAttribPointer(Shaders.Attribute.POSITION.position, 2, GL_FLOAT, false, 4 * 4, 0);
+        glEnableVertexAttribArray(Shaders.Attribute.TEXTURE.position);
+        glVertexAttribPointer(Shaders.Attribute.TEXTURE.position, 2, GL_FLOAT, false, 4 * 4, 2 * 4);
+
+        xVbo = instanceBuffer(Shaders.Attribute.INSTANCE_X, GL_FLOAT);
+        yVbo = instanceBuffer(Shaders.Attribute.INSTANCE_Y, GL_FLOAT);
+        prevXVbo = instanceBuffer(Shaders.Attribute.INSTANCE_PREV_X, GL_FLOAT);
+        prevYVbo = instanceBuffer(Shaders.Attribute.INSTANCE_PREV_Y, GL_FLOAT);
+        // frames are ints in the store and converted to float as the attribute is read
+        frameVbo = instanceBuffer(Shaders.Attribute.INSTANCE_FRAME, GL_INT);
+        glBindVertexArray(0);
+        Shaders.checkGLError("instanced sprite buffer init");
+    }
+
+    private static int instanceBuffer(Shaders.Attribute attribute, int type) {
+        int vbo = glGenBuffers();
+        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        glEnableVertexAttribArray(attribute.position);
+        glVertexAttribPointer(attribute.position, 1, type, false, 4, 0);
+        glVertexAttribDivisor(attribute.position, 1);
+        return vbo;
+    }
+
+    /**
+     * Sets the sprite sheet frames are taken from: a grid of frames starting at (u, v),
+     * frame n is at column n % columns and row n / columns
+     */
+    public void setSheet(float u, float v, float frameWidth, float frameHeight, int columns) {
+        this.sheetU = u;
+        this.sheetV = v;
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        this.columns = Math.max(columns, 1);
+    }
+
+    /**
+     * Uses an atlas region as the sheet
+     */
+    public void setSheet(TextureAtlas.Region region, int columns, int rows) {
+        setSheet(region.u0, region.v0, (region.u1 - region.u0) / columns, (region.v1 - region.v0) / rows, columns);
+    }
+
+    /**
+     * Draws count sprites, the sheet's texture must already be bound
+     * @param alpha how far between the previous and latest tick to draw each sprite
+     */
+    public void draw(Matrix4f matrix, Vector4f color, float alpha, int count,
+                     float[] x, float[] y, float[] prevX, float[] prevY, int[] frame) {
+        if(count <= 0) return;
+        reserve(count);
+        upload(xVbo, x, count);
+        upload(yVbo, y, count);
+        upload(prevXVbo, prevX, count);
+        upload(prevYVbo, prevY, count);
+        upload(frameVbo, frame, count);
+        drawUploaded(matrix, color, alpha, count);
+    }
+
+    private void drawUploaded(Matrix4f matrix, Vector4f color, float alpha, int count) {
+        try(MemoryStack stack = MemoryStack.stackPush()) {
+            FloatBuffer buffer = stack.mallocFloat(16);
+            glBindVertexArray(vao);
+            glUseProgram(program);
+            glUniformMatrix4fv(uniformMatrix, false, matrix.get(buffer));
+            glUniform4f(uniformColor, color.x, color.y, color.z, color.w);
+            glUniform1i(uniformSampler, 0);
+            glUniform1f(uniformAlpha, alpha);
+            glUniform1f(uniformSize, size);
+            glUniform2f(uniformSheetOrigin, sheetU, sheetV);
+            glUniform2f(uniformFrameSize, frameWidth, frameHeight);
+            glUniform1f(uniformColumns, columns);
+            glDrawArraysInstanced(GL_TRIANGLES, 0, 6, count);
+            glBindVertexArray(0);
+        }
+    }
+
+    /**
+     * Draws count sprites in the given order, e.g. back to front from a {@link DepthSorter}.
+     * The columns are gathered through the order as they are uploaded.
+     */
+    public void draw(Matrix4f matrix, Vector4f color, float alpha, int count,
+                     float[] x, float[] y, float[] prevX, float[] prevY, int[] frame, int[] order) {
+        if(count <= 0) return;
+        reserve(count);
+        upload(xVbo, gather(x, order, count), count);
+        upload(yVbo, gather(y, order, count), count);
+        upload(prevXVbo, gather(prevX, order, count), count);
+        upload(prevYVbo, gather(prevY, order, count), count);
+        upload(frameVbo, gather(frame, order, count), count);
+        drawUploaded(matrix, color, alpha, count);
+    }
+
+    private float[] gather(float[] column, int[] order, int count) {
+        for(int i = 0; i < count; ++i) {
+            gathered[i] = column[order[i]];
+        }
+        return gathered;
+    }
+
+    private int[] gather(int[] column, int[] order, int count) {
+        for(int i = 0; i < count; ++i) {
+            gatheredInts[i] = column[order[i]];
+        }
+        return gatheredInts;
+    }
+
+    /**
+     * Grows the buffers to fit count instances, doubling so growth is rare
+     */
+    private void reserve(int count) {
+        if(count <= capacity) return;
+        int newCapacity = Math.max(count, capacity * 2);
+        if(staging != null) memFree(staging);
+        staging = memAllocFloat(newCapacity);
+        stagingInts = memIntBuffer(memAddress(staging), newCapacity);
+        gathered = new float[newCapacity];
+        gatheredInts = new int[newCapacity];
+        capacity = newCapacity;
+    }
+
+    private void upload(int vbo, float[] column, int count) {
+        staging.clear();
+        staging.put(column, 0, count).flip();
+        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        // orphan the old storage so the driver does not wait for last frame's draw to finish with it
+        glBufferData(GL_ARRAY_BUFFER, (long) capacity * 4, GL_STREAM_DRAW);
+        glBufferSubData(GL_ARRAY_BUFFER, 0, staging);
+    }
+
+    private void upload(int vbo, int[] column, int count) {
+        stagingInts.clear();
+        stagingInts.put(column, 0, count).flip();
+        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        glBufferData(GL_ARRAY_BUFFER, (long) capacity * 4, GL_STREAM_DRAW);
+        glBufferSubData(GL_ARRAY_BUFFER, 0, stagingInts);
+    }
+
+    public void cleanUp() {
+        glDeleteBuffers(quadVbo);
+        glDeleteBuffers(xVbo);
+        glDeleteBuffers(yVbo);
+        glDeleteBuffers(prevXVbo);
+        glDeleteBuffers(prevYVbo);
+        glDeleteBuffers(frameVbo);
+        glDeleteVertexArrays(vao);
+        glDeleteProgram(program);
+        if(staging != null) memFree(staging);
+        Shaders.checkGLError("instanced sprite cleanup");
+    }
+}
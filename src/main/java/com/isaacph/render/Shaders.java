@@ -65,7 +65,9 @@ public final class Shaders {
     }
 
     public enum Attribute {
-        POSITION(0), TEXTURE(1);
+        POSITION(0), TEXTURE(1),
+        // per instance columns for InstancedSpriteRenderer
+        INSTANCE_X(2), INSTANCE_Y(3), INSTANCE_PREV_X(4), INSTANCE_PREV_Y(5), INSTANCE_FRAME(6);
 
         int position;
         Attribute(int position) {
@@ -17,6 +17,7 @@ public class SpriteRenderer {
     private int vao;
     private int vbo;
     private int uniformMatrix, uniformColor, uniformSampler, uniformSpritePos, uniformFrame;
+    private int boundTexture = -1;
 
     public SpriteRenderer() {
         float scale = 1;
@@ -75,6 +76,36 @@ public class SpriteRenderer {
         }
     }
 
+    /**
+     * Call before a run of atlas draws, in case other code has bound a different texture since
+     */
+    public void beginBatch() {
+        boundTexture = -1;
+    }
+
+    /**
+     * Draws an atlas region, only rebinding when the region is on a different page than the last one
+     */
+    public void draw(Matrix4f matrix, Vector4f color, TextureAtlas.Region region) {
+        Texture page = region.getPage();
+        if(page.texture != boundTexture) {
+            glActiveTexture(GL_TEXTURE0);
+            page.bind();
+            boundTexture = page.texture;
+        }
+        try(MemoryStack stack = MemoryStack.stackPush()) {
+            FloatBuffer buffer = stack.mallocFloat(16);
+            glBindVertexArray(vao);
+            glUseProgram(program);
+            glUniform4f(uniformColor, color.x, color.y, color.z, color.w);
+            glUniformMatrix4fv(uniformMatrix, false, matrix.get(buffer));
+            glUniform1i(uniformSampler, 0);
+            glUniform2f(uniformSpritePos, region.u0, region.v0);
+            glUniform2f(uniformFrame, region.u1 - region.u0, region.v1 - region.v0);
+            glDrawArrays(GL_TRIANGLES, 0, 6);
+        }
+    }
+
     public void destroy() {
         glDeleteBuffers(vbo);
         glDeleteVertexArrays(vao);
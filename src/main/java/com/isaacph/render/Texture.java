@@ -90,6 +90,7 @@ public class Texture {
                 return null;
             }
             ByteBuffer bitmap = STBImage.stbi_load_from_memory(data, w, h, bpp, 4);
+            MemoryUtil.memFree(data);
             destSize.x = w.get();
             destSize.y = h.get();
             return bitmap;
@@ -0,0 +1,222 @@
+package com.isaacph.render;
+
+import org.joml.Vector2i;
+import org.lwjgl.stb.STBImage;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL11.GL_LINEAR;
+import static org.lwjgl.opengl.GL11.GL_NEAREST;
+import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+
+/**
+ * Packs many small images into a few large texture pages so sprites from
+ * different images can be drawn without switching textures.
+ * Images are added first, then {@link #build(Texture.Settings)} packs and uploads every page.
+ */
+public class TextureAtlas {
+
+    /**
+     * A packed image. UVs are filled in once the atlas is built.
+     */
+    public static class Region {
+        public final String name;
+        public final int width, height;
+        private final TextureAtlas atlas;
+        private int page = -1;
+        public float u0, v0, u1, v1;
+
+        private Region(TextureAtlas atlas, String name, int width, int height) {
+            this.atlas = atlas;
+            this.name = name;
+            this.width = width;
+            this.height = height;
+        }
+
+        public int getPageIndex() {
+            return page;
+        }
+
+        public Texture getPage() {
+            return atlas.pages.get(page);
+        }
+    }
+
+    private static class Source {
+        final Region region;
+        final ByteBuffer bitmap;
+        final boolean stbAllocated;
+        int x, y;
+
+        Source(Region region, ByteBuffer bitmap, boolean stbAllocated) {
+            this.region = region;
+            this.bitmap = bitmap;
+            this.stbAllocated = stbAllocated;
+        }
+    }
+
+    private final int pageWidth, pageHeight;
+    private final int padding;
+    private final List<Source> sources = new ArrayList<>();
+    private final Map<String, Region> regions = new HashMap<>();
+    private final List<Texture> pages = new ArrayList<>();
+
+    /**
+     * @param padding pixels of repeated edge around every image, so mipmapping and
+     *                linear filtering do not bleed neighbouring images into each other
+     */
+    public TextureAtlas(int pageWidth, int pageHeight, int padding) {
+        this.pageWidth = pageWidth;
+        this.pageHeight = pageHeight;
+        this.padding = padding;
+    }
+
+    public TextureAtlas() {
+        this(2048, 2048, 4);
+    }
+
+    public Region add(String path) {
+        return add(path, path);
+    }
+
+    public Region add(String name, String path) {
+        Vector2i size = new Vector2i();
+        ByteBuffer bitmap = Texture.loadFromFile(path, size);
+        if(bitmap == null) {
+            return null;
+        }
+        return add(name, size.x, size.y, bitmap, true);
+    }
+
+    /**
+     * Adds RGBA pixels owned by the caller, which must stay valid until the atlas is built
+     */
+    public Region add(String name, int width, int height, ByteBuffer rgba) {
+        return add(name, width, height, rgba, false);
+    }
+
+    private Region add(String name, int width, int height, ByteBuffer rgba, boolean stbAllocated) {
+        if(!pages.isEmpty()) {
+            throw new IllegalStateException("Cannot add " + name + " to an atlas that is already built");
+        }
+        if(width + padding * 2 > pageWidth || height + padding * 2 > pageHeight) {
+            throw new IllegalArgumentException("Image " + name + " (" + width + " x " + height + ") does not fit in a " + pageWidth + " x " + pageHeight + " atlas page");
+        }
+        Region region = new Region(this, name, width, height);
+        sources.add(new Source(region, rgba, stbAllocated));
+        regions.put(name, region);
+        return region;
+    }
+
+    public Region get(String name) {
+        return regions.get(name);
+    }
+
+    public List<Texture> getPages() {
+        return pages;
+    }
+
+    public void build() {
+        build(new Texture.Settings(GL_CLAMP_TO_EDGE, padding > 0 ? GL_LINEAR : GL_NEAREST));
+    }
+
+    /**
+     * Shelf-packs all added images (tallest first) into as few pages as needed and uploads them
+     */
+    public void build(Texture.Settings settings) {
+        if(!pages.isEmpty()) {
+            throw new IllegalStateException("Atlas is already built");
+        }
+        List<Source> order = new ArrayList<>(sources);
+        order.sort(Comparator.comparingInt((Source s) -> s.region.height).reversed());
+
+        List<List<Source>> pageSources = new ArrayList<>();
+        List<Source> current = new ArrayList<>();
+        int shelfX = 0, shelfY = 0, shelfHeight = 0;
+        for(Source source : order) {
+            int w = source.region.width + padding * 2;
+            int h = source.region.height + padding * 2;
+            if(shelfX + w > pageWidth) {
+                shelfY += shelfHeight;
+                shelfX = 0;
+                shelfHeight = 0;
+            }
+            if(shelfY + h > pageHeight) {
+                pageSources.add(current);
+                current = new ArrayList<>();
+                shelfX = 0;
+                shelfY = 0;
+                shelfHeight = 0;
+            }
+            source.x = shelfX + padding;
+            source.y = shelfY + padding;
+            source.region.page = pageSources.size();
+            shelfX += w;
+            shelfHeight = Math.max(shelfHeight, h);
+            current.add(source);
+        }
+        if(!current.isEmpty()) {
+            pageSources.add(current);
+        }
+
+        ByteBuffer pixels = MemoryUtil.memCalloc(pageWidth * pageHeight * 4);
+        try {
+            for(List<Source> page : pageSources) {
+                MemoryUtil.memSet(pixels, 0);
+                for(Source source : page) {
+                    blit(pixels, source);
+                    Region r = source.region;
+                    r.u0 = source.x / (float) pageWidth;
+                    r.v0 = source.y / (float) pageHeight;
+                    r.u1 = (source.x + r.width) / (float) pageWidth;
+                    r.v1 = (source.y + r.height) / (float) pageHeight;
+                }
+                pixels.clear();
+                pages.add(Texture.makeTexture(pageWidth, pageHeight, pixels, settings));
+            }
+        } finally {
+            MemoryUtil.memFree(pixels);
+        }
+
+        for(Source source : sources) {
+            if(source.stbAllocated) {
+                STBImage.stbi_image_free(source.bitmap);
+            }
+        }
+        sources.clear();
+    }
+
+    /**
+     * Copies a source into the page, repeating its edge pixels out into the padding
+     */
+    private void blit(ByteBuffer page, Source source) {
+        int w = source.region.width, h = source.region.height;
+        for(int y = -padding; y < h + padding; ++y) {
+            int srcY = Math.min(Math.max(y, 0), h - 1);
+            int destRow = ((source.y + y) * pageWidth + source.x) * 4;
+            for(int x = -padding; x < w + padding; ++x) {
+                int srcX = Math.min(Math.max(x, 0), w - 1);
+                page.putInt(destRow + x * 4, source.bitmap.getInt((srcY * w + srcX) * 4));
+            }
+        }
+    }
+
+    public void cleanUp() {
+        for(Texture page : pages) {
+            page.cleanUp();
+        }
+        pages.clear();
+        for(Source source : sources) {
+            if(source.stbAllocated) {
+                STBImage.stbi_image_free(source.bitmap);
+            }
+        }
+        sources.clear();
+    }
+}
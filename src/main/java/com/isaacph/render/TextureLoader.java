@@ -0,0 +1,243 @@
+package com.isaacph.render;
+
+import org.joml.Vector2i;
+import org.lwjgl.stb.STBImage;
+import org.lwjgl.system.MemoryStack;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+
+/**
+ * Loads textures off the GL thread. Files are read and decoded by worker threads,
+ * then uploaded on the GL thread by {@link #update(double)} within a time budget.
+ */
+public class TextureLoader {
+
+    public static class Handle {
+        public final String path;
+        private final Texture.Settings settings;
+        private final Texture placeholder;
+        private volatile Texture texture;
+        private volatile boolean failed;
+        /**
+         * Set by {@link #cleanUp()}, so an upload still to come frees its bitmap instead
+         */
+        private boolean cleanedUp;
+
+        private Handle(String path, Texture.Settings settings, Texture placeholder) {
+            this.path = path;
+            this.settings = settings;
+            this.placeholder = placeholder;
+        }
+
+        /**
+         * Wraps a texture that is already uploaded
+         */
+        public static Handle of(Texture texture) {
+            Handle handle = new Handle(null, null, null);
+            handle.texture = texture;
+            handle.failed = texture == null;
+            return handle;
+        }
+
+        public boolean isDone() {
+            return texture != null || failed;
+        }
+
+        public boolean isFailed() {
+            return failed;
+        }
+
+        /**
+         * Returns the loaded texture, or the placeholder (possibly null) while it is still loading
+         */
+        public Texture get() {
+            Texture t = texture;
+            return t != null ? t : placeholder;
+        }
+
+        public void bind() {
+            Texture t = get();
+            if(t != null) {
+                t.bind();
+            } else {
+                glBindTexture(GL_TEXTURE_2D, 0);
+            }
+        }
+
+        /**
+         * Deletes the texture, or if it is still loading drops it once decoded, on the GL thread
+         */
+        public void cleanUp() {
+            cleanedUp = true;
+            if(texture != null) {
+                texture.cleanUp();
+                texture = null;
+            }
+        }
+    }
+
+    private static class Decoded {
+        final Handle handle;
+        final ByteBuffer bitmap;
+        final int width, height;
+
+        Decoded(Handle handle, ByteBuffer bitmap, int width, int height) {
+            this.handle = handle;
+            this.bitmap = bitmap;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private final ExecutorService workers;
+    private final ConcurrentLinkedQueue<Decoded> uploads = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Texture placeholder;
+    /**
+     * Set by {@link #cleanUp()}, after which workers free what they decode themselves
+     */
+    private volatile boolean closed = false;
+
+    public TextureLoader(int threads) {
+        workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "texture-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        placeholder = makePlaceholder();
+    }
+
+    public Handle load(String path) {
+        return load(path, new Texture.Settings(GL_CLAMP_TO_EDGE, GL_NEAREST));
+    }
+
+    public Handle load(String path, Texture.Settings settings) {
+        return load(path, settings, placeholder);
+    }
+
+    /**
+     * Starts loading a texture in the background
+     * @param placeholder texture returned by {@link Handle#get()} until the upload finishes, may be null
+     */
+    public Handle load(String path, Texture.Settings settings, Texture placeholder) {
+        Handle handle = new Handle(path, settings, placeholder);
+        pending.incrementAndGet();
+        workers.submit(() -> decode(handle));
+        return handle;
+    }
+
+    private void decode(Handle handle) {
+        Vector2i size = new Vector2i();
+        ByteBuffer bitmap = null;
+        try {
+            bitmap = Texture.loadFromFile(handle.path, size);
+            if(bitmap == null) System.err.println("Failed to decode texture " + handle.path);
+        } catch(RuntimeException e) {
+            System.err.println("Error decoding texture " + handle.path);
+            e.printStackTrace();
+        } finally {
+            // a texture that never reaches the upload queue is done, or finish() would wait for it forever
+            if(bitmap == null) {
+                handle.failed = true;
+                pending.decrementAndGet();
+            }
+        }
+        if(bitmap == null) return;
+        uploads.add(new Decoded(handle, bitmap, size.x, size.y));
+        // closed while decoding, the queue may already have been drained for the last time
+        if(closed) freeUploads();
+    }
+
+    /**
+     * Frees every decoded bitmap still waiting, each is taken off the queue by exactly one caller
+     */
+    private void freeUploads() {
+        Decoded decoded;
+        while((decoded = uploads.poll()) != null) {
+            STBImage.stbi_image_free(decoded.bitmap);
+        }
+    }
+
+    /**
+     * Uploads decoded textures, must be called on the GL thread.
+     * At least one pending upload is done per call so loading always makes progress.
+     * @param budget roughly how many seconds may be spent uploading
+     * @return the number of textures uploaded
+     */
+    public int update(double budget) {
+        long deadline = System.nanoTime() + (long) (budget * 1e9);
+        int uploaded = 0;
+        Decoded decoded;
+        while((decoded = uploads.poll()) != null) {
+            upload(decoded);
+            ++uploaded;
+            if(System.nanoTime() >= deadline) break;
+        }
+        return uploaded;
+    }
+
+    /**
+     * Blocks the GL thread until every requested texture is uploaded
+     */
+    public void finish() {
+        while(pending.get() > 0) {
+            if(update(Double.MAX_VALUE) == 0) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    public Texture getPlaceholder() {
+        return placeholder;
+    }
+
+    private void upload(Decoded decoded) {
+        try {
+            if(decoded.handle.cleanedUp) return;
+            decoded.handle.texture = Texture.makeTexture(decoded.width, decoded.height, decoded.bitmap, decoded.handle.settings);
+        } catch(RuntimeException e) {
+            System.err.println("Error uploading texture " + decoded.handle.path);
+            e.printStackTrace();
+            decoded.handle.failed = true;
+        } finally {
+            STBImage.stbi_image_free(decoded.bitmap);
+            pending.decrementAndGet();
+        }
+    }
+
+    private static Texture makePlaceholder() {
+        try(MemoryStack stack = MemoryStack.stackPush()) {
+            // 2x2 grey checker so missing art is visible but not glaring
+            ByteBuffer pixels = stack.malloc(2 * 2 * 4);
+            byte dark = (byte) 96, light = (byte) 160;
+            byte[] checker = {dark, light, light, dark};
+            for(byte b : checker) {
+                pixels.put(b).put(b).put(b).put((byte) 255);
+            }
+            pixels.flip();
+            return Texture.makeTexture(2, 2, pixels, new Texture.Settings(GL_REPEAT, GL_NEAREST));
+        }
+    }
+
+    /**
+     * Stops the workers and frees every decoded bitmap, including those of decodes still running,
+     * which free their own once they finish
+     */
+    public void cleanUp() {
+        closed = true;
+        workers.shutdownNow();
+        freeUploads();
+        placeholder.cleanUp();
+    }
+}
@@ -14,15 +14,18 @@ import org.json.JSONObject;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.lwjgl.opengl.GL11.GL_TRIANGLES;
 import static org.lwjgl.opengl.GL11.glDrawArrays;
 import static org.lwjgl.opengl.GL20.*;
 
-public class TileGridRenderer {
+public class TileGridRenderer implements ChunkBuilder {
 
     public static class ByteGrid implements Serializable {
 
@@ -68,27 +71,94 @@ public class TileGridRenderer {
     public static class Group implements Serializable {
         public Map<Vector2i, ByteGrid> map = new HashMap<>();
 
+        /**
+         * Told about edits made through the group, for indexes that update incrementally
+         */
+        public interface Listener {
+            void tileChanged(int x, int y, byte previous, byte tile);
+
+            /**
+             * A grid was added or replaced wholesale, e.g. by {@link #fromJSON(JSONObject)}
+             */
+            default void gridChanged(ByteGrid grid) {}
+
+            /**
+             * A grid was taken out by {@link #removeGrid(int, int)}, its tiles read as 0 from now on
+             */
+            default void gridRemoved(ByteGrid grid) {}
+        }
+
+        private transient List<Listener> listeners;
+
         public Group() {
 
         }
 
+        public void addListener(Listener listener) {
+            if(listeners == null) listeners = new ArrayList<>();
+            listeners.add(listener);
+        }
+
+        public void removeListener(Listener listener) {
+            if(listeners != null) listeners.remove(listener);
+        }
+
+        private void gridAdded(ByteGrid grid) {
+            if(listeners != null) {
+                for(Listener listener : listeners) {
+                    listener.gridChanged(grid);
+                }
+            }
+        }
+
         public ByteGrid setTile(byte b, int x, int y) {
             Vector2i p = getGridIndex(x, y);
             ByteGrid f = map.get(p);
             if(f == null) {
                 f = new ByteGrid(p.x, p.y);
                 map.put(p, f);
+                gridAdded(f);
+            }
+            int localX = ((x % SIZE) + SIZE) % SIZE, localY = ((y % SIZE) + SIZE) % SIZE;
+            byte previous = f.get(localX, localY);
+            f.set(b, localX, localY);
+            if(listeners != null && previous != b) {
+                for(Listener listener : listeners) {
+                    listener.tileChanged(x, y, previous, b);
+                }
             }
-            f.set(b, ((x % SIZE) + SIZE) % SIZE, ((y % SIZE) + SIZE) % SIZE);
             return f;
         }
 
+        /**
+         * Adds a grid or replaces the one at its position, e.g. with one received from the server
+         */
+        public void putGrid(ByteGrid grid) {
+            map.put(new Vector2i(grid.x, grid.y), grid);
+            gridAdded(grid);
+        }
+
+        /**
+         * Takes out the grid at the given grid position, e.g. when it leaves the area streamed to the client
+         * @return the grid taken out, or null if there was none
+         */
+        public ByteGrid removeGrid(int x, int y) {
+            ByteGrid grid = map.remove(new Vector2i(x, y));
+            if(grid != null && listeners != null) {
+                for(Listener listener : listeners) {
+                    listener.gridRemoved(grid);
+                }
+            }
+            return grid;
+        }
+
         public ByteGrid makeTileGrid(int x, int y) {
             Vector2i p = getGridIndex(x, y);
             ByteGrid f = map.get(p);
             if(f == null) {
                 f = new ByteGrid(p.x, p.y);
                 map.put(p, f);
+                gridAdded(f);
             }
             return f;
         }
@@ -132,7 +202,9 @@ public class TileGridRenderer {
                 } catch(NumberFormatException e) {
                     throw new RuntimeException("Could not parse ByteGrid JSON key as ints: " + key);
                 }
-                map.put(new Vector2i(x, y), new ByteGrid(obj.getJSONObject(key)));
+                ByteGrid grid = new ByteGrid(obj.getJSONObject(key));
+                map.put(new Vector2i(x, y), grid);
+                gridAdded(grid);
             }
         }
     }
@@ -179,14 +251,57 @@ public class TileGridRenderer {
 
     private static class GridInfo {
         public int texture;
+        public int x, y;
 
         public void cleanUp() {
             glDeleteTextures(texture);
         }
     }
 
-    private Texture grass, grass2;
+    private TextureLoader.Handle grass, grass2;
     private final Map<Vector2i, GridInfo> gridMap = new HashMap<>();
+    /**
+     * The values of gridMap and selectGridMap, so drawing can loop without allocating iterators
+     */
+    private final List<GridInfo> gridList = new ArrayList<>();
+    private final List<GridInfo> selectGridList = new ArrayList<>();
+    private final Vector2f chunkCenter = new Vector2f();
+    private final Matrix4f chunkMatrix = new Matrix4f();
+
+    /**
+     * Highest level of detail, a level n overview covers 2^n x 2^n chunks with one 16x16 texture
+     */
+    public static final int MAX_LOD = 6;
+    /**
+     * Below this many pixels per tile a coarser level is drawn instead
+     */
+    public static final float LOD_PIXELS_PER_TILE = 4.0f;
+
+    private static class LodNode {
+        public final ByteGrid grid;
+        public final GridInfo info = new GridInfo();
+
+        public LodNode(int x, int y) {
+            grid = new ByteGrid(x, y);
+            info.x = x;
+            info.y = y;
+        }
+    }
+
+    /**
+     * Chunks passed to {@link #build(ByteGrid)}, the source data for the overviews
+     */
+    private final Map<Vector2i, ByteGrid> builtGrids = new HashMap<>();
+    /**
+     * Overview nodes for levels 1 to MAX_LOD, index 0 is level 1
+     */
+    private final List<Map<Vector2i, LodNode>> lodMaps = new ArrayList<>();
+    private final List<List<GridInfo>> lodLists = new ArrayList<>();
+    /**
+     * Overview nodes whose chunks changed since they were last downsampled
+     */
+    private final List<Set<Vector2i>> lodDirty = new ArrayList<>();
+    private int lodLevel = 0;
     private final Map<Vector2i, GridInfo> selectGridMap = new HashMap<>();
     private static final Matrix4f TEX_MORPH =
         new Matrix4f().scale(-(float) Math.sqrt(2), TILE_RATIO * (float) Math.sqrt(2), 0)
@@ -197,6 +312,13 @@ public class TileGridRenderer {
     private float scale = 1.0f;
 
     public TileGridRenderer() {
+        this(null);
+    }
+
+    /**
+     * @param loader loads the tile textures in the background, or null to load them immediately
+     */
+    public TileGridRenderer(TextureLoader loader) {
         {
             int vertex = Shaders.createShader("texturev.glsl", GL_VERTEX_SHADER);
             int fragment = Shaders.createShader("gridf.glsl", GL_FRAGMENT_SHADER);
@@ -287,11 +409,24 @@ public class TileGridRenderer {
             Shaders.checkGLError("Tile ByteGrid VBO init");
         }
 
-        grass = Texture.makeTexture("grass.png", new Texture.Settings(GL_REPEAT, GL_LINEAR));
-        grass2 = Texture.makeTexture("mock grass 2.png", new Texture.Settings(GL_REPEAT, GL_LINEAR));
+        Texture.Settings grassSettings = new Texture.Settings(GL_REPEAT, GL_LINEAR);
+        if(loader != null) {
+            grass = loader.load("grass.png", grassSettings);
+            grass2 = loader.load("mock grass 2.png", grassSettings);
+        } else {
+            grass = TextureLoader.Handle.of(Texture.makeTexture("grass.png", grassSettings));
+            grass2 = TextureLoader.Handle.of(Texture.makeTexture("mock grass 2.png", grassSettings));
+        }
         scale = 2.0f;
+
+        for(int level = 1; level <= MAX_LOD; ++level) {
+            lodMaps.add(new HashMap<>());
+            lodLists.add(new ArrayList<>());
+            lodDirty.add(new HashSet<>());
+        }
     }
 
+    @Override
     public void build(ByteGrid grid) {
         try(MemoryStack stack = MemoryStack.stackPush()) {
             GridInfo data = gridMap.get(new Vector2i(grid.x, grid.y));
@@ -301,6 +436,9 @@ public class TileGridRenderer {
             if (data == null) {
                 data = new GridInfo();
                 data.texture = glGenTextures();
+                data.x = grid.x;
+                data.y = grid.y;
+                gridList.add(data);
             }
             glBindTexture(GL_TEXTURE_2D, data.texture);
             glTexImage2D(GL_TEXTURE_2D, 0, GL_RED, ByteGrid.SIZE, ByteGrid.SIZE, 0, GL_RED, GL_BYTE, buffer);
@@ -311,6 +449,28 @@ public class TileGridRenderer {
             gridMap.put(new Vector2i(grid.x, grid.y), data);
         }
         Shaders.checkGLError("Tile grid build " + grid.x + ", " + grid.y);
+
+        builtGrids.put(new Vector2i(grid.x, grid.y), grid);
+        for(int level = 1; level <= MAX_LOD; ++level) {
+            lodDirty.get(level - 1).add(new Vector2i(grid.x >> level, grid.y >> level));
+        }
+    }
+
+    /**
+     * Drops the chunk at the given grid position passed to {@link #build(ByteGrid)}, e.g. when it
+     * leaves the area streamed to the client, and redoes the overviews covering it without it
+     */
+    @Override
+    public void remove(int x, int y) {
+        Vector2i key = new Vector2i(x, y);
+        GridInfo data = gridMap.remove(key);
+        if(data == null) return;
+        data.cleanUp();
+        gridList.remove(data);
+        builtGrids.remove(key);
+        for(int level = 1; level <= MAX_LOD; ++level) {
+            lodDirty.get(level - 1).add(new Vector2i(x >> level, y >> level));
+        }
     }
 
     public void clear() {
@@ -318,10 +478,154 @@ public class TileGridRenderer {
             glDeleteTextures(data.texture);
         }
         gridMap.clear();
+        gridList.clear();
+        builtGrids.clear();
+        for(int level = 1; level <= MAX_LOD; ++level) {
+            for(LodNode node : lodMaps.get(level - 1).values()) {
+                node.info.cleanUp();
+            }
+            lodMaps.get(level - 1).clear();
+            lodLists.get(level - 1).clear();
+            lodDirty.get(level - 1).clear();
+        }
+    }
+
+    /**
+     * Picks the level of detail so that a drawn texel covers at least {@link #LOD_PIXELS_PER_TILE} pixels
+     * @param pixelsPerTile the camera's scale factor
+     */
+    public static int chooseLod(float pixelsPerTile) {
+        int level = 0;
+        while(level < MAX_LOD && pixelsPerTile * (1 << level) < LOD_PIXELS_PER_TILE) {
+            ++level;
+        }
+        return level;
+    }
+
+    public int getLodLevel() {
+        return lodLevel;
+    }
+
+    /**
+     * Downsamples changed overview nodes up to the given level, finer levels first
+     * since each level is built from the one below it. A node left with nothing under it
+     * is dropped along with its texture rather than drawn empty
+     */
+    private void updateLod(int maxLevel) {
+        for(int level = 1; level <= maxLevel; ++level) {
+            Set<Vector2i> dirty = lodDirty.get(level - 1);
+            if(dirty.isEmpty()) continue;
+            Map<Vector2i, LodNode> nodes = lodMaps.get(level - 1);
+            for(Vector2i key : dirty) {
+                LodNode node = nodes.get(key);
+                if(!hasChildren(level, key)) {
+                    if(node != null) {
+                        node.info.cleanUp();
+                        nodes.remove(key);
+                        lodLists.get(level - 1).remove(node.info);
+                    }
+                    continue;
+                }
+                if(node == null) {
+                    node = new LodNode(key.x, key.y);
+                    node.info.texture = glGenTextures();
+                    nodes.put(new Vector2i(key), node);
+                    lodLists.get(level - 1).add(node.info);
+                }
+                downsample(level, node.grid);
+                upload(node.info, node.grid.data);
+            }
+            dirty.clear();
+        }
+    }
+
+    /**
+     * Whether any of the 2x2 chunks or nodes one level below the node at key still exists
+     */
+    private boolean hasChildren(int level, Vector2i key) {
+        Map<Vector2i, ?> children = level == 1 ? builtGrids : lodMaps.get(level - 2);
+        Vector2i childKey = new Vector2i();
+        for(int cx = 0; cx < 2; ++cx) {
+            for(int cy = 0; cy < 2; ++cy) {
+                if(children.containsKey(childKey.set(key.x * 2 + cx, key.y * 2 + cy))) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Each texel of a level n node is the most common tile of the 2x2 texels below it in level n - 1,
+     * preferring non-empty tiles so thin features do not disappear
+     */
+    private void downsample(int level, ByteGrid target) {
+        Vector2i childKey = new Vector2i();
+        byte[] quad = new byte[4];
+        for(int cx = 0; cx < 2; ++cx) {
+            for(int cy = 0; cy < 2; ++cy) {
+                childKey.set(target.x * 2 + cx, target.y * 2 + cy);
+                ByteGrid child;
+                if(level == 1) {
+                    child = builtGrids.get(childKey);
+                } else {
+                    LodNode node = lodMaps.get(level - 2).get(childKey);
+                    child = node == null ? null : node.grid;
+                }
+                int half = ByteGrid.SIZE / 2;
+                for(int x = 0; x < half; ++x) {
+                    for(int y = 0; y < half; ++y) {
+                        byte value = 0;
+                        if(child != null) {
+                            quad[0] = child.get(x * 2, y * 2);
+                            quad[1] = child.get(x * 2 + 1, y * 2);
+                            quad[2] = child.get(x * 2, y * 2 + 1);
+                            quad[3] = child.get(x * 2 + 1, y * 2 + 1);
+                            value = representative(quad);
+                        }
+                        target.set(value, cx * half + x, cy * half + y);
+                    }
+                }
+            }
+        }
+    }
+
+    private static byte representative(byte[] quad) {
+        byte best = 0;
+        int bestCount = 0;
+        for(int i = 0; i < quad.length; ++i) {
+            if(quad[i] == 0) continue;
+            int count = 0;
+            for(byte b : quad) {
+                if(b == quad[i]) ++count;
+            }
+            if(count > bestCount) {
+                best = quad[i];
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    private void upload(GridInfo info, byte[] data) {
+        try(MemoryStack stack = MemoryStack.stackPush()) {
+            ByteBuffer buffer = stack.malloc(ByteGrid.SIZE * ByteGrid.SIZE);
+            buffer.put(data);
+            buffer.flip();
+            glBindTexture(GL_TEXTURE_2D, info.texture);
+            glTexImage2D(GL_TEXTURE_2D, 0, GL_RED, ByteGrid.SIZE, ByteGrid.SIZE, 0, GL_RED, GL_BYTE, buffer);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_BORDER);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_BORDER);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        }
+        Shaders.checkGLError("Tile grid LOD upload");
     }
 
     public void buildSelect(List<ByteGrid> gridsToBuild) {
+        for(GridInfo info : selectGridList) {
+            info.cleanUp();
+        }
         selectGridMap.clear();
+        selectGridList.clear();
         for(ByteGrid grid : gridsToBuild) {
             try(MemoryStack stack = MemoryStack.stackPush()) {
                 GridInfo data = selectGridMap.get(new Vector2i(grid.x, grid.y));
@@ -331,6 +635,9 @@ public class TileGridRenderer {
                 if(data == null) {
                     data = new GridInfo();
                     data.texture = glGenTextures();
+                    data.x = grid.x;
+                    data.y = grid.y;
+                    selectGridList.add(data);
                 }
                 glBindTexture(GL_TEXTURE_2D, data.texture);
                 glTexImage2D(GL_TEXTURE_2D, 0, GL_RED, ByteGrid.SIZE, ByteGrid.SIZE, 0, GL_RED, GL_BYTE, buffer);
@@ -344,7 +651,13 @@ public class TileGridRenderer {
         }
     }
 
+    /**
+     * @param scale pixels per tile, when zoomed far out merged overview textures are drawn instead of single chunks
+     */
     public void draw(Matrix4f matrix, Vector4f color, float scale) {
+        lodLevel = chooseLod(scale);
+        updateLod(lodLevel);
+        int span = 1 << lodLevel;
         try (MemoryStack stack = MemoryStack.stackPush()) {
             FloatBuffer buffer = stack.mallocFloat(16);
             glActiveTexture(GL_TEXTURE1);
@@ -359,7 +672,8 @@ public class TileGridRenderer {
             glUniform1f(shaderVertScale, TILE_RATIO);
             glUniform1i(shaderNumTiles, ByteGrid.SIZE);
             glUniform1f(shaderLineWidth, 1.0f / (ByteGrid.SIZE) / (TILE_WIDTH) / scale * 0.0f);
-            glUniform1f(shaderTextureScale, this.scale);
+            // an overview quad covers span chunks, so the grass repeats span times as often across it
+            glUniform1f(shaderTextureScale, this.scale * span);
 
 //            Vector2f v2 = Camera.worldToViewSpace(new Vector2f(16.0f, 16.0f).sub(new Vector2f(0.0f, 0.0f))).mul(1.0f / (float) Math.sqrt(2.0f) / ByteGrid.SIZE);
 //            System.out.println(v2.x + ", " + v2.y);
@@ -367,33 +681,36 @@ public class TileGridRenderer {
             glUniformMatrix4fv(shaderTexMorph, false, TEX_MORPH.get(buffer));
             buffer.clear();
             glActiveTexture(GL_TEXTURE0);
-            for (Vector2i key : gridMap.keySet()) {
-                GridInfo info = gridMap.get(key);
-                glBindTexture(GL_TEXTURE_2D, info.texture);
-                glBindBuffer(GL_ARRAY_BUFFER, vbo);
-                glEnableVertexAttribArray(Shaders.Attribute.POSITION.position);
-                glVertexAttribPointer(Shaders.Attribute.POSITION.position,
-                    2, GL_FLOAT, false, 4 * 4, 0);
-                glEnableVertexAttribArray(Shaders.Attribute.TEXTURE.position);
-                glVertexAttribPointer(Shaders.Attribute.TEXTURE.position,
-                    2, GL_FLOAT, false, 4 * 4, 4 * 2);
-                Vector2f v = Camera.worldToViewSpace(new Vector2f((key.x + 0.5f) * ByteGrid.SIZE,
-                    (key.y + 0.5f) * ByteGrid.SIZE));
-                glUniformMatrix4fv(shaderMatrix, false, new Matrix4f(matrix)
-                    .translate(v.x, v.y, 0).get(buffer));
-                Vector2f textureOffset = Camera.worldToViewSpace(new Vector2f(key).mul(ByteGrid.SIZE).sub(new Vector2f(0.0f, 0.0f))).mul(1.0f / (float) Math.sqrt(2) / ByteGrid.SIZE);
-//                System.out.println(textureOffset.x + ", " + textureOffset.y);
-                textureOffset = new Vector2f((key.x + key.y), (key.x + key.y) * TILE_RATIO);
-//                Vector2f textureOffset = new Vector2f();
-                glUniform2f(shaderTextureOffset, textureOffset.x, textureOffset.y);
-                glDrawArrays(GL_TRIANGLES, 0, 6);
-                glDisableVertexAttribArray(Shaders.Attribute.POSITION.position);
-                glDisableVertexAttribArray(Shaders.Attribute.TEXTURE.position);
-                buffer.clear();
+            List<GridInfo> chunks = lodLevel == 0 ? gridList : lodLists.get(lodLevel - 1);
+            for (int i = 0; i < chunks.size(); ++i) {
+                drawChunk(chunks.get(i), span, matrix, buffer);
             }
         }
     }
 
+    /**
+     * Draws one chunk texture, or an overview texture covering span x span chunks
+     */
+    private void drawChunk(GridInfo info, int span, Matrix4f matrix, FloatBuffer buffer) {
+        glBindTexture(GL_TEXTURE_2D, info.texture);
+        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        glEnableVertexAttribArray(Shaders.Attribute.POSITION.position);
+        glVertexAttribPointer(Shaders.Attribute.POSITION.position,
+            2, GL_FLOAT, false, 4 * 4, 0);
+        glEnableVertexAttribArray(Shaders.Attribute.TEXTURE.position);
+        glVertexAttribPointer(Shaders.Attribute.TEXTURE.position,
+            2, GL_FLOAT, false, 4 * 4, 4 * 2);
+        Vector2f v = Camera.worldToViewSpace((info.x + 0.5f) * ByteGrid.SIZE * span,
+            (info.y + 0.5f) * ByteGrid.SIZE * span, chunkCenter);
+        glUniformMatrix4fv(shaderMatrix, false, chunkMatrix.set(matrix)
+            .translate(v.x, v.y, 0).scale(span, span, 1).get(buffer));
+        glUniform2f(shaderTextureOffset, (info.x + info.y), (info.x + info.y) * TILE_RATIO);
+        glDrawArrays(GL_TRIANGLES, 0, 6);
+        glDisableVertexAttribArray(Shaders.Attribute.POSITION.position);
+        glDisableVertexAttribArray(Shaders.Attribute.TEXTURE.position);
+        buffer.clear();
+    }
+
     public void drawSelect(Matrix4f matrix, float scale) {
         try (MemoryStack stack = MemoryStack.stackPush()) {
             FloatBuffer buffer = stack.mallocFloat(16);
@@ -411,8 +728,8 @@ public class TileGridRenderer {
             glUniformMatrix4fv(selectShaderTexMorph, false, TEX_MORPH.get(buffer));
             buffer.clear();
             glActiveTexture(GL_TEXTURE0);
-            for (Vector2i key : selectGridMap.keySet()) {
-                GridInfo info = selectGridMap.get(key);
+            for (int i = 0; i < selectGridList.size(); ++i) {
+                GridInfo info = selectGridList.get(i);
                 glBindTexture(GL_TEXTURE_2D, info.texture);
                 glBindBuffer(GL_ARRAY_BUFFER, vboSelect);
                 glEnableVertexAttribArray(Shaders.Attribute.POSITION.position);
@@ -421,9 +738,9 @@ public class TileGridRenderer {
                 glEnableVertexAttribArray(Shaders.Attribute.TEXTURE.position);
                 glVertexAttribPointer(Shaders.Attribute.TEXTURE.position,
                         2, GL_FLOAT, false, 4 * 4, 4 * 2);
-                Vector2f v = Camera.worldToViewSpace(new Vector2f((key.x + 0.5f) * ByteGrid.SIZE,
-                        (key.y + 0.5f) * ByteGrid.SIZE));
-                glUniformMatrix4fv(selectShaderMatrix, false, new Matrix4f(matrix)
+                Vector2f v = Camera.worldToViewSpace((info.x + 0.5f) * ByteGrid.SIZE,
+                        (info.y + 0.5f) * ByteGrid.SIZE, chunkCenter);
+                glUniformMatrix4fv(selectShaderMatrix, false, chunkMatrix.set(matrix)
                         .translate(v.x, v.y, 0).get(buffer));
                 glDrawArrays(GL_TRIANGLES, 0, 6);
                 glDisableVertexAttribArray(Shaders.Attribute.POSITION.position);
@@ -444,5 +761,12 @@ public class TileGridRenderer {
         for(GridInfo info : selectGridMap.values()) {
             info.cleanUp();
         }
+        for(Map<Vector2i, LodNode> nodes : lodMaps) {
+            for(LodNode node : nodes.values()) {
+                node.info.cleanUp();
+            }
+        }
+        grass.cleanUp();
+        grass2.cleanUp();
     }
 }
@@ -0,0 +1,122 @@
+package com.isaacph.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recycles the direct buffers connections read into and encode into, so a server under steady
+ * load stops allocating them once every connection has had its peak. Buffers come in power of
+ * two size classes, each kept on its own stack, and a class only keeps up to
+ * {@link #RETAINED_BYTES} worth of free buffers so one burst does not pin memory forever.
+ * Safe to use from any thread.
+ */
+public class BufferPool {
+
+    public static final int MIN_SIZE = 4 * 1024;
+    /**
+     * Fits the longest frame with its length prefix
+     */
+    public static final int MAX_SIZE = Integer.highestOneBit(FrameReader.MAX_FRAME) * 2;
+    public static final int DEFAULT_SIZE = 8 * 1024;
+    public static final long RETAINED_BYTES = 64L * 1024 * 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+
+    private static class SizeClass {
+        final int size;
+        final ByteBuffer[] free;
+        int count = 0;
+
+        SizeClass(int size) {
+            this.size = size;
+            this.free = new ByteBuffer[(int) Math.max(1, RETAINED_BYTES / size)];
+        }
+    }
+
+    private final SizeClass[] classes;
+    private final AtomicLong allocations = new AtomicLong();
+
+    public BufferPool() {
+        classes = new SizeClass[Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1];
+        for(int i = 0; i < classes.length; ++i) {
+            classes[i] = new SizeClass(MIN_SIZE << i);
+        }
+    }
+
+    private static int classOf(int capacity) {
+        if(capacity <= MIN_SIZE) return 0;
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * A cleared direct buffer of at least the given capacity, rounded up to its size class
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        if(minCapacity > MAX_SIZE) {
+            throw new IllegalArgumentException("Buffer of " + minCapacity + " bytes is over the limit");
+        }
+        SizeClass sizeClass = classes[classOf(minCapacity)];
+        ByteBuffer buffer = null;
+        synchronized(sizeClass) {
+            if(sizeClass.count > 0) {
+                buffer = sizeClass.free[--sizeClass.count];
+                sizeClass.free[sizeClass.count] = null;
+            }
+        }
+        if(buffer == null) {
+            allocations.incrementAndGet();
+            return ByteBuffer.allocateDirect(sizeClass.size);
+        }
+        return buffer.clear();
+    }
+
+    /**
+     * Gives a buffer from {@link #acquire(int)} back, it must not be used by the caller afterwards
+     */
+    public void release(ByteBuffer buffer) {
+        SizeClass sizeClass = classes[classOf(buffer.capacity())];
+        if(sizeClass.size != buffer.capacity()) {
+            throw new IllegalArgumentException("Buffer of " + buffer.capacity() + " bytes is not from this pool");
+        }
+        synchronized(sizeClass) {
+            // past the cap the buffer is left to the garbage collector
+            if(sizeClass.count < sizeClass.free.length) {
+                sizeClass.free[sizeClass.count++] = buffer;
+            }
+        }
+    }
+
+    /**
+     * Buffers allocated because none of their size was free, flat once the pool has warmed up
+     */
+    public long getAllocations() {
+        return allocations.get();
+    }
+
+    /**
+     * Buffers held free, the same as {@link #getAllocations()} once every buffer handed out is back
+     * and none was dropped past the cap
+     */
+    public int getFreeCount() {
+        int count = 0;
+        for(SizeClass sizeClass : classes) {
+            synchronized(sizeClass) {
+                count += sizeClass.count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Bytes held in free buffers
+     */
+    public long getRetainedBytes() {
+        long bytes = 0;
+        for(SizeClass sizeClass : classes) {
+            synchronized(sizeClass) {
+                bytes += (long) sizeClass.count * sizeClass.size;
+            }
+        }
+        return bytes;
+    }
+}
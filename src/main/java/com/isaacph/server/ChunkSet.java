@@ -0,0 +1,114 @@
+package com.isaacph.server;
+
+import java.util.Arrays;
+
+/**
+ * Set of grid positions packed into longs, an open addressing table so checking every tile edit
+ * against a client's chunks does not allocate. Removal shifts the following entries back instead
+ * of leaving tombstones, since chunks come and go all the time as the view moves.
+ */
+class ChunkSet implements TileChangeLog.ChunkFilter {
+
+    private long[] keys = new long[64];
+    private boolean[] used = new boolean[64];
+    private int size = 0;
+
+    static long key(int gx, int gy) {
+        return (long) gx << 32 | (gy & 0xFFFFFFFFL);
+    }
+
+    static int keyX(long key) {
+        return (int) (key >> 32);
+    }
+
+    static int keyY(long key) {
+        return (int) key;
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        for(int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            if(!used[slot] || keys[slot] == key) return slot;
+        }
+    }
+
+    @Override
+    public boolean contains(int gx, int gy) {
+        return contains(key(gx, gy));
+    }
+
+    public boolean contains(long key) {
+        return used[find(key)];
+    }
+
+    /**
+     * @return false if it was already there
+     */
+    public boolean add(long key) {
+        if((size + 1) * 2 > keys.length) {
+            long[] oldKeys = keys;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            size = 0;
+            for(int i = 0; i < oldKeys.length; ++i) {
+                if(oldUsed[i]) add(oldKeys[i]);
+            }
+        }
+        int slot = find(key);
+        if(used[slot]) return false;
+        used[slot] = true;
+        keys[slot] = key;
+        ++size;
+        return true;
+    }
+
+    /**
+     * @return false if it was not there
+     */
+    public boolean remove(long key) {
+        int slot = find(key);
+        if(!used[slot]) return false;
+        int mask = keys.length - 1;
+        // move later entries of the run back into the hole if their home slot allows it
+        for(int next = (slot + 1) & mask; used[next]; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            if(((next - home) & mask) >= ((next - slot) & mask)) {
+                keys[slot] = keys[next];
+                slot = next;
+            }
+        }
+        used[slot] = false;
+        --size;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    /**
+     * Copies the keys into an array, grown if too small, for looping while the set changes
+     * @return the array, which holds {@link #size()} keys
+     */
+    public long[] toArray(long[] dest) {
+        if(dest.length < size) dest = new long[Math.max(size, dest.length * 2)];
+        int count = 0;
+        for(int slot = 0; slot < keys.length; ++slot) {
+            if(used[slot]) dest[count++] = keys[slot];
+        }
+        return dest;
+    }
+}
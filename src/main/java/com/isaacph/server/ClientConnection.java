@@ -1,4 +1,137 @@
 package com.isaacph.server;
 
-public class ClientConnection {
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The server's end of one client's connection. The I/O thread that owns it, a selector loop or
+ * the connection's own virtual threads depending on the {@link Server.Mode}, does all the reading,
+ * writing and closing. Any other thread only encodes messages with {@link #send(Object)} and asks
+ * for a close with {@link #close()}, both of which wake the owner up.
+ */
+public class ClientConnection<T> {
+
+    public enum State {
+        OPEN,
+        /**
+         * Writing what was queued before the close was asked for
+         */
+        CLOSING,
+        CLOSED
+    }
+
+    private final int id;
+    final SocketChannel channel;
+    final ConnectionDriver driver;
+    /**
+     * Registration with the owning selector in {@link Server.Mode#SELECTOR} mode
+     */
+    SelectionKey key;
+    /**
+     * Thread writing the outbound queue in {@link Server.Mode#VIRTUAL_THREADS} mode
+     */
+    Thread writer;
+    final FrameReader<T> input;
+    final FrameWriter<T> output;
+    /**
+     * Hands decoded messages to the server, made once instead of per read
+     */
+    final FrameReader.Sink<T> sink;
+    /**
+     * Set while the connection is waiting for its loop to flush it, so a burst of sends wakes it once
+     */
+    final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean disconnected = new AtomicBoolean();
+    volatile State state = State.OPEN;
+    /**
+     * Free for the game to keep its per client state in, only touched on the tick thread
+     */
+    public Object attachment;
+
+    ClientConnection(int id, SocketChannel channel, ConnectionDriver driver, Server<T> server) {
+        this.id = id;
+        this.channel = channel;
+        this.driver = driver;
+        this.input = new FrameReader<>(server.getBufferPool(), server.getCodec());
+        this.output = new FrameWriter<>(server.getBufferPool(), server.getCodec());
+        this.sink = message -> server.received(this, message);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isOpen() {
+        return state == State.OPEN;
+    }
+
+    public SocketAddress getRemoteAddress() {
+        try {
+            return channel.getRemoteAddress();
+        } catch(IOException e) {
+            return null;
+        }
+    }
+
+    public long getBytesRead() {
+        return input.getBytesRead();
+    }
+
+    public long getBytesWritten() {
+        return output.getBytesWritten();
+    }
+
+    /**
+     * Encodes a message for the I/O thread to write, callable from any thread.
+     * Messages sent after the connection started closing are dropped.
+     * @throws IllegalArgumentException if the message is longer than a frame may be
+     */
+    public void send(T message) {
+        if(state != State.OPEN) return;
+        output.append(message);
+        scheduleFlush();
+    }
+
+    /**
+     * Closes the connection once everything already sent has been written, callable from any thread
+     */
+    public void close() {
+        if(state != State.OPEN) return;
+        state = State.CLOSING;
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if(flushScheduled.compareAndSet(false, true)) {
+            driver.schedule(this);
+        }
+    }
+
+    /**
+     * True the first time it is called, so the disconnect is reported once however it happened
+     */
+    boolean markDisconnected() {
+        state = State.CLOSED;
+        return disconnected.compareAndSet(false, true);
+    }
+
+    /**
+     * Gives both buffers back to the pool, once the I/O is done
+     */
+    void releaseBuffers() {
+        input.release();
+        output.release();
+    }
+
+    @Override
+    public String toString() {
+        return "Client " + id + " " + getRemoteAddress();
+    }
 }
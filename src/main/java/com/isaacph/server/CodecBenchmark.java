@@ -0,0 +1,142 @@
+package com.isaacph.server;
+
+import com.google.protobuf.Timestamp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the framing codec on a loopback echo of small protobuf messages, against the usual
+ * {@code writeDelimitedTo} and {@code parseDelimitedFrom} over buffered socket streams. Both keep
+ * {@link #WINDOW} messages in flight. Reported are messages per second, heap bytes allocated per
+ * round trip over every thread, and how many buffers the pools had to allocate while measuring,
+ * which should be none once they have warmed up.
+ * Run with {@code gradle benchmark -PbenchmarkClass=com.isaacph.server.CodecBenchmark -PbenchmarkArgs="3"}
+ * (seconds to measure).
+ */
+public class CodecBenchmark {
+
+    private static final int WINDOW = 256;
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String... args) throws IOException {
+        long measureNanos = (long) ((args.length > 0 ? Double.parseDouble(args[0]) : 3) * 1e9);
+        System.out.println("codec                    messages/s   heap bytes/message   buffers allocated");
+        streams(measureNanos);
+        pooled(measureNanos);
+    }
+
+    private static Timestamp message(long sequence) {
+        return Timestamp.newBuilder().setSeconds(sequence).setNanos((int) (System.nanoTime() & 0x3FFFFFFF)).build();
+    }
+
+    private static void pooled(long measureNanos) throws IOException {
+        MessageCodec<Timestamp> codec = MessageCodec.protobuf(Timestamp.parser());
+        Server<Timestamp> server = new Server<>(codec);
+        server.start(0, Server.Mode.SELECTOR, 1);
+        Server.Handler<Timestamp> echo = new Server.Handler<>() {
+            @Override
+            public void connected(ClientConnection<Timestamp> connection) {}
+
+            @Override
+            public void received(ClientConnection<Timestamp> connection, Timestamp message) {
+                connection.send(message);
+            }
+
+            @Override
+            public void disconnected(ClientConnection<Timestamp> connection) {}
+        };
+        Thread tickThread = new Thread(() -> {
+            while(server.isRunning()) {
+                if(server.poll(echo) == 0) LockSupport.parkNanos(20_000);
+            }
+        }, "benchmark-tick");
+        tickThread.setDaemon(true);
+        tickThread.start();
+
+        long[] sent = {0}, received = {0};
+        try(ServerConnection<Timestamp> connection = new ServerConnection<>("127.0.0.1", server.getPort(), codec)) {
+            ServerConnection.MessageHandler<Timestamp> handler = message -> {
+                ++received[0];
+                connection.send(message(sent[0]++));
+            };
+            for(int i = 0; i < WINDOW; ++i) connection.send(message(sent[0]++));
+            long measureStart = System.nanoTime() + WARMUP_NANOS, end = measureStart + measureNanos;
+            long receivedBefore = -1, heapBefore = 0, buffersBefore = 0;
+            while(true) {
+                long now = System.nanoTime();
+                if(now >= end) break;
+                if(now >= measureStart && receivedBefore < 0) {
+                    receivedBefore = received[0];
+                    heapBefore = THREADS.getTotalThreadAllocatedBytes();
+                    buffersBefore = server.getBufferPool().getAllocations() + connection.getBufferPool().getAllocations();
+                }
+                if(connection.update(handler) == 0) Thread.onSpinWait();
+            }
+            report("pooled direct buffers", received[0] - receivedBefore, measureNanos,
+                THREADS.getTotalThreadAllocatedBytes() - heapBefore,
+                server.getBufferPool().getAllocations() + connection.getBufferPool().getAllocations() - buffersBefore);
+        }
+        server.stop();
+    }
+
+    private static void streams(long measureNanos) throws IOException {
+        try(ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread echo = new Thread(() -> {
+                try(Socket socket = serverSocket.accept()) {
+                    socket.setTcpNoDelay(true);
+                    pump(new BufferedInputStream(socket.getInputStream()), new BufferedOutputStream(socket.getOutputStream()), null, Long.MAX_VALUE);
+                } catch(IOException e) {
+                    // the client closed the connection
+                }
+            }, "benchmark-echo");
+            echo.setDaemon(true);
+            echo.start();
+            try(Socket socket = new Socket("127.0.0.1", serverSocket.getLocalPort())) {
+                socket.setTcpNoDelay(true);
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                long[] sent = {0};
+                for(int i = 0; i < WINDOW; ++i) message(sent[0]++).writeDelimitedTo(out);
+                out.flush();
+                long measureStart = System.nanoTime() + WARMUP_NANOS;
+                pump(in, out, sent, measureStart);
+                long heapBefore = THREADS.getTotalThreadAllocatedBytes();
+                long received = pump(in, out, sent, measureStart + measureNanos);
+                report("writeDelimitedTo streams", received, measureNanos, THREADS.getTotalThreadAllocatedBytes() - heapBefore, 0);
+            }
+        }
+    }
+
+    /**
+     * Answers every message read with another, the echo side sends back what it read
+     * @param sent sequence for new messages, null to echo
+     * @return messages read before the deadline
+     */
+    private static long pump(InputStream in, OutputStream out, long[] sent, long deadline) throws IOException {
+        long count = 0;
+        while(System.nanoTime() < deadline) {
+            Timestamp message = Timestamp.parseDelimitedFrom(in);
+            if(message == null) break;
+            (sent == null ? message : message(sent[0]++)).writeDelimitedTo(out);
+            if(in.available() == 0) out.flush();
+            ++count;
+        }
+        return count;
+    }
+
+    private static void report(String name, long messages, long nanos, long heapBytes, long buffers) {
+        System.out.printf("%-24s %11.0f %20.1f %19d%n", name, messages / (nanos / 1e9),
+            heapBytes / (double) Math.max(messages, 1), buffers);
+    }
+}
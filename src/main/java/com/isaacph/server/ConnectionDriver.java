@@ -0,0 +1,11 @@
+package com.isaacph.server;
+
+/**
+ * Whatever does a connection's I/O, told when the connection has messages to write or wants to close
+ */
+interface ConnectionDriver {
+    /**
+     * Called from any thread, at most once until the connection's flush flag is cleared again
+     */
+    void schedule(ClientConnection<?> connection);
+}
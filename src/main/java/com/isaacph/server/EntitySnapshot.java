@@ -0,0 +1,233 @@
+package com.isaacph.server;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.isaacph.entity.EntityStore;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The networked part of an {@link EntityStore} at one tick, sorted by entity id so two snapshots
+ * can be compared in one merge. Values are quantized to fixed point when captured, so a client
+ * that rebuilds a snapshot from deltas ends up with exactly the values the server compares
+ * against, and unchanged fields compare equal however the floats jitter below the quantum.
+ * <p>
+ * A delta against a baseline snapshot lists the ids that are gone, then every entity that is new
+ * or has a changed field, each with a mask of the fields that follow. Positions and velocities
+ * are written as zigzag differences from the baseline, so slow movement costs a byte or two.
+ */
+public class EntitySnapshot {
+
+    /**
+     * Fixed point steps per world unit for positions and per world unit per second for velocities
+     */
+    public static final float POSITION_SCALE = 256;
+    public static final float VELOCITY_SCALE = 256;
+
+    static final int FIELD_X = 1, FIELD_Y = 2, FIELD_VX = 4, FIELD_VY = 8, FIELD_FRAME = 16, FIELD_FRAME_COUNT = 32;
+    /**
+     * The entity is not in the baseline, its fields are differences from zero
+     */
+    static final int CREATED = 64;
+
+    public int tick = -1;
+    public int count = 0;
+    public int[] ids, x, y, vx, vy, frame, frameCount;
+
+    public EntitySnapshot() {
+        this(EntityStore.INITIAL_CAPACITY);
+    }
+
+    public EntitySnapshot(int capacity) {
+        ids = new int[capacity];
+        x = new int[capacity];
+        y = new int[capacity];
+        vx = new int[capacity];
+        vy = new int[capacity];
+        frame = new int[capacity];
+        frameCount = new int[capacity];
+    }
+
+    private void ensureCapacity(int capacity) {
+        if(capacity <= ids.length) return;
+        capacity = Math.max(capacity, ids.length * 2);
+        ids = Arrays.copyOf(ids, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        frame = Arrays.copyOf(frame, capacity);
+        frameCount = Arrays.copyOf(frameCount, capacity);
+    }
+
+    /**
+     * Overwrites this snapshot with the store's current state
+     */
+    public void capture(EntityStore store, int tick) {
+        ensureCapacity(store.count);
+        int n = 0;
+        for(int id = 0, limit = store.getIdLimit(); id < limit; ++id) {
+            int i = store.indexOf(id);
+            if(i < 0) continue;
+            ids[n] = id;
+            x[n] = Math.round(store.x[i] * POSITION_SCALE);
+            y[n] = Math.round(store.y[i] * POSITION_SCALE);
+            vx[n] = Math.round(store.vx[i] * VELOCITY_SCALE);
+            vy[n] = Math.round(store.vy[i] * VELOCITY_SCALE);
+            frame[n] = store.frame[i];
+            frameCount[n] = store.frameCount[i];
+            ++n;
+        }
+        count = n;
+        this.tick = tick;
+    }
+
+    /**
+     * Index of the entity with the given id, or -1
+     */
+    public int find(int id) {
+        int i = Arrays.binarySearch(ids, 0, count, id);
+        return i >= 0 ? i : -1;
+    }
+
+    public float getX(int index) {
+        return x[index] / POSITION_SCALE;
+    }
+
+    public float getY(int index) {
+        return y[index] / POSITION_SCALE;
+    }
+
+    public float getVelocityX(int index) {
+        return vx[index] / VELOCITY_SCALE;
+    }
+
+    public float getVelocityY(int index) {
+        return vy[index] / VELOCITY_SCALE;
+    }
+
+    /**
+     * True if both hold the same entities with the same values, whatever their ticks
+     */
+    public boolean matches(EntitySnapshot other) {
+        return count == other.count
+            && Arrays.equals(ids, 0, count, other.ids, 0, count)
+            && Arrays.equals(x, 0, count, other.x, 0, count)
+            && Arrays.equals(y, 0, count, other.y, 0, count)
+            && Arrays.equals(vx, 0, count, other.vx, 0, count)
+            && Arrays.equals(vy, 0, count, other.vy, 0, count)
+            && Arrays.equals(frame, 0, count, other.frame, 0, count)
+            && Arrays.equals(frameCount, 0, count, other.frameCount, 0, count);
+    }
+
+    private int changedFields(int i, EntitySnapshot baseline, int j) {
+        if(j < 0) {
+            return CREATED | (x[i] != 0 ? FIELD_X : 0) | (y[i] != 0 ? FIELD_Y : 0) | (vx[i] != 0 ? FIELD_VX : 0)
+                | (vy[i] != 0 ? FIELD_VY : 0) | (frame[i] != 0 ? FIELD_FRAME : 0) | (frameCount[i] != 0 ? FIELD_FRAME_COUNT : 0);
+        }
+        return (x[i] != baseline.x[j] ? FIELD_X : 0) | (y[i] != baseline.y[j] ? FIELD_Y : 0)
+            | (vx[i] != baseline.vx[j] ? FIELD_VX : 0) | (vy[i] != baseline.vy[j] ? FIELD_VY : 0)
+            | (frame[i] != baseline.frame[j] ? FIELD_FRAME : 0) | (frameCount[i] != baseline.frameCount[j] ? FIELD_FRAME_COUNT : 0);
+    }
+
+    /**
+     * Writes what changed from the baseline to this snapshot
+     * @param baseline what the reader already has, or null to write everything
+     */
+    public void writeDelta(EntitySnapshot baseline, CodedOutputStream output) throws IOException {
+        int baseCount = baseline == null ? 0 : baseline.count;
+        // count both lists first, each is prefixed with its length
+        int removed = 0, updated = 0;
+        for(int i = 0, j = 0; i < count || j < baseCount; ) {
+            if(j == baseCount || i < count && ids[i] < baseline.ids[j]) {
+                ++updated;
+                ++i;
+            } else if(i == count || baseline.ids[j] < ids[i]) {
+                ++removed;
+                ++j;
+            } else {
+                if(changedFields(i, baseline, j) != 0) ++updated;
+                ++i;
+                ++j;
+            }
+        }
+        output.writeUInt32NoTag(removed);
+        int previous = -1;
+        for(int i = 0, j = 0; j < baseCount && removed > 0; ++j) {
+            while(i < count && ids[i] < baseline.ids[j]) ++i;
+            if(i == count || ids[i] != baseline.ids[j]) {
+                output.writeUInt32NoTag(baseline.ids[j] - previous - 1);
+                previous = baseline.ids[j];
+            }
+        }
+        output.writeUInt32NoTag(updated);
+        previous = -1;
+        for(int i = 0, j = 0; i < count; ++i) {
+            while(j < baseCount && baseline.ids[j] < ids[i]) ++j;
+            int match = j < baseCount && baseline.ids[j] == ids[i] ? j : -1;
+            int fields = changedFields(i, baseline, match);
+            if(fields == 0) continue;
+            output.writeUInt32NoTag(ids[i] - previous - 1);
+            previous = ids[i];
+            output.writeRawByte((byte) fields);
+            if((fields & FIELD_X) != 0) output.writeSInt32NoTag(x[i] - (match < 0 ? 0 : baseline.x[match]));
+            if((fields & FIELD_Y) != 0) output.writeSInt32NoTag(y[i] - (match < 0 ? 0 : baseline.y[match]));
+            if((fields & FIELD_VX) != 0) output.writeSInt32NoTag(vx[i] - (match < 0 ? 0 : baseline.vx[match]));
+            if((fields & FIELD_VY) != 0) output.writeSInt32NoTag(vy[i] - (match < 0 ? 0 : baseline.vy[match]));
+            if((fields & FIELD_FRAME) != 0) output.writeUInt32NoTag(frame[i]);
+            if((fields & FIELD_FRAME_COUNT) != 0) output.writeUInt32NoTag(frameCount[i]);
+        }
+    }
+
+    /**
+     * Overwrites this snapshot with the baseline plus a delta written by {@link #writeDelta(EntitySnapshot, CodedOutputStream)}
+     * @param baseline the snapshot the delta was written against, null if it was written against nothing
+     */
+    public void readDelta(EntitySnapshot baseline, CodedInputStream input, int tick) throws IOException {
+        int baseCount = baseline == null ? 0 : baseline.count;
+        int removed = input.readUInt32();
+        int[] removedIds = new int[removed];
+        for(int r = 0, id = -1; r < removed; ++r) {
+            id += input.readUInt32() + 1;
+            removedIds[r] = id;
+        }
+        int updates = input.readUInt32();
+        ensureCapacity(baseCount + updates);
+        int n = 0, j = 0, r = 0, nextUpdate = updates > 0 ? input.readUInt32() : Integer.MAX_VALUE;
+        while(j < baseCount || updates > 0) {
+            int baseId = j < baseCount ? baseline.ids[j] : Integer.MAX_VALUE;
+            while(r < removed && removedIds[r] < baseId) ++r;
+            if(r < removed && removedIds[r] == baseId) {
+                ++j;
+                continue;
+            }
+            if(nextUpdate <= baseId) {
+                int fields = input.readRawByte();
+                boolean fromBase = nextUpdate == baseId && (fields & CREATED) == 0;
+                ids[n] = nextUpdate;
+                x[n] = (fromBase ? baseline.x[j] : 0) + ((fields & FIELD_X) != 0 ? input.readSInt32() : 0);
+                y[n] = (fromBase ? baseline.y[j] : 0) + ((fields & FIELD_Y) != 0 ? input.readSInt32() : 0);
+                vx[n] = (fromBase ? baseline.vx[j] : 0) + ((fields & FIELD_VX) != 0 ? input.readSInt32() : 0);
+                vy[n] = (fromBase ? baseline.vy[j] : 0) + ((fields & FIELD_VY) != 0 ? input.readSInt32() : 0);
+                frame[n] = (fields & FIELD_FRAME) != 0 ? input.readUInt32() : fromBase ? baseline.frame[j] : 0;
+                frameCount[n] = (fields & FIELD_FRAME_COUNT) != 0 ? input.readUInt32() : fromBase ? baseline.frameCount[j] : 0;
+                if(nextUpdate == baseId) ++j;
+                ++n;
+                nextUpdate = --updates > 0 ? nextUpdate + input.readUInt32() + 1 : Integer.MAX_VALUE;
+            } else {
+                ids[n] = baseId;
+                x[n] = baseline.x[j];
+                y[n] = baseline.y[j];
+                vx[n] = baseline.vx[j];
+                vy[n] = baseline.vy[j];
+                frame[n] = baseline.frame[j];
+                frameCount[n] = baseline.frameCount[j];
+                ++j;
+                ++n;
+            }
+        }
+        count = n;
+        this.tick = tick;
+    }
+}
@@ -0,0 +1,162 @@
+package com.isaacph.server;
+
+import com.google.protobuf.CodedInputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads frames from one end of a connection into a pooled direct buffer and decodes every whole
+ * one in place through a {@link CodedInputStream}, keeping a partial frame until the rest of it
+ * arrives. The buffer is only held while part of a frame is waiting, so an idle connection holds
+ * none: a selector only reads once data is there, and a blocking read waits in a small heap buffer
+ * of the connection's own, see {@link #readBlocking}. Frames are a varint body length followed by
+ * the body. Used by one thread at a time.
+ */
+final class FrameReader<T> {
+
+    /**
+     * Longest frame body either end accepts, a longer length means the stream is corrupt
+     */
+    static final int MAX_FRAME = 1 << 20;
+    private static final int MAX_VARINT_BYTES = 5;
+    /**
+     * Heap buffer a blocking read waits in while no frame is partly read
+     */
+    static final int STAGING_SIZE = 256;
+
+    interface Sink<T> {
+        void accept(T message);
+    }
+
+    private final BufferPool pool;
+    private final MessageCodec<T> codec;
+    /**
+     * Being written to, null while nothing is waiting
+     */
+    private ByteBuffer buffer;
+    private ByteBuffer staging;
+    private boolean filled = false;
+    private volatile long bytesRead = 0;
+
+    FrameReader(BufferPool pool, MessageCodec<T> codec) {
+        this.pool = pool;
+        this.codec = codec;
+    }
+
+    /**
+     * One read from the channel, handing every message it completes to the sink
+     * @return the bytes read, 0 if none were available, or -1 at the end of the stream
+     * @throws IOException if the read fails or the stream is corrupt
+     */
+    int read(ReadableByteChannel channel, Sink<T> sink) throws IOException {
+        if(buffer == null) buffer = pool.acquire(BufferPool.DEFAULT_SIZE);
+        int room = buffer.remaining(), n;
+        try {
+            n = channel.read(buffer);
+            filled = n == room;
+            if(n > 0) {
+                bytesRead += n;
+                decode(sink);
+            }
+        } finally {
+            if(buffer.position() == 0) release();
+        }
+        return n;
+    }
+
+    /**
+     * {@link #read} for a blocking channel. Between frames the read waits in a small heap buffer
+     * instead of a pooled one, so a thread parked on an idle socket holds no pooled buffer, and
+     * what arrives is copied into a pooled buffer to decode. Reads that continue a partial frame
+     * go straight into the pooled buffer holding it.
+     */
+    int readBlocking(ReadableByteChannel channel, Sink<T> sink) throws IOException {
+        if(buffer != null) return read(channel, sink);
+        if(staging == null) staging = ByteBuffer.allocate(STAGING_SIZE);
+        int n = channel.read(staging.clear());
+        filled = n == STAGING_SIZE;
+        if(n <= 0) return n;
+        buffer = pool.acquire(BufferPool.DEFAULT_SIZE);
+        try {
+            buffer.put(staging.flip());
+            bytesRead += n;
+            decode(sink);
+        } finally {
+            if(buffer.position() == 0) release();
+        }
+        return n;
+    }
+
+    /**
+     * True if the last read filled the buffer, so more may be waiting in the socket
+     */
+    boolean filled() {
+        return filled;
+    }
+
+    private void decode(Sink<T> sink) throws IOException {
+        buffer.flip();
+        // find where the whole frames end before decoding, a decoder cannot stop on a partial one
+        int end = buffer.position(), frames = 0, needed = 0;
+        while(true) {
+            int length = 0, i = end;
+            boolean complete = false;
+            for(int shift = 0; shift < 7 * MAX_VARINT_BYTES && i < buffer.limit(); shift += 7) {
+                byte b = buffer.get(i++);
+                length |= (b & 0x7F) << shift;
+                if(b >= 0) {
+                    complete = true;
+                    break;
+                }
+            }
+            if(!complete) {
+                if(i - end >= MAX_VARINT_BYTES) throw new IOException("Invalid frame length");
+                break;
+            }
+            if(length < 0 || length > MAX_FRAME) throw new IOException("Invalid frame length " + length);
+            if(buffer.limit() - i < length) {
+                needed = i - end + length;
+                break;
+            }
+            end = i + length;
+            ++frames;
+        }
+        if(frames > 0) {
+            int limit = buffer.limit();
+            buffer.limit(end);
+            CodedInputStream input = CodedInputStream.newInstance(buffer);
+            for(int f = 0; f < frames; ++f) {
+                int previous = input.pushLimit(input.readRawVarint32());
+                T message = codec.decode(input);
+                input.skipRawBytes(input.getBytesUntilLimit());
+                input.popLimit(previous);
+                sink.accept(message);
+            }
+            buffer.limit(limit).position(end);
+        }
+        if(needed > buffer.capacity()) {
+            ByteBuffer bigger = pool.acquire(needed);
+            bigger.put(buffer);
+            pool.release(buffer);
+            buffer = bigger;
+        } else {
+            buffer.compact();
+        }
+    }
+
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Gives the buffer back to the pool, dropping a partial frame
+     */
+    void release() {
+        if(buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.isaacph.server;
+
+import com.google.protobuf.CodedOutputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Encodes messages for one end of a connection straight into pooled direct buffers and writes
+ * them with gathering writes. Senders append frames to an open tail buffer through one
+ * {@link CodedOutputStream}, so a burst of small messages shares a buffer, and a full tail is
+ * sealed and a fresh one taken. The writing thread seals whatever is open, writes up to
+ * {@link #GATHER} sealed buffers per system call, and gives each one back as soon as it is written.
+ * {@link #append(Object)} can be called from any thread, the rest from the writing thread only.
+ */
+final class FrameWriter<T> {
+
+    static final int GATHER = 16;
+
+    private final BufferPool pool;
+    private final MessageCodec<T> codec;
+    private final Object lock = new Object();
+    /**
+     * Open buffer messages are encoded into and its encoder, guarded by the lock
+     */
+    private ByteBuffer tail;
+    private CodedOutputStream tailOutput;
+    /**
+     * Full buffers ready to write in order, guarded by the lock
+     */
+    private final ArrayDeque<ByteBuffer> sealed = new ArrayDeque<>();
+    private boolean released = false;
+    /**
+     * Buffers taken by the writing thread, the first may be partly written
+     */
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[GATHER];
+    private volatile long bytesWritten = 0;
+
+    FrameWriter(BufferPool pool, MessageCodec<T> codec) {
+        this.pool = pool;
+        this.codec = codec;
+    }
+
+    /**
+     * Encodes one frame, dropped once the writer is released
+     */
+    void append(T message) {
+        int size = codec.encodedSize(message);
+        if(size > FrameReader.MAX_FRAME) {
+            throw new IllegalArgumentException("Message of " + size + " bytes is over the limit");
+        }
+        int frame = CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+        synchronized(lock) {
+            if(released) return;
+            if(tail != null && tailOutput.spaceLeft() < frame) seal();
+            if(tail == null) {
+                tail = pool.acquire(Math.max(frame, BufferPool.DEFAULT_SIZE));
+                tailOutput = CodedOutputStream.newInstance(tail);
+            }
+            try {
+                tailOutput.writeUInt32NoTag(size);
+                codec.encode(message, tailOutput);
+            } catch(IOException e) {
+                throw new RuntimeException("Encoding a message failed", e);
+            }
+        }
+    }
+
+    private void seal() {
+        try {
+            tailOutput.flush();
+        } catch(IOException e) {
+            throw new RuntimeException("Encoding a message failed", e);
+        }
+        sealed.add(tail.flip());
+        tail = null;
+        tailOutput = null;
+    }
+
+    /**
+     * True if nothing appended so far is left to write
+     */
+    boolean isEmpty() {
+        synchronized(lock) {
+            return pending.isEmpty() && sealed.isEmpty() && (tail == null || tailOutput.getTotalBytesWritten() == 0);
+        }
+    }
+
+    /**
+     * Writes everything appended so far, or as much as a non-blocking channel takes
+     * @return true if everything was written
+     */
+    boolean write(GatheringByteChannel channel) throws IOException {
+        synchronized(lock) {
+            if(tail != null && tailOutput.getTotalBytesWritten() > 0) seal();
+            ByteBuffer buffer;
+            while((buffer = sealed.poll()) != null) {
+                pending.add(buffer);
+            }
+        }
+        while(!pending.isEmpty()) {
+            int count = 0;
+            long remaining = 0;
+            for(ByteBuffer buffer : pending) {
+                if(count == GATHER) break;
+                gather[count++] = buffer;
+                remaining += buffer.remaining();
+            }
+            long n = channel.write(gather, 0, count);
+            bytesWritten += n;
+            Arrays.fill(gather, 0, count, null);
+            while(!pending.isEmpty() && !pending.peek().hasRemaining()) {
+                pool.release(pending.poll());
+            }
+            if(n < remaining) return false;
+        }
+        return true;
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Gives every buffer back to the pool and drops anything appended later, from the writing thread
+     */
+    void release() {
+        synchronized(lock) {
+            released = true;
+            if(tail != null) pool.release(tail);
+            tail = null;
+            tailOutput = null;
+            ByteBuffer buffer;
+            while((buffer = sealed.poll()) != null) {
+                pool.release(buffer);
+            }
+        }
+        ByteBuffer buffer;
+        while((buffer = pending.poll()) != null) {
+            pool.release(buffer);
+        }
+    }
+}
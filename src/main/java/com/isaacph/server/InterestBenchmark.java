@@ -0,0 +1,267 @@
+package com.isaacph.server;
+
+import com.google.protobuf.CodedOutputStream;
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import org.joml.Vector2i;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Streams a large world to loopback clients whose cameras wander around it, through an
+ * {@link InterestManager}, while tiles change all over the world. Halfway through every camera
+ * jumps somewhere else and holds still for a while, as after a respawn. Reports the bytes per
+ * client per tick, on average and at the worst tick, the longest chunk queue, how many ticks after
+ * the jump the view was filled in, how many chunks a client holds, and how many messages loaded
+ * chunks out of nearest first order while the camera held still. Compares that with sending every
+ * client the whole world once and every tile change. InterestManagerTest checks that clients hold
+ * exactly the server's tiles for every chunk in view and nothing far away.
+ * Run with {@code gradle benchmark -PbenchmarkClass=com.isaacph.server.InterestBenchmark -PbenchmarkArgs="16 8192"}
+ * (clients, bytes per client per tick).
+ */
+public class InterestBenchmark {
+
+    private static final int GRIDS = 128;
+    private static final int TICKS = 600;
+    private static final int JUMP = 300;
+    private static final int HOLD = 90;
+    private static final int TILE_EDITS = 32;
+    /**
+     * Half the size of the box on screen in tiles, and how far a camera moves per tick
+     */
+    private static final float HALF_WIDTH = 40, HALF_HEIGHT = 24, SPEED = 0.5f;
+
+    private static class Client implements ByteGrid.Group.Listener {
+        final ServerConnection<byte[]> connection;
+        final ByteGrid.Group group = new ByteGrid.Group();
+        final InterestClient interest;
+        float x, y, vx, vy;
+        int filledTick = -1;
+        /**
+         * Nearest first check of the message being applied
+         */
+        float lastDistance;
+        boolean ordered, outside;
+        int loads;
+
+        Client(int port) throws IOException {
+            connection = new ServerConnection<>("127.0.0.1", port, MessageCodec.BYTES);
+            interest = new InterestClient(connection, group, null);
+            group.addListener(this);
+        }
+
+        @Override
+        public void tileChanged(int x, int y, byte previous, byte tile) {
+        }
+
+        @Override
+        public void gridChanged(ByteGrid grid) {
+            float dx = (grid.x + 0.5f) * ByteGrid.SIZE - x, dy = (grid.y + 0.5f) * ByteGrid.SIZE - y;
+            float distance = dx * dx + dy * dy;
+            if(distance < lastDistance) ordered = false;
+            lastDistance = distance;
+            if(!inView(grid.x, grid.y, ByteGrid.SIZE)) outside = true;
+            ++loads;
+        }
+
+        boolean inView(int gx, int gy, float margin) {
+            return gx >= Math.floorDiv((int) Math.floor(x - HALF_WIDTH - margin), ByteGrid.SIZE)
+                && gx <= Math.floorDiv((int) Math.floor(x + HALF_WIDTH + margin), ByteGrid.SIZE)
+                && gy >= Math.floorDiv((int) Math.floor(y - HALF_HEIGHT - margin), ByteGrid.SIZE)
+                && gy <= Math.floorDiv((int) Math.floor(y + HALF_HEIGHT + margin), ByteGrid.SIZE);
+        }
+
+        boolean filled() {
+            Vector2i key = new Vector2i();
+            int maxX = Math.floorDiv((int) Math.floor(x + HALF_WIDTH), ByteGrid.SIZE);
+            int maxY = Math.floorDiv((int) Math.floor(y + HALF_HEIGHT), ByteGrid.SIZE);
+            for(int gx = Math.floorDiv((int) Math.floor(x - HALF_WIDTH), ByteGrid.SIZE); gx <= maxX; ++gx) {
+                for(int gy = Math.floorDiv((int) Math.floor(y - HALF_HEIGHT), ByteGrid.SIZE); gy <= maxY; ++gy) {
+                    if(!group.map.containsKey(key.set(gx, gy))) return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Counts bytes without keeping them
+     */
+    private static class CountingStream extends OutputStream {
+        long count = 0;
+
+        @Override
+        public void write(int b) {
+            ++count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    public static void main(String... args) throws IOException {
+        int clientCount = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int bytesPerTick = args.length > 1 ? Integer.parseInt(args[1]) : 8192;
+        Random random = new Random(1);
+        float side = GRIDS * ByteGrid.SIZE;
+        ByteGrid.Group group = new ByteGrid.Group();
+        for(int gx = 0; gx < GRIDS; ++gx) {
+            for(int gy = 0; gy < GRIDS; ++gy) {
+                ByteGrid grid = group.makeTileGrid(gx * ByteGrid.SIZE, gy * ByteGrid.SIZE);
+                for(int i = 0; i < grid.data.length; ++i) grid.data[i] = (byte) random.nextInt(4);
+            }
+        }
+        System.out.println(clientCount + " clients, " + GRIDS * GRIDS + " grids, view " + (int) (2 * HALF_WIDTH) + "x" + (int) (2 * HALF_HEIGHT)
+            + " tiles, " + bytesPerTick + " bytes/client/tick");
+
+        int tick = 0;
+        TileChangeLog tiles = new TileChangeLog(group, tick);
+        InterestManager interest = new InterestManager(tiles, group);
+        interest.bytesPerTick = bytesPerTick;
+        Server<byte[]> server = new Server<>(MessageCodec.BYTES);
+        server.start(0, Server.Mode.SELECTOR, 1);
+        Server.Handler<byte[]> handler = new Server.Handler<>() {
+            @Override
+            public void connected(ClientConnection<byte[]> connection) {
+                interest.addClient(connection);
+            }
+
+            @Override
+            public void received(ClientConnection<byte[]> connection, byte[] message) {
+                interest.received(connection, message);
+            }
+
+            @Override
+            public void disconnected(ClientConnection<byte[]> connection) {
+                interest.removeClient(connection);
+            }
+        };
+        List<Client> clients = new ArrayList<>();
+        for(int i = 0; i < clientCount; ++i) {
+            Client client = new Client(server.getPort());
+            client.x = HALF_WIDTH + random.nextFloat() * (side - 2 * HALF_WIDTH);
+            client.y = HALF_HEIGHT + random.nextFloat() * (side - 2 * HALF_HEIGHT);
+            double angle = random.nextDouble() * Math.PI * 2;
+            client.vx = (float) Math.cos(angle) * SPEED;
+            client.vy = (float) Math.sin(angle) * SPEED;
+            clients.add(client);
+        }
+        while(interest.getClients().size() < clientCount) {
+            server.poll(handler);
+            Thread.onSpinWait();
+        }
+
+        // what sending everything would cost, the whole world once and every change after
+        CountingStream everything = new CountingStream();
+        CodedOutputStream everythingOutput = CodedOutputStream.newInstance(everything);
+        tiles.write(-1, everythingOutput);
+        everythingOutput.flush();
+
+        long sendNanos = 0;
+        int peakBytes = 0, peakQueue = 0, checked = 0, outOfOrder = 0;
+        for(int t = 0; t < TICKS; ++t) {
+            boolean holding = t >= JUMP && t < JUMP + HOLD;
+            for(Client client : clients) {
+                if(t == JUMP) {
+                    client.x = HALF_WIDTH + random.nextFloat() * (side - 2 * HALF_WIDTH);
+                    client.y = HALF_HEIGHT + random.nextFloat() * (side - 2 * HALF_HEIGHT);
+                } else if(!holding) {
+                    client.x += client.vx;
+                    client.y += client.vy;
+                    if(client.x < HALF_WIDTH || client.x > side - HALF_WIDTH) client.vx = -client.vx;
+                    if(client.y < HALF_HEIGHT || client.y > side - HALF_HEIGHT) client.vy = -client.vy;
+                }
+                client.interest.updateView(client.x, client.y, client.x - HALF_WIDTH, client.y - HALF_HEIGHT,
+                    client.x + HALF_WIDTH, client.y + HALF_HEIGHT);
+            }
+            tiles.setTick(++tick);
+            server.poll(handler);
+            for(int i = 0; i < TILE_EDITS; ++i) {
+                group.setTile((byte) random.nextInt(4), random.nextInt((int) side), random.nextInt((int) side));
+            }
+            tiles.write(tick - 1, everythingOutput);
+            long start = System.nanoTime();
+            interest.send();
+            sendNanos += System.nanoTime() - start;
+            for(InterestManager.ClientInterest state : interest.getClients()) {
+                peakBytes = Math.max(peakBytes, state.getLastBytes());
+                peakQueue = Math.max(peakQueue, state.getQueueLength());
+            }
+            for(Client client : clients) {
+                int[] counts = update(client, holding);
+                checked += counts[0];
+                outOfOrder += counts[1];
+                if(t >= JUMP && client.filledTick < 0 && client.filled()) client.filledTick = t;
+            }
+            pause();
+        }
+        everythingOutput.flush();
+        long measured = (long) TICKS * clientCount;
+        double bytes = interest.getBytesSent() / (double) measured;
+        double everythingBytes = everything.count / (double) TICKS;
+        double fillTicks = 0;
+        int slowestFill = 0;
+        long loaded = 0;
+        for(Client client : clients) {
+            int fill = client.filledTick < 0 ? TICKS - JUMP : client.filledTick - JUMP;
+            fillTicks += fill;
+            slowestFill = Math.max(slowestFill, fill);
+            loaded += client.interest.getLoadedCount();
+        }
+
+        for(Client client : clients) {
+            client.connection.close();
+        }
+        server.stop();
+        interest.cleanUp();
+        tiles.cleanUp();
+
+        System.out.println("bytes/client/tick   peak bytes/tick   KB/s/client at 60 Hz   peak queue   fill ticks avg/max   chunks held   out of order   send us/client");
+        System.out.printf("%17.0f %17d %22.1f %12d %14.1f/%d %13d %10d/%d %16.1f%n", bytes, peakBytes, bytes * 60 / 1024,
+            peakQueue, fillTicks / clientCount, slowestFill, loaded / clientCount, outOfOrder, checked,
+            sendNanos / 1000.0 / measured);
+        System.out.printf("sending everything: %.0f bytes/client/tick, %.1f KB/s/client at 60 Hz, %.1fx more%n",
+            everythingBytes, everythingBytes * 60 / 1024, everythingBytes / bytes);
+    }
+
+    /**
+     * Leaves the server's selector thread time to read the views, as a game sleeping between ticks would
+     */
+    private static void pause() {
+        try {
+            Thread.sleep(1);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Applies every message waiting for a client
+     * @return messages checked for nearest first order and how many were out of order
+     */
+    private static int[] update(Client client, boolean holding) throws IOException {
+        int[] counts = new int[2];
+        client.connection.update(message -> {
+            client.lastDistance = -1;
+            client.ordered = true;
+            client.outside = false;
+            client.loads = 0;
+            try {
+                client.interest.received(message);
+            } catch(IOException e) {
+                throw new RuntimeException("Bad chunks", e);
+            }
+            // a message planned before the server saw the jump loads chunks from the old view, skip it
+            if(holding && client.loads > 1 && !client.outside) {
+                ++counts[0];
+                if(!client.ordered) ++counts[1];
+            }
+        });
+        return counts;
+    }
+}
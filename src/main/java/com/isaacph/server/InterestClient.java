@@ -0,0 +1,153 @@
+package com.isaacph.server;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.isaacph.render.Camera;
+import com.isaacph.render.ChunkBuilder;
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import org.joml.Vector2f;
+import org.joml.Vector2i;
+import org.joml.Vector4f;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The client's side of {@link InterestManager}: tells the server what the camera sees, applies the
+ * chunks and tile changes it streams back to the client's group, and rebuilds only the chunks that
+ * changed in the renderer. Runs on the thread that draws, since building uploads textures.
+ */
+public class InterestClient implements ByteGrid.Group.Listener {
+
+    private final ServerConnection<byte[]> connection;
+    private final ByteGrid.Group group;
+    private final ChunkBuilder renderer;
+    /**
+     * Chunks changed by the last message, built once each after it is applied
+     */
+    private final Set<Vector2i> changed = new HashSet<>();
+    private final Vector2f center = new Vector2f();
+    private final Vector4f bounds = new Vector4f();
+    private final Vector2i lookup = new Vector2i();
+    private boolean viewSent = false;
+    private float centerX, centerY, minX, minY, maxX, maxY;
+    private int tick = -1;
+    /**
+     * How far in tiles the view has to move or grow before the server is told again
+     */
+    public float viewThreshold = 1.0f;
+
+    /**
+     * @param renderer built as chunks arrive and leave, or null to only keep the group up to date
+     */
+    public InterestClient(ServerConnection<byte[]> connection, ByteGrid.Group group, ChunkBuilder renderer) {
+        this.connection = connection;
+        this.group = group;
+        this.renderer = renderer;
+        if(renderer != null) group.addListener(this);
+    }
+
+    /**
+     * Sends the camera's view if it moved, call once per tick
+     */
+    public void updateView(Camera camera) {
+        Camera.viewToWorldSpace(camera.getCenter(), center);
+        camera.getWorldBounds(bounds);
+        updateView(center.x, center.y, bounds.x, bounds.y, bounds.z, bounds.w);
+    }
+
+    /**
+     * Sends a view in world space if it moved more than {@link #viewThreshold} since the last one sent
+     */
+    public void updateView(float centerX, float centerY, float minX, float minY, float maxX, float maxY) {
+        if(viewSent && Math.abs(centerX - this.centerX) < viewThreshold && Math.abs(centerY - this.centerY) < viewThreshold
+            && Math.abs(minX - this.minX) < viewThreshold && Math.abs(minY - this.minY) < viewThreshold
+            && Math.abs(maxX - this.maxX) < viewThreshold && Math.abs(maxY - this.maxY) < viewThreshold) return;
+        viewSent = true;
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        connection.send(view(centerX, centerY, minX, minY, maxX, maxY));
+    }
+
+    public static byte[] view(float centerX, float centerY, float minX, float minY, float maxX, float maxY) {
+        byte[] message = new byte[CodedOutputStream.computeUInt32SizeNoTag(InterestManager.VIEW) + 6 * Float.BYTES];
+        CodedOutputStream output = CodedOutputStream.newInstance(message);
+        try {
+            output.writeUInt32NoTag(InterestManager.VIEW);
+            output.writeFloatNoTag(centerX);
+            output.writeFloatNoTag(centerY);
+            output.writeFloatNoTag(minX);
+            output.writeFloatNoTag(minY);
+            output.writeFloatNoTag(maxX);
+            output.writeFloatNoTag(maxY);
+        } catch(IOException e) {
+            throw new RuntimeException("Encoding a view failed", e);
+        }
+        return message;
+    }
+
+    /**
+     * Applies chunks from the server
+     * @return false if the message is something else
+     * @throws IOException if the message is corrupt
+     */
+    public boolean received(byte[] message) throws IOException {
+        CodedInputStream input = CodedInputStream.newInstance(message);
+        if(input.readUInt32() != InterestManager.CHUNKS) return false;
+        tick = input.readUInt32();
+        TileChangeLog.read(input, group);
+        int unloads = input.readUInt32();
+        for(int i = 0; i < unloads; ++i) {
+            lookup.set(input.readSInt32(), input.readSInt32());
+            group.removeGrid(lookup.x, lookup.y);
+        }
+        int loads = input.readUInt32();
+        for(int i = 0; i < loads; ++i) {
+            ByteGrid grid = new ByteGrid(input.readSInt32(), input.readSInt32());
+            grid.data = input.readRawBytes(ByteGrid.SIZE * ByteGrid.SIZE);
+            group.putGrid(grid);
+        }
+        for(Vector2i key : changed) {
+            ByteGrid grid = group.map.get(key);
+            if(grid != null) renderer.build(grid);
+        }
+        changed.clear();
+        return true;
+    }
+
+    @Override
+    public void tileChanged(int x, int y, byte previous, byte tile) {
+        changed.add(group.getGridIndex(x, y));
+    }
+
+    @Override
+    public void gridChanged(ByteGrid grid) {
+        changed.add(new Vector2i(grid.x, grid.y));
+    }
+
+    @Override
+    public void gridRemoved(ByteGrid grid) {
+        changed.remove(lookup.set(grid.x, grid.y));
+        renderer.remove(grid.x, grid.y);
+    }
+
+    /**
+     * Tick of the last chunks received, -1 before the first
+     */
+    public int getTick() {
+        return tick;
+    }
+
+    public int getLoadedCount() {
+        return group.map.size();
+    }
+
+    public void cleanUp() {
+        if(renderer != null) group.removeListener(this);
+    }
+}
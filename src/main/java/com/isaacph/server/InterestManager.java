@@ -0,0 +1,361 @@
+package com.isaacph.server;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import org.joml.Vector2i;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streams each client only the chunks around its camera instead of the whole world. Clients send
+ * their view, the world space box on screen and the camera center, and the server keeps per
+ * client the chunks it has sent and a queue of missing chunks within {@link #loadMargin} of the
+ * view, nearest the center first. Every tick a client gets as many queued chunks as its share of
+ * {@link #bytesPerTick} allows, the chunks that drifted more than {@link #unloadMargin} out of
+ * view to drop, and the tile changes to chunks it has. The gap between the two margins keeps a
+ * camera moving back and forth over a chunk border from loading and dropping the same chunks.
+ * <p>
+ * Takes the tile changes over from a {@link SnapshotServer}, whose snapshots then carry none.
+ * Runs on the tick thread.
+ * <p>
+ * Messages are varints: a view from a client is {@link #VIEW} and six fixed32 floats, center x
+ * and y then min x, min y, max x, max y. Chunks to a client are {@link #CHUNKS}, the tick, the
+ * tile changes of {@link TileChangeLog} to loaded chunks, the count of chunks to drop and their
+ * zigzag grid positions, then the count of chunks to load and their positions and tiles.
+ */
+public class InterestManager implements ByteGrid.Group.Listener {
+
+    public static final int VIEW = 3, CHUNKS = 4;
+    private static final int TILES = ByteGrid.SIZE * ByteGrid.SIZE;
+    /**
+     * What one chunk load costs at most, its tiles and two five byte varints
+     */
+    private static final int CHUNK_BYTES = TILES + 10;
+
+    /**
+     * What the server knows about one client's view, which chunks it has and what it still needs
+     */
+    public static class ClientInterest {
+        public final ClientConnection<byte[]> connection;
+        private boolean hasView = false;
+        private float centerX, centerY, minX, minY, maxX, maxY;
+        private final ChunkSet loaded = new ChunkSet();
+        /**
+         * Chunks to send, nearest the center first, from queueStart to queueEnd
+         */
+        private long[] queue = new long[64];
+        private int queueStart = 0, queueEnd = 0;
+        /**
+         * The view changed or a chunk appeared in it, so the queue has to be worked out again
+         */
+        private boolean dirty = false;
+        private int sentTick;
+        private int budget = 0;
+        private long bytesSent = 0, chunksLoaded = 0, chunksUnloaded = 0, messages = 0;
+        private int lastBytes = 0;
+
+        ClientInterest(ClientConnection<byte[]> connection, int tick) {
+            this.connection = connection;
+            this.sentTick = tick;
+        }
+
+        public boolean hasView() {
+            return hasView;
+        }
+
+        /**
+         * Chunks the client has been sent and not told to drop
+         */
+        public int getLoadedCount() {
+            return loaded.size();
+        }
+
+        /**
+         * Chunks in view waiting for bandwidth, as of the last {@link #send()}
+         */
+        public int getQueueLength() {
+            return queueEnd - queueStart;
+        }
+
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        public long getChunksLoaded() {
+            return chunksLoaded;
+        }
+
+        public long getChunksUnloaded() {
+            return chunksUnloaded;
+        }
+
+        public long getMessages() {
+            return messages;
+        }
+
+        /**
+         * Size of the last message sent, 0 if there was nothing to send that tick
+         */
+        public int getLastBytes() {
+            return lastBytes;
+        }
+    }
+
+    private final TileChangeLog tiles;
+    private final ByteGrid.Group group;
+    private final Map<Integer, ClientInterest> clients = new HashMap<>();
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+    private final CodedOutputStream output = CodedOutputStream.newInstance(buffer, 4096);
+    private final Vector2i lookup = new Vector2i();
+    /**
+     * Scratch for working out a queue: candidate chunks, and their distances packed with their index to sort
+     */
+    private long[] candidates = new long[64], order = new long[64];
+    private long[] unloads = new long[64], loads = new long[16];
+    /**
+     * How far past the view chunks are loaded, in tiles
+     */
+    public float loadMargin = ByteGrid.SIZE;
+    /**
+     * How far past the view a loaded chunk has to be before it is dropped, in tiles, at least {@link #loadMargin}
+     */
+    public float unloadMargin = 3 * ByteGrid.SIZE;
+    /**
+     * Views are cut down to this far from their center, in tiles, so a client cannot ask for the whole world
+     */
+    public float maxViewDistance = 32 * ByteGrid.SIZE;
+    /**
+     * Bandwidth per client per tick, unused bandwidth carries over for up to one more tick
+     */
+    public int bytesPerTick = 8192;
+
+    public InterestManager(SnapshotServer snapshots, ByteGrid.Group group) {
+        this(snapshots.getTileChangeLog(), group);
+        snapshots.sendTiles = false;
+    }
+
+    /**
+     * @param tiles the log of changes to the group, which sets the tick
+     */
+    public InterestManager(TileChangeLog tiles, ByteGrid.Group group) {
+        this.tiles = tiles;
+        this.group = group;
+        group.addListener(this);
+    }
+
+    public ClientInterest addClient(ClientConnection<byte[]> connection) {
+        ClientInterest client = new ClientInterest(connection, tiles.getTick());
+        clients.put(connection.getId(), client);
+        return client;
+    }
+
+    public void removeClient(ClientConnection<byte[]> connection) {
+        clients.remove(connection.getId());
+    }
+
+    public ClientInterest getClient(ClientConnection<byte[]> connection) {
+        return clients.get(connection.getId());
+    }
+
+    public Collection<ClientInterest> getClients() {
+        return Collections.unmodifiableCollection(clients.values());
+    }
+
+    /**
+     * Takes a view out of a message from a client
+     * @return false if the message is something else, for the game to handle
+     */
+    public boolean received(ClientConnection<byte[]> connection, byte[] message) {
+        CodedInputStream input = CodedInputStream.newInstance(message);
+        try {
+            if(input.readUInt32() != VIEW) return false;
+            ClientInterest client = clients.get(connection.getId());
+            float centerX = input.readFloat(), centerY = input.readFloat();
+            float minX = input.readFloat(), minY = input.readFloat(), maxX = input.readFloat(), maxY = input.readFloat();
+            // a view that is not a finite box is a broken client, keep the old one
+            if(client == null || !Float.isFinite(centerX + centerY + minX + minY + maxX + maxY) || minX > maxX || minY > maxY) return true;
+            client.centerX = centerX;
+            client.centerY = centerY;
+            client.minX = Math.max(minX, centerX - maxViewDistance);
+            client.minY = Math.max(minY, centerY - maxViewDistance);
+            client.maxX = Math.min(maxX, centerX + maxViewDistance);
+            client.maxY = Math.min(maxY, centerY + maxViewDistance);
+            client.hasView = true;
+            client.dirty = true;
+            return true;
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void tileChanged(int x, int y, byte previous, byte tile) {
+        // sent through the change log
+    }
+
+    @Override
+    public void gridChanged(ByteGrid grid) {
+        // a chunk in a loaded position is sent again whole by the change log, a new one has to be queued
+        long key = ChunkSet.key(grid.x, grid.y);
+        for(ClientInterest client : clients.values()) {
+            if(client.hasView && !client.dirty && !client.loaded.contains(key) && inView(client, grid.x, grid.y, loadMargin)) {
+                client.dirty = true;
+            }
+        }
+    }
+
+    @Override
+    public void gridRemoved(ByteGrid grid) {
+        long key = ChunkSet.key(grid.x, grid.y);
+        for(ClientInterest client : clients.values()) {
+            if(client.loaded.contains(key)) client.dirty = true;
+        }
+    }
+
+    private static int gridMin(float min, float margin) {
+        return Math.floorDiv((int) Math.floor(min - margin), ByteGrid.SIZE);
+    }
+
+    private static int gridMax(float max, float margin) {
+        return Math.floorDiv((int) Math.floor(max + margin), ByteGrid.SIZE);
+    }
+
+    private static boolean inView(ClientInterest client, int gx, int gy, float margin) {
+        return gx >= gridMin(client.minX, margin) && gx <= gridMax(client.maxX, margin)
+            && gy >= gridMin(client.minY, margin) && gy <= gridMax(client.maxY, margin);
+    }
+
+    /**
+     * Works out which loaded chunks to drop, out of view or taken out of the group, and queues the missing ones nearest first
+     * @return the number of chunks to drop, in {@link #unloads}
+     */
+    private int plan(ClientInterest client) {
+        client.dirty = false;
+        float unload = Math.max(unloadMargin, loadMargin);
+        unloads = client.loaded.toArray(unloads);
+        int unloadCount = 0;
+        for(int i = 0, size = client.loaded.size(); i < size; ++i) {
+            long key = unloads[i];
+            int gx = ChunkSet.keyX(key), gy = ChunkSet.keyY(key);
+            if(!inView(client, gx, gy, unload) || !group.map.containsKey(lookup.set(gx, gy))) unloads[unloadCount++] = key;
+        }
+
+        int count = 0;
+        int minX = gridMin(client.minX, loadMargin), maxX = gridMax(client.maxX, loadMargin);
+        int minY = gridMin(client.minY, loadMargin), maxY = gridMax(client.maxY, loadMargin);
+        for(int gx = minX; gx <= maxX; ++gx) {
+            for(int gy = minY; gy <= maxY; ++gy) {
+                long key = ChunkSet.key(gx, gy);
+                if(client.loaded.contains(key) || !group.map.containsKey(lookup.set(gx, gy))) continue;
+                if(count == candidates.length) {
+                    candidates = Arrays.copyOf(candidates, count * 2);
+                    order = Arrays.copyOf(order, count * 2);
+                }
+                float dx = (gx + 0.5f) * ByteGrid.SIZE - client.centerX, dy = (gy + 0.5f) * ByteGrid.SIZE - client.centerY;
+                // the bits of a positive float sort the same as the float
+                order[count] = (long) Float.floatToRawIntBits(dx * dx + dy * dy) << 32 | count;
+                candidates[count++] = key;
+            }
+        }
+        Arrays.sort(order, 0, count);
+        if(client.queue.length < count) client.queue = new long[Math.max(count, client.queue.length * 2)];
+        for(int i = 0; i < count; ++i) {
+            client.queue[i] = candidates[(int) order[i]];
+        }
+        client.queueStart = 0;
+        client.queueEnd = count;
+        return unloadCount;
+    }
+
+    /**
+     * Sends every client its chunk changes for the current tick, call at the end of the tick after every edit
+     */
+    public void send() {
+        int tick = tiles.getTick();
+        for(ClientInterest client : clients.values()) {
+            if(!client.connection.isOpen()) continue;
+            client.budget = Math.min(client.budget + bytesPerTick, Math.max(2 * bytesPerTick, CHUNK_BYTES));
+            int unloadCount = client.dirty ? plan(client) : 0;
+            // take queued chunks while the bandwidth lasts, skipping any that went away or came some other way
+            int loadCount = 0;
+            for(int available = client.budget; available >= CHUNK_BYTES && client.queueStart < client.queueEnd; ) {
+                long key = client.queue[client.queueStart++];
+                if(client.loaded.contains(key) || !group.map.containsKey(lookup.set(ChunkSet.keyX(key), ChunkSet.keyY(key)))) continue;
+                if(loadCount == loads.length) loads = Arrays.copyOf(loads, loadCount * 2);
+                loads[loadCount++] = key;
+                available -= CHUNK_BYTES;
+            }
+            byte[] message = encode(client, tick, unloadCount, loadCount);
+            client.sentTick = tick;
+            if(message == null) {
+                client.lastBytes = 0;
+                continue;
+            }
+            client.budget -= message.length;
+            client.bytesSent += message.length;
+            client.lastBytes = message.length;
+            ++client.messages;
+            client.connection.send(message);
+        }
+    }
+
+    /**
+     * @return the message, or null if there was nothing to tell the client
+     */
+    private byte[] encode(ClientInterest client, int tick, int unloadCount, int loadCount) {
+        long tilesBefore = tiles.getTilesWritten(), gridsBefore = tiles.getGridsWritten(), removalsBefore = tiles.getRemovalsWritten();
+        try {
+            output.writeUInt32NoTag(CHUNKS);
+            output.writeUInt32NoTag(tick);
+            // changes only to chunks the client had before this message, the loads below are already up to date
+            tiles.write(client.sentTick, output, client.loaded);
+            output.writeUInt32NoTag(unloadCount);
+            for(int i = 0; i < unloadCount; ++i) {
+                output.writeSInt32NoTag(ChunkSet.keyX(unloads[i]));
+                output.writeSInt32NoTag(ChunkSet.keyY(unloads[i]));
+                client.loaded.remove(unloads[i]);
+            }
+            output.writeUInt32NoTag(loadCount);
+            for(int i = 0; i < loadCount; ++i) {
+                ByteGrid grid = group.map.get(lookup.set(ChunkSet.keyX(loads[i]), ChunkSet.keyY(loads[i])));
+                output.writeSInt32NoTag(grid.x);
+                output.writeSInt32NoTag(grid.y);
+                output.writeRawBytes(grid.data);
+                client.loaded.add(loads[i]);
+            }
+            output.flush();
+        } catch(IOException e) {
+            throw new RuntimeException("Encoding chunks failed", e);
+        }
+        client.chunksUnloaded += unloadCount;
+        client.chunksLoaded += loadCount;
+        boolean empty = unloadCount == 0 && loadCount == 0
+            && tiles.getTilesWritten() == tilesBefore && tiles.getGridsWritten() == gridsBefore
+            && tiles.getRemovalsWritten() == removalsBefore;
+        byte[] message = empty ? null : buffer.toByteArray();
+        buffer.reset();
+        return message;
+    }
+
+    /**
+     * Bytes sent to every client so far
+     */
+    public long getBytesSent() {
+        long bytes = 0;
+        for(ClientInterest client : clients.values()) {
+            bytes += client.bytesSent;
+        }
+        return bytes;
+    }
+
+    public void cleanUp() {
+        group.removeListener(this);
+    }
+}
@@ -0,0 +1,71 @@
+package com.isaacph.server;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+
+import java.io.IOException;
+
+/**
+ * Turns the messages of one protocol into the body of a frame and back. The framing, a varint
+ * length before every body like protobuf's {@code writeDelimitedTo}, is done by the connections,
+ * so a codec only ever sees one message. Decoding reads straight out of the connection's pooled
+ * buffer, so a decoded message must not keep any reference to the input.
+ */
+public interface MessageCodec<T> {
+
+    /**
+     * Exactly the number of bytes {@link #encode(Object, CodedOutputStream)} writes
+     */
+    int encodedSize(T message);
+
+    void encode(T message, CodedOutputStream output) throws IOException;
+
+    /**
+     * Reads one message, the input is limited to the frame's body
+     */
+    T decode(CodedInputStream input) throws IOException;
+
+    /**
+     * Frames hold the serialized message
+     */
+    static <M extends MessageLite> MessageCodec<M> protobuf(Parser<M> parser) {
+        return new MessageCodec<>() {
+            @Override
+            public int encodedSize(M message) {
+                return message.getSerializedSize();
+            }
+
+            @Override
+            public void encode(M message, CodedOutputStream output) throws IOException {
+                message.writeTo(output);
+            }
+
+            @Override
+            public M decode(CodedInputStream input) throws IOException {
+                return parser.parseFrom(input);
+            }
+        };
+    }
+
+    /**
+     * Frames hold the bytes as they are, for raw packets
+     */
+    MessageCodec<byte[]> BYTES = new MessageCodec<>() {
+        @Override
+        public int encodedSize(byte[] message) {
+            return message.length;
+        }
+
+        @Override
+        public void encode(byte[] message, CodedOutputStream output) throws IOException {
+            output.writeRawBytes(message);
+        }
+
+        @Override
+        public byte[] decode(CodedInputStream input) throws IOException {
+            return input.readRawBytes(input.getBytesUntilLimit());
+        }
+    };
+}
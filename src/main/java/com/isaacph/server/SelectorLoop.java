@@ -0,0 +1,168 @@
+package com.isaacph.server;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One I/O thread of the server, running a selector over the connections assigned to it.
+ * Reads decode the stream into messages and hand them to the server's tick thread, writes send
+ * each connection's encoded buffers with gathering writes and only wait for the socket to become
+ * writable when it could not take everything.
+ */
+class SelectorLoop<T> implements Runnable, ConnectionDriver {
+
+    private final Server<T> server;
+    private final Selector selector;
+    private final Queue<ClientConnection<T>> registrations = new ConcurrentLinkedQueue<>();
+    private final Queue<ClientConnection<T>> scheduled = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+    /**
+     * Set once the loop has exited and drained its registrations for the last time
+     */
+    private volatile boolean closed = false;
+    private int connectionCount = 0;
+
+    SelectorLoop(Server<T> server) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Hands a newly accepted connection to this loop, from the accepting thread
+     */
+    void add(ClientConnection<T> connection) {
+        registrations.add(connection);
+        selector.wakeup();
+        // accepted just as the server stopped, nothing will register it now
+        if(closed) disconnectRegistrations();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void schedule(ClientConnection<?> connection) {
+        // only connections added to this loop are ever scheduled on it
+        scheduled.add((ClientConnection<T>) connection);
+        selector.wakeup();
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    int getConnectionCount() {
+        return connectionCount;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while(running) {
+                selector.select();
+                ClientConnection<T> connection;
+                while((connection = registrations.poll()) != null) {
+                    register(connection);
+                }
+                while((connection = scheduled.poll()) != null) {
+                    connection.flushScheduled.set(false);
+                    if(connection.key != null) write(connection);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    connection = attachment(key);
+                    if(key.isValid() && key.isReadable()) read(connection);
+                    if(key.isValid() && key.isWritable()) write(connection);
+                }
+            }
+        } catch(IOException e) {
+            e.printStackTrace();
+        } finally {
+            for(SelectionKey key : selector.keys()) {
+                disconnect(attachment(key));
+            }
+            closed = true;
+            disconnectRegistrations();
+            try {
+                selector.close();
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Closes connections that were handed over but never registered. They get a disconnected
+     * event without a connected one before it.
+     */
+    private void disconnectRegistrations() {
+        ClientConnection<T> connection;
+        while((connection = registrations.poll()) != null) {
+            disconnect(connection);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ClientConnection<T> attachment(SelectionKey key) {
+        return (ClientConnection<T>) key.attachment();
+    }
+
+    private void register(ClientConnection<T> connection) {
+        try {
+            connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+            ++connectionCount;
+            server.connected(connection);
+            // anything sent or a close asked for before registering was scheduled with no key to use
+            if(!connection.output.isEmpty() || connection.state != ClientConnection.State.OPEN) {
+                write(connection);
+            }
+        } catch(IOException e) {
+            disconnect(connection);
+        }
+    }
+
+    private void read(ClientConnection<T> connection) {
+        try {
+            if(connection.input.read(connection.channel, connection.sink) < 0) {
+                disconnect(connection);
+            }
+        } catch(IOException e) {
+            disconnect(connection);
+        }
+    }
+
+    private void write(ClientConnection<T> connection) {
+        if(connection.state == ClientConnection.State.CLOSED) return;
+        try {
+            if(!connection.output.write(connection.channel)) {
+                connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            connection.key.interestOps(SelectionKey.OP_READ);
+            if(connection.state == ClientConnection.State.CLOSING) disconnect(connection);
+        } catch(IOException e) {
+            disconnect(connection);
+        }
+    }
+
+    private void disconnect(ClientConnection<T> connection) {
+        if(connection.key != null) {
+            connection.key.cancel();
+        }
+        try {
+            connection.channel.close();
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+        if(connection.markDisconnected()) {
+            if(connection.key != null) --connectionCount;
+            connection.releaseBuffers();
+            server.disconnected(connection);
+        }
+    }
+}
@@ -1,12 +1,290 @@
 package com.isaacph.server;
 
-public class Server {
+import com.isaacph.TickClock;
 
-    private void run() {
-        System.out.println("Server");
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * TCP game server. One thread accepts connections and hands them to the I/O side, which depends
+ * on the {@link Mode}. The I/O threads never run game code: connects, packets and disconnects go
+ * into a queue that the tick thread drains at the start of every tick with {@link #poll(Handler)},
+ * and the game answers with {@link ClientConnection#send(Object)}, which encodes the message for
+ * the I/O side. Messages are decoded on the I/O threads with the server's {@link MessageCodec},
+ * and all connections share one {@link BufferPool}. {@link ServerBenchmark} compares the modes.
+ */
+public class Server<T> {
+
+    public static final int DEFAULT_PORT = 7777;
+    public static final int ACCEPT_BACKLOG = 4096;
+
+    public enum Mode {
+        /**
+         * A few {@link SelectorLoop} threads, each multiplexing its share of the connections
+         * over a non-blocking selector
+         */
+        SELECTOR,
+        /**
+         * Blocking I/O with a reading and a writing virtual thread per connection
+         */
+        VIRTUAL_THREADS
+    }
+
+    /**
+     * Game side of the server, called on the tick thread only
+     */
+    public interface Handler<T> {
+        void connected(ClientConnection<T> connection);
+        void received(ClientConnection<T> connection, T message);
+        void disconnected(ClientConnection<T> connection);
+    }
+
+    private enum EventType { CONNECTED, RECEIVED, DISCONNECTED }
+
+    private record Event<T>(EventType type, ClientConnection<T> connection, T message) {}
+
+    private final MessageCodec<T> codec;
+    private final BufferPool bufferPool = new BufferPool();
+    private final Queue<Event<T>> inbound = new ConcurrentLinkedQueue<>();
+    private final Map<Integer, ClientConnection<T>> connections = new ConcurrentHashMap<>();
+    private final List<SelectorLoop<T>> loops = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private VirtualThreadDriver<T> virtualThreads;
+    private Mode mode;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = false;
+    private int nextId = 0;
+
+    public Server(MessageCodec<T> codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Starts listening and the I/O threads in {@link Mode#SELECTOR} mode
+     */
+    public void start(int port, int ioThreads) throws IOException {
+        start(port, Mode.SELECTOR, ioThreads);
+    }
+
+    /**
+     * Starts listening and the I/O side, returns once the port is bound
+     * @param port 0 for any free port, see {@link #getPort()}
+     * @param ioThreads selector threads, unused with virtual threads
+     */
+    public void start(int port, Mode mode, int ioThreads) throws IOException {
+        this.mode = mode;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+        running = true;
+        if(mode == Mode.SELECTOR) {
+            for(int i = 0; i < Math.max(ioThreads, 1); ++i) {
+                SelectorLoop<T> loop = new SelectorLoop<>(this);
+                loops.add(loop);
+                threads.add(startThread(loop, "server-io-" + i));
+            }
+        } else {
+            virtualThreads = new VirtualThreadDriver<>(this);
+        }
+        threads.add(startThread(this::accept, "server-accept"));
+    }
+
+    private static Thread startThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private void accept() {
+        int next = 0;
+        boolean failing = false;
+        while(running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                failing = false;
+                channel.socket().setTcpNoDelay(true);
+                if(mode == Mode.VIRTUAL_THREADS) {
+                    ClientConnection<T> connection = new ClientConnection<>(nextId++, channel, virtualThreads, this);
+                    connected(connection);
+                    virtualThreads.start(connection);
+                    continue;
+                }
+                channel.configureBlocking(false);
+                SelectorLoop<T> loop = loops.get(next);
+                next = (next + 1) % loops.size();
+                loop.add(new ClientConnection<>(nextId++, channel, loop, this));
+            } catch(ClosedChannelException e) {
+                return;
+            } catch(IOException e) {
+                // usually out of file descriptors, wait instead of spinning on the same failure
+                if(!failing) System.err.println("Accepting connections failed: " + e.getMessage());
+                failing = true;
+                try {
+                    Thread.sleep(100);
+                } catch(InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    void connected(ClientConnection<T> connection) {
+        connections.put(connection.getId(), connection);
+        inbound.add(new Event<>(EventType.CONNECTED, connection, null));
+    }
+
+    void received(ClientConnection<T> connection, T message) {
+        inbound.add(new Event<>(EventType.RECEIVED, connection, message));
+    }
+
+    void disconnected(ClientConnection<T> connection) {
+        connections.remove(connection.getId());
+        inbound.add(new Event<>(EventType.DISCONNECTED, connection, null));
+    }
+
+    /**
+     * Passes everything that happened since the last call to the handler, on the calling thread
+     * @return the number of events handled
+     */
+    public int poll(Handler<T> handler) {
+        int count = 0;
+        Event<T> event;
+        while((event = inbound.poll()) != null) {
+            switch(event.type()) {
+                case CONNECTED -> handler.connected(event.connection());
+                case RECEIVED -> handler.received(event.connection(), event.message());
+                case DISCONNECTED -> handler.disconnected(event.connection());
+            }
+            ++count;
+        }
+        return count;
+    }
+
+    public Collection<ClientConnection<T>> getConnections() {
+        return Collections.unmodifiableCollection(connections.values());
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public MessageCodec<T> getCodec() {
+        return codec;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stops accepting, closes every connection and waits for the I/O threads to finish
+     */
+    public void stop() {
+        if(!running) return;
+        running = false;
+        try {
+            serverChannel.close();
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+        for(SelectorLoop<T> loop : loops) {
+            loop.stop();
+        }
+        if(mode == Mode.VIRTUAL_THREADS) {
+            for(ClientConnection<T> connection : connections.values()) {
+                try {
+                    connection.channel.close();
+                } catch(IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        for(Thread thread : threads) {
+            try {
+                thread.join(1000);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Runs the game ticks on the calling thread until the server stops
+     */
+    public void runTicks(TickClock clock, Handler<T> handler, Runnable tick) {
+        while(running) {
+            clock.advance();
+            while(clock.tick()) {
+                poll(handler);
+                tick.run();
+            }
+            try {
+                Thread.sleep((long) Math.ceil(clock.getTimeUntilTick() * 1000));
+            } catch(InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Until the game runs on the server it echoes every message back to its sender
+     */
+    private void run(int port, Mode mode, int ioThreads) {
+        try {
+            start(port, mode, ioThreads);
+        } catch(IOException e) {
+            throw new RuntimeException("Could not start the server on port " + port, e);
+        }
+        System.out.println("Server listening on port " + getPort() + (mode == Mode.SELECTOR
+            ? " with " + loops.size() + " I/O threads" : " with a virtual thread per connection"));
+        runTicks(new TickClock(), new Handler<>() {
+            @Override
+            public void connected(ClientConnection<T> connection) {
+                System.out.println(connection + " connected, " + getConnectionCount() + " online");
+            }
+
+            @Override
+            public void received(ClientConnection<T> connection, T message) {
+                connection.send(message);
+            }
+
+            @Override
+            public void disconnected(ClientConnection<T> connection) {
+                System.out.println(connection + " disconnected, " + getConnectionCount() + " online");
+            }
+        }, () -> {});
     }
 
+    /**
+     * Arguments are the port, the mode ({@code selector} or {@code virtual}) and the selector thread count
+     */
     public static void main(String... args) {
-        new Server().run();
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        Mode mode = args.length > 1 && args[1].startsWith("virtual") ? Mode.VIRTUAL_THREADS : Mode.SELECTOR;
+        int ioThreads = args.length > 2 ? Integer.parseInt(args[2]) : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        new Server<>(MessageCodec.BYTES).run(port, mode, ioThreads);
     }
 }
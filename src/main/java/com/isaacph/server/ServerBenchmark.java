@@ -0,0 +1,200 @@
+package com.isaacph.server;
+
+import com.google.protobuf.CodedOutputStream;
+import com.sun.management.UnixOperatingSystemMXBean;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares the {@link Server.Mode}s under load from loopback clients. Every client keeps one
+ * packet in flight, the server's tick side echoes it back, and the client sends the next one as
+ * soon as the echo arrives, so the results show packets per second, the round trip latency and
+ * what the connections cost in memory. The clients all run on one selector thread so the load
+ * generator itself does not need a thread per client. Memory per client is measured once every
+ * client is connected and before any traffic, so it is what an idle connection costs: neither mode
+ * holds a pooled direct buffer then, the virtual thread reader waits in a small heap buffer.
+ * Both ends of every connection are in this process, so it needs a file descriptor limit above
+ * twice the client count; the client count is cut down to fit and the cut is reported.
+ * Run with {@code gradle benchmark -PbenchmarkClass=com.isaacph.server.ServerBenchmark -PbenchmarkArgs="100 1000 10000"}
+ * (client counts).
+ */
+public class ServerBenchmark {
+
+    private static final int PAYLOAD = 64;
+    private static final int HEADER = CodedOutputStream.computeUInt32SizeNoTag(PAYLOAD);
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long MEASURE_NANOS = 3_000_000_000L;
+    private static final int MAX_LATENCY_MICROS = 1_000_000;
+    private static final int FD_HEADROOM = 256;
+
+    private static class Client {
+        final SocketChannel channel;
+        final ByteBuffer readBuffer = ByteBuffer.allocate((HEADER + PAYLOAD) * 2);
+        final ByteBuffer writeBuffer = ByteBuffer.allocate(HEADER + PAYLOAD);
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    public static void main(String... args) throws IOException {
+        int[] counts = args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+            : new int[] {100, 1000, 10000};
+        int ioThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        System.out.println(Runtime.getRuntime().availableProcessors() + " cores, " + ioThreads + " selector threads");
+        System.out.println("mode             clients   packets/s   p50 us   p99 us   heap KB/client   direct KB/client   JVM threads   pool allocations");
+        for(int clients : counts) {
+            for(Server.Mode mode : Server.Mode.values()) {
+                run(mode, clients, ioThreads);
+            }
+        }
+    }
+
+    private static void run(Server.Mode mode, int clientCount, int ioThreads) throws IOException {
+        // both ends of every connection count against the limit, and the JVM still needs some to load classes
+        if(ManagementFactory.getOperatingSystemMXBean() instanceof UnixOperatingSystemMXBean os) {
+            long limit = (os.getMaxFileDescriptorCount() - os.getOpenFileDescriptorCount() - FD_HEADROOM) / 2;
+            if(clientCount > limit) {
+                System.out.println("  only " + limit + " of " + clientCount + " clients fit the file descriptor limit of " + os.getMaxFileDescriptorCount());
+                clientCount = (int) limit;
+            }
+        }
+        long heapBefore = usedHeap(), directBefore = usedDirect();
+        Server<byte[]> server = new Server<>(MessageCodec.BYTES);
+        server.start(0, mode, ioThreads);
+        Server.Handler<byte[]> echo = new Server.Handler<>() {
+            @Override
+            public void connected(ClientConnection<byte[]> connection) {}
+
+            @Override
+            public void received(ClientConnection<byte[]> connection, byte[] packet) {
+                connection.send(packet);
+            }
+
+            @Override
+            public void disconnected(ClientConnection<byte[]> connection) {}
+        };
+        Thread tickThread = new Thread(() -> {
+            while(server.isRunning()) {
+                if(server.poll(echo) == 0) LockSupport.parkNanos(20_000);
+            }
+        }, "benchmark-tick");
+        tickThread.setDaemon(true);
+        tickThread.start();
+
+        Selector selector = Selector.open();
+        List<Client> clients = new ArrayList<>();
+        int failed = 0;
+        for(int i = 0; i < clientCount; ++i) {
+            try {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getPort()));
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                Client client = new Client(channel);
+                channel.register(selector, SelectionKey.OP_READ, client);
+                clients.add(client);
+            } catch(IOException e) {
+                ++failed;
+            }
+        }
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while(server.getConnectionCount() < clients.size() && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(1_000_000);
+        }
+        int accepted = server.getConnectionCount();
+        int serverThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        long heapPerClient = (usedHeap() - heapBefore) / Math.max(clients.size(), 1) / 1024;
+        long directPerClient = (usedDirect() - directBefore) / Math.max(clients.size(), 1) / 1024;
+
+        for(Client client : clients) send(client);
+        int[] latencies = new int[MAX_LATENCY_MICROS + 1];
+        long start = System.nanoTime(), measureStart = start + WARMUP_NANOS, end = measureStart + MEASURE_NANOS;
+        long packets = 0, allocationsBefore = -1;
+        while(true) {
+            long now = System.nanoTime();
+            if(now >= end) break;
+            if(now >= measureStart && allocationsBefore < 0) allocationsBefore = server.getBufferPool().getAllocations();
+            selector.select(10);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while(keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Client client = (Client) key.attachment();
+                if(client.channel.read(client.readBuffer) < 0) {
+                    key.cancel();
+                    continue;
+                }
+                ByteBuffer buffer = client.readBuffer.flip();
+                long received = System.nanoTime();
+                // every echo is PAYLOAD bytes, so its length prefix is always the same HEADER bytes
+                while(buffer.remaining() >= HEADER + PAYLOAD) {
+                    long sentAt = buffer.getLong(buffer.position() + HEADER);
+                    buffer.position(buffer.position() + HEADER + PAYLOAD);
+                    if(received >= measureStart) {
+                        ++latencies[(int) Math.min((received - sentAt) / 1000, MAX_LATENCY_MICROS)];
+                        ++packets;
+                    }
+                    send(client);
+                }
+                buffer.compact();
+            }
+        }
+
+        long poolAllocations = server.getBufferPool().getAllocations() - Math.max(allocationsBefore, 0);
+        for(Client client : clients) client.channel.close();
+        selector.close();
+        server.stop();
+        System.out.printf("%-16s %7d %11.0f %8d %8d %16d %18d %13d %18d%s%n", mode, clients.size(), packets / (MEASURE_NANOS / 1e9),
+            percentile(latencies, packets, 0.5), percentile(latencies, packets, 0.99), heapPerClient, directPerClient,
+            serverThreads, poolAllocations, failed > 0 || accepted < clients.size()
+                ? "   (" + failed + " could not connect, " + accepted + " accepted)" : "");
+    }
+
+    private static void send(Client client) throws IOException {
+        ByteBuffer buffer = client.writeBuffer.clear();
+        CodedOutputStream.newInstance(buffer.array()).writeUInt32NoTag(PAYLOAD);
+        buffer.position(HEADER);
+        buffer.putLong(System.nanoTime());
+        buffer.position(HEADER + PAYLOAD).flip();
+        // one small packet always fits in the socket buffer, there is only ever one in flight
+        client.channel.write(buffer);
+    }
+
+    private static long percentile(int[] histogram, long total, double fraction) {
+        long target = (long) Math.ceil(total * fraction), seen = 0;
+        for(int i = 0; i < histogram.length; ++i) {
+            seen += histogram[i];
+            if(seen >= target && target > 0) return i;
+        }
+        return 0;
+    }
+
+    private static long usedHeap() {
+        // direct buffers are freed by cleaners after a collection, give them a moment before measuring either
+        for(int i = 0; i < 2; ++i) {
+            System.gc();
+            LockSupport.parkNanos(100_000_000);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long usedDirect() {
+        for(BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if(pool.getName().equals("direct")) return pool.getMemoryUsed();
+        }
+        return 0;
+    }
+}
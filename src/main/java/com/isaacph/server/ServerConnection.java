@@ -1,7 +1,119 @@
 package com.isaacph.server;
 
-public class ServerConnection {
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
 
-    public ServerConnection() {
+/**
+ * The client's end of its connection to the server. It is driven from the client's own loop:
+ * {@link #send(Object)} only encodes, and {@link #update(MessageHandler)} writes what is encoded
+ * and reads whatever has arrived without ever blocking, so it can be called once per frame.
+ * Frames are the same as the server's, with buffers from a pool of the client's own.
+ */
+public class ServerConnection<T> implements Closeable {
+
+    public interface MessageHandler<T> {
+        void received(T message);
+    }
+
+    private final SocketChannel channel;
+    private final BufferPool bufferPool;
+    private final FrameReader<T> input;
+    private final FrameWriter<T> output;
+    private MessageHandler<T> handler;
+    private int received;
+    private final FrameReader.Sink<T> sink = message -> {
+        ++received;
+        handler.received(message);
+    };
+    private boolean open = true;
+
+    /**
+     * Connects, blocking until the connection is made or fails
+     */
+    public ServerConnection(String host, int port, MessageCodec<T> codec) throws IOException {
+        this(host, port, codec, new BufferPool());
+    }
+
+    /**
+     * Connects with buffers from the given pool, which may be shared between connections
+     */
+    public ServerConnection(String host, int port, MessageCodec<T> codec, BufferPool bufferPool) throws IOException {
+        this.bufferPool = bufferPool;
+        this.input = new FrameReader<>(bufferPool, codec);
+        this.output = new FrameWriter<>(bufferPool, codec);
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+    }
+
+    /**
+     * Encodes a message for the next {@link #update(MessageHandler)} or {@link #flush()}
+     * @throws IllegalArgumentException if the message is longer than a frame may be
+     */
+    public void send(T message) {
+        if(!open) return;
+        output.append(message);
+    }
+
+    /**
+     * Writes as much of the encoded messages as the socket takes right now
+     * @return true if everything was written
+     */
+    public boolean flush() throws IOException {
+        if(!open) return true;
+        return output.write(channel);
+    }
+
+    /**
+     * Flushes, then hands every whole message that has arrived to the handler
+     * @return the number of messages received, or -1 once the server has closed the connection
+     */
+    public int update(MessageHandler<T> handler) throws IOException {
+        if(!open) return -1;
+        flush();
+        this.handler = handler;
+        received = 0;
+        try {
+            // a read that stopped short of filling the buffer means the socket is drained
+            do {
+                if(input.read(channel, sink) < 0) {
+                    close();
+                    return received > 0 ? received : -1;
+                }
+            } while(input.filled());
+        } catch(IOException e) {
+            close();
+            throw e;
+        } finally {
+            this.handler = null;
+        }
+        return received;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public long getBytesRead() {
+        return input.getBytesRead();
+    }
+
+    public long getBytesWritten() {
+        return output.getBytesWritten();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(!open) return;
+        open = false;
+        channel.close();
+        input.release();
+        output.release();
     }
 }
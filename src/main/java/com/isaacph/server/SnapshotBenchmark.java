@@ -0,0 +1,162 @@
+package com.isaacph.server;
+
+import com.isaacph.entity.AnimationSystem;
+import com.isaacph.entity.EntityStore;
+import com.isaacph.entity.MovementSystem;
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares full snapshots every tick against deltas from each client's acknowledged baseline, with
+ * loopback clients that decode every snapshot and acknowledge it. A quarter of the entities move,
+ * all of them animate slowly, a few are created and removed every tick, and a few tiles change.
+ * Reports the average snapshot size per client, what that is per second at 60 ticks per second,
+ * how often a client got a full snapshot, how many snapshots were encoded per tick since clients
+ * on the same baseline share one, and the time to send one client's snapshot. SnapshotServerTest
+ * checks that clients rebuild exactly the server's entities and tiles.
+ * Run with {@code gradle benchmark -PbenchmarkClass=com.isaacph.server.SnapshotBenchmark -PbenchmarkArgs="16 2000"}
+ * (clients, entities).
+ */
+public class SnapshotBenchmark {
+
+    private static final float TICK = 1.0f / 60.0f;
+    private static final int TICKS = 600;
+    private static final int GRIDS = 16;
+    private static final int TILE_EDITS = 8;
+    private static final int CHURN = 2;
+
+    private static class Client {
+        final ServerConnection<byte[]> connection;
+        final ByteGrid.Group group = new ByteGrid.Group();
+        final SnapshotClient snapshots = new SnapshotClient(group);
+
+        Client(int port) throws IOException {
+            connection = new ServerConnection<>("127.0.0.1", port, MessageCodec.BYTES);
+        }
+    }
+
+    public static void main(String... args) throws IOException {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int entities = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        System.out.println(clients + " clients, " + entities + " entities, " + GRIDS * GRIDS + " grids");
+        System.out.println("snapshots   bytes/client/tick   KB/s/client at 60 Hz   full snapshots   encodes/tick   send us/client");
+        run(false, clients, entities);
+        run(true, clients, entities);
+    }
+
+    private static void run(boolean deltas, int clientCount, int entities) throws IOException {
+        Random random = new Random(1);
+        float side = GRIDS * ByteGrid.SIZE;
+        EntityStore store = new EntityStore(entities);
+        for(int i = 0; i < entities; ++i) {
+            boolean moving = i % 4 == 0;
+            store.create(random.nextFloat() * side, random.nextFloat() * side,
+                moving ? random.nextFloat() * 4 - 2 : 0, moving ? random.nextFloat() * 4 - 2 : 0, 4);
+        }
+        ByteGrid.Group group = new ByteGrid.Group();
+        for(int gx = 0; gx < GRIDS; ++gx) {
+            for(int gy = 0; gy < GRIDS; ++gy) {
+                ByteGrid grid = group.makeTileGrid(gx * ByteGrid.SIZE, gy * ByteGrid.SIZE);
+                for(int i = 0; i < grid.data.length; ++i) grid.data[i] = (byte) random.nextInt(4);
+            }
+        }
+        MovementSystem movement = new MovementSystem(0, 0, side, side);
+        AnimationSystem animation = new AnimationSystem(4);
+
+        int tick = 0;
+        SnapshotServer snapshots = new SnapshotServer(store, group, tick);
+        snapshots.deltas = deltas;
+        Server<byte[]> server = new Server<>(MessageCodec.BYTES);
+        server.start(0, Server.Mode.SELECTOR, 1);
+        Server.Handler<byte[]> handler = new Server.Handler<>() {
+            @Override
+            public void connected(ClientConnection<byte[]> connection) {
+                snapshots.addClient(connection);
+            }
+
+            @Override
+            public void received(ClientConnection<byte[]> connection, byte[] message) {
+                snapshots.received(connection, message);
+            }
+
+            @Override
+            public void disconnected(ClientConnection<byte[]> connection) {
+                snapshots.removeClient(connection);
+            }
+        };
+        List<Client> clients = new ArrayList<>();
+        for(int i = 0; i < clientCount; ++i) {
+            clients.add(new Client(server.getPort()));
+        }
+        while(snapshots.getClients().size() < clientCount) {
+            server.poll(handler);
+            Thread.onSpinWait();
+        }
+
+        long encodeNanos = 0, bytesBefore = 0, fullBefore = 0, encodesBefore = 0;
+        List<Integer> ids = new ArrayList<>();
+        for(int i = 0; i < entities; ++i) ids.add(i);
+        // the first half of the ticks warm up, and let the first full snapshots go out
+        for(int t = 0; t < TICKS; ++t) {
+            if(t == TICKS / 2) {
+                encodeNanos = 0;
+                bytesBefore = snapshots.getBytesSent();
+                fullBefore = fullSnapshots(snapshots);
+                encodesBefore = snapshots.getEncodes();
+            }
+            snapshots.beginTick(++tick);
+            server.poll(handler);
+            movement.update(store, TICK);
+            animation.update(store, TICK);
+            for(int i = 0; i < CHURN; ++i) {
+                store.remove(ids.remove(random.nextInt(ids.size())));
+                ids.add(store.create(random.nextFloat() * side, random.nextFloat() * side, 0, 0, 4));
+            }
+            for(int i = 0; i < TILE_EDITS; ++i) {
+                group.setTile((byte) random.nextInt(4), random.nextInt((int) side), random.nextInt((int) side));
+            }
+            long start = System.nanoTime();
+            snapshots.send();
+            encodeNanos += System.nanoTime() - start;
+            update(clients);
+        }
+        long measured = (long) (TICKS - TICKS / 2) * clientCount;
+        double bytes = (snapshots.getBytesSent() - bytesBefore) / (double) measured;
+        long full = fullSnapshots(snapshots) - fullBefore;
+        double encodes = (snapshots.getEncodes() - encodesBefore) / (double) (TICKS - TICKS / 2);
+
+        for(Client client : clients) {
+            client.connection.close();
+        }
+        server.stop();
+        snapshots.cleanUp();
+        System.out.printf("%-9s %19.0f %22.1f %16d %14.2f %16.1f%n", deltas ? "delta" : "full", bytes, bytes * 60 / 1024,
+            full, encodes, encodeNanos / 1000.0 / measured);
+    }
+
+    private static void update(List<Client> clients) throws IOException {
+        for(Client client : clients) {
+            client.connection.update(message -> {
+                try {
+                    byte[] ack = client.snapshots.received(message);
+                    if(ack != null) client.connection.send(ack);
+                } catch(IOException e) {
+                    throw new RuntimeException("Bad snapshot", e);
+                }
+            });
+        }
+    }
+
+    private static long fullSnapshots(SnapshotServer snapshots) {
+        long full = 0;
+        for(SnapshotServer.ClientState client : snapshots.getClients()) {
+            full += client.getFullSnapshots();
+        }
+        return full;
+    }
+
+}
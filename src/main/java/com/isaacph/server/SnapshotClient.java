@@ -0,0 +1,67 @@
+package com.isaacph.server;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+
+import java.io.IOException;
+
+/**
+ * The client's side of {@link SnapshotServer}: rebuilds each snapshot from the baseline it names,
+ * which the client kept because it acknowledged it, applies the tile changes to the client's
+ * group, and answers with an acknowledgement for the server to use as the next baseline.
+ */
+public class SnapshotClient {
+
+    private final ByteGrid.Group group;
+    private final EntitySnapshot[] history = new EntitySnapshot[SnapshotServer.HISTORY];
+    private EntitySnapshot latest;
+
+    public SnapshotClient(ByteGrid.Group group) {
+        this.group = group;
+        for(int i = 0; i < history.length; ++i) {
+            history[i] = new EntitySnapshot();
+        }
+    }
+
+    /**
+     * Applies a snapshot from the server
+     * @return the acknowledgement to send back, or null if the message is not a snapshot
+     * @throws IOException if the message is corrupt or names a baseline this client does not have
+     */
+    public byte[] received(byte[] message) throws IOException {
+        CodedInputStream input = CodedInputStream.newInstance(message);
+        if(input.readUInt32() != SnapshotServer.SNAPSHOT) return null;
+        int tick = input.readUInt32(), baselineTick = input.readSInt32();
+        EntitySnapshot baseline = null;
+        if(baselineTick >= 0) {
+            baseline = history[Math.floorMod(baselineTick, history.length)];
+            if(baseline.tick != baselineTick) throw new IOException("Snapshot " + tick + " is based on unknown tick " + baselineTick);
+        }
+        EntitySnapshot snapshot = history[Math.floorMod(tick, history.length)];
+        if(snapshot == baseline) throw new IOException("Snapshot " + tick + " is based on tick " + baselineTick + ", too old to keep");
+        snapshot.readDelta(baseline, input, tick);
+        TileChangeLog.read(input, group);
+        latest = snapshot;
+        return ack(tick);
+    }
+
+    /**
+     * The newest snapshot received, null before the first
+     */
+    public EntitySnapshot getLatest() {
+        return latest;
+    }
+
+    public static byte[] ack(int tick) {
+        byte[] message = new byte[CodedOutputStream.computeUInt32SizeNoTag(SnapshotServer.ACK) + CodedOutputStream.computeUInt32SizeNoTag(tick)];
+        CodedOutputStream output = CodedOutputStream.newInstance(message);
+        try {
+            output.writeUInt32NoTag(SnapshotServer.ACK);
+            output.writeUInt32NoTag(tick);
+        } catch(IOException e) {
+            throw new RuntimeException("Encoding an acknowledgement failed", e);
+        }
+        return message;
+    }
+}
@@ -0,0 +1,265 @@
+package com.isaacph.server;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.isaacph.entity.EntityStore;
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sends every client the world state each tick as a delta against the last snapshot that client
+ * acknowledged. The server keeps the last {@link #HISTORY} snapshots in a ring shared by all
+ * clients, and per client only the newest tick it acknowledged, which picks its baseline out of
+ * the ring. A client that has not acknowledged anything recent enough gets a full snapshot.
+ * Tiles go through a {@link TileChangeLog}, or an {@link InterestManager} when clients should only
+ * get the chunks they can see. Runs on the tick thread.
+ * <p>
+ * Messages are varints: a snapshot is {@link #SNAPSHOT}, its tick, the zigzag baseline tick or -1,
+ * the entity delta of {@link EntitySnapshot} and the tile changes of {@link TileChangeLog}.
+ * An acknowledgement from a client is {@link #ACK} and the tick.
+ */
+public class SnapshotServer {
+
+    public static final int HISTORY = 32;
+    public static final int SNAPSHOT = 1, ACK = 2;
+    /**
+     * Weight of the newest snapshot in each client's average size
+     */
+    private static final double AVERAGE_WEIGHT = 0.05;
+
+    /**
+     * What the server knows about one client's view of the world, and what it has cost to send
+     */
+    public static class ClientState {
+        public final ClientConnection<byte[]> connection;
+        private int ackedTick = -1;
+        private long bytesSent = 0, snapshots = 0, fullSnapshots = 0;
+        private int lastBytes = 0;
+        private double averageBytes = 0;
+
+        ClientState(ClientConnection<byte[]> connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Newest tick the client has acknowledged, -1 if none
+         */
+        public int getAckedTick() {
+            return ackedTick;
+        }
+
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        public long getSnapshots() {
+            return snapshots;
+        }
+
+        /**
+         * Snapshots sent with no baseline, because the client had not acknowledged a recent one
+         */
+        public long getFullSnapshots() {
+            return fullSnapshots;
+        }
+
+        public int getLastBytes() {
+            return lastBytes;
+        }
+
+        /**
+         * Moving average of the snapshot size in bytes
+         */
+        public double getAverageBytes() {
+            return averageBytes;
+        }
+
+        private void sent(int bytes, boolean full) {
+            bytesSent += bytes;
+            lastBytes = bytes;
+            averageBytes = snapshots == 0 ? bytes : averageBytes + (bytes - averageBytes) * AVERAGE_WEIGHT;
+            ++snapshots;
+            if(full) ++fullSnapshots;
+        }
+    }
+
+    private final EntityStore store;
+    private final TileChangeLog tiles;
+    private final EntitySnapshot[] history = new EntitySnapshot[HISTORY];
+    private final Map<Integer, ClientState> clients = new HashMap<>();
+    /**
+     * One encoder for every message, each one is copied out of the buffer and the buffer reset
+     */
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+    private final CodedOutputStream output = CodedOutputStream.newInstance(buffer, 4096);
+    /**
+     * Messages encoded during the current {@link #send()}, by the baseline tick they were encoded against
+     */
+    private int[] encodedTicks = new int[4];
+    private byte[][] encodedMessages = new byte[4][];
+    private long encodes = 0;
+    private int tick;
+    /**
+     * Send deltas, can be turned off to compare against full snapshots every tick
+     */
+    public boolean deltas = true;
+    /**
+     * Send tile changes with the snapshots, turned off by an {@link InterestManager} that streams them itself
+     */
+    public boolean sendTiles = true;
+
+    /**
+     * @param tick the first tick, {@link #beginTick(int)} goes up from here
+     */
+    public SnapshotServer(EntityStore store, ByteGrid.Group group, int tick) {
+        this.store = store;
+        this.tiles = new TileChangeLog(group, tick);
+        this.tick = tick;
+        for(int i = 0; i < HISTORY; ++i) {
+            history[i] = new EntitySnapshot();
+        }
+    }
+
+    public ClientState addClient(ClientConnection<byte[]> connection) {
+        ClientState client = new ClientState(connection);
+        clients.put(connection.getId(), client);
+        return client;
+    }
+
+    public void removeClient(ClientConnection<byte[]> connection) {
+        clients.remove(connection.getId());
+    }
+
+    public ClientState getClient(ClientConnection<byte[]> connection) {
+        return clients.get(connection.getId());
+    }
+
+    public Collection<ClientState> getClients() {
+        return Collections.unmodifiableCollection(clients.values());
+    }
+
+    /**
+     * Takes an acknowledgement out of a message from a client
+     * @return false if the message is something else, for the game to handle
+     */
+    public boolean received(ClientConnection<byte[]> connection, byte[] message) {
+        CodedInputStream input = CodedInputStream.newInstance(message);
+        try {
+            if(input.readUInt32() != ACK) return false;
+            ClientState client = clients.get(connection.getId());
+            int acked = input.readUInt32();
+            // an acknowledgement from the future is a broken client, stay on the old baseline
+            if(client != null && acked > client.ackedTick && acked <= tick) client.ackedTick = acked;
+            return true;
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Edits to the tiles from now on belong to the given tick, call before simulating it
+     */
+    public void beginTick(int tick) {
+        this.tick = tick;
+        tiles.setTick(tick);
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * Captures the state at the end of the current tick and sends every client its snapshot
+     */
+    public void send() {
+        EntitySnapshot current = history[Math.floorMod(tick, HISTORY)];
+        current.capture(store, tick);
+        // clients that acknowledged the same tick get the same bytes, encode those once
+        int encodedCount = 0;
+        for(ClientState client : clients.values()) {
+            if(!client.connection.isOpen()) continue;
+            int acked = deltas ? client.ackedTick : -1;
+            byte[] message = null;
+            for(int i = 0; i < encodedCount && message == null; ++i) {
+                if(encodedTicks[i] == acked) message = encodedMessages[i];
+            }
+            if(message == null) {
+                message = encode(acked, current);
+                if(encodedCount == encodedTicks.length) {
+                    encodedTicks = Arrays.copyOf(encodedTicks, encodedCount * 2);
+                    encodedMessages = Arrays.copyOf(encodedMessages, encodedCount * 2);
+                }
+                encodedTicks[encodedCount] = acked;
+                encodedMessages[encodedCount++] = message;
+            }
+            client.sent(message.length, baseline(acked) == null);
+            client.connection.send(message);
+        }
+        Arrays.fill(encodedMessages, 0, encodedCount, null);
+    }
+
+    /**
+     * The snapshot of the given tick if it is still in the ring
+     */
+    private EntitySnapshot baseline(int acked) {
+        EntitySnapshot baseline = acked >= 0 ? history[Math.floorMod(acked, HISTORY)] : null;
+        return baseline != null && baseline.tick == acked ? baseline : null;
+    }
+
+    private byte[] encode(int acked, EntitySnapshot current) {
+        EntitySnapshot baseline = baseline(acked);
+        try {
+            output.writeUInt32NoTag(SNAPSHOT);
+            output.writeUInt32NoTag(tick);
+            output.writeSInt32NoTag(baseline == null ? -1 : acked);
+            current.writeDelta(baseline, output);
+            if(sendTiles) {
+                tiles.write(acked, output);
+            } else {
+                // an empty change section, no grids and no tiles
+                output.writeUInt32NoTag(0);
+                output.writeUInt32NoTag(0);
+            }
+            output.flush();
+        } catch(IOException e) {
+            throw new RuntimeException("Encoding a snapshot failed", e);
+        }
+        byte[] message = buffer.toByteArray();
+        buffer.reset();
+        ++encodes;
+        return message;
+    }
+
+    /**
+     * Bytes sent to every client so far
+     */
+    public long getBytesSent() {
+        long bytes = 0;
+        for(ClientState client : clients.values()) {
+            bytes += client.bytesSent;
+        }
+        return bytes;
+    }
+
+    /**
+     * Snapshots encoded so far, fewer than were sent when clients shared a baseline
+     */
+    public long getEncodes() {
+        return encodes;
+    }
+
+    public TileChangeLog getTileChangeLog() {
+        return tiles;
+    }
+
+    public void cleanUp() {
+        tiles.cleanUp();
+    }
+}
@@ -0,0 +1,345 @@
+package com.isaacph.server;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Records the edits made to a {@link ByteGrid.Group} tick by tick, so each client can be sent
+ * only what changed since the tick it last acknowledged. Single tile edits are kept for the last
+ * {@link #getHistory()} ticks; a client whose baseline is older than that, or who has none, is sent
+ * every grid changed since its baseline whole instead, which every grid's last changed tick tells.
+ * Grids replaced wholesale are always sent whole. Grids taken out of the group are sent as removed,
+ * and stay in the table as removed so a baseline of any age still learns they are gone.
+ * <p>
+ * The change section is a list of removed grid positions, then a list of whole grids, their
+ * position and SIZE * SIZE tiles, then a list of single tiles as world coordinates and the tile.
+ * Tiles inside a grid sent whole or removed are left out.
+ */
+public class TileChangeLog implements ByteGrid.Group.Listener {
+
+    public static final int DEFAULT_HISTORY = 64;
+
+    /**
+     * Which grids a reader has, changes to any other grid are left out
+     */
+    public interface ChunkFilter {
+        boolean contains(int gx, int gy);
+    }
+
+    private static final int TILES = ByteGrid.SIZE * ByteGrid.SIZE;
+    /**
+     * Table value of a grid taken out of the group
+     */
+    private static final ByteGrid REMOVED = new ByteGrid(0, 0);
+
+    /**
+     * Edits made during one tick
+     */
+    private static class TickChanges {
+        int tick = Integer.MIN_VALUE;
+        int tileCount = 0;
+        int[] tileX = new int[16], tileY = new int[16];
+        byte[] tiles = new byte[16];
+        int gridCount = 0;
+        /**
+         * Grids replaced or removed, which of the two is the table's latest entry for the grid
+         */
+        long[] grids = new long[4];
+
+        void reset(int tick) {
+            this.tick = tick;
+            tileCount = 0;
+            gridCount = 0;
+        }
+    }
+
+    private final ByteGrid.Group group;
+    private final TickChanges[] history;
+    private int tick = 0;
+    /**
+     * Tick the log was made at, nothing before it is known
+     */
+    private final int startTick;
+    /**
+     * Open addressing table from packed grid coordinates to the grid and the tick it last changed
+     */
+    private long[] gridKeys = new long[64];
+    private ByteGrid[] gridValues = new ByteGrid[64];
+    private int[] gridVersions = new int[64];
+    private int gridCount = 0;
+    /**
+     * Grids picked to be sent whole or as removed by the current {@link #write(int, CodedOutputStream)}
+     */
+    private long[] selected = new long[16];
+    private int selectedCount = 0;
+    private long tilesWritten = 0, gridsWritten = 0, removalsWritten = 0;
+
+    public TileChangeLog(ByteGrid.Group group, int tick) {
+        this(group, tick, DEFAULT_HISTORY);
+    }
+
+    /**
+     * Starts tracking the group, everything in it so far counts as changed at the given tick
+     */
+    public TileChangeLog(ByteGrid.Group group, int tick, int history) {
+        this.group = group;
+        this.history = new TickChanges[history];
+        for(int i = 0; i < history; ++i) {
+            this.history[i] = new TickChanges();
+        }
+        this.tick = tick;
+        this.startTick = tick;
+        for(ByteGrid grid : group.map.values()) {
+            putGrid(key(grid.x, grid.y), grid, tick);
+        }
+        group.addListener(this);
+    }
+
+    private static long key(int gx, int gy) {
+        return (long) gx << 32 | (gy & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private int findGrid(long key) {
+        int mask = gridKeys.length - 1;
+        for(int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            if(gridValues[slot] == null || gridKeys[slot] == key) return slot;
+        }
+    }
+
+    private void putGrid(long key, ByteGrid grid, int version) {
+        if((gridCount + 1) * 2 > gridKeys.length) {
+            long[] oldKeys = gridKeys;
+            ByteGrid[] oldValues = gridValues;
+            int[] oldVersions = gridVersions;
+            gridKeys = new long[oldKeys.length * 2];
+            gridValues = new ByteGrid[oldKeys.length * 2];
+            gridVersions = new int[oldKeys.length * 2];
+            gridCount = 0;
+            for(int i = 0; i < oldKeys.length; ++i) {
+                if(oldValues[i] != null) putGrid(oldKeys[i], oldValues[i], oldVersions[i]);
+            }
+        }
+        int slot = findGrid(key);
+        if(gridValues[slot] == null) ++gridCount;
+        gridKeys[slot] = key;
+        gridValues[slot] = grid;
+        gridVersions[slot] = version;
+    }
+
+    /**
+     * Edits from now on are recorded as made during the given tick, which must not go backwards
+     */
+    public void setTick(int tick) {
+        this.tick = tick;
+        TickChanges changes = history[Math.floorMod(tick, history.length)];
+        if(changes.tick != tick) changes.reset(tick);
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    public int getHistory() {
+        return history.length;
+    }
+
+    private TickChanges current() {
+        TickChanges changes = history[Math.floorMod(tick, history.length)];
+        if(changes.tick != tick) changes.reset(tick);
+        return changes;
+    }
+
+    @Override
+    public void tileChanged(int x, int y, byte previous, byte tile) {
+        TickChanges changes = current();
+        if(changes.tileCount == changes.tiles.length) {
+            int capacity = changes.tiles.length * 2;
+            changes.tileX = Arrays.copyOf(changes.tileX, capacity);
+            changes.tileY = Arrays.copyOf(changes.tileY, capacity);
+            changes.tiles = Arrays.copyOf(changes.tiles, capacity);
+        }
+        changes.tileX[changes.tileCount] = x;
+        changes.tileY[changes.tileCount] = y;
+        changes.tiles[changes.tileCount++] = tile;
+        int slot = findGrid(key(Math.floorDiv(x, ByteGrid.SIZE), Math.floorDiv(y, ByteGrid.SIZE)));
+        if(gridValues[slot] != null) gridVersions[slot] = tick;
+    }
+
+    @Override
+    public void gridChanged(ByteGrid grid) {
+        long key = key(grid.x, grid.y);
+        recordGrid(key);
+        putGrid(key, grid, tick);
+    }
+
+    @Override
+    public void gridRemoved(ByteGrid grid) {
+        long key = key(grid.x, grid.y);
+        recordGrid(key);
+        putGrid(key, REMOVED, tick);
+    }
+
+    private void recordGrid(long key) {
+        TickChanges changes = current();
+        if(changes.gridCount == changes.grids.length) {
+            changes.grids = Arrays.copyOf(changes.grids, changes.gridCount * 2);
+        }
+        changes.grids[changes.gridCount++] = key;
+    }
+
+    /**
+     * True if every single tile edit after the given tick is still recorded
+     */
+    public boolean covers(int since) {
+        return since >= startTick && since >= tick - history.length;
+    }
+
+    private void select(long key) {
+        if(isSelected(key)) return;
+        append(key);
+    }
+
+    private void append(long key) {
+        if(selectedCount == selected.length) selected = Arrays.copyOf(selected, selectedCount * 2);
+        selected[selectedCount++] = key;
+    }
+
+    private boolean isSelected(long key) {
+        for(int i = 0; i < selectedCount; ++i) {
+            if(selected[i] == key) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the changes made after the given tick up to the current one
+     * @param since the reader's baseline tick, or -1 if it has nothing
+     */
+    public void write(int since, CodedOutputStream output) throws IOException {
+        write(since, output, null);
+    }
+
+    private static boolean accepts(ChunkFilter filter, long key) {
+        return filter == null || filter.contains((int) (key >> 32), (int) key);
+    }
+
+    /**
+     * Writes the changes made after the given tick up to the current one, to grids the filter accepts
+     * @param filter the grids the reader has, null for all of them
+     */
+    public void write(int since, CodedOutputStream output, ChunkFilter filter) throws IOException {
+        selectedCount = 0;
+        boolean tiles = covers(since);
+        if(tiles) {
+            for(int t = since + 1; t <= tick; ++t) {
+                TickChanges changes = history[Math.floorMod(t, history.length)];
+                if(changes.tick != t) continue;
+                for(int i = 0; i < changes.gridCount; ++i) {
+                    if(accepts(filter, changes.grids[i])) select(changes.grids[i]);
+                }
+            }
+        } else {
+            for(int slot = 0; slot < gridKeys.length; ++slot) {
+                // a reader with nothing has no removed grids to drop
+                if(gridValues[slot] == null || gridValues[slot] == REMOVED && since < 0) continue;
+                if(gridVersions[slot] > since && accepts(filter, gridKeys[slot])) {
+                    // every key is in the table once, no need to look for it among those picked
+                    append(gridKeys[slot]);
+                }
+            }
+        }
+        int removals = 0;
+        for(int i = 0; i < selectedCount; ++i) {
+            if(gridValues[findGrid(selected[i])] == REMOVED) ++removals;
+        }
+        output.writeUInt32NoTag(removals);
+        for(int i = 0; i < selectedCount; ++i) {
+            if(gridValues[findGrid(selected[i])] != REMOVED) continue;
+            output.writeSInt32NoTag((int) (selected[i] >> 32));
+            output.writeSInt32NoTag((int) selected[i]);
+        }
+        output.writeUInt32NoTag(selectedCount - removals);
+        for(int i = 0; i < selectedCount; ++i) {
+            ByteGrid grid = gridValues[findGrid(selected[i])];
+            if(grid == REMOVED) continue;
+            output.writeSInt32NoTag(grid.x);
+            output.writeSInt32NoTag(grid.y);
+            output.writeRawBytes(grid.data);
+        }
+        removalsWritten += removals;
+        gridsWritten += selectedCount - removals;
+        if(!tiles) {
+            output.writeUInt32NoTag(0);
+            return;
+        }
+        int count = 0;
+        for(int pass = 0; pass < 2; ++pass) {
+            // the first pass counts, since the count goes first
+            if(pass == 1) output.writeUInt32NoTag(count);
+            for(int t = since + 1; t <= tick; ++t) {
+                TickChanges changes = history[Math.floorMod(t, history.length)];
+                if(changes.tick != t) continue;
+                for(int i = 0; i < changes.tileCount; ++i) {
+                    long key = key(Math.floorDiv(changes.tileX[i], ByteGrid.SIZE), Math.floorDiv(changes.tileY[i], ByteGrid.SIZE));
+                    if(selectedCount > 0 && isSelected(key) || !accepts(filter, key)) continue;
+                    if(pass == 0) {
+                        ++count;
+                        continue;
+                    }
+                    output.writeSInt32NoTag(changes.tileX[i]);
+                    output.writeSInt32NoTag(changes.tileY[i]);
+                    output.writeRawByte(changes.tiles[i]);
+                }
+            }
+        }
+        tilesWritten += count;
+    }
+
+    /**
+     * Applies changes written by {@link #write(int, CodedOutputStream)} to a group, telling its listeners
+     */
+    public static void read(CodedInputStream input, ByteGrid.Group group) throws IOException {
+        int removals = input.readUInt32();
+        for(int i = 0; i < removals; ++i) {
+            group.removeGrid(input.readSInt32(), input.readSInt32());
+        }
+        int grids = input.readUInt32();
+        for(int i = 0; i < grids; ++i) {
+            ByteGrid grid = new ByteGrid(input.readSInt32(), input.readSInt32());
+            grid.data = input.readRawBytes(TILES);
+            group.putGrid(grid);
+        }
+        int tiles = input.readUInt32();
+        for(int i = 0; i < tiles; ++i) {
+            int x = input.readSInt32(), y = input.readSInt32();
+            group.setTile(input.readRawByte(), x, y);
+        }
+    }
+
+    public long getTilesWritten() {
+        return tilesWritten;
+    }
+
+    public long getGridsWritten() {
+        return gridsWritten;
+    }
+
+    public long getRemovalsWritten() {
+        return removalsWritten;
+    }
+
+    public void cleanUp() {
+        group.removeListener(this);
+    }
+}
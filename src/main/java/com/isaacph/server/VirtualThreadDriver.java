@@ -0,0 +1,75 @@
+package com.isaacph.server;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs each connection on two virtual threads with plain blocking I/O, one reading and one
+ * writing, instead of multiplexing connections over a selector. A virtual thread blocked on its
+ * socket only parks, so this scales to many connections with straight line code, at the cost
+ * of a stack and a scheduler hop per wakeup. An idle reader waits in a small heap buffer rather
+ * than a pooled one, see {@link FrameReader#readBlocking}. Each thread gives its own buffers back
+ * to the pool when it finishes, since the other one may still be using its own.
+ */
+class VirtualThreadDriver<T> implements ConnectionDriver {
+
+    private final Server<T> server;
+
+    VirtualThreadDriver(Server<T> server) {
+        this.server = server;
+    }
+
+    void start(ClientConnection<T> connection) {
+        connection.writer = Thread.ofVirtual().name("client-write-" + connection.getId()).unstarted(() -> write(connection));
+        Thread.ofVirtual().name("client-read-" + connection.getId()).start(() -> read(connection));
+        connection.writer.start();
+    }
+
+    @Override
+    public void schedule(ClientConnection<?> connection) {
+        // a permit given before the writer parks makes the park return at once, so no wakeup is lost
+        if(connection.writer != null) LockSupport.unpark(connection.writer);
+    }
+
+    private void read(ClientConnection<T> connection) {
+        try {
+            while(connection.state != ClientConnection.State.CLOSED) {
+                if(connection.input.readBlocking(connection.channel, connection.sink) < 0) break;
+            }
+        } catch(IOException e) {
+            // closed from the other side or by the writer
+        }
+        disconnect(connection);
+        connection.input.release();
+    }
+
+    private void write(ClientConnection<T> connection) {
+        try {
+            while(connection.state != ClientConnection.State.CLOSED) {
+                connection.flushScheduled.set(false);
+                // blocking writes take everything, so the loop only repeats for a send that raced the write
+                while(!connection.output.write(connection.channel) || !connection.output.isEmpty()) {
+                    if(connection.state == ClientConnection.State.CLOSED) break;
+                }
+                if(connection.state == ClientConnection.State.CLOSING) break;
+                LockSupport.park(this);
+            }
+        } catch(IOException e) {
+            // the reader sees the same failure and reports it
+        }
+        disconnect(connection);
+        connection.output.release();
+    }
+
+    private void disconnect(ClientConnection<T> connection) {
+        try {
+            connection.channel.close();
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+        if(connection.markDisconnected()) {
+            LockSupport.unpark(connection.writer);
+            server.disconnected(connection);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.isaacph.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lightweight CPU timers for named phases of a frame.
+ * Phases are registered once and then referred to by id, so timing a phase is
+ * just two {@link System#nanoTime()} calls and an array write.
+ * The last {@code capacity} frames are kept in ring buffers. Only the thread
+ * running the frame writes to them; other threads may read the published frames.
+ * Bytes allocated by the frame's thread are recorded too, when the JVM can measure them.
+ */
+public class FrameProfiler {
+
+    private final int capacity;
+    private final List<String> phaseNames = new ArrayList<>();
+    private long[][] phaseTimes;
+    private long[] phaseStart;
+    private final long[] frameTimes;
+    private final long[] frameAllocations;
+    private final com.sun.management.ThreadMXBean allocationBean;
+    private long frameStartAllocated;
+    private final long[] sortScratch;
+
+    private long frameStart;
+    private int current;
+    /**
+     * Number of completed frames, written last so readers see finished ring entries
+     */
+    private volatile long frameCount;
+
+    public FrameProfiler(int capacity) {
+        this.capacity = capacity;
+        this.frameTimes = new long[capacity];
+        this.frameAllocations = new long[capacity];
+        this.allocationBean = allocationBean();
+        this.sortScratch = new long[capacity];
+        this.phaseTimes = new long[0][];
+        this.phaseStart = new long[0];
+    }
+
+    /**
+     * Registers a phase and returns the id used to time it
+     */
+    public int register(String name) {
+        int index = phaseNames.indexOf(name);
+        if(index != -1) return index;
+        phaseNames.add(name);
+        phaseTimes = Arrays.copyOf(phaseTimes, phaseNames.size());
+        phaseTimes[phaseNames.size() - 1] = new long[capacity];
+        phaseStart = Arrays.copyOf(phaseStart, phaseNames.size());
+        return phaseNames.size() - 1;
+    }
+
+    public void beginFrame() {
+        current = (int) (frameCount % capacity);
+        for(long[] times : phaseTimes) {
+            times[current] = 0;
+        }
+        if(allocationBean != null) {
+            frameStartAllocated = allocationBean.getCurrentThreadAllocatedBytes();
+        }
+        frameStart = System.nanoTime();
+    }
+
+    public void endFrame() {
+        frameTimes[current] = System.nanoTime() - frameStart;
+        if(allocationBean != null) {
+            frameAllocations[current] = allocationBean.getCurrentThreadAllocatedBytes() - frameStartAllocated;
+        }
+        frameCount = frameCount + 1;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        if(!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean)) {
+            return null;
+        }
+        if(!bean.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        bean.setThreadAllocatedMemoryEnabled(true);
+        return bean;
+    }
+
+    public boolean isAllocationTracked() {
+        return allocationBean != null;
+    }
+
+    public void begin(int phase) {
+        phaseStart[phase] = System.nanoTime();
+    }
+
+    /**
+     * Ends a phase, a phase timed more than once in a frame accumulates
+     */
+    public void end(int phase) {
+        phaseTimes[phase][current] += System.nanoTime() - phaseStart[phase];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * The number of frames currently held in the ring buffers
+     */
+    public int getSampleCount() {
+        return (int) Math.min(frameCount, capacity);
+    }
+
+    public List<String> getPhaseNames() {
+        return phaseNames;
+    }
+
+    /**
+     * Frame time in seconds, {@code age} frames before the latest one
+     */
+    public double getFrameTime(int age) {
+        return frameTimes[ringIndex(age)] / 1e9;
+    }
+
+    /**
+     * Bytes allocated on the frame's thread, {@code age} frames before the latest one
+     */
+    public long getFrameAllocation(int age) {
+        return frameAllocations[ringIndex(age)];
+    }
+
+    public double getPhaseTime(int phase, int age) {
+        return phaseTimes[phase][ringIndex(age)] / 1e9;
+    }
+
+    private int ringIndex(int age) {
+        return (int) (((frameCount - 1 - age) % capacity + capacity) % capacity);
+    }
+
+    /**
+     * Average time of a phase in seconds over the buffered frames
+     */
+    public double getPhaseAverage(int phase) {
+        int count = getSampleCount();
+        if(count == 0) return 0;
+        long total = 0;
+        for(int i = 0; i < count; ++i) {
+            total += phaseTimes[phase][i];
+        }
+        return total / 1e9 / count;
+    }
+
+    public double getAllocationAverage() {
+        int count = getSampleCount();
+        if(count == 0) return 0;
+        long total = 0;
+        for(int i = 0; i < count; ++i) {
+            total += frameAllocations[i];
+        }
+        return total / (double) count;
+    }
+
+    public double getFrameAverage() {
+        int count = getSampleCount();
+        if(count == 0) return 0;
+        long total = 0;
+        for(int i = 0; i < count; ++i) {
+            total += frameTimes[i];
+        }
+        return total / 1e9 / count;
+    }
+
+    /**
+     * Frame time percentile in seconds over the buffered frames
+     * @param percentile between 0 and 1
+     */
+    public double getFramePercentile(double percentile) {
+        int count = getSampleCount();
+        if(count == 0) return 0;
+        System.arraycopy(frameTimes, 0, sortScratch, 0, count);
+        Arrays.sort(sortScratch, 0, count);
+        int index = (int) Math.ceil(percentile * count) - 1;
+        return sortScratch[Math.min(Math.max(index, 0), count - 1)] / 1e9;
+    }
+}
@@ -0,0 +1,27 @@
+package com.isaacph.util;
+
+/**
+ * Whether the incubating Vector API ({@code jdk.incubator.vector}) can be used.
+ * The module has to be added with {@code --add-modules jdk.incubator.vector} on both the compiler
+ * and the JVM command line. Classes that use it are only loaded after checking {@link #AVAILABLE},
+ * so everything still runs, with the scalar code paths, on a JVM started without the module.
+ * Run with {@code -Dvector=false} to force the scalar paths for comparison.
+ */
+public final class VectorSupport {
+
+    public static final boolean AVAILABLE = check();
+
+    private VectorSupport() {}
+
+    private static boolean check() {
+        if(!Boolean.parseBoolean(System.getProperty("vector", "true"))) {
+            return false;
+        }
+        try {
+            Class.forName("jdk.incubator.vector.FloatVector");
+            return true;
+        } catch(ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.isaacph.world;
+
+import com.isaacph.entity.EntityStore;
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+
+import java.util.Random;
+
+/**
+ * Times {@link TileCollider} moving many boxes through a generated map and casting rays across it,
+ * against a {@link NaiveCollider} reading each tile with {@link ByteGrid.Group#getTile(int, int)}.
+ * TileColliderTest checks that both end up in the same places.
+ * Run with {@code gradle benchmark -PbenchmarkClass=com.isaacph.world.CollisionBenchmark -PbenchmarkArgs="20000 120"}
+ * (movers, ticks).
+ */
+public class CollisionBenchmark {
+
+    private static final byte WALL = 1;
+    private static final int TILES = 1024;
+    private static final float HALF_SIZE = 0.3f;
+    private static final float TICK = 1.0f / 60.0f;
+    private static final int RAYS = 20000;
+    private static final float RAY_LENGTH = 200;
+
+    public static void main(String... args) {
+        int movers = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 120;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        // rooms of open floor with walls scattered through a quarter of the grids
+        Random random = new Random(1);
+        ByteGrid.Group group = new ByteGrid.Group();
+        for(int gx = 0; gx < TILES / ByteGrid.SIZE; ++gx) {
+            for(int gy = 0; gy < TILES / ByteGrid.SIZE; ++gy) {
+                group.makeTileGrid(gx * ByteGrid.SIZE, gy * ByteGrid.SIZE);
+                if(random.nextInt(4) != 0) continue;
+                for(int i = 0; i < 40; ++i) {
+                    group.setTile(WALL, gx * ByteGrid.SIZE + random.nextInt(ByteGrid.SIZE), gy * ByteGrid.SIZE + random.nextInt(ByteGrid.SIZE));
+                }
+            }
+        }
+        TileCollider collider = new TileCollider(group, tile -> tile == WALL, threads);
+        NaiveCollider naive = new NaiveCollider(group, tile -> tile == WALL);
+        collider.bounce = naive.bounce = true;
+
+        EntityStore fast = new EntityStore(movers), slow = new EntityStore(movers);
+        for(int i = 0; i < movers; ++i) {
+            float x, y;
+            do {
+                x = 1 + random.nextFloat() * (TILES - 2);
+                y = 1 + random.nextFloat() * (TILES - 2);
+            } while(collider.overlaps(x - HALF_SIZE, y - HALF_SIZE, x + HALF_SIZE, y + HALF_SIZE));
+            float vx = random.nextFloat() * 20 - 10, vy = random.nextFloat() * 20 - 10;
+            fast.create(x, y, vx, vy, 1);
+            slow.create(x, y, vx, vy, 1);
+        }
+
+        // warm up both the same way so the stores stay comparable
+        for(int tick = 0; tick < ticks; ++tick) {
+            naive.resolve(slow, HALF_SIZE, HALF_SIZE, TICK);
+            collider.resolve(fast, HALF_SIZE, HALF_SIZE, TICK);
+        }
+        long start = System.nanoTime();
+        for(int tick = 0; tick < ticks; ++tick) naive.resolve(slow, HALF_SIZE, HALF_SIZE, TICK);
+        double naiveTime = (System.nanoTime() - start) / 1e6 / ticks;
+        start = System.nanoTime();
+        for(int tick = 0; tick < ticks; ++tick) collider.resolve(fast, HALF_SIZE, HALF_SIZE, TICK);
+        double fastTime = (System.nanoTime() - start) / 1e6 / ticks;
+        System.out.printf("%d movers: bitmaps %.3f ms/tick on %d threads, getTile %.3f ms/tick%n",
+            movers, fastTime, threads, naiveTime);
+
+        TileCollider.Hit hit = new TileCollider.Hit(), expected = new TileCollider.Hit();
+        float[] rays = new float[RAYS * 4];
+        for(int i = 0; i < rays.length; ++i) rays[i] = i % 4 < 2 ? random.nextFloat() * TILES : random.nextFloat() * 2 - 1;
+        int hits = 0;
+        for(int i = 0; i < RAYS; ++i) {
+            naive.naiveRaycast(rays[i * 4], rays[i * 4 + 1], rays[i * 4 + 2], rays[i * 4 + 3], RAY_LENGTH, expected);
+            collider.raycast(rays[i * 4], rays[i * 4 + 1], rays[i * 4 + 2], rays[i * 4 + 3], RAY_LENGTH, hit);
+        }
+        start = System.nanoTime();
+        for(int i = 0; i < RAYS; ++i) {
+            if(naive.naiveRaycast(rays[i * 4], rays[i * 4 + 1], rays[i * 4 + 2], rays[i * 4 + 3], RAY_LENGTH, expected)) ++hits;
+        }
+        double naiveRays = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        for(int i = 0; i < RAYS; ++i) {
+            collider.raycast(rays[i * 4], rays[i * 4 + 1], rays[i * 4 + 2], rays[i * 4 + 3], RAY_LENGTH, hit);
+        }
+        double fastRays = (System.nanoTime() - start) / 1e6;
+        System.out.printf("%d rays of %.0f: bitmaps %.2f ms, getTile %.2f ms; %d hit%n",
+            RAYS, RAY_LENGTH, fastRays, naiveRays, hits);
+
+        collider.cleanUp();
+        naive.cleanUp();
+    }
+
+    /**
+     * Reference for {@link TileCollider} that sweeps by testing every tile in the swept area and walks
+     * rays tile by tile, reading each tile with {@link ByteGrid.Group#getTile(int, int)}.
+     * Slow but simple, for the benchmark to time against and TileColliderTest to compare with. Its
+     * single thread means it starts no worker pool.
+     */
+    static class NaiveCollider extends TileCollider {
+        private final ByteGrid.Group group;
+        private final RangeFinder.TileFilter solidFilter;
+
+        NaiveCollider(ByteGrid.Group group, RangeFinder.TileFilter solidFilter) {
+            super(group, solidFilter, 1);
+            this.group = group;
+            this.solidFilter = solidFilter;
+        }
+
+        @Override
+        public boolean sweep(float minX, float minY, float maxX, float maxY, float dx, float dy, Hit hit) {
+            hit.hit = false;
+            hit.time = 1;
+            if(dx == 0 && dy == 0) return false;
+            int x0 = (int) Math.floor(Math.min(minX, minX + dx)), x1 = (int) Math.ceil(Math.max(maxX, maxX + dx)) - 1;
+            int y0 = (int) Math.floor(Math.min(minY, minY + dy)), y1 = (int) Math.ceil(Math.max(maxY, maxY + dy)) - 1;
+            for(int x = x0; x <= x1; ++x) {
+                for(int y = y0; y <= y1; ++y) {
+                    if(solidFilter.blocks(group.getTile(x, y))) sweepTile(minX, minY, maxX, maxY, dx, dy, x, y, hit);
+                }
+            }
+            return hit.hit;
+        }
+
+        /**
+         * Tile by tile ray walk
+         */
+        boolean naiveRaycast(float ox, float oy, float dx, float dy, float maxDistance, Hit hit) {
+            maxDistance = Math.min(maxDistance, MAX_RAY_DISTANCE);
+            float length = (float) Math.sqrt(dx * dx + dy * dy);
+            float ux = dx / length, uy = dy / length;
+            int x = (int) Math.floor(ox), y = (int) Math.floor(oy);
+            int stepX = ux > 0 ? 1 : -1, stepY = uy > 0 ? 1 : -1;
+            float maxX = (x + (stepX > 0 ? 1 : 0) - ox) / ux, maxY = (y + (stepY > 0 ? 1 : 0) - oy) / uy;
+            float t = 0;
+            while(t <= maxDistance) {
+                if(solidFilter.blocks(group.getTile(x, y))) {
+                    hit.tileX = x;
+                    hit.tileY = y;
+                    hit.time = t;
+                    return true;
+                }
+                if(maxX < maxY) {
+                    t = maxX;
+                    x += stepX;
+                    maxX += 1 / Math.abs(ux);
+                } else {
+                    t = maxY;
+                    y += stepY;
+                    maxY += 1 / Math.abs(uy);
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.isaacph.world;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Per viewer visibility over a {@link ByteGrid.Group} by recursive shadowcasting.
+ * Each of the eight octants around a viewer is scanned row by row outward, and an opaque tile
+ * narrows the range of slopes the following rows can be seen through, so every tile in the
+ * radius is visited at most once. Opacity comes from the tile values through a filter.
+ * <p>
+ * Results are cached per {@link Viewer}. A viewer is only recomputed after it moves or changes
+ * radius, or when a tile within its radius changes opacity, which the field finds out by listening
+ * to the group. {@link #update()} recomputes every stale viewer, splitting them across a worker
+ * pool. Edit the group and call update from the same thread.
+ */
+public class FieldOfView implements ByteGrid.Group.Listener {
+
+    /* octant transforms from (column, row) in the scan to world offsets */
+    private static final int[] XX = {1, 0, 0, -1, -1, 0, 0, 1};
+    private static final int[] XY = {0, 1, -1, 0, 0, -1, 1, 0};
+    private static final int[] YX = {0, 1, 1, 0, 0, -1, -1, 0};
+    private static final int[] YY = {1, 0, 0, 1, -1, 0, 0, -1};
+
+    /**
+     * Stale viewers below this count are recomputed on the calling thread
+     */
+    private static final int PARALLEL_THRESHOLD = 16;
+
+    public static class Viewer {
+        private int x, y, radius;
+        private boolean stale = true;
+        private final TileBitmap visible = new TileBitmap();
+
+        private Viewer(int x, int y, int radius) {
+            this.x = x;
+            this.y = y;
+            this.radius = radius;
+        }
+
+        public void moveTo(int x, int y) {
+            if(x == this.x && y == this.y) return;
+            this.x = x;
+            this.y = y;
+            stale = true;
+        }
+
+        public void setRadius(int radius) {
+            if(radius == this.radius) return;
+            this.radius = radius;
+            stale = true;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public int getRadius() {
+            return radius;
+        }
+
+        /**
+         * True until the next {@link FieldOfView#update()} after a move or a change in view
+         */
+        public boolean isStale() {
+            return stale;
+        }
+
+        /**
+         * Whether the tile was visible at the last update
+         */
+        public boolean canSee(int x, int y) {
+            return visible.get(x, y);
+        }
+
+        public void forEachVisible(RangeFinder.TileConsumer consumer) {
+            visible.forEach(consumer);
+        }
+
+        public int getVisibleCount() {
+            return visible.count();
+        }
+
+        boolean covers(int tileX, int tileY) {
+            return Math.abs(tileX - x) <= radius && Math.abs(tileY - y) <= radius;
+        }
+    }
+
+    private final ByteGrid.Group group;
+    private final boolean[] opaque = new boolean[256];
+    private final List<Viewer> viewers = new ArrayList<>();
+    private final List<Viewer> stale = new ArrayList<>();
+    private final ThreadLocal<TileBitmap> opacity = ThreadLocal.withInitial(TileBitmap::new);
+    private final ExecutorService workers;
+    private final int threads;
+    private int recomputed = 0;
+
+    public FieldOfView(ByteGrid.Group group, RangeFinder.TileFilter opaqueFilter, int threads) {
+        this.group = group;
+        for(int b = 0; b < 256; ++b) {
+            opaque[b] = opaqueFilter.blocks((byte) b);
+        }
+        this.threads = Math.max(threads, 1);
+        workers = Executors.newFixedThreadPool(this.threads, r -> {
+            Thread thread = new Thread(r, "field-of-view");
+            thread.setDaemon(true);
+            return thread;
+        });
+        group.addListener(this);
+    }
+
+    public Viewer addViewer(int x, int y, int radius) {
+        Viewer viewer = new Viewer(x, y, radius);
+        viewers.add(viewer);
+        return viewer;
+    }
+
+    public void removeViewer(Viewer viewer) {
+        viewers.remove(viewer);
+    }
+
+    @Override
+    public void tileChanged(int x, int y, byte previous, byte tile) {
+        if(opaque[previous & 0xFF] == opaque[tile & 0xFF]) return;
+        for(Viewer viewer : viewers) {
+            if(!viewer.stale && viewer.covers(x, y)) viewer.stale = true;
+        }
+    }
+
+    @Override
+    public void gridChanged(ByteGrid grid) {
+        int minX = grid.x * ByteGrid.SIZE, minY = grid.y * ByteGrid.SIZE;
+        for(Viewer viewer : viewers) {
+            if(viewer.x + viewer.radius >= minX && viewer.x - viewer.radius < minX + ByteGrid.SIZE
+                && viewer.y + viewer.radius >= minY && viewer.y - viewer.radius < minY + ByteGrid.SIZE) {
+                viewer.stale = true;
+            }
+        }
+    }
+
+    @Override
+    public void gridRemoved(ByteGrid grid) {
+        gridChanged(grid);
+    }
+
+    /**
+     * Recomputes every stale viewer
+     * @return the number recomputed
+     */
+    public int update() {
+        stale.clear();
+        for(Viewer viewer : viewers) {
+            if(viewer.stale) stale.add(viewer);
+        }
+        compute(stale);
+        recomputed = stale.size();
+        return recomputed;
+    }
+
+    /**
+     * Recomputes the given viewers whether they are stale or not, in parallel when there are enough
+     */
+    public void compute(Collection<Viewer> batch) {
+        if(batch.size() < PARALLEL_THRESHOLD || threads == 1) {
+            for(Viewer viewer : batch) compute(viewer);
+            return;
+        }
+        List<Viewer> list = batch instanceof List<Viewer> l ? l : new ArrayList<>(batch);
+        int slice = (list.size() + threads - 1) / threads;
+        List<Future<?>> futures = new ArrayList<>();
+        for(int first = 0; first < list.size(); first += slice) {
+            List<Viewer> part = list.subList(first, Math.min(first + slice, list.size()));
+            futures.add(workers.submit(() -> {
+                for(Viewer viewer : part) compute(viewer);
+            }));
+        }
+        try {
+            for(Future<?> future : futures) {
+                future.get();
+            }
+        } catch(InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Field of view update failed", e);
+        }
+    }
+
+    /**
+     * Recomputes one viewer on the calling thread
+     */
+    public void compute(Viewer viewer) {
+        int r = viewer.radius;
+        TileBitmap opacity = this.opacity.get();
+        opacity.reset(viewer.x - r, viewer.y - r, 2 * r + 1, 2 * r + 1);
+        opacity.readTiles(group, opaque);
+        TileBitmap visible = viewer.visible;
+        visible.reset(viewer.x - r, viewer.y - r, 2 * r + 1, 2 * r + 1);
+        visible.set(viewer.x, viewer.y);
+        for(int octant = 0; octant < 8; ++octant) {
+            castLight(viewer.x, viewer.y, r, 1, 1.0f, 0.0f, XX[octant], XY[octant], YX[octant], YY[octant], opacity, visible);
+        }
+        viewer.stale = false;
+    }
+
+    /**
+     * Scans one octant from a row outward, lighting tiles with slopes between start and end
+     */
+    private static void castLight(int cx, int cy, int radius, int row, float start, float end,
+                                  int xx, int xy, int yx, int yy, TileBitmap opacity, TileBitmap visible) {
+        if(start < end) return;
+        int radiusSquared = radius * radius;
+        float newStart = 0;
+        for(int j = row; j <= radius; ++j) {
+            int dy = -j;
+            boolean blocked = false;
+            for(int dx = -j; dx <= 0; ++dx) {
+                float leftSlope = (dx - 0.5f) / (dy + 0.5f);
+                float rightSlope = (dx + 0.5f) / (dy - 0.5f);
+                if(start < rightSlope) continue;
+                if(end > leftSlope) break;
+                int x = cx + dx * xx + dy * xy;
+                int y = cy + dx * yx + dy * yy;
+                if(dx * dx + dy * dy <= radiusSquared) {
+                    visible.set(x, y);
+                }
+                boolean wall = opacity.get(x, y);
+                if(blocked) {
+                    if(wall) {
+                        newStart = rightSlope;
+                    } else {
+                        blocked = false;
+                        start = newStart;
+                    }
+                } else if(wall && j < radius) {
+                    // everything behind this wall on the next rows is in its shadow
+                    blocked = true;
+                    castLight(cx, cy, radius, j + 1, start, leftSlope, xx, xy, yx, yy, opacity, visible);
+                    newStart = rightSlope;
+                }
+            }
+            if(blocked) break;
+        }
+    }
+
+    public int getRecomputed() {
+        return recomputed;
+    }
+
+    public List<Viewer> getViewers() {
+        return viewers;
+    }
+
+    public void cleanUp() {
+        group.removeListener(this);
+        workers.shutdownNow();
+    }
+}
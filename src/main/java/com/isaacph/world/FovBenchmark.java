@@ -0,0 +1,66 @@
+package com.isaacph.world;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+
+import java.util.Random;
+
+/**
+ * Times {@link FieldOfView} for many viewers on a generated map: a full recompute on one thread,
+ * the same batch on the worker pool, and an incremental update after a few edits. FieldOfViewTest
+ * checks the results.
+ * Run with {@code gradle benchmark -PbenchmarkClass=com.isaacph.world.FovBenchmark -PbenchmarkArgs="2000 12"}
+ * (viewers, radius).
+ */
+public class FovBenchmark {
+
+    private static final byte WALL = 1;
+    private static final int TILES = 512;
+
+    public static void main(String... args) {
+        int viewerCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int radius = args.length > 1 ? Integer.parseInt(args[1]) : 12;
+        RangeFinder.TileFilter wall = tile -> tile == WALL;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        Random random = new Random(1);
+        ByteGrid.Group group = new ByteGrid.Group();
+        for(int i = 0; i < TILES * TILES / 8; ++i) {
+            group.setTile(WALL, random.nextInt(TILES), random.nextInt(TILES));
+        }
+        FieldOfView field = new FieldOfView(group, wall, threads);
+        for(int i = 0; i < viewerCount; ++i) {
+            field.addViewer(random.nextInt(TILES), random.nextInt(TILES), radius);
+        }
+
+        FieldOfView single = new FieldOfView(group, wall, 1);
+        for(FieldOfView.Viewer viewer : field.getViewers()) {
+            single.addViewer(viewer.getX(), viewer.getY(), radius);
+        }
+        for(int i = 0; i < 3; ++i) single.compute(single.getViewers());
+        long start = System.nanoTime();
+        single.compute(single.getViewers());
+        double singleTime = (System.nanoTime() - start) / 1e6;
+
+        for(int i = 0; i < 3; ++i) field.compute(field.getViewers());
+        start = System.nanoTime();
+        field.compute(field.getViewers());
+        double parallelTime = (System.nanoTime() - start) / 1e6;
+        long visible = 0;
+        for(FieldOfView.Viewer viewer : field.getViewers()) visible += viewer.getVisibleCount();
+
+        int edits = 50;
+        for(int i = 0; i < edits; ++i) {
+            int x = random.nextInt(TILES), y = random.nextInt(TILES);
+            group.setTile(group.getTile(x, y) == WALL ? 0 : WALL, x, y);
+        }
+        start = System.nanoTime();
+        int recomputed = field.update();
+        double incrementalTime = (System.nanoTime() - start) / 1e6;
+
+        System.out.printf("%d viewers, radius %d, %d visible tiles each on average%n", viewerCount, radius, visible / viewerCount);
+        System.out.printf("full recompute: %.2f ms on 1 thread, %.2f ms on %d threads%n", singleTime, parallelTime, threads);
+        System.out.printf("after %d edits: %d viewers stale, update %.2f ms%n", edits, recomputed, incrementalTime);
+        field.cleanUp();
+        single.cleanUp();
+    }
+}
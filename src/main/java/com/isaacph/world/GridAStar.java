@@ -0,0 +1,115 @@
+package com.isaacph.world;
+
+import com.isaacph.util.MathUtil;
+
+import java.util.Arrays;
+
+/**
+ * A* over the passable bits of a {@link TileBitmap}, moving in the four {@link MathUtil#DIRECTIONS}.
+ * All search state is in int arrays indexed by tile within the bitmap, stamped with a generation
+ * so nothing has to be cleared between searches. Not thread safe, use one per thread.
+ */
+public class GridAStar {
+
+    private int[] g = new int[0];
+    private int[] parent = new int[0];
+    private int[] stamp = new int[0];
+    private int generation = 0;
+    private final NodeHeap open = new NodeHeap();
+
+    private int width, minX, minY;
+    private int expanded;
+
+    /**
+     * Finds a shortest path between two tiles of the bitmap
+     * @param append path to add the tiles to, the start is skipped if the path already ends there
+     * @return the number of steps, or -1 if there is no path
+     */
+    public int search(TileBitmap passable, int startX, int startY, int goalX, int goalY, Path append) {
+        expanded = 0;
+        if(!passable.get(startX, startY) || !passable.get(goalX, goalY)) return -1;
+        prepare(passable);
+        int start = index(startX, startY), goal = index(goalX, goalY);
+        g[start] = 0;
+        parent[start] = -1;
+        stamp[start] = generation;
+        open.clear();
+        open.push(start, NodeHeap.key(heuristic(start, goalX, goalY), 0));
+        while(!open.isEmpty()) {
+            int node = open.pop();
+            // a node is closed by negating its stamp, entries pushed before a better one are stale
+            if(stamp[node] == -generation) continue;
+            stamp[node] = -generation;
+            ++expanded;
+            if(node == goal) {
+                if(append != null) appendPath(goal, append);
+                return g[goal];
+            }
+            int nodeX = node % width, nodeY = node / width;
+            for(int d = 0; d < 4; ++d) {
+                int nx = nodeX + MathUtil.DIRECTIONS[d].x, ny = nodeY + MathUtil.DIRECTIONS[d].y;
+                if(!passable.get(nx + minX, ny + minY)) continue;
+                int next = ny * width + nx;
+                int cost = g[node] + 1;
+                if(stamp[next] == -generation) continue;
+                if(stamp[next] == generation && g[next] <= cost) continue;
+                stamp[next] = generation;
+                g[next] = cost;
+                parent[next] = node;
+                open.push(next, NodeHeap.key(cost + heuristic(next, goalX, goalY), cost));
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Tiles taken off the open set by the last search
+     */
+    public int getExpanded() {
+        return expanded;
+    }
+
+    private void prepare(TileBitmap passable) {
+        width = passable.width;
+        minX = passable.minX;
+        minY = passable.minY;
+        int tiles = passable.width * passable.height;
+        if(g.length < tiles) {
+            g = new int[tiles];
+            parent = new int[tiles];
+            stamp = new int[tiles];
+            generation = 0;
+        }
+        if(++generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+    }
+
+    private int index(int x, int y) {
+        return (y - minY) * width + (x - minX);
+    }
+
+    private int heuristic(int node, int goalX, int goalY) {
+        return Math.abs(node % width + minX - goalX) + Math.abs(node / width + minY - goalY);
+    }
+
+    private void appendPath(int goal, Path path) {
+        int steps = g[goal];
+        int first = path.length;
+        boolean skipStart = path.length > 0;
+        int node = goal;
+        // written backwards into place, so reserve the room first
+        for(int i = 0; i <= steps; ++i) path.add(0, 0);
+        for(int i = steps; i >= 0; --i) {
+            path.x[first + i] = node % width + minX;
+            path.y[first + i] = node / width + minY;
+            node = parent[node];
+        }
+        if(skipStart && path.x[first - 1] == path.x[first] && path.y[first - 1] == path.y[first]) {
+            System.arraycopy(path.x, first + 1, path.x, first, steps);
+            System.arraycopy(path.y, first + 1, path.y, first, steps);
+            --path.length;
+        }
+    }
+}
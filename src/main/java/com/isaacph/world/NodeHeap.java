@@ -0,0 +1,66 @@
+package com.isaacph.world;
+
+import java.util.Arrays;
+
+/**
+ * Binary min heap of int nodes ordered by a long key, for the searches' open sets.
+ * A node can be pushed again with a better key instead of decreasing it in place,
+ * the search skips stale entries when they come out.
+ */
+final class NodeHeap {
+
+    private int[] nodes = new int[64];
+    private long[] keys = new long[64];
+    private int size = 0;
+
+    /**
+     * Key ordering by f and, between equal f, preferring the larger g, which is closer to the goal
+     */
+    static long key(int f, int g) {
+        return (long) f << 32 | (Integer.MAX_VALUE - g);
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void push(int node, long key) {
+        if(size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        int i = size++;
+        while(i > 0) {
+            int parent = (i - 1) >>> 1;
+            if(keys[parent] <= key) break;
+            nodes[i] = nodes[parent];
+            keys[i] = keys[parent];
+            i = parent;
+        }
+        nodes[i] = node;
+        keys[i] = key;
+    }
+
+    int pop() {
+        int top = nodes[0];
+        int node = nodes[--size];
+        long key = keys[size];
+        int i = 0;
+        while(true) {
+            int child = 2 * i + 1;
+            if(child >= size) break;
+            if(child + 1 < size && keys[child + 1] < keys[child]) ++child;
+            if(key <= keys[child]) break;
+            nodes[i] = nodes[child];
+            keys[i] = keys[child];
+            i = child;
+        }
+        nodes[i] = node;
+        keys[i] = key;
+        return top;
+    }
+}
@@ -0,0 +1,45 @@
+package com.isaacph.world;
+
+import org.joml.Vector2i;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A path as tile coordinates, start and goal included
+ */
+public class Path {
+
+    public int[] x = new int[32], y = new int[32];
+    public int length = 0;
+
+    public void clear() {
+        length = 0;
+    }
+
+    public void add(int x, int y) {
+        if(length == this.x.length) {
+            this.x = Arrays.copyOf(this.x, length * 2);
+            this.y = Arrays.copyOf(this.y, length * 2);
+        }
+        this.x[length] = x;
+        this.y[length] = y;
+        ++length;
+    }
+
+    /**
+     * Number of moves along the path
+     */
+    public int getSteps() {
+        return Math.max(length - 1, 0);
+    }
+
+    public List<Vector2i> toList() {
+        List<Vector2i> list = new ArrayList<>(length);
+        for(int i = 0; i < length; ++i) {
+            list.add(new Vector2i(x[i], y[i]));
+        }
+        return list;
+    }
+}
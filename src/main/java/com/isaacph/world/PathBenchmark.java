@@ -0,0 +1,123 @@
+package com.isaacph.world;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+
+import java.util.Random;
+
+/**
+ * Times {@link Pathfinder} on a large generated map against plain A* over the whole map,
+ * reporting how much longer the hierarchical paths are, batch throughput on the worker pool,
+ * and the cost of incremental updates after edits. PathfinderTest checks that the paths are
+ * valid and agree with plain A* on reachability.
+ * Run with {@code gradle benchmark -PbenchmarkClass=com.isaacph.world.PathBenchmark -PbenchmarkArgs="64 2000"}
+ * (map size in grids, queries).
+ */
+public class PathBenchmark {
+
+    private static final byte WALL = 1;
+
+    public static void main(String... args) {
+        int grids = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int tiles = grids * ByteGrid.SIZE;
+        Random random = new Random(1);
+
+        ByteGrid.Group group = new ByteGrid.Group();
+        for(int gx = 0; gx < grids; ++gx) {
+            for(int gy = 0; gy < grids; ++gy) {
+                group.makeTileGrid(gx * ByteGrid.SIZE, gy * ByteGrid.SIZE);
+            }
+        }
+        // scattered rocks and long walls with gaps in them
+        for(int i = 0; i < tiles * tiles / 10; ++i) {
+            group.setTile(WALL, random.nextInt(tiles), random.nextInt(tiles));
+        }
+        for(int i = 0; i < tiles / 8; ++i) {
+            boolean horizontal = random.nextBoolean();
+            int x = random.nextInt(tiles), y = random.nextInt(tiles), length = 20 + random.nextInt(60);
+            for(int j = 0; j < length; ++j) {
+                if(random.nextInt(12) == 0) continue;
+                int wx = horizontal ? x + j : x, wy = horizontal ? y : y + j;
+                if(wx < tiles && wy < tiles) group.setTile(WALL, wx, wy);
+            }
+        }
+        RangeFinder.TileFilter wall = tile -> tile == WALL;
+        TileBitmap whole = new TileBitmap();
+        whole.reset(0, 0, tiles, tiles);
+        for(int x = 0; x < tiles; ++x) {
+            for(int y = 0; y < tiles; ++y) {
+                if(group.getTile(x, y) != WALL) whole.set(x, y);
+            }
+        }
+
+        long start = System.nanoTime();
+        int threads = Runtime.getRuntime().availableProcessors();
+        Pathfinder pathfinder = new Pathfinder(group, wall, threads);
+        System.out.printf("%d x %d tiles, abstraction of %d nodes built in %.1f ms%n",
+            tiles, tiles, pathfinder.getNodeCount(), (System.nanoTime() - start) / 1e6);
+
+        int[] queries = new int[queryCount * 4];
+        for(int i = 0; i < queryCount; ++i) {
+            int sx, sy, tx, ty;
+            do {
+                sx = random.nextInt(tiles);
+                sy = random.nextInt(tiles);
+            } while(!whole.get(sx, sy));
+            do {
+                tx = random.nextInt(tiles);
+                ty = random.nextInt(tiles);
+            } while(!whole.get(tx, ty));
+            queries[i * 4] = sx;
+            queries[i * 4 + 1] = sy;
+            queries[i * 4 + 2] = tx;
+            queries[i * 4 + 3] = ty;
+        }
+
+        // plain A* gives the optimal lengths to compare against
+        GridAStar flat = new GridAStar();
+        int[] optimal = new int[queryCount];
+        long expanded = 0;
+        start = System.nanoTime();
+        for(int i = 0; i < queryCount; ++i) {
+            optimal[i] = flat.search(whole, queries[i * 4], queries[i * 4 + 1], queries[i * 4 + 2], queries[i * 4 + 3], null);
+            expanded += flat.getExpanded();
+        }
+        double flatTime = (System.nanoTime() - start) / 1e6 / queryCount;
+
+        Path path = new Path();
+        for(int i = 0; i < queryCount; ++i) {
+            pathfinder.findPath(queries[i * 4], queries[i * 4 + 1], queries[i * 4 + 2], queries[i * 4 + 3], path);
+        }
+        start = System.nanoTime();
+        long extra = 0, optimalTotal = 0;
+        for(int i = 0; i < queryCount; ++i) {
+            boolean found = pathfinder.findPath(queries[i * 4], queries[i * 4 + 1], queries[i * 4 + 2], queries[i * 4 + 3], path);
+            if(found && optimal[i] >= 0) {
+                extra += path.getSteps() - optimal[i];
+                optimalTotal += optimal[i];
+            }
+        }
+        double hierarchicalTime = (System.nanoTime() - start) / 1e6 / queryCount;
+
+        start = System.nanoTime();
+        pathfinder.findPaths(queries);
+        double batchTime = (System.nanoTime() - start) / 1e6;
+
+        System.out.printf("plain A*: %.3f ms/query, %d tiles expanded/query%n", flatTime, expanded / queryCount);
+        System.out.printf("HPA*: %.3f ms/query (%.0fx), paths %.2f%% longer than optimal%n",
+            hierarchicalTime, flatTime / hierarchicalTime, 100.0 * extra / Math.max(optimalTotal, 1));
+        System.out.printf("batch of %d on %d threads: %.1f ms, %.0f queries/s%n",
+            queryCount, threads, batchTime, queryCount / batchTime * 1000);
+
+        // a handful of edits only rebuilds the grids around them
+        start = System.nanoTime();
+        int edits = 100;
+        for(int i = 0; i < edits; ++i) {
+            int x = random.nextInt(tiles), y = random.nextInt(tiles);
+            group.setTile(group.getTile(x, y) == WALL ? 0 : WALL, x, y);
+        }
+        int rebuilt = pathfinder.update();
+        System.out.printf("%d edits: %d grids rebuilt in %.2f ms%n", edits, rebuilt, (System.nanoTime() - start) / 1e6);
+        pathfinder.cleanUp();
+    }
+}
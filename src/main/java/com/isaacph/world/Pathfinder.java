@@ -0,0 +1,513 @@
+package com.isaacph.world;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import com.isaacph.util.MathUtil;
+import org.joml.Vector2i;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Hierarchical A* (HPA*) over the grids of a {@link ByteGrid.Group}.
+ * Every grid is a cluster. Where two neighbouring grids share an open stretch of border, the
+ * stretch gets one entrance in the middle, or one at each end if it is long, and each entrance is a
+ * pair of abstract nodes, one on each side, a step apart. Nodes in the same grid are joined by their
+ * walking distance inside the grid. A query searches this small graph, then fills in the tiles of
+ * each leg with a {@link GridAStar} confined to one grid, so long paths across open ground expand a
+ * few nodes per grid instead of every tile. Paths are near optimal rather than exact.
+ * <p>
+ * Only tiles in grids that exist in the group can be walked on. The pathfinder listens to the group
+ * and marks a grid dirty when one of its tiles changes between blocked and open or the grid is added
+ * or removed, and {@link #update()} rebuilds only the dirty grids and the borders and distances of
+ * their neighbours. Call update and edit the group from the same thread; queries can run on any
+ * thread, including the worker pool behind {@link #findPaths(int[])}.
+ */
+public class Pathfinder implements ByteGrid.Group.Listener {
+
+    private static final int SIZE = ByteGrid.SIZE;
+    /**
+     * Border stretches at least this long get an entrance at each end instead of one in the middle
+     */
+    private static final int ENTRANCE_SPLIT = 6;
+    /* sides are indexed like MathUtil.DIRECTIONS: +x, +y, -x, -y */
+    private static final int SIDES = 4;
+
+    private static final class Chunk {
+        final int gx, gy;
+        final TileBitmap passable = new TileBitmap();
+        final int[][] sideNodes = new int[SIDES][SIZE];
+        final int[] sideCount = new int[SIDES];
+        /**
+         * Every node of the chunk, and the walking distance between each pair, -1 if unreachable
+         */
+        int[] nodes = new int[0];
+        int nodeCount = 0;
+        int[] distances = new int[0];
+
+        Chunk(int gx, int gy) {
+            this.gx = gx;
+            this.gy = gy;
+            passable.reset(gx * SIZE, gy * SIZE, SIZE, SIZE);
+        }
+    }
+
+    /**
+     * Per thread query state
+     */
+    private static final class Search {
+        final GridAStar local = new GridAStar();
+        final NodeHeap open = new NodeHeap();
+        int[] g = new int[0], parent = new int[0], stamp = new int[0];
+        int generation = 0;
+        final int[] startDistances = new int[SIZE * SIZE];
+        final int[] goalDistances = new int[SIZE * SIZE];
+        final int[] queue = new int[SIZE * SIZE];
+        int[] route = new int[64];
+    }
+
+    private final ByteGrid.Group group;
+    private final boolean[] blocked = new boolean[256];
+    private final Map<Long, Chunk> chunks = new HashMap<>();
+    private final Set<Long> dirty = new HashSet<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadLocal<Search> searches = ThreadLocal.withInitial(Search::new);
+    private final ExecutorService workers;
+    private final int threads;
+
+    /* abstract nodes, ids are reused after a node is removed */
+    private int[] nodeX = new int[256], nodeY = new int[256], nodePartner = new int[256], nodeSlot = new int[256];
+    private Chunk[] nodeChunk = new Chunk[256];
+    private int nodeLimit = 0;
+    private int[] freeNodes = new int[256];
+    private int freeCount = 0;
+
+    /* scratch for rebuilding, only used by update */
+    private final int[] buildDistances = new int[SIZE * SIZE];
+    private final int[] buildQueue = new int[SIZE * SIZE];
+    private final Vector2i gridKey = new Vector2i();
+    private int rebuilt = 0;
+
+    /**
+     * @param threads workers for batch queries
+     */
+    public Pathfinder(ByteGrid.Group group, RangeFinder.TileFilter filter, int threads) {
+        this.group = group;
+        for(int b = 0; b < 256; ++b) {
+            blocked[b] = filter.blocks((byte) b);
+        }
+        this.threads = Math.max(threads, 1);
+        workers = Executors.newFixedThreadPool(this.threads, r -> {
+            Thread thread = new Thread(r, "pathfinder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for(ByteGrid grid : group.map.values()) {
+            dirty.add(key(grid.x, grid.y));
+        }
+        group.addListener(this);
+        update();
+    }
+
+    @Override
+    public void tileChanged(int x, int y, byte previous, byte tile) {
+        if(blocked[previous & 0xFF] != blocked[tile & 0xFF]) {
+            dirty.add(key(Math.floorDiv(x, SIZE), Math.floorDiv(y, SIZE)));
+        }
+    }
+
+    @Override
+    public void gridChanged(ByteGrid grid) {
+        dirty.add(key(grid.x, grid.y));
+    }
+
+    @Override
+    public void gridRemoved(ByteGrid grid) {
+        dirty.add(key(grid.x, grid.y));
+    }
+
+    private static long key(int gx, int gy) {
+        return (long) gx << 32 | (gy & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Rebuilds the abstraction around grids edited since the last update
+     * @return the number of grids whose node distances were recomputed
+     */
+    public int update() {
+        if(dirty.isEmpty()) return 0;
+        lock.writeLock().lock();
+        try {
+            Set<Chunk> touched = new HashSet<>(), bordering = new HashSet<>();
+            for(long key : dirty) {
+                int gx = (int) (key >> 32), gy = (int) key;
+                ByteGrid grid = group.map.get(gridKey.set(gx, gy));
+                if(grid == null) {
+                    Chunk removed = chunks.remove(key);
+                    if(removed != null) removeChunk(removed, bordering);
+                    continue;
+                }
+                Chunk chunk = chunks.computeIfAbsent(key, k -> new Chunk(gx, gy));
+                readPassable(chunk, grid);
+                touched.add(chunk);
+            }
+            for(Chunk chunk : new ArrayList<>(touched)) {
+                for(int side = 0; side < SIDES; ++side) {
+                    Chunk neighbour = rebuildBorder(chunk, side);
+                    if(neighbour != null) touched.add(neighbour);
+                }
+            }
+            for(Chunk chunk : bordering) {
+                if(chunks.get(key(chunk.gx, chunk.gy)) == chunk) touched.add(chunk);
+            }
+            for(Chunk chunk : touched) {
+                computeDistances(chunk);
+            }
+            dirty.clear();
+            rebuilt = touched.size();
+            return rebuilt;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Frees the entrances of a chunk taken out of the map and the nodes facing them across each border
+     * @param bordering gets the neighbours, whose distances have to be recomputed
+     */
+    private void removeChunk(Chunk chunk, Set<Chunk> bordering) {
+        for(int side = 0; side < SIDES; ++side) {
+            for(int i = 0; i < chunk.sideCount[side]; ++i) freeNode(chunk.sideNodes[side][i]);
+            chunk.sideCount[side] = 0;
+            Vector2i direction = MathUtil.DIRECTIONS[side];
+            Chunk neighbour = chunks.get(key(chunk.gx + direction.x, chunk.gy + direction.y));
+            if(neighbour == null) continue;
+            int opposite = (side + 2) % SIDES;
+            for(int i = 0; i < neighbour.sideCount[opposite]; ++i) freeNode(neighbour.sideNodes[opposite][i]);
+            neighbour.sideCount[opposite] = 0;
+            bordering.add(neighbour);
+        }
+    }
+
+    private void readPassable(Chunk chunk, ByteGrid grid) {
+        TileBitmap passable = chunk.passable;
+        for(int x = 0; x < SIZE; ++x) {
+            for(int y = 0; y < SIZE; ++y) {
+                if(blocked[grid.data[x * SIZE + y] & 0xFF]) {
+                    passable.clear(passable.minX + x, passable.minY + y);
+                } else {
+                    passable.set(passable.minX + x, passable.minY + y);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the entrances between a chunk and its neighbour on one side
+     * @return the neighbour, or null if there is none
+     */
+    private Chunk rebuildBorder(Chunk chunk, int side) {
+        Vector2i direction = MathUtil.DIRECTIONS[side];
+        int opposite = (side + 2) % SIDES;
+        Chunk neighbour = chunks.get(key(chunk.gx + direction.x, chunk.gy + direction.y));
+        for(int i = 0; i < chunk.sideCount[side]; ++i) freeNode(chunk.sideNodes[side][i]);
+        chunk.sideCount[side] = 0;
+        if(neighbour == null) return null;
+        for(int i = 0; i < neighbour.sideCount[opposite]; ++i) freeNode(neighbour.sideNodes[opposite][i]);
+        neighbour.sideCount[opposite] = 0;
+
+        // walk along the border, the tile on this side is (x, y) and across it is (x, y) + direction
+        int baseX = chunk.gx * SIZE + (side == 0 ? SIZE - 1 : 0);
+        int baseY = chunk.gy * SIZE + (side == 1 ? SIZE - 1 : 0);
+        int stepX = direction.x == 0 ? 1 : 0, stepY = direction.y == 0 ? 1 : 0;
+        int runStart = -1;
+        for(int i = 0; i <= SIZE; ++i) {
+            boolean open = i < SIZE
+                && chunk.passable.get(baseX + stepX * i, baseY + stepY * i)
+                && neighbour.passable.get(baseX + stepX * i + direction.x, baseY + stepY * i + direction.y);
+            if(open && runStart < 0) {
+                runStart = i;
+            } else if(!open && runStart >= 0) {
+                int runEnd = i - 1;
+                if(runEnd - runStart + 1 >= ENTRANCE_SPLIT) {
+                    addEntrance(chunk, neighbour, side, baseX + stepX * runStart, baseY + stepY * runStart);
+                    addEntrance(chunk, neighbour, side, baseX + stepX * runEnd, baseY + stepY * runEnd);
+                } else {
+                    int middle = (runStart + runEnd) / 2;
+                    addEntrance(chunk, neighbour, side, baseX + stepX * middle, baseY + stepY * middle);
+                }
+                runStart = -1;
+            }
+        }
+        return neighbour;
+    }
+
+    private void addEntrance(Chunk chunk, Chunk neighbour, int side, int x, int y) {
+        Vector2i direction = MathUtil.DIRECTIONS[side];
+        int a = allocateNode(chunk, x, y);
+        int b = allocateNode(neighbour, x + direction.x, y + direction.y);
+        nodePartner[a] = b;
+        nodePartner[b] = a;
+        chunk.sideNodes[side][chunk.sideCount[side]++] = a;
+        int opposite = (side + 2) % SIDES;
+        neighbour.sideNodes[opposite][neighbour.sideCount[opposite]++] = b;
+    }
+
+    private int allocateNode(Chunk chunk, int x, int y) {
+        int id;
+        if(freeCount > 0) {
+            id = freeNodes[--freeCount];
+        } else {
+            if(nodeLimit == nodeX.length) {
+                int capacity = nodeLimit * 2;
+                nodeX = Arrays.copyOf(nodeX, capacity);
+                nodeY = Arrays.copyOf(nodeY, capacity);
+                nodePartner = Arrays.copyOf(nodePartner, capacity);
+                nodeSlot = Arrays.copyOf(nodeSlot, capacity);
+                nodeChunk = Arrays.copyOf(nodeChunk, capacity);
+            }
+            id = nodeLimit++;
+        }
+        nodeX[id] = x;
+        nodeY[id] = y;
+        nodeChunk[id] = chunk;
+        nodePartner[id] = -1;
+        return id;
+    }
+
+    private void freeNode(int id) {
+        nodeChunk[id] = null;
+        if(freeCount == freeNodes.length) {
+            freeNodes = Arrays.copyOf(freeNodes, freeCount * 2);
+        }
+        freeNodes[freeCount++] = id;
+    }
+
+    private void computeDistances(Chunk chunk) {
+        int count = 0;
+        for(int side = 0; side < SIDES; ++side) count += chunk.sideCount[side];
+        if(chunk.nodes.length < count) {
+            chunk.nodes = new int[count];
+        }
+        if(chunk.distances.length < count * count) {
+            chunk.distances = new int[count * count];
+        }
+        chunk.nodeCount = 0;
+        for(int side = 0; side < SIDES; ++side) {
+            for(int i = 0; i < chunk.sideCount[side]; ++i) {
+                int id = chunk.sideNodes[side][i];
+                nodeSlot[id] = chunk.nodeCount;
+                chunk.nodes[chunk.nodeCount++] = id;
+            }
+        }
+        for(int i = 0; i < count; ++i) {
+            int from = chunk.nodes[i];
+            distances(chunk, nodeX[from], nodeY[from], buildDistances, buildQueue);
+            for(int j = 0; j < count; ++j) {
+                int to = chunk.nodes[j];
+                chunk.distances[i * count + j] = buildDistances[local(chunk, nodeX[to], nodeY[to])];
+            }
+        }
+    }
+
+    private static int local(Chunk chunk, int x, int y) {
+        return (y - chunk.gy * SIZE) * SIZE + (x - chunk.gx * SIZE);
+    }
+
+    /**
+     * Breadth first walking distances from a tile to every tile of its chunk, -1 where unreachable
+     */
+    private static void distances(Chunk chunk, int x, int y, int[] out, int[] queue) {
+        Arrays.fill(out, -1);
+        int start = local(chunk, x, y);
+        out[start] = 0;
+        queue[0] = start;
+        int head = 0, tail = 1;
+        int originX = chunk.gx * SIZE, originY = chunk.gy * SIZE;
+        while(head < tail) {
+            int tile = queue[head++];
+            int tx = tile % SIZE, ty = tile / SIZE;
+            for(int d = 0; d < 4; ++d) {
+                int nx = tx + MathUtil.DIRECTIONS[d].x, ny = ty + MathUtil.DIRECTIONS[d].y;
+                if(nx < 0 || ny < 0 || nx >= SIZE || ny >= SIZE) continue;
+                int next = ny * SIZE + nx;
+                if(out[next] >= 0 || !chunk.passable.get(originX + nx, originY + ny)) continue;
+                out[next] = out[tile] + 1;
+                queue[tail++] = next;
+            }
+        }
+    }
+
+    private Chunk chunkAt(int x, int y) {
+        return chunks.get(key(Math.floorDiv(x, SIZE), Math.floorDiv(y, SIZE)));
+    }
+
+    /**
+     * Finds a path between two tiles, safe to call from any thread
+     * @param out replaced with the path's tiles, start and goal included
+     * @return false if there is no path
+     */
+    public boolean findPath(int startX, int startY, int goalX, int goalY, Path out) {
+        lock.readLock().lock();
+        try {
+            return search(searches.get(), startX, startY, goalX, goalY, out);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean search(Search s, int startX, int startY, int goalX, int goalY, Path out) {
+        out.clear();
+        Chunk startChunk = chunkAt(startX, startY), goalChunk = chunkAt(goalX, goalY);
+        if(startChunk == null || goalChunk == null) return false;
+        if(!startChunk.passable.get(startX, startY) || !goalChunk.passable.get(goalX, goalY)) return false;
+        if(startChunk == goalChunk && s.local.search(startChunk.passable, startX, startY, goalX, goalY, out) >= 0) {
+            return true;
+        }
+        out.clear();
+
+        // abstract A*, with the goal tile as one extra node after all the real ones
+        int goal = nodeLimit;
+        if(s.g.length < nodeLimit + 1) {
+            int capacity = Math.max(nodeLimit + 1, s.g.length * 2);
+            s.g = new int[capacity];
+            s.parent = new int[capacity];
+            s.stamp = new int[capacity];
+            s.generation = 0;
+        }
+        if(++s.generation == Integer.MAX_VALUE) {
+            Arrays.fill(s.stamp, 0);
+            s.generation = 1;
+        }
+        int generation = s.generation;
+        distances(startChunk, startX, startY, s.startDistances, s.queue);
+        distances(goalChunk, goalX, goalY, s.goalDistances, s.queue);
+        s.open.clear();
+        for(int i = 0; i < startChunk.nodeCount; ++i) {
+            int node = startChunk.nodes[i];
+            int d = s.startDistances[local(startChunk, nodeX[node], nodeY[node])];
+            if(d < 0) continue;
+            relax(s, node, -1, d, goalX, goalY);
+        }
+        boolean found = false;
+        while(!s.open.isEmpty()) {
+            int node = s.open.pop();
+            if(s.stamp[node] == -generation) continue;
+            s.stamp[node] = -generation;
+            if(node == goal) {
+                found = true;
+                break;
+            }
+            int g = s.g[node];
+            Chunk chunk = nodeChunk[node];
+            if(chunk == goalChunk) {
+                int d = s.goalDistances[local(goalChunk, nodeX[node], nodeY[node])];
+                if(d >= 0) relax(s, goal, node, g + d, goalX, goalY);
+            }
+            int partner = nodePartner[node];
+            if(partner >= 0) relax(s, partner, node, g + 1, goalX, goalY);
+            int count = chunk.nodeCount;
+            int slot = nodeSlot[node];
+            int row = slot * count;
+            for(int j = 0; j < count; ++j) {
+                int d = chunk.distances[row + j];
+                // corner tiles can hold a node for each side, a distance of 0 apart
+                if(d >= 0 && j != slot) relax(s, chunk.nodes[j], node, g + d, goalX, goalY);
+            }
+        }
+        if(!found) return false;
+
+        int routeLength = 0;
+        for(int node = s.parent[goal]; node >= 0; node = s.parent[node]) {
+            if(routeLength == s.route.length) s.route = Arrays.copyOf(s.route, routeLength * 2);
+            s.route[routeLength++] = node;
+        }
+        // the route is goal to start, fill in the tiles of each leg from the start
+        int x = startX, y = startY;
+        out.add(x, y);
+        int previous = -1;
+        for(int i = routeLength - 1; i >= 0; --i) {
+            int node = s.route[i];
+            if(previous >= 0 && nodePartner[previous] == node) {
+                out.add(nodeX[node], nodeY[node]);
+            } else {
+                s.local.search(nodeChunk[node].passable, x, y, nodeX[node], nodeY[node], out);
+            }
+            x = nodeX[node];
+            y = nodeY[node];
+            previous = node;
+        }
+        s.local.search(goalChunk.passable, x, y, goalX, goalY, out);
+        return true;
+    }
+
+    private void relax(Search s, int node, int parent, int g, int goalX, int goalY) {
+        int generation = s.generation;
+        if(s.stamp[node] == -generation) return;
+        if(s.stamp[node] == generation && s.g[node] <= g) return;
+        s.stamp[node] = generation;
+        s.g[node] = g;
+        s.parent[node] = parent;
+        int h = node == nodeLimit ? 0 : Math.abs(nodeX[node] - goalX) + Math.abs(nodeY[node] - goalY);
+        s.open.push(node, NodeHeap.key(g + h, g));
+    }
+
+    /**
+     * Runs many queries on the worker pool
+     * @param queries start x, start y, goal x, goal y for each query
+     * @return a path per query, null where there is none
+     */
+    public Path[] findPaths(int[] queries) {
+        int count = queries.length / 4;
+        Path[] paths = new Path[count];
+        int slice = (count + threads - 1) / threads;
+        List<Future<?>> futures = new ArrayList<>();
+        for(int first = 0; first < count; first += slice) {
+            int from = first, to = Math.min(first + slice, count);
+            futures.add(workers.submit(() -> {
+                for(int i = from; i < to; ++i) {
+                    Path path = new Path();
+                    if(findPath(queries[i * 4], queries[i * 4 + 1], queries[i * 4 + 2], queries[i * 4 + 3], path)) {
+                        paths[i] = path;
+                    }
+                }
+            }));
+        }
+        try {
+            for(Future<?> future : futures) {
+                future.get();
+            }
+        } catch(InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Path query failed", e);
+        }
+        return paths;
+    }
+
+    /**
+     * Number of abstract nodes in use
+     */
+    public int getNodeCount() {
+        return nodeLimit - freeCount;
+    }
+
+    /**
+     * Grids recomputed by the last update that did anything
+     */
+    public int getRebuilt() {
+        return rebuilt;
+    }
+
+    public void cleanUp() {
+        group.removeListener(this);
+        workers.shutdownNow();
+    }
+}
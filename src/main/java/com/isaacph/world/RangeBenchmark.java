@@ -0,0 +1,72 @@
+package com.isaacph.world;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import com.isaacph.util.MathUtil;
+import org.joml.Vector2i;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Compares {@link RangeFinder} with the repeated adjacentTiles expansion it replaced. RangeFinderTest
+ * checks that both give the same tiles.
+ * Run with {@code gradle benchmark -PbenchmarkClass=com.isaacph.world.RangeBenchmark -PbenchmarkArgs="5 20 100"}.
+ */
+public class RangeBenchmark {
+
+    private static final int BITSET_REPEATS = 2000;
+
+    public static void main(String... args) {
+        int[] ranges = args.length > 0 ? new int[args.length] : new int[] {5, 20, 100};
+        for(int i = 0; i < args.length; ++i) {
+            ranges[i] = Integer.parseInt(args[i]);
+        }
+        // a 2x2 unit, like the formations that use ranged attacks
+        Set<Vector2i> seeds = new HashSet<>();
+        seeds.add(new Vector2i(0, 0));
+        seeds.add(new Vector2i(1, 0));
+        seeds.add(new Vector2i(0, 1));
+        seeds.add(new Vector2i(1, 1));
+
+        ByteGrid.Group walls = new ByteGrid.Group();
+        Random random = new Random(1);
+        for(int i = 0; i < 4000; ++i) {
+            int x = random.nextInt(240) - 120, y = random.nextInt(240) - 120;
+            if(Math.abs(x) > 2 || Math.abs(y) > 2) walls.setTile((byte) 1, x, y);
+        }
+        RangeFinder.TileFilter wall = tile -> tile == 1;
+
+        RangeFinder finder = new RangeFinder();
+        for(int range : ranges) {
+            int repeats = Math.max(1, 2000 / (range * range));
+            Set<Vector2i> expected = legacyRange(seeds, range);
+
+            double legacy = time(repeats, () -> legacyRange(seeds, range));
+            double open = time(BITSET_REPEATS, () -> finder.expand(seeds, range));
+            double blocked = time(BITSET_REPEATS, () -> finder.expand(seeds, range, walls, wall));
+            int reachable = finder.expand(seeds, range, walls, wall);
+            System.out.printf("range %3d: %6d tiles, old %9.3f ms, bitset %7.3f ms (%.0fx), with walls %7.3f ms (%d reachable)%n",
+                range, expected.size(), legacy, open, legacy / open, blocked, reachable);
+        }
+    }
+
+    private static double time(int repeats, Runnable run) {
+        // untimed first so the JIT and buffer growth are not counted
+        for(int i = 0; i < repeats; ++i) run.run();
+        long start = System.nanoTime();
+        for(int i = 0; i < repeats; ++i) run.run();
+        return (System.nanoTime() - start) / 1e6 / repeats;
+    }
+
+    /**
+     * The expansion adjacentTilesDistance used before RangeFinder
+     */
+    private static Set<Vector2i> legacyRange(Set<Vector2i> collection, int distance) {
+        Set<Vector2i> current = new HashSet<>(collection);
+        for(int i = 0; i < distance; ++i) {
+            current.addAll(MathUtil.adjacentTiles(current));
+        }
+        return current;
+    }
+}
@@ -0,0 +1,216 @@
+package com.isaacph.world;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import org.joml.Vector2i;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Finds every tile within a walking distance of a set of tiles.
+ * The search is a breadth first flood where each step expands the whole frontier at once:
+ * the area around the seeds is a bitset with one row of longs per tile row, and one step
+ * shifts the frontier a tile in each direction, ORs the shifted copies, and masks off tiles
+ * that are already visited or blocked. Each step costs a few word operations per 64 tiles,
+ * so a range of d over an area a costs about d * a / 64 operations and allocates nothing
+ * once the buffers have grown to fit.
+ * The finder keeps its result until the next call, query it with {@link #contains(int, int)},
+ * {@link #forEach(TileConsumer)} or {@link #toSet()}.
+ */
+public class RangeFinder {
+
+    /**
+     * Decides which tile values cannot be entered
+     */
+    public interface TileFilter {
+        boolean blocks(byte tile);
+    }
+
+    public interface TileConsumer {
+        void accept(int x, int y);
+    }
+
+    /* the window the search runs in, the seeds' bounding box grown by the distance */
+    private int minX, minY, width, height;
+    /**
+     * Longs per row
+     */
+    private int stride;
+    private static final ByteGrid.Group EMPTY = new ByteGrid.Group();
+    private final TileBitmap passable = new TileBitmap();
+    private long[] visited = new long[0];
+    private long[] frontier = new long[0];
+    private long[] next = new long[0];
+    private final boolean[] passableTable = new boolean[256];
+    private int count;
+
+    /**
+     * Tiles within distance steps of any seed, moving in the four {@link com.isaacph.util.MathUtil#DIRECTIONS}
+     * @return the number of tiles in range, the seeds included
+     */
+    public int expand(Collection<Vector2i> seeds, int distance) {
+        return expand(seeds, distance, null, null);
+    }
+
+    /**
+     * Tiles reachable within distance steps of any seed without passing through a blocked tile.
+     * Seeds are always in range even if they are blocked.
+     * @param group tiles to test with the filter, null to block nothing
+     */
+    public int expand(Collection<Vector2i> seeds, int distance, ByteGrid.Group group, TileFilter filter) {
+        count = 0;
+        if(seeds.isEmpty()) {
+            width = height = 0;
+            return 0;
+        }
+        distance = Math.max(distance, 0);
+        int seedMinX = Integer.MAX_VALUE, seedMinY = Integer.MAX_VALUE;
+        int seedMaxX = Integer.MIN_VALUE, seedMaxY = Integer.MIN_VALUE;
+        for(Vector2i seed : seeds) {
+            seedMinX = Math.min(seedMinX, seed.x);
+            seedMinY = Math.min(seedMinY, seed.y);
+            seedMaxX = Math.max(seedMaxX, seed.x);
+            seedMaxY = Math.max(seedMaxY, seed.y);
+        }
+        resize(seedMinX - distance, seedMinY - distance,
+            seedMaxX - seedMinX + 2 * distance + 1, seedMaxY - seedMinY + 2 * distance + 1);
+        markPassable(group, filter);
+
+        int rowLow = height, rowHigh = -1;
+        for(Vector2i seed : seeds) {
+            int row = seed.y - minY;
+            int column = seed.x - minX;
+            int word = row * stride + (column >>> 6);
+            frontier[word] |= 1L << column;
+            visited[word] |= 1L << column;
+            rowLow = Math.min(rowLow, row);
+            rowHigh = Math.max(rowHigh, row);
+        }
+
+        for(int step = 0; step < distance && rowLow <= rowHigh; ++step) {
+            int low = Math.max(rowLow - 1, 0);
+            int high = Math.min(rowHigh + 1, height - 1);
+            int newLow = height, newHigh = -1;
+            for(int row = low; row <= high; ++row) {
+                boolean any = false;
+                int base = row * stride;
+                for(int w = 0; w < stride; ++w) {
+                    int i = base + w;
+                    long f = frontier[i];
+                    long grown = f | f << 1 | f >>> 1;
+                    // carry bits across the word boundaries of the row
+                    if(w > 0) grown |= frontier[i - 1] >>> 63;
+                    if(w < stride - 1) grown |= frontier[i + 1] << 63;
+                    if(row > 0) grown |= frontier[i - stride];
+                    if(row < height - 1) grown |= frontier[i + stride];
+                    long added = grown & passable.bits[i] & ~visited[i];
+                    next[i] = added;
+                    any |= added != 0;
+                }
+                if(any) {
+                    newLow = Math.min(newLow, row);
+                    newHigh = row;
+                }
+            }
+            // the rows just outside the old range were never part of the frontier, so clear what was
+            for(int row = rowLow; row <= rowHigh; ++row) {
+                Arrays.fill(frontier, row * stride, (row + 1) * stride, 0);
+            }
+            for(int row = newLow; row <= newHigh; ++row) {
+                int base = row * stride;
+                for(int w = 0; w < stride; ++w) {
+                    long added = next[base + w];
+                    frontier[base + w] = added;
+                    visited[base + w] |= added;
+                }
+            }
+            rowLow = newLow;
+            rowHigh = newHigh;
+        }
+
+        int words = height * stride;
+        for(int i = 0; i < words; ++i) {
+            count += Long.bitCount(visited[i]);
+        }
+        return count;
+    }
+
+    private void resize(int minX, int minY, int width, int height) {
+        this.minX = minX;
+        this.minY = minY;
+        this.width = width;
+        this.height = height;
+        stride = (width + 63) >>> 6;
+        int words = stride * height;
+        if(visited.length < words) {
+            int capacity = Math.max(words, visited.length * 2);
+            visited = new long[capacity];
+            frontier = new long[capacity];
+            next = new long[capacity];
+        } else {
+            Arrays.fill(visited, 0, words, 0);
+            Arrays.fill(frontier, 0, words, 0);
+        }
+    }
+
+    /**
+     * Sets the bit of every tile in the window that can be entered
+     */
+    private void markPassable(ByteGrid.Group group, TileFilter filter) {
+        passable.reset(minX, minY, width, height);
+        if(group == null || filter == null) {
+            Arrays.fill(passableTable, true);
+        } else {
+            for(int b = 0; b < 256; ++b) {
+                passableTable[b] = !filter.blocks((byte) b);
+            }
+        }
+        passable.readTiles(group == null ? EMPTY : group, passableTable);
+    }
+
+    public boolean contains(int x, int y) {
+        int column = x - minX, row = y - minY;
+        if(column < 0 || row < 0 || column >= width || row >= height) return false;
+        return (visited[row * stride + (column >>> 6)] & 1L << column) != 0;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void forEach(TileConsumer consumer) {
+        for(int row = 0; row < height; ++row) {
+            int base = row * stride;
+            for(int w = 0; w < stride; ++w) {
+                long bits = visited[base + w];
+                while(bits != 0) {
+                    int bit = Long.numberOfTrailingZeros(bits);
+                    consumer.accept(minX + (w << 6) + bit, minY + row);
+                    bits &= bits - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * The result as a set of new vectors, for callers that want the old collection form
+     */
+    public Set<Vector2i> toSet() {
+        Set<Vector2i> set = new HashSet<>(count * 4 / 3 + 1);
+        forEach((x, y) -> set.add(new Vector2i(x, y)));
+        return set;
+    }
+
+    /**
+     * Every tile within distance steps of the collection, with a finder made for the call. Keep a
+     * finder instead to reuse its buffers, query the result without building a set, or respect
+     * blocking tiles
+     */
+    public static Set<Vector2i> adjacentTilesDistance(Collection<Vector2i> collection, int distance) {
+        RangeFinder finder = new RangeFinder();
+        finder.expand(collection, distance);
+        return finder.toSet();
+    }
+}
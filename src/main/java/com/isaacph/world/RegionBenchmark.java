@@ -0,0 +1,92 @@
+package com.isaacph.world;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times a fresh {@link RegionIndex} build on a generated map, the incremental update after single
+ * edits and lookups, against a full flood fill. RegionIndexTest checks the labels agree.
+ * Run with {@code gradle benchmark -PbenchmarkClass=com.isaacph.world.RegionBenchmark -PbenchmarkArgs="512"}.
+ */
+public class RegionBenchmark {
+
+    private static final byte WALL = 1;
+
+    public static void main(String... args) {
+        int tiles = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        Random random = new Random(1);
+        ByteGrid.Group group = new ByteGrid.Group();
+        for(int x = 0; x < tiles; x += ByteGrid.SIZE) {
+            for(int y = 0; y < tiles; y += ByteGrid.SIZE) {
+                group.makeTileGrid(x, y);
+            }
+        }
+        for(int i = 0; i < tiles * tiles * 2 / 5; ++i) {
+            group.setTile(WALL, random.nextInt(tiles), random.nextInt(tiles));
+        }
+        RegionIndex.TileClass rooms = tile -> tile == WALL ? RegionIndex.NONE : 0;
+
+        long start = System.nanoTime();
+        RegionIndex index = new RegionIndex(group, rooms);
+        double buildTime = (System.nanoTime() - start) / 1e6;
+
+        int edits = 200;
+        long editNanos = 0;
+        for(int i = 0; i < edits; ++i) {
+            int x = random.nextInt(tiles), y = random.nextInt(tiles);
+            group.setTile(group.getTile(x, y) == WALL ? 0 : WALL, x, y);
+            start = System.nanoTime();
+            index.update();
+            editNanos += System.nanoTime() - start;
+        }
+
+        start = System.nanoTime();
+        int[] labels = floodFill(group, tiles);
+        double floodTime = (System.nanoTime() - start) / 1e6;
+
+        int lookups = 1000000;
+        long sum = 0;
+        start = System.nanoTime();
+        for(int i = 0; i < lookups; ++i) {
+            sum += index.regionSizeAt(random.nextInt(tiles), random.nextInt(tiles));
+        }
+        double lookupTime = (System.nanoTime() - start) / (double) lookups;
+
+        System.out.printf("%d x %d tiles, %d regions (flood fill finds %d)%n",
+            tiles, tiles, index.getRegionCount(), Arrays.stream(labels).max().orElse(-1) + 1);
+        System.out.printf("build %.1f ms, full flood fill %.1f ms, update after one edit %.3f ms, lookup %.0f ns (%d)%n",
+            buildTime, floodTime, editNanos / 1e6 / edits, lookupTime, sum % 10);
+        index.cleanUp();
+    }
+
+    /**
+     * Labels every open tile by breadth first search, the way every edit would have to without the index
+     */
+    private static int[] floodFill(ByteGrid.Group group, int tiles) {
+        int[] labels = new int[tiles * tiles];
+        Arrays.fill(labels, -1);
+        int[] queue = new int[tiles * tiles];
+        int next = 0;
+        for(int start = 0; start < labels.length; ++start) {
+            if(labels[start] >= 0 || group.getTile(start % tiles, start / tiles) == WALL) continue;
+            int head = 0, tail = 0;
+            queue[tail++] = start;
+            labels[start] = next;
+            while(head < tail) {
+                int tile = queue[head++];
+                int x = tile % tiles, y = tile / tiles;
+                int[] neighbours = {x > 0 ? tile - 1 : -1, x < tiles - 1 ? tile + 1 : -1,
+                    y > 0 ? tile - tiles : -1, y < tiles - 1 ? tile + tiles : -1};
+                for(int n : neighbours) {
+                    if(n < 0 || labels[n] >= 0 || group.getTile(n % tiles, n / tiles) == WALL) continue;
+                    labels[n] = next;
+                    queue[tail++] = n;
+                }
+            }
+            ++next;
+        }
+        return labels;
+    }
+}
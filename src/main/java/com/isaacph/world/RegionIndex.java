@@ -0,0 +1,409 @@
+package com.isaacph.world;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import com.isaacph.util.MathUtil;
+import org.joml.Vector2i;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Labels the connected regions of a {@link ByteGrid.Group}: tiles of the same class that touch
+ * in one of the four {@link MathUtil#DIRECTIONS} are in the same region. A classifier maps tile
+ * values to classes, e.g. every floor value to one class and walls to {@link #NONE} for rooms,
+ * or each owner's value to its own class for territory.
+ * <p>
+ * Every grid is labeled on its own with a union-find over its tiles, giving a few local components.
+ * The seams between neighbouring grids record which components touch, and each component keeps the
+ * id of its region. An edit relabels only its own grid and redoes the seams with its neighbours,
+ * then the regions through that grid or touching it are searched again component by component
+ * along the seams; regions elsewhere keep their ids and are not visited. An update costs the dirty
+ * grids' tiles plus the components of the regions around them, not the size of the world.
+ * Region and size lookups are then a hash lookup and a few array reads.
+ * Region ids of the regions around an edit change with the next update.
+ * Only tiles in grids that exist in the group belong to a region.
+ */
+public class RegionIndex implements ByteGrid.Group.Listener {
+
+    public interface TileClass {
+        /**
+         * @return the tile's class, or {@link #NONE} if it is in no region
+         */
+        int classOf(byte tile);
+    }
+
+    public static final int NONE = -1;
+
+    private static final int SIZE = ByteGrid.SIZE;
+    private static final int TILES = SIZE * SIZE;
+
+    private static final class Chunk {
+        final int gx, gy;
+        /**
+         * Local component of each tile, indexed y * SIZE + x, -1 for tiles in no region
+         */
+        final int[] labels = new int[TILES];
+        int componentCount = 0;
+        int[] componentSize = new int[0];
+        int[] componentClass = new int[0];
+        /**
+         * Region of each component, and the update that last reached it while relabeling regions
+         */
+        int[] componentRegion = new int[0];
+        int[] componentMark = new int[0];
+        /**
+         * Pairs of local components touching across the +x and +y borders, this chunk's first
+         */
+        final int[][] seams = {new int[0], new int[0]};
+        final int[] seamCount = new int[2];
+        /**
+         * Neighbouring chunks in the order of {@link MathUtil#DIRECTIONS}, null where there is none
+         */
+        final Chunk[] neighbours = new Chunk[4];
+
+        Chunk(int gx, int gy) {
+            this.gx = gx;
+            this.gy = gy;
+        }
+    }
+
+    private final ByteGrid.Group group;
+    private final int[] classTable = new int[256];
+    private final Map<Long, Chunk> chunks = new HashMap<>();
+    private final Set<Long> dirty = new HashSet<>();
+    private final Vector2i gridKey = new Vector2i();
+    private Chunk lastChunk;
+
+    /* tiles in each region by id, -1 for ids not in use, which are kept for reuse */
+    private int[] regionSize = new int[0];
+    private int[] freeRegions = new int[0];
+    private int freeCount = 0;
+    private int nextRegion = 0;
+    private int regionCount = 0;
+    private int mark = 0;
+
+    /* scratch for labeling a chunk */
+    private final int[] tileParent = new int[TILES];
+    private final int[] rootComponent = new int[TILES];
+
+    /* scratch for relabeling regions, chunks whose components may have changed region and a search stack */
+    private final Set<Chunk> seeds = new HashSet<>();
+    private Chunk[] stackChunk = new Chunk[16];
+    private int[] stackComponent = new int[16];
+
+    public RegionIndex(ByteGrid.Group group, TileClass classifier) {
+        this.group = group;
+        for(int b = 0; b < 256; ++b) {
+            classTable[b] = classifier.classOf((byte) b);
+        }
+        for(ByteGrid grid : group.map.values()) {
+            dirty.add(key(grid.x, grid.y));
+        }
+        group.addListener(this);
+        update();
+    }
+
+    @Override
+    public void tileChanged(int x, int y, byte previous, byte tile) {
+        if(classTable[previous & 0xFF] != classTable[tile & 0xFF]) {
+            dirty.add(key(Math.floorDiv(x, SIZE), Math.floorDiv(y, SIZE)));
+        }
+    }
+
+    @Override
+    public void gridChanged(ByteGrid grid) {
+        dirty.add(key(grid.x, grid.y));
+    }
+
+    @Override
+    public void gridRemoved(ByteGrid grid) {
+        dirty.add(key(grid.x, grid.y));
+    }
+
+    private static long key(int gx, int gy) {
+        return (long) gx << 32 | (gy & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Relabels the grids edited since the last update and the regions touching them, the queries
+     * call this themselves so it only needs calling to control when the work happens
+     * @return the number of grids relabeled
+     */
+    public int update() {
+        if(dirty.isEmpty()) return 0;
+        // regions through a dirty grid or touching one may split or merge, every other region stays as it is
+        seeds.clear();
+        for(long key : dirty) {
+            Chunk chunk = chunks.get(key);
+            if(chunk != null) seeds.add(chunk);
+            for(Vector2i direction : MathUtil.DIRECTIONS) {
+                Chunk neighbour = chunks.get(key((int) (key >> 32) + direction.x, (int) key + direction.y));
+                if(neighbour != null) seeds.add(neighbour);
+            }
+        }
+        for(Chunk chunk : seeds) {
+            for(int c = 0; c < chunk.componentCount; ++c) {
+                freeRegion(chunk.componentRegion[c]);
+            }
+        }
+        Set<Chunk> seamsToRedo = new HashSet<>();
+        int relabeled = 0;
+        for(long key : dirty) {
+            int gx = (int) (key >> 32), gy = (int) key;
+            ByteGrid grid = group.map.get(gridKey.set(gx, gy));
+            Chunk chunk = chunks.get(key);
+            if(grid == null) {
+                if(chunk != null) removeChunk(chunk, key);
+                continue;
+            }
+            if(chunk == null) {
+                chunk = addChunk(gx, gy, key);
+                seeds.add(chunk);
+            }
+            label(chunk, grid);
+            ++relabeled;
+            seamsToRedo.add(chunk);
+            // the seams on the -x and -y sides belong to the neighbours there
+            if(chunk.neighbours[2] != null) seamsToRedo.add(chunk.neighbours[2]);
+            if(chunk.neighbours[3] != null) seamsToRedo.add(chunk.neighbours[3]);
+        }
+        for(Chunk chunk : seamsToRedo) {
+            stitch(chunk, 0);
+            stitch(chunk, 1);
+        }
+        dirty.clear();
+        relabelRegions();
+        return relabeled;
+    }
+
+    private Chunk addChunk(int gx, int gy, long key) {
+        Chunk chunk = new Chunk(gx, gy);
+        chunks.put(key, chunk);
+        for(int side = 0; side < 4; ++side) {
+            Vector2i direction = MathUtil.DIRECTIONS[side];
+            Chunk neighbour = chunks.get(key(gx + direction.x, gy + direction.y));
+            chunk.neighbours[side] = neighbour;
+            if(neighbour != null) neighbour.neighbours[(side + 2) % 4] = chunk;
+        }
+        return chunk;
+    }
+
+    private void removeChunk(Chunk chunk, long key) {
+        chunks.remove(key);
+        seeds.remove(chunk);
+        if(lastChunk == chunk) lastChunk = null;
+        for(int side = 0; side < 4; ++side) {
+            Chunk neighbour = chunk.neighbours[side];
+            if(neighbour == null) continue;
+            neighbour.neighbours[(side + 2) % 4] = null;
+            // a seam on the neighbour's +x or +y side led into this chunk
+            if(side >= 2) neighbour.seamCount[side - 2] = 0;
+        }
+    }
+
+    private void freeRegion(int id) {
+        if(regionSize[id] < 0) return;
+        regionSize[id] = -1;
+        if(freeCount == freeRegions.length) freeRegions = Arrays.copyOf(freeRegions, Math.max(16, freeCount * 2));
+        freeRegions[freeCount++] = id;
+        --regionCount;
+    }
+
+    private int newRegion() {
+        int id;
+        if(freeCount > 0) {
+            id = freeRegions[--freeCount];
+        } else {
+            id = nextRegion++;
+            if(regionSize.length <= id) regionSize = Arrays.copyOf(regionSize, Math.max(16, regionSize.length * 2));
+        }
+        regionSize[id] = 0;
+        ++regionCount;
+        return id;
+    }
+
+    /**
+     * Gives every component of the seed chunks a region by searching the components through the
+     * seams. Any region that lost a component started in a dirty grid, and could only reach it
+     * through a seam with a seed chunk, so every region that changed is searched in full.
+     */
+    private void relabelRegions() {
+        ++mark;
+        for(Chunk seed : seeds) {
+            for(int c = 0; c < seed.componentCount; ++c) {
+                if(seed.componentMark[c] == mark) continue;
+                int id = newRegion();
+                int depth = 0;
+                depth = push(depth, seed, c, id);
+                while(depth > 0) {
+                    Chunk chunk = stackChunk[--depth];
+                    int component = stackComponent[depth];
+                    regionSize[id] += chunk.componentSize[component];
+                    for(int side = 0; side < 4; ++side) {
+                        Chunk neighbour = chunk.neighbours[side];
+                        if(neighbour == null) continue;
+                        // the seam between the two is stored by the chunk on its -x or -y side
+                        boolean own = side < 2;
+                        int[] seam = own ? chunk.seams[side] : neighbour.seams[side - 2];
+                        int n = own ? chunk.seamCount[side] : neighbour.seamCount[side - 2];
+                        for(int i = 0; i < n; ++i) {
+                            int here = own ? seam[i * 2] : seam[i * 2 + 1], there = own ? seam[i * 2 + 1] : seam[i * 2];
+                            if(here == component && neighbour.componentMark[there] != mark) depth = push(depth, neighbour, there, id);
+                        }
+                    }
+                }
+            }
+        }
+        seeds.clear();
+    }
+
+    private int push(int depth, Chunk chunk, int component, int id) {
+        chunk.componentMark[component] = mark;
+        chunk.componentRegion[component] = id;
+        if(depth == stackChunk.length) {
+            stackChunk = Arrays.copyOf(stackChunk, depth * 2);
+            stackComponent = Arrays.copyOf(stackComponent, depth * 2);
+        }
+        stackChunk[depth] = chunk;
+        stackComponent[depth] = component;
+        return depth + 1;
+    }
+
+    /**
+     * Union-find over the chunk's tiles, then numbers the roots as local components
+     */
+    private void label(Chunk chunk, ByteGrid grid) {
+        for(int i = 0; i < TILES; ++i) {
+            tileParent[i] = i;
+        }
+        for(int y = 0; y < SIZE; ++y) {
+            for(int x = 0; x < SIZE; ++x) {
+                int c = classTable[grid.data[x * SIZE + y] & 0xFF];
+                if(c == NONE) continue;
+                int i = y * SIZE + x;
+                if(x > 0 && classTable[grid.data[(x - 1) * SIZE + y] & 0xFF] == c) union(tileParent, i, i - 1);
+                if(y > 0 && classTable[grid.data[x * SIZE + y - 1] & 0xFF] == c) union(tileParent, i, i - SIZE);
+            }
+        }
+        Arrays.fill(rootComponent, -1);
+        int count = 0;
+        for(int i = 0; i < TILES; ++i) {
+            int c = classTable[grid.data[(i % SIZE) * SIZE + i / SIZE] & 0xFF];
+            if(c == NONE) {
+                chunk.labels[i] = -1;
+                continue;
+            }
+            int root = find(tileParent, i);
+            if(rootComponent[root] < 0) {
+                rootComponent[root] = count++;
+                if(chunk.componentSize.length < count) {
+                    chunk.componentSize = Arrays.copyOf(chunk.componentSize, Math.max(count, chunk.componentSize.length * 2));
+                    chunk.componentClass = Arrays.copyOf(chunk.componentClass, chunk.componentSize.length);
+                    chunk.componentRegion = Arrays.copyOf(chunk.componentRegion, chunk.componentSize.length);
+                    chunk.componentMark = Arrays.copyOf(chunk.componentMark, chunk.componentSize.length);
+                }
+                chunk.componentMark[count - 1] = 0;
+                chunk.componentSize[count - 1] = 0;
+                chunk.componentClass[count - 1] = c;
+            }
+            int component = rootComponent[root];
+            chunk.labels[i] = component;
+            ++chunk.componentSize[component];
+        }
+        chunk.componentCount = count;
+    }
+
+    /**
+     * Records which components of the chunk touch components of its neighbour on the +x or +y side
+     */
+    private void stitch(Chunk chunk, int side) {
+        Chunk neighbour = chunk.neighbours[side];
+        chunk.seamCount[side] = 0;
+        if(neighbour == null) return;
+        int lastA = -1, lastB = -1;
+        for(int i = 0; i < SIZE; ++i) {
+            // tile i along the border on this side and the tile across from it
+            int here = side == 0 ? i * SIZE + (SIZE - 1) : (SIZE - 1) * SIZE + i;
+            int there = side == 0 ? i * SIZE : i;
+            int a = chunk.labels[here], b = neighbour.labels[there];
+            if(a < 0 || b < 0 || chunk.componentClass[a] != neighbour.componentClass[b]) continue;
+            // runs along the border repeat the same pair
+            if(a == lastA && b == lastB) continue;
+            lastA = a;
+            lastB = b;
+            int n = chunk.seamCount[side];
+            if(chunk.seams[side].length < n * 2 + 2) {
+                chunk.seams[side] = Arrays.copyOf(chunk.seams[side], Math.max(n * 2 + 2, chunk.seams[side].length * 2));
+            }
+            chunk.seams[side][n * 2] = a;
+            chunk.seams[side][n * 2 + 1] = b;
+            chunk.seamCount[side] = n + 1;
+        }
+    }
+
+    private static int find(int[] parent, int i) {
+        while(parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int ra = find(parent, a), rb = find(parent, b);
+        if(ra == rb) return;
+        // the lower id becomes the root so ids do not depend on union order
+        if(ra < rb) parent[rb] = ra;
+        else parent[ra] = rb;
+    }
+
+    /**
+     * The region the tile is in, or {@link #NONE}
+     */
+    public int regionAt(int x, int y) {
+        update();
+        int gx = Math.floorDiv(x, SIZE), gy = Math.floorDiv(y, SIZE);
+        // lookups tend to come in runs over nearby tiles, so skip the map when the chunk is the last one
+        Chunk chunk = lastChunk;
+        if(chunk == null || chunk.gx != gx || chunk.gy != gy) {
+            chunk = chunks.get(key(gx, gy));
+            if(chunk == null) return NONE;
+            lastChunk = chunk;
+        }
+        int label = chunk.labels[Math.floorMod(y, SIZE) * SIZE + Math.floorMod(x, SIZE)];
+        return label < 0 ? NONE : chunk.componentRegion[label];
+    }
+
+    /**
+     * Number of tiles in a region returned by {@link #regionAt(int, int)}. Does not update, so the
+     * id stays valid, after an edit ask {@link #regionAt(int, int)} for a fresh one first
+     */
+    public int regionSize(int region) {
+        return region < 0 ? 0 : regionSize[region];
+    }
+
+    /**
+     * Number of tiles in the same region as the tile, 0 if it is in none
+     */
+    public int regionSizeAt(int x, int y) {
+        // regionAt updates, so the id it returns is current
+        return regionSize(regionAt(x, y));
+    }
+
+    public boolean connected(int x1, int y1, int x2, int y2) {
+        int region = regionAt(x1, y1);
+        return region != NONE && region == regionAt(x2, y2);
+    }
+
+    public int getRegionCount() {
+        update();
+        return regionCount;
+    }
+
+    public void cleanUp() {
+        group.removeListener(this);
+    }
+}
@@ -0,0 +1,108 @@
+package com.isaacph.world;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import com.isaacph.util.VectorSupport;
+import org.joml.Vector2i;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times {@link TileScanner} queries over a generated world, scalar against vectorized, and the
+ * same queries made with {@link ByteGrid.Group#getTile(int, int)} and {@link TileBitmap#readTiles}.
+ * TileScannerTest checks that they agree.
+ * Run with {@code gradle benchmark -PbenchmarkClass=com.isaacph.world.ScanBenchmark -PbenchmarkArgs="2048 50"}
+ * (world side in tiles, repeats).
+ */
+public class ScanBenchmark {
+
+    private static final byte RARE = (byte) 200;
+    private static final byte MASK = 0x06, VALUE = 0x02;
+
+    public static void main(String... args) {
+        int side = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int threads = Runtime.getRuntime().availableProcessors();
+        System.out.println("Vector API " + (VectorSupport.AVAILABLE ? "available" : "not available") + ", " + threads + " threads");
+
+        Random random = new Random(1);
+        ByteGrid.Group group = new ByteGrid.Group();
+        for(int x = 0; x < side; ++x) {
+            for(int y = 0; y < side; ++y) {
+                group.setTile((byte) random.nextInt(8), x, y);
+            }
+        }
+        group.setTile(RARE, side - 5, side / 2);
+        group.setTile(RARE, side - 5, side / 3);
+        // the query rectangle is unaligned to the grids and reaches past the world into missing grids
+        int rx = 37, ry = 53, rw = side - 20, rh = side - 90;
+
+        long start = System.nanoTime();
+        long getTileCount = 0;
+        long[] getTileHistogram = new long[256];
+        Vector2i getTileFirst = null;
+        for(int x = rx; x < rx + rw; ++x) {
+            for(int y = ry; y < ry + rh; ++y) {
+                byte tile = group.getTile(x, y);
+                if((tile & MASK) == VALUE) ++getTileCount;
+                ++getTileHistogram[tile & 0xFF];
+                if(tile == RARE && getTileFirst == null) getTileFirst = new Vector2i(x, y);
+            }
+        }
+        double getTileTime = (System.nanoTime() - start) / 1e6;
+        System.out.printf("getTile over %dx%d: %.1f ms for count, histogram and find together, %d matches, rare tile %s%n",
+            rw, rh, getTileTime, getTileCount, getTileFirst != null ? "found" : "not found");
+
+        boolean[] table = new boolean[256];
+        for(int b = 0; b < 256; ++b) table[b] = ((byte) b & MASK) == VALUE;
+        TileBitmap readBits = new TileBitmap();
+        readBits.reset(rx, ry, rw, rh);
+        for(int i = 0; i < repeats; ++i) readBits.readTiles(group, table);
+        start = System.nanoTime();
+        for(int i = 0; i < repeats; ++i) readBits.readTiles(group, table);
+        System.out.printf("TileBitmap.readTiles: %.3f ms%n", (System.nanoTime() - start) / 1e6 / repeats);
+
+        TileScanner scanner = new TileScanner(group, threads);
+        run("scalar", false, scanner, repeats, rx, ry, rw, rh);
+        if(VectorSupport.AVAILABLE) {
+            run("vector", true, scanner, repeats, rx, ry, rw, rh);
+        }
+        scanner.cleanUp();
+    }
+
+    private static void run(String name, boolean vectorized, TileScanner scanner, int repeats, int rx, int ry, int rw, int rh) {
+        scanner.vectorized = vectorized;
+        long[] histogram = new long[256];
+        Vector2i first = new Vector2i();
+        TileBitmap bits = new TileBitmap();
+        bits.reset(rx, ry, rw, rh);
+        long count = 0, worldCount = 0;
+        double[] times = new double[5];
+        // the first round warms up the JIT
+        for(int round = 0; round < 2; ++round) {
+            Arrays.fill(times, 0);
+            for(int i = 0; i < repeats; ++i) {
+                long t0 = System.nanoTime();
+                count = scanner.count(rx, ry, rw, rh, MASK, VALUE);
+                long t1 = System.nanoTime();
+                worldCount = scanner.count(MASK, VALUE);
+                long t2 = System.nanoTime();
+                scanner.histogram(rx, ry, rw, rh, histogram);
+                long t3 = System.nanoTime();
+                scanner.findFirst(rx, ry, rw, rh, (byte) -1, RARE, first);
+                long t4 = System.nanoTime();
+                scanner.extract(bits, MASK, VALUE);
+                long t5 = System.nanoTime();
+                times[0] += t1 - t0;
+                times[1] += t2 - t1;
+                times[2] += t3 - t2;
+                times[3] += t4 - t3;
+                times[4] += t5 - t4;
+            }
+        }
+        System.out.printf("%s: count %.3f ms, world count %.3f ms, histogram %.3f ms, find first %.3f ms, extract %.3f ms; "
+                + "%d matches (%d world-wide)%n",
+            name, times[0] / 1e6 / repeats, times[1] / 1e6 / repeats, times[2] / 1e6 / repeats, times[3] / 1e6 / repeats,
+            times[4] / 1e6 / repeats, count, worldCount);
+    }
+}
@@ -0,0 +1,79 @@
+package com.isaacph.world;
+
+import com.isaacph.util.MathUtil;
+import org.joml.Vector2i;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Compares {@link ShapePlacer} with the translate and compare search it replaced on square
+ * formations with a few holes. ShapePlacerTest checks that both find the same origins. The old
+ * search is only run on the smaller formations since it grows with the fifth power of the side.
+ * Run with {@code gradle benchmark -PbenchmarkClass=com.isaacph.world.ShapeBenchmark -PbenchmarkArgs="8 16 32 128 512"}.
+ */
+public class ShapeBenchmark {
+
+    private static final int LEGACY_MAX_SIDE = 32;
+
+    public static void main(String... args) {
+        int[] sides = args.length > 0 ? new int[args.length] : new int[] {8, 16, 32, 128, 512};
+        for(int i = 0; i < args.length; ++i) {
+            sides[i] = Integer.parseInt(args[i]);
+        }
+        List<Vector2i> square = List.of(new Vector2i(0, 0), new Vector2i(1, 0), new Vector2i(0, 1), new Vector2i(1, 1));
+        ShapePlacer placer = new ShapePlacer();
+        Random random = new Random(1);
+        for(int side : sides) {
+            Set<Vector2i> formation = new HashSet<>();
+            for(int x = 0; x < side; ++x) {
+                for(int y = 0; y < side; ++y) {
+                    if(random.nextInt(10) != 0) formation.add(new Vector2i(x, y));
+                }
+            }
+            int repeats = Math.max(1, 200000 / (side * side));
+            double placed = time(repeats, () -> placer.findOrigins(formation, square));
+            String legacyText = "skipped";
+            if(side <= LEGACY_MAX_SIDE) {
+                double legacy = time(1, () -> legacyOrigins(formation, square));
+                legacyText = String.format("%.3f ms (%.0fx)", legacy, legacy / placed);
+            }
+            System.out.printf("side %4d: %7d tiles, %6d origins, bitmask %8.3f ms, old %s%n",
+                side, formation.size(), placer.findOrigins(formation, square), placed, legacyText);
+        }
+    }
+
+    private static double time(int repeats, Runnable run) {
+        for(int i = 0; i < repeats; ++i) run.run();
+        long start = System.nanoTime();
+        for(int i = 0; i < repeats; ++i) run.run();
+        return (System.nanoTime() - start) / 1e6 / repeats;
+    }
+
+    /**
+     * The search adjacentShapeOrigins used before ShapePlacer
+     */
+    private static Set<Vector2i> legacyOrigins(Set<Vector2i> collection, Collection<Vector2i> adjacentShape) {
+        Set<Vector2i> adjacent = new HashSet<>();
+        for(Vector2i tile : collection) {
+            for(Vector2i shapeTileOffset : adjacentShape) {
+                for(Vector2i direction : MathUtil.DIRECTIONS) {
+                    Vector2i next = new Vector2i(tile).sub(shapeTileOffset).add(direction);
+                    ArrayList<Vector2i> translatedShape = new ArrayList<>();
+                    for(Vector2i shapePos : adjacentShape) {
+                        translatedShape.add(new Vector2i(shapePos).add(tile).sub(shapeTileOffset).add(direction));
+                    }
+                    if(MathUtil.shapesIntersect(collection, translatedShape)) continue;
+                    if(!collection.contains(next)) {
+                        adjacent.add(next);
+                    }
+                }
+            }
+        }
+        return adjacent;
+    }
+}
@@ -0,0 +1,174 @@
+package com.isaacph.world;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import org.joml.Vector2i;
+
+import java.util.Arrays;
+
+/**
+ * A rectangle of tiles stored one bit per tile, each row packed into longs with the lowest
+ * bit of a row's first word at the rectangle's left edge. Bits past the right edge are always
+ * clear, so whole words can be combined with AND and OR without masking.
+ * {@link #wordAt(int, int)} reads any 64 tiles of a row at an arbitrary column, which is how
+ * bitmaps with different origins are lined up against each other.
+ */
+public class TileBitmap {
+
+    public int minX, minY, width, height;
+    /**
+     * Longs per row
+     */
+    public int stride;
+    public long[] bits = new long[0];
+    private final Vector2i gridKey = new Vector2i();
+
+    /**
+     * Covers a new rectangle with every bit clear, reusing the array when it is big enough
+     */
+    public void reset(int minX, int minY, int width, int height) {
+        this.minX = minX;
+        this.minY = minY;
+        this.width = Math.max(width, 0);
+        this.height = Math.max(height, 0);
+        stride = (this.width + 63) >>> 6;
+        int words = stride * this.height;
+        if(bits.length < words) {
+            bits = new long[Math.max(words, bits.length * 2)];
+        } else {
+            Arrays.fill(bits, 0, words, 0);
+        }
+    }
+
+    /**
+     * Sets the bit of every tile in the rectangle whose value is marked in the table and clears
+     * the rest. Grids missing from the group read as tile 0.
+     * @param table indexed by the tile value as an unsigned byte
+     */
+    public void readTiles(ByteGrid.Group group, boolean[] table) {
+        int words = stride * height;
+        Arrays.fill(bits, 0, words, table[0] ? -1L : 0);
+        if(table[0]) {
+            long last = lastWordMask();
+            for(int row = 0; row < height; ++row) bits[row * stride + stride - 1] = last;
+        }
+        if(width == 0 || height == 0) return;
+        int gridMinX = Math.floorDiv(minX, ByteGrid.SIZE), gridMaxX = Math.floorDiv(minX + width - 1, ByteGrid.SIZE);
+        int gridMinY = Math.floorDiv(minY, ByteGrid.SIZE), gridMaxY = Math.floorDiv(minY + height - 1, ByteGrid.SIZE);
+        for(int gx = gridMinX; gx <= gridMaxX; ++gx) {
+            for(int gy = gridMinY; gy <= gridMaxY; ++gy) {
+                ByteGrid grid = group.map.get(gridKey.set(gx, gy));
+                if(grid == null) continue;
+                int x0 = Math.max(gx * ByteGrid.SIZE, minX), x1 = Math.min((gx + 1) * ByteGrid.SIZE, minX + width);
+                int y0 = Math.max(gy * ByteGrid.SIZE, minY), y1 = Math.min((gy + 1) * ByteGrid.SIZE, minY + height);
+                for(int x = x0; x < x1; ++x) {
+                    int column = x - minX;
+                    long bit = 1L << column;
+                    int word = column >>> 6;
+                    int base = (x - gx * ByteGrid.SIZE) * ByteGrid.SIZE - gy * ByteGrid.SIZE;
+                    for(int y = y0; y < y1; ++y) {
+                        int i = (y - minY) * stride + word;
+                        if(table[grid.data[base + y] & 0xFF]) {
+                            bits[i] |= bit;
+                        } else {
+                            bits[i] &= ~bit;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public boolean inside(int x, int y) {
+        return x >= minX && y >= minY && x < minX + width && y < minY + height;
+    }
+
+    public void set(int x, int y) {
+        int column = x - minX;
+        bits[(y - minY) * stride + (column >>> 6)] |= 1L << column;
+    }
+
+    public void clear(int x, int y) {
+        int column = x - minX;
+        bits[(y - minY) * stride + (column >>> 6)] &= ~(1L << column);
+    }
+
+    public boolean get(int x, int y) {
+        if(!inside(x, y)) return false;
+        int column = x - minX;
+        return (bits[(y - minY) * stride + (column >>> 6)] & 1L << column) != 0;
+    }
+
+    /**
+     * Mask of the valid bits in a row's last word
+     */
+    public long lastWordMask() {
+        return (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+    }
+
+    /**
+     * The 64 tiles starting at world column x in world row y, bit i is tile x + i.
+     * Tiles outside the rectangle read as clear.
+     */
+    public long wordAt(int x, int y) {
+        int row = y - minY;
+        if(row < 0 || row >= height) return 0;
+        int column = x - minX;
+        int word = Math.floorDiv(column, 64);
+        int shift = Math.floorMod(column, 64);
+        long low = word(row, word);
+        if(shift == 0) return low;
+        return low >>> shift | word(row, word + 1) << (64 - shift);
+    }
+
+    /**
+     * Writes count tiles of world row y starting at world column x, bit i of value is tile x + i,
+     * the opposite of {@link #wordAt(int, int)}. Tiles outside the rectangle are left out.
+     */
+    public void setRow(int x, int y, long value, int count) {
+        int row = y - minY;
+        if(row < 0 || row >= height || count <= 0) return;
+        long mask = count >= 64 ? -1L : (1L << count) - 1;
+        int column = x - minX;
+        if(column < 0) {
+            if(-column >= 64) return;
+            mask >>>= -column;
+            value >>>= -column;
+            column = 0;
+        }
+        if(column >= width) return;
+        if(width - column < 64) mask &= (1L << (width - column)) - 1;
+        value &= mask;
+        int i = row * stride + (column >>> 6);
+        int shift = column & 63;
+        bits[i] = bits[i] & ~(mask << shift) | value << shift;
+        if(shift != 0 && (column >>> 6) + 1 < stride) {
+            bits[i + 1] = bits[i + 1] & ~(mask >>> (64 - shift)) | value >>> (64 - shift);
+        }
+    }
+
+    private long word(int row, int word) {
+        return word < 0 || word >= stride ? 0 : bits[row * stride + word];
+    }
+
+    public int count() {
+        int count = 0;
+        int words = stride * height;
+        for(int i = 0; i < words; ++i) {
+            count += Long.bitCount(bits[i]);
+        }
+        return count;
+    }
+
+    public void forEach(RangeFinder.TileConsumer consumer) {
+        for(int row = 0; row < height; ++row) {
+            int base = row * stride;
+            for(int w = 0; w < stride; ++w) {
+                long b = bits[base + w];
+                while(b != 0) {
+                    consumer.accept(minX + (w << 6) + Long.numberOfTrailingZeros(b), minY + row);
+                    b &= b - 1;
+                }
+            }
+        }
+    }
+}
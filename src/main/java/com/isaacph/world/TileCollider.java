@@ -0,0 +1,498 @@
+package com.isaacph.world;
+
+import com.isaacph.entity.EntityStore;
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import org.joml.Vector2f;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Collision of boxes and rays against the solid tiles of a {@link ByteGrid.Group}.
+ * Tile (x, y) covers [x, x + 1) by [y, y + 1) in world units, boxes that only touch a tile's edge
+ * do not collide with it. Every grid keeps a bitmap of its solid tiles, SIZE bits per row, which
+ * the group's edits update one bit at a time, so a query tests a row of a grid with one mask and
+ * skips grids with no solid tiles without looking at a tile. Grids missing from the group are read
+ * as tile 0 like {@link ByteGrid.Group#getTile(int, int)}.
+ * <p>
+ * Queries only read the bitmaps, so they can run from several threads as long as nothing edits the
+ * group meanwhile, which is how {@link #resolve(EntityStore, float, float, float)} moves many boxes.
+ */
+public class TileCollider implements ByteGrid.Group.Listener {
+
+    /**
+     * Where a sweep or ray first touched a solid tile
+     */
+    public static class Hit {
+        public boolean hit;
+        /**
+         * Fraction of the motion for sweeps, distance along the ray for rays
+         */
+        public float time;
+        /**
+         * Face of the tile that was hit, 0, 0 if the ray started inside it
+         */
+        public int normalX, normalY;
+        public int tileX, tileY;
+    }
+
+    public static final int BLOCKED_X = 1, BLOCKED_Y = 2;
+    /**
+     * Gap left between a box and the tile it slid against, so rounding never puts it inside the tile
+     */
+    public static final float SKIN = 1e-3f;
+    public static final int PARALLEL_THRESHOLD = 1024;
+    /**
+     * Longest ray walked, past about this far a float step no longer moves the ray a whole grid
+     */
+    public static final float MAX_RAY_DISTANCE = 1 << 20;
+    private static final int MAX_SLIDES = 3;
+
+    private static final int SIZE = ByteGrid.SIZE;
+    private static final int ROWS_PER_WORD = 64 / SIZE;
+    private static final long ROW_MASK = (1L << SIZE) - 1;
+
+    private static final class Chunk {
+        /**
+         * Bit x of row y is set if local tile (x, y) is solid
+         */
+        final long[] rows = new long[SIZE / ROWS_PER_WORD];
+        int solid = 0;
+
+        long row(int y) {
+            return rows[y / ROWS_PER_WORD] >>> (y % ROWS_PER_WORD * SIZE) & ROW_MASK;
+        }
+
+        void set(int x, int y, boolean value) {
+            long bit = 1L << (y % ROWS_PER_WORD * SIZE + x);
+            long word = rows[y / ROWS_PER_WORD];
+            if(((word & bit) != 0) == value) return;
+            rows[y / ROWS_PER_WORD] = word ^ bit;
+            solid += value ? 1 : -1;
+        }
+    }
+
+    private final ByteGrid.Group group;
+    private final boolean[] solid = new boolean[256];
+    /**
+     * Open addressing table from packed grid coordinates to bitmaps, boxing a key per lookup costs
+     * about as much as the lookup saves
+     */
+    private long[] chunkKeys = new long[64];
+    private Chunk[] chunkValues = new Chunk[64];
+    private int chunkCount = 0;
+    /**
+     * What grids missing from the group read as, null when tile 0 is not solid
+     */
+    private final Chunk missing;
+    /**
+     * Null with a single thread, which never needs it
+     */
+    private final ExecutorService workers;
+    private final int threads;
+    /**
+     * Reflect the blocked part of a mover's velocity in {@link #resolve(EntityStore, float, float, float)} instead of dropping it
+     */
+    public boolean bounce = false;
+
+    /**
+     * @param threads how many boxes {@link #resolve(EntityStore, float, float, float)} moves at once, no
+     *                worker threads are started for 1
+     */
+    public TileCollider(ByteGrid.Group group, RangeFinder.TileFilter solidFilter, int threads) {
+        this.group = group;
+        for(int b = 0; b < 256; ++b) {
+            solid[b] = solidFilter.blocks((byte) b);
+        }
+        if(solid[0]) {
+            missing = new Chunk();
+            for(int y = 0; y < SIZE; ++y) {
+                for(int x = 0; x < SIZE; ++x) missing.set(x, y, true);
+            }
+        } else {
+            missing = null;
+        }
+        for(ByteGrid grid : group.map.values()) {
+            gridChanged(grid);
+        }
+        this.threads = Math.max(threads, 1);
+        workers = this.threads == 1 ? null : Executors.newFixedThreadPool(this.threads, r -> {
+            Thread thread = new Thread(r, "tile-collider");
+            thread.setDaemon(true);
+            return thread;
+        });
+        group.addListener(this);
+    }
+
+    private static long key(int gx, int gy) {
+        return (long) gx << 32 | (gy & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private Chunk getChunk(long key) {
+        int mask = chunkKeys.length - 1;
+        for(int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            Chunk chunk = chunkValues[slot];
+            if(chunk == null || chunkKeys[slot] == key) return chunk;
+        }
+    }
+
+    private void putChunk(long key, Chunk chunk) {
+        if((chunkCount + 1) * 2 > chunkKeys.length) {
+            long[] oldKeys = chunkKeys;
+            Chunk[] oldValues = chunkValues;
+            chunkKeys = new long[oldKeys.length * 2];
+            chunkValues = new Chunk[oldKeys.length * 2];
+            chunkCount = 0;
+            for(int i = 0; i < oldKeys.length; ++i) {
+                if(oldValues[i] != null) putChunk(oldKeys[i], oldValues[i]);
+            }
+        }
+        int mask = chunkKeys.length - 1;
+        int slot = hash(key) & mask;
+        while(chunkValues[slot] != null && chunkKeys[slot] != key) slot = (slot + 1) & mask;
+        if(chunkValues[slot] == null) ++chunkCount;
+        chunkKeys[slot] = key;
+        chunkValues[slot] = chunk;
+    }
+
+    private void removeChunk(long key) {
+        int mask = chunkKeys.length - 1;
+        int slot = hash(key) & mask;
+        while(chunkValues[slot] != null && chunkKeys[slot] != key) slot = (slot + 1) & mask;
+        if(chunkValues[slot] == null) return;
+        --chunkCount;
+        // move later entries of the run back into the hole when their home slot allows, so probes never stop early
+        for(int next = (slot + 1) & mask; chunkValues[next] != null; next = (next + 1) & mask) {
+            int home = hash(chunkKeys[next]) & mask;
+            if(((next - home) & mask) >= ((next - slot) & mask)) {
+                chunkKeys[slot] = chunkKeys[next];
+                chunkValues[slot] = chunkValues[next];
+                slot = next;
+            }
+        }
+        chunkValues[slot] = null;
+    }
+
+    @Override
+    public void tileChanged(int x, int y, byte previous, byte tile) {
+        if(solid[previous & 0xFF] == solid[tile & 0xFF]) return;
+        Chunk chunk = getChunk(key(Math.floorDiv(x, SIZE), Math.floorDiv(y, SIZE)));
+        if(chunk != null) chunk.set(Math.floorMod(x, SIZE), Math.floorMod(y, SIZE), solid[tile & 0xFF]);
+    }
+
+    @Override
+    public void gridChanged(ByteGrid grid) {
+        Chunk chunk = new Chunk();
+        for(int x = 0; x < SIZE; ++x) {
+            for(int y = 0; y < SIZE; ++y) {
+                if(solid[grid.data[x * SIZE + y] & 0xFF]) chunk.set(x, y, true);
+            }
+        }
+        putChunk(key(grid.x, grid.y), chunk);
+    }
+
+    @Override
+    public void gridRemoved(ByteGrid grid) {
+        removeChunk(key(grid.x, grid.y));
+    }
+
+    /**
+     * The grid's bitmap, null if it has no solid tiles
+     */
+    private Chunk chunk(int gx, int gy) {
+        Chunk chunk = getChunk(key(gx, gy));
+        if(chunk == null) return missing;
+        return chunk.solid == 0 ? null : chunk;
+    }
+
+    public boolean isSolid(int x, int y) {
+        Chunk chunk = chunk(Math.floorDiv(x, SIZE), Math.floorDiv(y, SIZE));
+        return chunk != null && (chunk.row(Math.floorMod(y, SIZE)) >>> Math.floorMod(x, SIZE) & 1) != 0;
+    }
+
+    /**
+     * True if any solid tile overlaps the box
+     */
+    public boolean overlaps(float minX, float minY, float maxX, float maxY) {
+        int x0 = (int) Math.floor(minX), x1 = (int) Math.ceil(maxX) - 1;
+        int y0 = (int) Math.floor(minY), y1 = (int) Math.ceil(maxY) - 1;
+        for(int gx = Math.floorDiv(x0, SIZE); gx <= Math.floorDiv(x1, SIZE); ++gx) {
+            for(int gy = Math.floorDiv(y0, SIZE); gy <= Math.floorDiv(y1, SIZE); ++gy) {
+                Chunk chunk = chunk(gx, gy);
+                if(chunk == null) continue;
+                long mask = columnMask(x0 - gx * SIZE, x1 - gx * SIZE);
+                int rowTo = Math.min(y1 - gy * SIZE, SIZE - 1);
+                for(int row = Math.max(y0 - gy * SIZE, 0); row <= rowTo; ++row) {
+                    if((chunk.row(row) & mask) != 0) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Bits for local columns from to to, clipped to the grid
+     */
+    private static long columnMask(int from, int to) {
+        from = Math.max(from, 0);
+        to = Math.min(to, SIZE - 1);
+        if(from > to) return 0;
+        return (ROW_MASK >>> (SIZE - 1 - to)) & (ROW_MASK << from);
+    }
+
+    /**
+     * Moves a box along (dx, dy) and finds the first solid tile it would touch.
+     * Tiles the box already overlaps by more than {@link #SKIN} are ignored so a box stuck inside
+     * a tile can still move out.
+     * @return true if the box hits something before the end of the motion
+     */
+    public boolean sweep(float minX, float minY, float maxX, float maxY, float dx, float dy, Hit hit) {
+        hit.hit = false;
+        hit.time = 1;
+        if(dx == 0 && dy == 0) return false;
+        int x0 = (int) Math.floor(Math.min(minX, minX + dx)), x1 = (int) Math.ceil(Math.max(maxX, maxX + dx)) - 1;
+        int y0 = (int) Math.floor(Math.min(minY, minY + dy)), y1 = (int) Math.ceil(Math.max(maxY, maxY + dy)) - 1;
+        for(int gx = Math.floorDiv(x0, SIZE); gx <= Math.floorDiv(x1, SIZE); ++gx) {
+            for(int gy = Math.floorDiv(y0, SIZE); gy <= Math.floorDiv(y1, SIZE); ++gy) {
+                Chunk chunk = chunk(gx, gy);
+                if(chunk == null) continue;
+                long mask = columnMask(x0 - gx * SIZE, x1 - gx * SIZE);
+                int rowTo = Math.min(y1 - gy * SIZE, SIZE - 1);
+                for(int row = Math.max(y0 - gy * SIZE, 0); row <= rowTo; ++row) {
+                    long bits = chunk.row(row) & mask;
+                    while(bits != 0) {
+                        int column = Long.numberOfTrailingZeros(bits);
+                        sweepTile(minX, minY, maxX, maxY, dx, dy, gx * SIZE + column, gy * SIZE + row, hit);
+                        bits &= bits - 1;
+                    }
+                }
+            }
+        }
+        return hit.hit;
+    }
+
+    /**
+     * Swept box against one tile, recording it in hit if it is touched before hit.time
+     */
+    static void sweepTile(float minX, float minY, float maxX, float maxY, float dx, float dy, int tileX, int tileY, Hit hit) {
+        float xEnter, xExit, yEnter, yExit;
+        if(dx > 0) {
+            xEnter = (tileX - maxX) / dx;
+            xExit = (tileX + 1 - minX) / dx;
+        } else if(dx < 0) {
+            xEnter = (tileX + 1 - minX) / dx;
+            xExit = (tileX - maxX) / dx;
+        } else {
+            if(maxX <= tileX || minX >= tileX + 1) return;
+            xEnter = Float.NEGATIVE_INFINITY;
+            xExit = Float.POSITIVE_INFINITY;
+        }
+        if(dy > 0) {
+            yEnter = (tileY - maxY) / dy;
+            yExit = (tileY + 1 - minY) / dy;
+        } else if(dy < 0) {
+            yEnter = (tileY + 1 - minY) / dy;
+            yExit = (tileY - maxY) / dy;
+        } else {
+            if(maxY <= tileY || minY >= tileY + 1) return;
+            yEnter = Float.NEGATIVE_INFINITY;
+            yExit = Float.POSITIVE_INFINITY;
+        }
+        float enter = Math.max(xEnter, yEnter), exit = Math.min(xExit, yExit);
+        if(enter >= exit || exit <= 0 || enter > hit.time || (hit.hit && enter == hit.time)) return;
+        boolean alongX = xEnter > yEnter;
+        if(enter < 0) {
+            float depth = alongX ? -xEnter * Math.abs(dx) : -yEnter * Math.abs(dy);
+            if(depth > SKIN * 2) return;
+            enter = 0;
+        }
+        hit.hit = true;
+        hit.time = enter;
+        hit.normalX = alongX ? (dx > 0 ? -1 : 1) : 0;
+        hit.normalY = alongX ? 0 : (dy > 0 ? -1 : 1);
+        hit.tileX = tileX;
+        hit.tileY = tileY;
+    }
+
+    /**
+     * Moves a box centered on center by (dx, dy), sliding along the faces of the tiles it hits
+     * @param hit scratch, left holding the last contact
+     * @return {@link #BLOCKED_X} and {@link #BLOCKED_Y} for the axes the motion was stopped on
+     */
+    public int slide(Vector2f center, float halfWidth, float halfHeight, float dx, float dy, Hit hit) {
+        int blocked = 0;
+        for(int i = 0; i < MAX_SLIDES && (dx != 0 || dy != 0); ++i) {
+            if(!sweep(center.x - halfWidth, center.y - halfHeight, center.x + halfWidth, center.y + halfHeight, dx, dy, hit)) {
+                center.add(dx, dy);
+                break;
+            }
+            center.x += dx * hit.time + hit.normalX * SKIN;
+            center.y += dy * hit.time + hit.normalY * SKIN;
+            float remaining = 1 - hit.time;
+            if(hit.normalX != 0) {
+                dx = 0;
+                blocked |= BLOCKED_X;
+            } else {
+                dy = 0;
+                blocked |= BLOCKED_Y;
+            }
+            dx *= remaining;
+            dy *= remaining;
+        }
+        return blocked;
+    }
+
+    /**
+     * Walks a ray through the tiles it crosses until it enters a solid one, a grid at a time
+     * so grids with no solid tiles cost one step
+     * @param dx direction of the ray with dy, need not be normalized
+     * @param maxDistance clamped to {@link #MAX_RAY_DISTANCE}, so an infinite one walks that far
+     * @return true if a solid tile starts within maxDistance of the origin
+     */
+    public boolean raycast(float ox, float oy, float dx, float dy, float maxDistance, Hit hit) {
+        maxDistance = Math.min(maxDistance, MAX_RAY_DISTANCE);
+        hit.hit = false;
+        hit.time = maxDistance;
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        if(length == 0) {
+            int x = (int) Math.floor(ox), y = (int) Math.floor(oy);
+            if(!isSolid(x, y)) return false;
+            setHit(hit, 0, x, y, 0, 0);
+            return true;
+        }
+        float ux = dx / length, uy = dy / length;
+        int stepX = ux > 0 ? 1 : ux < 0 ? -1 : 0, stepY = uy > 0 ? 1 : uy < 0 ? -1 : 0;
+        int gx = Math.floorDiv((int) Math.floor(ox), SIZE), gy = Math.floorDiv((int) Math.floor(oy), SIZE);
+        float deltaX = stepX == 0 ? Float.POSITIVE_INFINITY : SIZE / Math.abs(ux);
+        float deltaY = stepY == 0 ? Float.POSITIVE_INFINITY : SIZE / Math.abs(uy);
+        float maxX = stepX == 0 ? Float.POSITIVE_INFINITY : ((gx + (stepX > 0 ? 1 : 0)) * SIZE - ox) / ux;
+        float maxY = stepY == 0 ? Float.POSITIVE_INFINITY : ((gy + (stepY > 0 ? 1 : 0)) * SIZE - oy) / uy;
+        float t = 0;
+        int normalX = 0, normalY = 0;
+        while(t <= maxDistance) {
+            Chunk chunk = chunk(gx, gy);
+            if(chunk != null && castInChunk(chunk, gx, gy, ox, oy, ux, uy, t, normalX, normalY, maxDistance, hit)) {
+                return true;
+            }
+            if(maxX < maxY) {
+                t = maxX;
+                gx += stepX;
+                maxX += deltaX;
+                normalX = -stepX;
+                normalY = 0;
+            } else {
+                t = maxY;
+                gy += stepY;
+                maxY += deltaY;
+                normalX = 0;
+                normalY = -stepY;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tile by tile part of {@link #raycast}, from where the ray enters the grid at t until it leaves
+     */
+    private static boolean castInChunk(Chunk chunk, int gx, int gy, float ox, float oy, float ux, float uy,
+                                       float t, int normalX, int normalY, float maxDistance, Hit hit) {
+        int left = gx * SIZE, bottom = gy * SIZE;
+        // rounding can put the entry point just outside the grid
+        int x = Math.min(Math.max((int) Math.floor(ox + ux * t), left), left + SIZE - 1);
+        int y = Math.min(Math.max((int) Math.floor(oy + uy * t), bottom), bottom + SIZE - 1);
+        int stepX = ux > 0 ? 1 : ux < 0 ? -1 : 0, stepY = uy > 0 ? 1 : uy < 0 ? -1 : 0;
+        float deltaX = stepX == 0 ? Float.POSITIVE_INFINITY : 1 / Math.abs(ux);
+        float deltaY = stepY == 0 ? Float.POSITIVE_INFINITY : 1 / Math.abs(uy);
+        float maxX = stepX == 0 ? Float.POSITIVE_INFINITY : (x + (stepX > 0 ? 1 : 0) - ox) / ux;
+        float maxY = stepY == 0 ? Float.POSITIVE_INFINITY : (y + (stepY > 0 ? 1 : 0) - oy) / uy;
+        while(x >= left && x < left + SIZE && y >= bottom && y < bottom + SIZE && t <= maxDistance) {
+            if((chunk.row(y - bottom) >>> (x - left) & 1) != 0) {
+                setHit(hit, t, x, y, normalX, normalY);
+                return true;
+            }
+            if(maxX < maxY) {
+                t = maxX;
+                x += stepX;
+                maxX += deltaX;
+                normalX = -stepX;
+                normalY = 0;
+            } else {
+                t = maxY;
+                y += stepY;
+                maxY += deltaY;
+                normalX = 0;
+                normalY = -stepY;
+            }
+        }
+        return false;
+    }
+
+    private static void setHit(Hit hit, float time, int x, int y, int normalX, int normalY) {
+        hit.hit = true;
+        hit.time = time;
+        hit.tileX = x;
+        hit.tileY = y;
+        hit.normalX = normalX;
+        hit.normalY = normalY;
+    }
+
+    /**
+     * Moves every entity of the store by its velocity for one tick, sliding along solid tiles,
+     * in parallel when there are enough. Velocity blocked on an axis is dropped, or reflected if
+     * {@link #bounce} is set. Replaces {@link com.isaacph.entity.MovementSystem#update} for entities
+     * that collide with the world, and like it keeps the previous positions.
+     * @param halfWidth half the width of every entity's box, which is centered on its position
+     */
+    public void resolve(EntityStore store, float halfWidth, float halfHeight, float delta) {
+        int count = store.count;
+        System.arraycopy(store.x, 0, store.prevX, 0, count);
+        System.arraycopy(store.y, 0, store.prevY, 0, count);
+        if(count < PARALLEL_THRESHOLD || threads == 1) {
+            resolve(store, 0, count, halfWidth, halfHeight, delta);
+            return;
+        }
+        int slice = (count + threads - 1) / threads;
+        List<Future<?>> futures = new ArrayList<>();
+        for(int first = 0; first < count; first += slice) {
+            int from = first, to = Math.min(first + slice, count);
+            futures.add(workers.submit(() -> resolve(store, from, to, halfWidth, halfHeight, delta)));
+        }
+        try {
+            for(Future<?> future : futures) {
+                future.get();
+            }
+        } catch(InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Collision batch failed", e);
+        }
+    }
+
+    private void resolve(EntityStore store, int from, int to, float halfWidth, float halfHeight, float delta) {
+        Vector2f center = new Vector2f();
+        Hit hit = new Hit();
+        float[] x = store.x, y = store.y, vx = store.vx, vy = store.vy;
+        for(int i = from; i < to; ++i) {
+            center.set(x[i], y[i]);
+            int blocked = slide(center, halfWidth, halfHeight, vx[i] * delta, vy[i] * delta, hit);
+            x[i] = center.x;
+            y[i] = center.y;
+            if((blocked & BLOCKED_X) != 0) vx[i] = bounce ? -vx[i] : 0;
+            if((blocked & BLOCKED_Y) != 0) vy[i] = bounce ? -vy[i] : 0;
+        }
+    }
+
+    public void cleanUp() {
+        group.removeListener(this);
+        if(workers != null) workers.shutdownNow();
+    }
+}
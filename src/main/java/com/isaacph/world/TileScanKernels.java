@@ -0,0 +1,56 @@
+package com.isaacph.world;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API versions of the tile scanner's loops, with the same results as the scalar loops.
+ * Only loaded when {@link com.isaacph.util.VectorSupport#AVAILABLE} is true.
+ */
+final class TileScanKernels {
+
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+    /**
+     * Whether a vector covers whole columns of a grid, so its match bits split into columns
+     */
+    private static final boolean WHOLE_COLUMNS = BYTES.length() >= ByteGrid.SIZE && BYTES.length() % ByteGrid.SIZE == 0
+        && BYTES.length() <= 64;
+
+    private TileScanKernels() {}
+
+    static int count(byte[] data, int from, int to, byte mask, byte value) {
+        int n = 0;
+        int i = from;
+        int bound = from + BYTES.loopBound(to - from);
+        for(; i < bound; i += BYTES.length()) {
+            n += ByteVector.fromArray(BYTES, data, i).and(mask).eq(value).trueCount();
+        }
+        return n + TileScanner.count(data, i, to, mask, value);
+    }
+
+    static int firstMatch(byte[] data, int from, int to, byte mask, byte value) {
+        int i = from;
+        int bound = from + BYTES.loopBound(to - from);
+        for(; i < bound; i += BYTES.length()) {
+            int lane = ByteVector.fromArray(BYTES, data, i).and(mask).eq(value).firstTrue();
+            if(lane < BYTES.length()) return i + lane;
+        }
+        return TileScanner.firstMatch(data, i, to, mask, value);
+    }
+
+    static void matchColumns(byte[] data, byte mask, byte value, int[] columns, int offset) {
+        if(!WHOLE_COLUMNS) {
+            TileScanner.matchColumns(data, mask, value, columns, offset);
+            return;
+        }
+        int size = ByteGrid.SIZE;
+        long columnMask = (1L << size) - 1;
+        for(int i = 0; i < data.length; i += BYTES.length()) {
+            long bits = ByteVector.fromArray(BYTES, data, i).and(mask).eq(value).toLong();
+            for(int c = 0; c < BYTES.length() / size; ++c) {
+                columns[offset + i / size + c] = (int) (bits >>> (c * size) & columnMask);
+            }
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package com.isaacph.world;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import com.isaacph.util.VectorSupport;
+import org.joml.Vector2i;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts, histograms and searches tiles by reading {@link ByteGrid#data} a grid at a time instead
+ * of calling {@link ByteGrid.Group#getTile(int, int)} for every tile. A tile matches if
+ * {@code (tile & mask) == value}, so a mask of -1 matches one tile value and a narrower mask
+ * matches every value with some bits set.
+ * <p>
+ * Queries either cover a rectangle of tiles, where grids missing from the group read as tile 0
+ * like getTile does, or the whole world, which is every grid in the group. A grid's columns are
+ * contiguous in its data, so a query that covers whole columns scans one run of bytes, with the
+ * Vector API when it is available. Queries over enough grids are split across a worker pool.
+ * The scanner runs one query at a time and the group must not be edited during one.
+ */
+public class TileScanner {
+
+    /**
+     * Grids in a query before it is split across the workers
+     */
+    public static final int PARALLEL_THRESHOLD = 64;
+    private static final int SIZE = ByteGrid.SIZE;
+
+    /**
+     * Uses the Vector API kernels when they are available, can be turned off to compare
+     */
+    public boolean vectorized = VectorSupport.AVAILABLE;
+
+    private interface SliceTask {
+        void run(int slice, int from, int to);
+    }
+
+    private final ByteGrid.Group group;
+    private final ExecutorService workers;
+    private final int threads;
+    private final Vector2i gridKey = new Vector2i();
+
+    /* the grids of the current query, null for those missing from the group */
+    private ByteGrid[] grids = new ByteGrid[0];
+    private int[] gridX = new int[0], gridY = new int[0];
+    private int gridCount = 0;
+    /* the query rectangle, end exclusive, or the whole of every grid */
+    private int minX, minY, maxX, maxY;
+    private boolean wholeGrids;
+
+    /* per slice results */
+    private long[] sliceCounts = new long[0];
+    private long[][] sliceHistograms = new long[0][];
+    private final Vector2i[] sliceFirst;
+    private int[] columns = new int[0];
+
+    public TileScanner(ByteGrid.Group group, int threads) {
+        this.group = group;
+        this.threads = Math.max(threads, 1);
+        sliceFirst = new Vector2i[this.threads];
+        for(int i = 0; i < this.threads; ++i) sliceFirst[i] = new Vector2i();
+        sliceCounts = new long[this.threads];
+        sliceHistograms = new long[this.threads][256];
+        workers = Executors.newFixedThreadPool(this.threads, r -> {
+            Thread thread = new Thread(r, "tile-scanner");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void ensureGrids(int count) {
+        if(grids.length >= count) return;
+        int capacity = Math.max(count, grids.length * 2);
+        grids = new ByteGrid[capacity];
+        gridX = new int[capacity];
+        gridY = new int[capacity];
+    }
+
+    private void selectRectangle(int minX, int minY, int width, int height) {
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = minX + Math.max(width, 0);
+        this.maxY = minY + Math.max(height, 0);
+        wholeGrids = false;
+        gridCount = 0;
+        if(width <= 0 || height <= 0) return;
+        int gridMinX = Math.floorDiv(minX, SIZE), gridMaxX = Math.floorDiv(maxX - 1, SIZE);
+        int gridMinY = Math.floorDiv(minY, SIZE), gridMaxY = Math.floorDiv(maxY - 1, SIZE);
+        ensureGrids((gridMaxX - gridMinX + 1) * (gridMaxY - gridMinY + 1));
+        for(int gx = gridMinX; gx <= gridMaxX; ++gx) {
+            for(int gy = gridMinY; gy <= gridMaxY; ++gy) {
+                grids[gridCount] = group.map.get(gridKey.set(gx, gy));
+                gridX[gridCount] = gx;
+                gridY[gridCount] = gy;
+                ++gridCount;
+            }
+        }
+    }
+
+    private void selectWorld() {
+        wholeGrids = true;
+        gridCount = 0;
+        ensureGrids(group.map.size());
+        for(ByteGrid grid : group.map.values()) {
+            grids[gridCount] = grid;
+            gridX[gridCount] = grid.x;
+            gridY[gridCount] = grid.y;
+            ++gridCount;
+        }
+    }
+
+    /* the part of grid g inside the query, in local coordinates, end exclusive */
+    private int localMinX(int g) { return wholeGrids ? 0 : Math.max(minX - gridX[g] * SIZE, 0); }
+    private int localMaxX(int g) { return wholeGrids ? SIZE : Math.min(maxX - gridX[g] * SIZE, SIZE); }
+    private int localMinY(int g) { return wholeGrids ? 0 : Math.max(minY - gridY[g] * SIZE, 0); }
+    private int localMaxY(int g) { return wholeGrids ? SIZE : Math.min(maxY - gridY[g] * SIZE, SIZE); }
+
+    private int sliceCount() {
+        return gridCount < PARALLEL_THRESHOLD ? 1 : threads;
+    }
+
+    private void forSlices(SliceTask task) {
+        int slices = sliceCount();
+        if(slices == 1) {
+            task.run(0, 0, gridCount);
+            return;
+        }
+        int slice = (gridCount + slices - 1) / slices;
+        List<Future<?>> futures = new ArrayList<>();
+        for(int first = 0; first < gridCount; first += slice) {
+            int index = first / slice, from = first, to = Math.min(first + slice, gridCount);
+            futures.add(workers.submit(() -> task.run(index, from, to)));
+        }
+        try {
+            for(Future<?> future : futures) {
+                future.get();
+            }
+        } catch(InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Tile scan failed", e);
+        }
+    }
+
+    /**
+     * Matching tiles in the rectangle
+     */
+    public long count(int minX, int minY, int width, int height, byte mask, byte value) {
+        selectRectangle(minX, minY, width, height);
+        return countSelected(mask, value);
+    }
+
+    /**
+     * Matching tiles in every grid of the group
+     */
+    public long count(byte mask, byte value) {
+        selectWorld();
+        return countSelected(mask, value);
+    }
+
+    private long countSelected(byte mask, byte value) {
+        int slices = sliceCount();
+        // slices past the end of a short query never run
+        Arrays.fill(sliceCounts, 0);
+        forSlices((slice, from, to) -> {
+            long n = 0;
+            for(int g = from; g < to; ++g) n += countGrid(g, mask, value);
+            sliceCounts[slice] = n;
+        });
+        long total = 0;
+        for(int i = 0; i < slices; ++i) total += sliceCounts[i];
+        return total;
+    }
+
+    private long countGrid(int g, byte mask, byte value) {
+        int x0 = localMinX(g), x1 = localMaxX(g), y0 = localMinY(g), y1 = localMaxY(g);
+        ByteGrid grid = grids[g];
+        if(grid == null) return value == 0 ? (long) (x1 - x0) * (y1 - y0) : 0;
+        if(y0 == 0 && y1 == SIZE) return countRange(grid.data, x0 * SIZE, x1 * SIZE, mask, value);
+        long n = 0;
+        for(int x = x0; x < x1; ++x) n += countRange(grid.data, x * SIZE + y0, x * SIZE + y1, mask, value);
+        return n;
+    }
+
+    private int countRange(byte[] data, int from, int to, byte mask, byte value) {
+        return vectorized ? TileScanKernels.count(data, from, to, mask, value) : count(data, from, to, mask, value);
+    }
+
+    static int count(byte[] data, int from, int to, byte mask, byte value) {
+        int n = 0;
+        for(int i = from; i < to; ++i) {
+            if((byte) (data[i] & mask) == value) ++n;
+        }
+        return n;
+    }
+
+    /**
+     * Tiles of each value in the rectangle, indexed by the value as an unsigned byte
+     * @param dest 256 counts to fill, or null for a new array
+     */
+    public long[] histogram(int minX, int minY, int width, int height, long[] dest) {
+        selectRectangle(minX, minY, width, height);
+        return histogramSelected(dest);
+    }
+
+    /**
+     * Tiles of each value in every grid of the group
+     */
+    public long[] histogram(long[] dest) {
+        selectWorld();
+        return histogramSelected(dest);
+    }
+
+    private long[] histogramSelected(long[] dest) {
+        if(dest == null) dest = new long[256];
+        int slices = sliceCount();
+        for(long[] histogram : sliceHistograms) Arrays.fill(histogram, 0);
+        forSlices((slice, from, to) -> {
+            long[] histogram = sliceHistograms[slice];
+            for(int g = from; g < to; ++g) histogramGrid(g, histogram);
+        });
+        Arrays.fill(dest, 0);
+        for(int i = 0; i < slices; ++i) {
+            for(int b = 0; b < 256; ++b) dest[b] += sliceHistograms[i][b];
+        }
+        return dest;
+    }
+
+    /**
+     * Scalar in both modes, lanes cannot increment scattered counters
+     */
+    private void histogramGrid(int g, long[] histogram) {
+        int x0 = localMinX(g), x1 = localMaxX(g), y0 = localMinY(g), y1 = localMaxY(g);
+        ByteGrid grid = grids[g];
+        if(grid == null) {
+            histogram[0] += (long) (x1 - x0) * (y1 - y0);
+            return;
+        }
+        byte[] data = grid.data;
+        for(int x = x0; x < x1; ++x) {
+            for(int i = x * SIZE + y0, end = x * SIZE + y1; i < end; ++i) {
+                ++histogram[data[i] & 0xFF];
+            }
+        }
+    }
+
+    /**
+     * The matching tile in the rectangle with the lowest x, then the lowest y
+     * @return false if no tile matches
+     */
+    public boolean findFirst(int minX, int minY, int width, int height, byte mask, byte value, Vector2i dest) {
+        selectRectangle(minX, minY, width, height);
+        return findFirstSelected(mask, value, dest);
+    }
+
+    /**
+     * The matching tile in every grid of the group with the lowest x, then the lowest y
+     */
+    public boolean findFirst(byte mask, byte value, Vector2i dest) {
+        selectWorld();
+        return findFirstSelected(mask, value, dest);
+    }
+
+    private boolean findFirstSelected(byte mask, byte value, Vector2i dest) {
+        int slices = sliceCount();
+        for(Vector2i best : sliceFirst) best.set(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        forSlices((slice, from, to) -> {
+            Vector2i best = sliceFirst[slice];
+            for(int g = from; g < to; ++g) {
+                // a grid entirely after the best so far cannot hold anything earlier
+                if(gridX[g] * SIZE + localMinX(g) > best.x) continue;
+                findFirstGrid(g, mask, value, best);
+            }
+        });
+        boolean found = false;
+        for(int i = 0; i < slices; ++i) {
+            Vector2i best = sliceFirst[i];
+            if(best.x == Integer.MAX_VALUE) continue;
+            if(!found || before(best.x, best.y, dest.x, dest.y)) dest.set(best);
+            found = true;
+        }
+        return found;
+    }
+
+    private static boolean before(int x, int y, int otherX, int otherY) {
+        return x < otherX || (x == otherX && y < otherY);
+    }
+
+    private void findFirstGrid(int g, byte mask, byte value, Vector2i best) {
+        int x0 = localMinX(g), x1 = localMaxX(g), y0 = localMinY(g), y1 = localMaxY(g);
+        int left = gridX[g] * SIZE, bottom = gridY[g] * SIZE;
+        ByteGrid grid = grids[g];
+        if(grid == null) {
+            if(value == 0 && x0 < x1 && y0 < y1 && before(left + x0, bottom + y0, best.x, best.y)) {
+                best.set(left + x0, bottom + y0);
+            }
+            return;
+        }
+        int index = -1;
+        if(y0 == 0 && y1 == SIZE) {
+            index = firstMatchRange(grid.data, x0 * SIZE, x1 * SIZE, mask, value);
+        } else {
+            for(int x = x0; x < x1 && index < 0; ++x) {
+                index = firstMatchRange(grid.data, x * SIZE + y0, x * SIZE + y1, mask, value);
+            }
+        }
+        if(index >= 0 && before(left + index / SIZE, bottom + index % SIZE, best.x, best.y)) {
+            best.set(left + index / SIZE, bottom + index % SIZE);
+        }
+    }
+
+    private int firstMatchRange(byte[] data, int from, int to, byte mask, byte value) {
+        return vectorized ? TileScanKernels.firstMatch(data, from, to, mask, value) : firstMatch(data, from, to, mask, value);
+    }
+
+    static int firstMatch(byte[] data, int from, int to, byte mask, byte value) {
+        for(int i = from; i < to; ++i) {
+            if((byte) (data[i] & mask) == value) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Sets the bit of every matching tile in the bitmap's rectangle and clears the rest,
+     * the same as {@link TileBitmap#readTiles} with a table built from the mask
+     * @return the number of matching tiles
+     */
+    public int extract(TileBitmap bitmap, byte mask, byte value) {
+        selectRectangle(bitmap.minX, bitmap.minY, bitmap.width, bitmap.height);
+        if(columns.length < gridCount * SIZE) columns = new int[Math.max(gridCount * SIZE, columns.length * 2)];
+        int missing = value == 0 ? (1 << SIZE) - 1 : 0;
+        // match bits a column at a time in parallel, then turned into rows for the bitmap
+        forSlices((slice, from, to) -> {
+            for(int g = from; g < to; ++g) {
+                int offset = g * SIZE;
+                ByteGrid grid = grids[g];
+                if(grid == null) {
+                    Arrays.fill(columns, offset, offset + SIZE, missing);
+                    continue;
+                }
+                if(vectorized) {
+                    TileScanKernels.matchColumns(grid.data, mask, value, columns, offset);
+                } else {
+                    matchColumns(grid.data, mask, value, columns, offset);
+                }
+                transpose(columns, offset);
+            }
+        });
+        for(int g = 0; g < gridCount; ++g) {
+            int left = gridX[g] * SIZE, bottom = gridY[g] * SIZE;
+            for(int y = localMinY(g); y < localMaxY(g); ++y) {
+                bitmap.setRow(left, bottom + y, columns[g * SIZE + y] & 0xFFFFFFFFL, SIZE);
+            }
+        }
+        return bitmap.count();
+    }
+
+    /**
+     * Bit y of columns[offset + x] is set if tile (x, y) of the grid's data matches
+     */
+    static void matchColumns(byte[] data, byte mask, byte value, int[] columns, int offset) {
+        for(int x = 0; x < SIZE; ++x) {
+            int bits = 0;
+            for(int y = 0; y < SIZE; ++y) {
+                if((byte) (data[x * SIZE + y] & mask) == value) bits |= 1 << y;
+            }
+            columns[offset + x] = bits;
+        }
+    }
+
+    /**
+     * Transposes the SIZE by SIZE bit matrix in a[offset, offset + SIZE) in place by swapping
+     * ever smaller blocks across the diagonal, so columns of match bits become rows
+     */
+    private static void transpose(int[] a, int offset) {
+        int m = (1 << (SIZE / 2)) - 1;
+        for(int j = SIZE / 2; j != 0; j >>= 1, m ^= m << j) {
+            for(int k = 0; k < SIZE; k = (k + j + 1) & ~j) {
+                int t = ((a[offset + k] >>> j) ^ a[offset + k + j]) & m;
+                a[offset + k] ^= t << j;
+                a[offset + k + j] ^= t;
+            }
+        }
+    }
+
+    public void cleanUp() {
+        workers.shutdownNow();
+    }
+}
@@ -0,0 +1,8 @@
+#version 110
+uniform sampler2D sampler;
+uniform vec4 color;
+varying vec2 uv;
+void main()
+{
+    gl_FragColor = color * texture2D(sampler, uv);
+}
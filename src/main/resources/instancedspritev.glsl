@@ -0,0 +1,22 @@
+#version 110
+uniform mat4 matrix;
+uniform float alpha;
+uniform float size;
+uniform vec2 sheetOrigin;
+uniform vec2 frameSize;
+uniform float columns;
+attribute vec2 position;
+attribute vec2 texture;
+attribute float instanceX;
+attribute float instanceY;
+attribute float instancePrevX;
+attribute float instancePrevY;
+attribute float instanceFrame;
+varying vec2 uv;
+void main()
+{
+    vec2 center = mix(vec2(instancePrevX, instancePrevY), vec2(instanceX, instanceY), alpha);
+    vec2 cell = vec2(mod(instanceFrame, columns), floor(instanceFrame / columns));
+    uv = sheetOrigin + (cell + texture) * frameSize;
+    gl_Position = matrix * vec4(center + position * size, 0.0, 1.0);
+}
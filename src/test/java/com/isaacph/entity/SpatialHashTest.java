@@ -0,0 +1,127 @@
+package com.isaacph.entity;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpatialHashTest {
+
+    private static final float SIDE = 200;
+
+    private static int[] sorted(int[] found, int count) {
+        int[] ids = Arrays.copyOf(found, count);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private static int[] scanRadius(EntityStore store, float px, float py, float radius) {
+        int[] ids = new int[store.count];
+        int n = 0;
+        for(int i = 0; i < store.count; ++i) {
+            float dx = store.x[i] - px, dy = store.y[i] - py;
+            if(dx * dx + dy * dy <= radius * radius) ids[n++] = store.idAt(i);
+        }
+        return sorted(ids, n);
+    }
+
+    private static int[] scanBox(EntityStore store, float minX, float minY, float maxX, float maxY) {
+        int[] ids = new int[store.count];
+        int n = 0;
+        for(int i = 0; i < store.count; ++i) {
+            if(store.x[i] >= minX && store.x[i] <= maxX && store.y[i] >= minY && store.y[i] <= maxY) ids[n++] = store.idAt(i);
+        }
+        return sorted(ids, n);
+    }
+
+    private static void assertQueriesMatch(SpatialHash hash, EntityStore store, Random random) {
+        int[] found = new int[store.getCapacity()];
+        for(int s = 0; s < 100; ++s) {
+            float px = random.nextFloat() * SIDE, py = random.nextFloat() * SIDE, radius = random.nextFloat() * 20;
+            assertArrayEquals(scanRadius(store, px, py, radius), sorted(found, hash.queryRadius(px, py, radius, found)));
+            float minX = random.nextFloat() * SIDE, minY = random.nextFloat() * SIDE;
+            float maxX = minX + random.nextFloat() * 60, maxY = minY + random.nextFloat() * 60;
+            assertArrayEquals(scanBox(store, minX, minY, maxX, maxY), sorted(found, hash.queryBox(minX, minY, maxX, maxY, found)));
+        }
+        assertEquals(store.count, hash.size());
+    }
+
+    @Test
+    public void queriesMatchScanWhileEntitiesMoveAndChurn() {
+        Random random = new Random(1);
+        EntityStore store = new EntityStore(64);
+        for(int i = 0; i < 2000; ++i) {
+            store.create(random.nextFloat() * SIDE, random.nextFloat() * SIDE, random.nextFloat() * 20 - 10, random.nextFloat() * 20 - 10, 1);
+        }
+        MovementSystem movement = new MovementSystem(0, 0, SIDE, SIDE);
+        SpatialHash hash = new SpatialHash();
+        for(int tick = 0; tick < 30; ++tick) {
+            movement.update(store, 1 / 60.0f);
+            // creations first reuse the ids removed last tick, the removals after them leave dead ids behind
+            for(int i = 0; i < 25; ++i) {
+                store.create(random.nextFloat() * SIDE, random.nextFloat() * SIDE, 0, 0, 1);
+            }
+            for(int i = 0; i < 40; ++i) {
+                store.remove(store.idAt(random.nextInt(store.count)));
+            }
+            hash.update(store);
+            assertQueriesMatch(hash, store, random);
+        }
+    }
+
+    @Test
+    public void updateDropsRemovedEntities() {
+        EntityStore store = new EntityStore();
+        int a = store.create(5, 5, 0, 0, 1), b = store.create(6, 5, 0, 0, 1);
+        SpatialHash hash = new SpatialHash();
+        hash.update(store);
+        store.remove(a);
+        hash.update(store);
+        assertFalse(hash.contains(a));
+        int[] found = new int[4];
+        assertEquals(1, hash.queryRadius(5, 5, 3, found));
+        assertEquals(b, found[0]);
+    }
+
+    @Test
+    public void reusedIdMovesToItsNewEntity() {
+        EntityStore store = new EntityStore();
+        int a = store.create(5, 5, 0, 0, 1);
+        SpatialHash hash = new SpatialHash();
+        hash.update(store);
+        store.remove(a);
+        int reused = store.create(150, 150, 0, 0, 1);
+        assertEquals(a, reused);
+        hash.update(store);
+        int[] found = new int[4];
+        assertEquals(0, hash.queryRadius(5, 5, 3, found));
+        assertEquals(1, hash.queryRadius(150, 150, 1, found));
+        assertEquals(reused, found[0]);
+    }
+
+    @Test
+    public void insertMoveRemove() {
+        SpatialHash hash = new SpatialHash(4);
+        hash.insert(3, 1, 1);
+        hash.insert(7, 2, 1);
+        int[] found = new int[4];
+        assertEquals(2, hash.queryBox(0, 0, 3, 3, found));
+        // within the cell and then out of it
+        hash.move(3, 1.5f, 1.5f);
+        hash.move(7, 50, 50);
+        assertEquals(1, hash.queryBox(0, 0, 3, 3, found));
+        assertEquals(3, found[0]);
+        hash.remove(3);
+        assertEquals(0, hash.queryBox(0, 0, 3, 3, found));
+        assertTrue(hash.contains(7));
+        assertEquals(1, hash.size());
+        // more ids found than fit still counts them all
+        for(int id = 0; id < 10; ++id) hash.insert(id + 100, 60, 60);
+        assertEquals(10, hash.queryRadius(60, 60, 1, new int[2]));
+    }
+}
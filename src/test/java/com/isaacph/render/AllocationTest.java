@@ -0,0 +1,151 @@
+package com.isaacph.render;
+
+import com.isaacph.GameTime;
+import org.joml.Vector2f;
+import org.joml.Vector2i;
+import org.joml.Vector4f;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the per-frame paths that need no GL context allocate nothing once warmed up, the camera
+ * transforms, the mouse picking done every frame and the text layout math
+ */
+public class AllocationTest {
+
+    private static final int WARMUP = 20_000;
+    private static final int ITERATIONS = 10_000;
+
+    private static com.sun.management.ThreadMXBean threads;
+
+    @BeforeClass
+    public static void setUp() {
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    private static final int ROUNDS = 5;
+
+    /**
+     * Bytes the current thread allocated running the work, after running it enough to be compiled.
+     * The fewest of a few rounds, so a one off allocation by the JIT or class loading is not counted
+     * while anything allocated per iteration still is, in every round.
+     */
+    private static long allocated(Runnable work) {
+        for(int i = 0; i < WARMUP; ++i) work.run();
+        long fewest = Long.MAX_VALUE;
+        for(int round = 0; round < ROUNDS; ++round) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for(int i = 0; i < ITERATIONS; ++i) work.run();
+            fewest = Math.min(fewest, threads.getCurrentThreadAllocatedBytes() - before);
+        }
+        return fewest;
+    }
+
+    private static Camera camera() {
+        Camera camera = new Camera(new GameTime(0), 0);
+        camera.windowResize(800, 600);
+        camera.setCenter(new Vector2f(5, -3));
+        return camera;
+    }
+
+    @Test
+    public void cameraTransformsDoNotAllocate() {
+        Camera camera = camera();
+        Vector2f point = new Vector2f(), dest = new Vector2f();
+        Vector4f bounds = new Vector4f();
+        long bytes = allocated(() -> {
+            camera.updateView();
+            camera.worldToScreenSpace(point.set(3, 4), dest);
+            camera.screenToWorldSpace(dest, dest);
+            Camera.worldToViewSpace(1, 2, dest);
+            Camera.viewToWorldSpace(dest, dest);
+            camera.viewToScreenSpace(dest, dest);
+            camera.screenToViewSpace(dest, dest);
+            camera.getWorldBounds(bounds);
+        });
+        assertEquals("bytes allocated by " + ITERATIONS + " camera updates", 0, bytes);
+    }
+
+    @Test
+    public void cameraTransformsRoundTrip() {
+        Camera camera = camera();
+        camera.updateView();
+        Vector2f screen = camera.worldToScreenSpace(new Vector2f(3, 4), new Vector2f());
+        Vector2f world = camera.screenToWorldSpace(screen, new Vector2f());
+        assertEquals(3, world.x, 1e-3f);
+        assertEquals(4, world.y, 1e-3f);
+    }
+
+    @Test
+    public void mousePickingDoesNotAllocate() {
+        Camera camera = camera();
+        Vector2f view = new Vector2f();
+        Vector2i tile = new Vector2i();
+        float[] cursor = new float[2];
+        long bytes = allocated(() -> {
+            cursor[0] = (cursor[0] + 7) % 800;
+            cursor[1] = (cursor[1] + 3) % 600;
+            camera.pickTile(cursor[0], cursor[1], view, tile);
+        });
+        assertEquals("bytes allocated by " + ITERATIONS + " mouse polls", 0, bytes);
+    }
+
+    @Test
+    public void mousePickingFindsTheTileUnderTheCursor() {
+        Camera camera = camera();
+        camera.updateView();
+        Vector2f view = new Vector2f();
+        Vector2i tile = new Vector2i();
+        for(Vector2f world : new Vector2f[] {new Vector2f(5.5f, -2.5f), new Vector2f(-0.25f, 3.75f), new Vector2f(9.9f, -7.1f)}) {
+            Vector2f screen = camera.worldToScreenSpace(world, new Vector2f());
+            camera.pickTile(screen.x, screen.y, view, tile);
+            assertEquals(new Vector2i((int) Math.floor(world.x), (int) Math.floor(world.y)), tile);
+            Vector2f expectedView = Camera.worldToViewSpace(world, new Vector2f());
+            assertEquals(expectedView.x, view.x, 1e-3f);
+            assertEquals(expectedView.y, view.y, 1e-3f);
+        }
+    }
+
+    private static Font.Metrics metrics() {
+        Font.Metrics metrics = new Font.Metrics(16);
+        for(int c = 0; c < 128; ++c) {
+            metrics.setGlyph(c, 8 + c % 3, 1);
+        }
+        return metrics;
+    }
+
+    @Test
+    public void textLayoutDoesNotAllocate() {
+        Font.Metrics metrics = metrics();
+        StringBuilder text = new StringBuilder("fps: 60\nchunks: 128");
+        Vector2f pen = new Vector2f();
+        float[] sink = new float[1];
+        long bytes = allocated(() -> {
+            metrics.start(text, 10, 20, pen);
+            for(int i = 0; i < text.length(); ++i) {
+                metrics.advance(pen, text.charAt(i), 10);
+            }
+            sink[0] += pen.x + metrics.textWidth(text);
+        });
+        assertEquals("bytes allocated by " + ITERATIONS + " text layouts", 0, bytes);
+    }
+
+    @Test
+    public void textLayoutPlacesGlyphs() {
+        Font.Metrics metrics = metrics();
+        Vector2f pen = metrics.start("ab\nc", 10, 20, new Vector2f());
+        assertEquals(9, pen.x, 0);
+        metrics.advance(pen, 'a', 10);
+        assertEquals(9 + 8 + 'a' % 3, pen.x, 0);
+        metrics.advance(pen, 'b', 10);
+        metrics.advance(pen, '\n', 10);
+        assertEquals(10, pen.x, 0);
+        assertEquals(36, pen.y, 0);
+        assertEquals(1 + 8 + 'a' % 3 + 8 + 'b' % 3, metrics.textWidth("ab"), 0);
+    }
+}
@@ -0,0 +1,58 @@
+package com.isaacph.server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.function.IntSupplier;
+
+/**
+ * Takes a few bytes per write, none at times, like a non-blocking socket with a small buffer
+ */
+class ChokedChannel implements GatheringByteChannel {
+
+    final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private final IntSupplier room;
+    int writes = 0;
+    int mostBuffers = 0;
+
+    /**
+     * @param room the most bytes the next write takes
+     */
+    ChokedChannel(IntSupplier room) {
+        this.room = room;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+        ++writes;
+        mostBuffers = Math.max(mostBuffers, length);
+        long taken = 0, limit = room.getAsInt();
+        for(int i = offset; i < offset + length && taken < limit; ++i) {
+            ByteBuffer src = srcs[i];
+            while(src.hasRemaining() && taken < limit) {
+                written.write(src.get());
+                ++taken;
+            }
+        }
+        return taken;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        return (int) write(new ByteBuffer[] {src}, 0, 1);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,60 @@
+package com.isaacph.server;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Hands out a byte stream a few bytes per read, as a socket would, and records what each read
+ * was given to read into
+ */
+class ChunkedChannel implements ReadableByteChannel {
+
+    private final byte[] data;
+    private final IntUnaryOperator chunks;
+    private int position = 0;
+    private boolean open = true;
+    /**
+     * Whether each read so far went into a direct buffer
+     */
+    final List<Boolean> directReads = new ArrayList<>();
+    /**
+     * Stream position at the start of each read
+     */
+    final List<Integer> readPositions = new ArrayList<>();
+
+    /**
+     * @param chunks the most bytes a read returns, given the position in the stream it starts at
+     */
+    ChunkedChannel(byte[] data, IntUnaryOperator chunks) {
+        this.data = data;
+        this.chunks = chunks;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+        if(position == data.length) return -1;
+        directReads.add(dst.isDirect());
+        readPositions.add(position);
+        int n = Math.min(Math.min(Math.max(chunks.applyAsInt(position), 1), dst.remaining()), data.length - position);
+        dst.put(data, position, n);
+        position += n;
+        return n;
+    }
+
+    boolean atEnd() {
+        return position == data.length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+}
@@ -0,0 +1,134 @@
+package com.isaacph.server;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.isaacph.entity.EntityStore;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EntitySnapshotTest {
+
+    private static byte[] delta(EntitySnapshot current, EntitySnapshot baseline) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+        current.writeDelta(baseline, output);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * What a reader holding the baseline rebuilds from the delta
+     */
+    private static EntitySnapshot roundTrip(EntitySnapshot current, EntitySnapshot baseline) throws IOException {
+        byte[] delta = delta(current, baseline);
+        EntitySnapshot read = new EntitySnapshot(4);
+        CodedInputStream input = CodedInputStream.newInstance(delta);
+        read.readDelta(baseline, input, current.tick);
+        assertTrue("the whole delta is read", input.isAtEnd());
+        assertEquals(current.tick, read.tick);
+        return read;
+    }
+
+    private static EntitySnapshot capture(EntityStore store, int tick) {
+        EntitySnapshot snapshot = new EntitySnapshot();
+        snapshot.capture(store, tick);
+        return snapshot;
+    }
+
+    private static void assertRoundTrip(EntitySnapshot current, EntitySnapshot baseline) throws IOException {
+        assertTrue("delta from " + (baseline == null ? "nothing" : "tick " + baseline.tick) + " to tick " + current.tick,
+            roundTrip(current, baseline).matches(current));
+    }
+
+    @Test
+    public void createdRemovedAndReusedIds() throws IOException {
+        EntityStore store = new EntityStore();
+        List<Integer> ids = new ArrayList<>();
+        for(int i = 0; i < 10; ++i) ids.add(store.create(i, i * 2, i % 3, 0, 4));
+        EntitySnapshot baseline = capture(store, 1);
+        assertRoundTrip(baseline, null);
+
+        // ids 2 and 7 are gone, 7 comes back as a different entity, and two brand new ones follow
+        store.remove(ids.get(2));
+        store.remove(ids.get(7));
+        int reused = store.create(-5, 40, 1, 1, 2);
+        assertEquals((int) ids.get(7), reused);
+        int created = store.create(0, 0, 0, 0, 1);
+        assertEquals((int) ids.get(2), created);
+        int fresh = store.create(3, 3, 0, 0, 1);
+        store.x[store.indexOf(ids.get(0))] += 0.5f;
+        store.frame[store.indexOf(ids.get(5))] = 3;
+        EntitySnapshot current = capture(store, 2);
+        assertRoundTrip(current, baseline);
+        assertEquals(11, current.count);
+        assertTrue(current.find(fresh) >= 0);
+
+        // removed with nothing in their place
+        store.remove(ids.get(0));
+        store.remove(fresh);
+        assertRoundTrip(capture(store, 3), current);
+        assertRoundTrip(capture(store, 3), baseline);
+    }
+
+    @Test
+    public void createdAtZeroIsKept() throws IOException {
+        EntityStore store = new EntityStore();
+        store.create(1, 1, 0, 0, 1);
+        EntitySnapshot baseline = capture(store, 1);
+        // every field zero, so only the created flag says it exists
+        store.create(0, 0, 0, 0, 0);
+        EntitySnapshot current = capture(store, 2);
+        EntitySnapshot read = roundTrip(current, baseline);
+        assertEquals(2, read.count);
+        assertTrue(read.matches(current));
+    }
+
+    @Test
+    public void unchangedIsTiny() throws IOException {
+        EntityStore store = new EntityStore();
+        for(int i = 0; i < 100; ++i) store.create(i, i, 0, 0, 4);
+        EntitySnapshot baseline = capture(store, 1);
+        EntitySnapshot current = capture(store, 2);
+        // no removals and no updates
+        assertEquals(2, delta(current, baseline).length);
+        assertRoundTrip(current, baseline);
+    }
+
+    @Test
+    public void randomChurnFromOlderBaselines() throws IOException {
+        Random random = new Random(1);
+        EntityStore store = new EntityStore();
+        List<Integer> ids = new ArrayList<>();
+        for(int i = 0; i < 300; ++i) ids.add(store.create(random.nextFloat() * 100, random.nextFloat() * 100, 0, 0, 4));
+        List<EntitySnapshot> history = new ArrayList<>();
+        for(int tick = 0; tick < 100; ++tick) {
+            for(int i = 0; i < 10; ++i) {
+                int index = store.indexOf(ids.get(random.nextInt(ids.size())));
+                store.x[index] += random.nextFloat() * 2 - 1;
+                store.vy[index] = random.nextFloat() * 4 - 2;
+                store.frame[index] = random.nextInt(4);
+            }
+            for(int i = 0; i < 5; ++i) {
+                store.remove(ids.remove(random.nextInt(ids.size())));
+                // ids just freed are handed out again first
+                ids.add(store.create(random.nextFloat() * 100, random.nextFloat() * 100, random.nextFloat(), 0, 1 + random.nextInt(4)));
+            }
+            if(random.nextBoolean()) ids.add(store.create(random.nextFloat() * 100, 0, 0, 0, 1));
+            EntitySnapshot current = capture(store, tick);
+            assertRoundTrip(current, null);
+            if(!history.isEmpty()) {
+                assertRoundTrip(current, history.get(history.size() - 1));
+                assertRoundTrip(current, history.get(random.nextInt(history.size())));
+            }
+            history.add(current);
+        }
+    }
+}
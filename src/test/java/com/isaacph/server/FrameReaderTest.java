@@ -0,0 +1,189 @@
+package com.isaacph.server;
+
+import com.google.protobuf.CodedOutputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FrameReaderTest {
+
+    static byte[] body(Random random, int length) {
+        byte[] body = new byte[length];
+        random.nextBytes(body);
+        return body;
+    }
+
+    /**
+     * Each body after its varint length, as the writer frames them
+     */
+    static byte[] stream(List<byte[]> bodies) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+        for(byte[] body : bodies) {
+            output.writeUInt32NoTag(body.length);
+            output.writeRawBytes(body);
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    static void assertBodies(List<byte[]> expected, List<byte[]> received) {
+        assertEquals(expected.size(), received.size());
+        for(int i = 0; i < expected.size(); ++i) assertArrayEquals("message " + i, expected.get(i), received.get(i));
+    }
+
+    /**
+     * Bodies of every varint length, empty ones, and some bigger than the default buffer
+     */
+    private static List<byte[]> bodies(Random random) {
+        List<byte[]> bodies = new ArrayList<>();
+        for(int i = 0; i < 200; ++i) {
+            int length = switch(random.nextInt(5)) {
+                case 0 -> 0;
+                case 1 -> random.nextInt(128);
+                case 2 -> 128 + random.nextInt(1000);
+                case 3 -> 16384 + random.nextInt(2000);
+                default -> random.nextInt(40);
+            };
+            bodies.add(body(random, length));
+        }
+        return bodies;
+    }
+
+    private static List<byte[]> readAll(FrameReader<byte[]> reader, ChunkedChannel channel, boolean blocking) throws IOException {
+        List<byte[]> received = new ArrayList<>();
+        while((blocking ? reader.readBlocking(channel, received::add) : reader.read(channel, received::add)) >= 0) {}
+        assertTrue(channel.atEnd());
+        return received;
+    }
+
+    private static void assertCorrupt(byte[] stream) {
+        for(boolean blocking : new boolean[] {false, true}) {
+            FrameReader<byte[]> reader = new FrameReader<>(new BufferPool(), MessageCodec.BYTES);
+            ChunkedChannel channel = new ChunkedChannel(stream, position -> 1);
+            try {
+                readAll(reader, channel, blocking);
+                fail("corrupt stream was read" + (blocking ? " blocking" : ""));
+            } catch(IOException e) {
+                // expected
+            } finally {
+                reader.release();
+            }
+        }
+    }
+
+    @Test
+    public void oneByteReads() throws IOException {
+        Random random = new Random(1);
+        List<byte[]> bodies = bodies(random);
+        byte[] stream = stream(bodies);
+        for(boolean blocking : new boolean[] {false, true}) {
+            FrameReader<byte[]> reader = new FrameReader<>(new BufferPool(), MessageCodec.BYTES);
+            ChunkedChannel channel = new ChunkedChannel(stream, position -> 1);
+            assertBodies(bodies, readAll(reader, channel, blocking));
+            assertEquals(stream.length, reader.getBytesRead());
+        }
+    }
+
+    @Test
+    public void randomSizedReads() throws IOException {
+        Random random = new Random(2);
+        for(int round = 0; round < 20; ++round) {
+            List<byte[]> bodies = bodies(random);
+            byte[] stream = stream(bodies);
+            int most = 1 + random.nextInt(round % 2 == 0 ? 64 : 40000);
+            for(boolean blocking : new boolean[] {false, true}) {
+                FrameReader<byte[]> reader = new FrameReader<>(new BufferPool(), MessageCodec.BYTES);
+                ChunkedChannel channel = new ChunkedChannel(stream, position -> 1 + random.nextInt(most));
+                assertBodies(bodies, readAll(reader, channel, blocking));
+            }
+        }
+    }
+
+    @Test
+    public void lengthSplitAcrossReads() throws IOException {
+        // a 3 byte varint length, cut after each of its bytes
+        List<byte[]> bodies = List.of(body(new Random(3), 20000), new byte[] {7});
+        byte[] stream = stream(bodies);
+        for(int cut = 1; cut <= 3; ++cut) {
+            int at = cut;
+            FrameReader<byte[]> reader = new FrameReader<>(new BufferPool(), MessageCodec.BYTES);
+            ChunkedChannel channel = new ChunkedChannel(stream, position -> position < at ? at - position : Integer.MAX_VALUE);
+            assertBodies(bodies, readAll(reader, channel, false));
+        }
+    }
+
+    @Test
+    public void bufferGrowsToLargestFrame() throws IOException {
+        Random random = new Random(4);
+        List<byte[]> bodies = List.of(body(random, 10), body(random, FrameReader.MAX_FRAME), body(random, 10));
+        byte[] stream = stream(bodies);
+        BufferPool pool = new BufferPool();
+        FrameReader<byte[]> reader = new FrameReader<>(pool, MessageCodec.BYTES);
+        // each read takes all the room the reader gives it
+        ChunkedChannel channel = new ChunkedChannel(stream, position -> Integer.MAX_VALUE);
+        assertBodies(bodies, readAll(reader, channel, false));
+        assertTrue("the big frame was read a default sized buffer at a time", channel.directReads.size() < 5);
+        // the grown buffer went back to the pool too
+        long allocations = pool.getAllocations();
+        pool.acquire(FrameReader.MAX_FRAME + 8);
+        assertEquals(allocations, pool.getAllocations());
+    }
+
+    @Test
+    public void oversizedLengthIsCorrupt() throws IOException {
+        List<byte[]> bodies = List.of(new byte[] {1, 2}, new byte[FrameReader.MAX_FRAME + 1]);
+        assertCorrupt(stream(bodies));
+    }
+
+    @Test
+    public void unterminatedLengthIsCorrupt() {
+        assertCorrupt(new byte[] {1, 0, -1, -1, -1, -1, -1, -1, 1});
+        // five bytes that overflow an int
+        assertCorrupt(new byte[] {-1, -1, -1, -1, 127});
+    }
+
+    @Test
+    public void blockingReadWaitsOutsideThePool() throws IOException {
+        Random random = new Random(1);
+        List<byte[]> bodies = new ArrayList<>();
+        for(int i = 0; i < 50; ++i) {
+            bodies.add(body(random, random.nextInt(4) == 0 ? 300 + random.nextInt(20000) : random.nextInt(100)));
+        }
+        // where each frame starts, and the end of the stream
+        int[] starts = new int[bodies.size() + 1];
+        for(int i = 0; i < bodies.size(); ++i) {
+            starts[i + 1] = starts[i] + CodedOutputStream.computeUInt32SizeNoTag(bodies.get(i).length) + bodies.get(i).length;
+        }
+        // every read stops at the end of a frame, like a client sending one message at a time
+        ChunkedChannel channel = new ChunkedChannel(stream(bodies), position -> {
+            int next = Arrays.binarySearch(starts, position + 1);
+            return starts[next >= 0 ? next : -next - 1] - position;
+        });
+        BufferPool pool = new BufferPool();
+        FrameReader<byte[]> reader = new FrameReader<>(pool, MessageCodec.BYTES);
+        List<byte[]> received = new ArrayList<>();
+        while(reader.readBlocking(channel, received::add) >= 0) {}
+        assertBodies(bodies, received);
+        for(int i = 0; i < channel.readPositions.size(); ++i) {
+            if(Arrays.binarySearch(starts, channel.readPositions.get(i)) >= 0) {
+                assertFalse("read " + i + " between frames went into a pooled buffer", channel.directReads.get(i));
+            }
+        }
+        // the last buffer went back to the pool, so taking one again allocates nothing
+        long allocations = pool.getAllocations();
+        pool.acquire(BufferPool.DEFAULT_SIZE);
+        assertEquals(allocations, pool.getAllocations());
+    }
+}
@@ -0,0 +1,109 @@
+package com.isaacph.server;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FrameWriterTest {
+
+    static List<byte[]> decode(byte[] stream) throws IOException {
+        List<byte[]> received = new ArrayList<>();
+        FrameReader<byte[]> reader = new FrameReader<>(new BufferPool(), MessageCodec.BYTES);
+        ChunkedChannel channel = new ChunkedChannel(stream, position -> Integer.MAX_VALUE);
+        while(reader.read(channel, received::add) >= 0) {}
+        return received;
+    }
+
+    /**
+     * Writes until everything is out, counting the writes that came up short
+     */
+    private static int drain(FrameWriter<byte[]> writer, ChokedChannel channel) throws IOException {
+        int shortWrites = 0;
+        while(!writer.write(channel)) {
+            ++shortWrites;
+            if(shortWrites > 1_000_000) fail("writer never finished");
+        }
+        assertTrue(writer.isEmpty());
+        return shortWrites;
+    }
+
+    @Test
+    public void partialWritesKeepOrder() throws IOException {
+        Random random = new Random(1);
+        BufferPool pool = new BufferPool();
+        FrameWriter<byte[]> writer = new FrameWriter<>(pool, MessageCodec.BYTES);
+        ChokedChannel channel = new ChokedChannel(() -> random.nextInt(4) == 0 ? 0 : random.nextInt(3000));
+        List<byte[]> bodies = new ArrayList<>();
+        for(int round = 0; round < 20; ++round) {
+            // enough small messages to fill more than GATHER buffers, and a few big ones
+            for(int i = 0; i < 500; ++i) {
+                byte[] body = FrameReaderTest.body(random, random.nextInt(50) == 0 ? 9000 + random.nextInt(30000) : random.nextInt(400));
+                bodies.add(body);
+                writer.append(body);
+            }
+            assertFalse(writer.isEmpty());
+            drain(writer, channel);
+        }
+        byte[] stream = channel.written.toByteArray();
+        assertEquals(stream.length, writer.getBytesWritten());
+        assertArrayEquals(FrameReaderTest.stream(bodies), stream);
+        FrameReaderTest.assertBodies(bodies, decode(stream));
+        assertEquals(FrameWriter.GATHER, channel.mostBuffers);
+    }
+
+    @Test
+    public void buffersGoBackToThePool() throws IOException {
+        Random random = new Random(2);
+        BufferPool pool = new BufferPool();
+        FrameWriter<byte[]> writer = new FrameWriter<>(pool, MessageCodec.BYTES);
+        ChokedChannel channel = new ChokedChannel(() -> 1 + random.nextInt(5000));
+        List<byte[]> burst = new ArrayList<>();
+        for(int i = 0; i < 100; ++i) burst.add(FrameReaderTest.body(random, random.nextInt(2000)));
+        for(byte[] body : burst) writer.append(body);
+        drain(writer, channel);
+        long allocations = pool.getAllocations();
+        for(int round = 0; round < 10; ++round) {
+            for(byte[] body : burst) writer.append(body);
+            drain(writer, channel);
+        }
+        assertEquals("steady state allocates no buffers", allocations, pool.getAllocations());
+    }
+
+    @Test
+    public void releaseDropsLaterMessages() throws IOException {
+        BufferPool pool = new BufferPool();
+        FrameWriter<byte[]> writer = new FrameWriter<>(pool, MessageCodec.BYTES);
+        writer.append(new byte[] {1, 2, 3});
+        ChokedChannel channel = new ChokedChannel(() -> 0);
+        assertFalse(writer.write(channel));
+        writer.release();
+        writer.append(new byte[] {4});
+        assertTrue(writer.isEmpty());
+        assertEquals(0, channel.written.size());
+        // every buffer it held is free again
+        long allocations = pool.getAllocations();
+        pool.acquire(BufferPool.DEFAULT_SIZE);
+        assertEquals(allocations, pool.getAllocations());
+    }
+
+    @Test
+    public void oversizedMessageIsRejected() {
+        FrameWriter<byte[]> writer = new FrameWriter<>(new BufferPool(), MessageCodec.BYTES);
+        writer.append(new byte[FrameReader.MAX_FRAME]);
+        try {
+            writer.append(new byte[FrameReader.MAX_FRAME + 1]);
+            fail("message over the frame limit was encoded");
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
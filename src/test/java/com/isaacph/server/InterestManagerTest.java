@@ -0,0 +1,287 @@
+package com.isaacph.server;
+
+import com.isaacph.render.ChunkBuilder;
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import com.isaacph.world.TestWorlds;
+import org.joml.Vector2i;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class InterestManagerTest {
+
+    private static final int GRIDS = 24, SIDE = GRIDS * ByteGrid.SIZE;
+    private static final float HALF_WIDTH = 40, HALF_HEIGHT = 24;
+
+    /**
+     * A client whose connection is never registered, its chunks are taken straight out of the
+     * connection's writer and its view is handed to the manager directly
+     */
+    private static class Client {
+        final ClientConnection<byte[]> connection;
+        final ByteGrid.Group group = new ByteGrid.Group();
+        final InterestClient interest;
+        float x, y, vx, vy;
+
+        Client(int id, Server<byte[]> server) throws IOException {
+            this(id, server, null);
+        }
+
+        Client(int id, Server<byte[]> server, ChunkBuilder renderer) throws IOException {
+            connection = new ClientConnection<>(id, SocketChannel.open(), c -> {}, server);
+            interest = new InterestClient(null, group, renderer);
+        }
+
+        void sendView(InterestManager manager) {
+            assertTrue(manager.received(connection, InterestClient.view(x, y, x - HALF_WIDTH, y - HALF_HEIGHT, x + HALF_WIDTH, y + HALF_HEIGHT)));
+        }
+
+        void receive() throws IOException {
+            ChokedChannel channel = new ChokedChannel(() -> Integer.MAX_VALUE);
+            assertTrue(connection.output.write(channel));
+            for(byte[] message : FrameWriterTest.decode(channel.written.toByteArray())) {
+                assertTrue(interest.received(message));
+            }
+        }
+
+        boolean inView(int gx, int gy, float margin) {
+            return gx >= Math.floorDiv((int) Math.floor(x - HALF_WIDTH - margin), ByteGrid.SIZE)
+                && gx <= Math.floorDiv((int) Math.floor(x + HALF_WIDTH + margin), ByteGrid.SIZE)
+                && gy >= Math.floorDiv((int) Math.floor(y - HALF_HEIGHT - margin), ByteGrid.SIZE)
+                && gy <= Math.floorDiv((int) Math.floor(y + HALF_HEIGHT + margin), ByteGrid.SIZE);
+        }
+    }
+
+    /**
+     * Stands in for the tile renderer, counting how often each chunk is built and which are drawn
+     */
+    private static class RecordingRenderer implements ChunkBuilder {
+        final Map<Vector2i, Integer> builds = new HashMap<>();
+        final Map<Vector2i, byte[]> live = new HashMap<>();
+
+        @Override
+        public void build(ByteGrid grid) {
+            Vector2i key = new Vector2i(grid.x, grid.y);
+            builds.merge(key, 1, Integer::sum);
+            live.put(key, grid.data.clone());
+        }
+
+        @Override
+        public void remove(int x, int y) {
+            assertNotNull("removed chunk " + x + ", " + y + " that was never built", live.remove(new Vector2i(x, y)));
+        }
+
+        /**
+         * Draws what the client holds, tile for tile
+         */
+        void assertShows(ByteGrid.Group group) {
+            assertEquals(group.map.keySet(), live.keySet());
+            for(Map.Entry<Vector2i, ByteGrid> entry : group.map.entrySet()) {
+                assertArrayEquals("chunk " + entry.getKey().x + ", " + entry.getKey().y, entry.getValue().data, live.get(entry.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Sends with nothing changing until no client is sent anything
+     * @return the tick reached
+     */
+    private static int settle(InterestManager interest, TileChangeLog tiles, List<Client> clients, int tick) throws IOException {
+        for(int quiet = 0; quiet < 3; ) {
+            assertTrue("never settled", tick < 1000);
+            tiles.setTick(++tick);
+            interest.send();
+            ++quiet;
+            for(InterestManager.ClientInterest state : interest.getClients()) {
+                if(state.getQueueLength() > 0 || state.getLastBytes() > 0) quiet = 0;
+            }
+            for(Client client : clients) client.receive();
+        }
+        return tick;
+    }
+
+    /**
+     * The client holds the server's tiles for every chunk it has, all of its view, and nothing
+     * past the unload margin
+     */
+    private static void assertHoldsView(ByteGrid.Group expected, Client client, float unloadMargin) {
+        for(Map.Entry<Vector2i, ByteGrid> entry : client.group.map.entrySet()) {
+            Vector2i key = entry.getKey();
+            String chunk = "chunk " + key.x + ", " + key.y;
+            ByteGrid grid = expected.map.get(key);
+            assertNotNull("client holds " + chunk + " the server does not have", grid);
+            assertArrayEquals("tiles of " + chunk, grid.data, entry.getValue().data);
+            assertTrue(chunk + " far out of view", client.inView(key.x, key.y, unloadMargin));
+        }
+        for(Vector2i key : expected.map.keySet()) {
+            if(client.inView(key.x, key.y, 0)) assertTrue("chunk " + key.x + ", " + key.y + " in view missing", client.group.map.containsKey(key));
+        }
+    }
+
+    @Test
+    public void clientsHoldTheirView() throws IOException {
+        Random random = new Random(1);
+        ByteGrid.Group group = TestWorlds.randomTiles(GRIDS, 4, random);
+        int tick = 0;
+        TileChangeLog tiles = new TileChangeLog(group, tick);
+        InterestManager interest = new InterestManager(tiles, group);
+        Server<byte[]> server = new Server<>(MessageCodec.BYTES);
+        List<Client> clients = new ArrayList<>();
+        for(int i = 0; i < 3; ++i) {
+            Client client = new Client(i, server);
+            client.x = HALF_WIDTH + random.nextFloat() * (SIDE - 2 * HALF_WIDTH);
+            client.y = HALF_HEIGHT + random.nextFloat() * (SIDE - 2 * HALF_HEIGHT);
+            double angle = random.nextDouble() * Math.PI * 2;
+            client.vx = (float) Math.cos(angle) * 2;
+            client.vy = (float) Math.sin(angle) * 2;
+            interest.addClient(client.connection);
+            clients.add(client);
+        }
+        List<Vector2i> removed = new ArrayList<>();
+        for(int t = 0; t < 200; ++t) {
+            for(Client client : clients) {
+                client.x += client.vx;
+                client.y += client.vy;
+                if(client.x < HALF_WIDTH || client.x > SIDE - HALF_WIDTH) client.vx = -client.vx;
+                if(client.y < HALF_HEIGHT || client.y > SIDE - HALF_HEIGHT) client.vy = -client.vy;
+                client.sendView(interest);
+            }
+            tiles.setTick(++tick);
+            for(int i = 0; i < 20; ++i) group.setTile((byte) random.nextInt(4), random.nextInt(SIDE), random.nextInt(SIDE));
+            if(t % 10 == 0) {
+                // replaced wholesale under a camera, and taken out of the world under another
+                Client client = clients.get(t / 10 % clients.size());
+                Vector2i key = group.getGridIndex((int) client.x, (int) client.y);
+                ByteGrid replaced = new ByteGrid(key.x, key.y);
+                Arrays.fill(replaced.data, (byte) t);
+                group.putGrid(replaced);
+                client = clients.get((t / 10 + 1) % clients.size());
+                key = group.getGridIndex((int) client.x, (int) client.y);
+                if(group.removeGrid(key.x, key.y) != null) removed.add(key);
+            }
+            interest.send();
+            for(Client client : clients) client.receive();
+        }
+        assertFalse(removed.isEmpty());
+        settle(interest, tiles, clients, tick);
+        for(Client client : clients) {
+            assertHoldsView(group, client, Math.max(interest.unloadMargin, interest.loadMargin));
+            for(Vector2i key : removed) {
+                if(!group.map.containsKey(key)) assertFalse("removed chunk " + key.x + ", " + key.y + " still held", client.group.map.containsKey(key));
+            }
+        }
+        for(Client client : clients) client.connection.channel.close();
+        interest.cleanUp();
+        tiles.cleanUp();
+    }
+
+    @Test
+    public void loadsNearestFirst() throws IOException {
+        ByteGrid.Group group = TestWorlds.randomTiles(GRIDS, 4, new Random(2));
+        int tick = 0;
+        TileChangeLog tiles = new TileChangeLog(group, tick);
+        InterestManager interest = new InterestManager(tiles, group);
+        // a few chunks a tick, so the view fills in over many messages
+        interest.bytesPerTick = 3 * ByteGrid.SIZE * ByteGrid.SIZE;
+        Client client = new Client(0, new Server<>(MessageCodec.BYTES));
+        client.x = SIDE / 2.0f + 5;
+        client.y = SIDE / 2.0f - 3;
+        interest.addClient(client.connection);
+        client.sendView(interest);
+        List<Float> distances = new ArrayList<>();
+        client.group.addListener(new ByteGrid.Group.Listener() {
+            @Override
+            public void tileChanged(int x, int y, byte previous, byte tile) {
+            }
+
+            @Override
+            public void gridChanged(ByteGrid grid) {
+                float dx = (grid.x + 0.5f) * ByteGrid.SIZE - client.x, dy = (grid.y + 0.5f) * ByteGrid.SIZE - client.y;
+                distances.add(dx * dx + dy * dy);
+            }
+        });
+        tick = settle(interest, tiles, List.of(client), tick);
+        assertTrue(interest.getClient(client.connection).getMessages() > 5);
+        assertEquals(client.group.map.size(), distances.size());
+        for(int i = 1; i < distances.size(); ++i) {
+            assertTrue("chunk " + i + " loaded after a farther one", distances.get(i - 1) <= distances.get(i));
+        }
+        assertHoldsView(group, client, Math.max(interest.unloadMargin, interest.loadMargin));
+
+        // taking a held chunk out of the world drops it from the client
+        Vector2i key = group.getGridIndex((int) client.x, (int) client.y);
+        group.removeGrid(key.x, key.y);
+        settle(interest, tiles, List.of(client), tick);
+        assertFalse(client.group.map.containsKey(key));
+        assertEquals(1, interest.getClient(client.connection).getChunksUnloaded());
+        client.connection.channel.close();
+        interest.cleanUp();
+        tiles.cleanUp();
+    }
+
+    @Test
+    public void rendererFollowsTheChunks() throws IOException {
+        ByteGrid.Group group = TestWorlds.randomTiles(GRIDS, 4, new Random(3));
+        int tick = 0;
+        TileChangeLog tiles = new TileChangeLog(group, tick);
+        InterestManager interest = new InterestManager(tiles, group);
+        RecordingRenderer renderer = new RecordingRenderer();
+        Client client = new Client(0, new Server<>(MessageCodec.BYTES), renderer);
+        client.x = SIDE / 4.0f;
+        client.y = SIDE / 4.0f;
+        interest.addClient(client.connection);
+        client.sendView(interest);
+        tick = settle(interest, tiles, List.of(client), tick);
+        assertFalse(client.group.map.isEmpty());
+        renderer.assertShows(client.group);
+        for(Map.Entry<Vector2i, Integer> entry : renderer.builds.entrySet()) {
+            assertEquals("chunk " + entry.getKey().x + ", " + entry.getKey().y + " built more than once", 1, (int) entry.getValue());
+        }
+
+        // several edits to one chunk rebuild it once, and nothing else
+        Vector2i edited = group.getGridIndex((int) client.x, (int) client.y);
+        renderer.builds.clear();
+        tiles.setTick(++tick);
+        for(int i = 0; i < 5; ++i) {
+            group.setTile((byte) (4 + i), edited.x * ByteGrid.SIZE + i, edited.y * ByteGrid.SIZE);
+        }
+        interest.send();
+        client.receive();
+        assertEquals(Map.of(edited, 1), renderer.builds);
+        renderer.assertShows(client.group);
+
+        // a chunk taken out of the world leaves the renderer
+        group.removeGrid(edited.x, edited.y);
+        tick = settle(interest, tiles, List.of(client), tick);
+        assertFalse(renderer.live.containsKey(edited));
+        renderer.assertShows(client.group);
+
+        // moving across the world unloads the old view's chunks from the renderer
+        List<Vector2i> before = new ArrayList<>(renderer.live.keySet());
+        client.x = SIDE * 3 / 4.0f;
+        client.y = SIDE * 3 / 4.0f;
+        client.sendView(interest);
+        settle(interest, tiles, List.of(client), tick);
+        renderer.assertShows(client.group);
+        for(Vector2i key : before) {
+            assertFalse("chunk " + key.x + ", " + key.y + " left behind", renderer.live.containsKey(key));
+        }
+        client.interest.cleanUp();
+        client.connection.channel.close();
+        interest.cleanUp();
+        tiles.cleanUp();
+    }
+}
@@ -0,0 +1,149 @@
+package com.isaacph.server;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SelectorLoopTest {
+
+    /**
+     * Counts the events the server hands to its handler
+     */
+    private static class Events implements Server.Handler<byte[]> {
+        int connected, disconnected;
+
+        @Override
+        public void connected(ClientConnection<byte[]> connection) {
+            ++connected;
+        }
+
+        @Override
+        public void received(ClientConnection<byte[]> connection, byte[] message) {
+        }
+
+        @Override
+        public void disconnected(ClientConnection<byte[]> connection) {
+            ++disconnected;
+        }
+    }
+
+    /**
+     * The message reversed, so a reply can't pass for an echo
+     */
+    private static byte[] reply(byte[] message) {
+        byte[] reply = new byte[message.length];
+        for(int i = 0; i < message.length; ++i) reply[i] = message[message.length - 1 - i];
+        return reply;
+    }
+
+    @Test
+    public void repliesReachTheClient() throws IOException, InterruptedException {
+        Server<byte[]> server = new Server<>(MessageCodec.BYTES);
+        server.start(0, 1);
+        ServerConnection<byte[]> client = new ServerConnection<>("localhost", server.getPort(), MessageCodec.BYTES);
+        try {
+            // one spans many socket reads and outgrows the default read buffer
+            int[] lengths = {1, 300, 0, 20 * BufferPool.DEFAULT_SIZE + 17, 64, 5000};
+            List<byte[]> sent = new ArrayList<>();
+            for(int i = 0; i < lengths.length; ++i) {
+                byte[] message = new byte[lengths[i]];
+                for(int j = 0; j < message.length; ++j) message[j] = (byte) (i * 7 + j * 13);
+                sent.add(message);
+                client.send(message);
+            }
+            List<byte[]> received = new ArrayList<>(), replies = new ArrayList<>();
+            Server.Handler<byte[]> handler = new Events() {
+                @Override
+                public void received(ClientConnection<byte[]> connection, byte[] message) {
+                    received.add(message);
+                    connection.send(reply(message));
+                }
+            };
+            for(int i = 0; i < 2500 && replies.size() < sent.size(); ++i) {
+                server.poll(handler);
+                assertTrue(client.update(replies::add) >= 0);
+                Thread.sleep(2);
+            }
+            assertEquals(sent.size(), received.size());
+            assertEquals(sent.size(), replies.size());
+            for(int i = 0; i < sent.size(); ++i) {
+                assertArrayEquals("message " + i, sent.get(i), received.get(i));
+                assertArrayEquals("reply " + i, reply(sent.get(i)), replies.get(i));
+            }
+            ClientConnection<byte[]> connection = server.getConnections().iterator().next();
+            assertEquals(client.getBytesWritten(), connection.getBytesRead());
+            assertEquals(connection.getBytesWritten(), client.getBytesRead());
+        } finally {
+            client.close();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void unregisteredConnectionsCloseOnExit() throws IOException {
+        Server<byte[]> server = new Server<>(MessageCodec.BYTES);
+        SelectorLoop<byte[]> loop = new SelectorLoop<>(server);
+        List<ClientConnection<byte[]>> connections = new ArrayList<>();
+        for(int i = 0; i < 3; ++i) {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            ClientConnection<byte[]> connection = new ClientConnection<>(i, channel, loop, server);
+            connections.add(connection);
+            loop.add(connection);
+        }
+        // stopped before it ever selects, so nothing gets registered
+        loop.stop();
+        loop.run();
+        for(ClientConnection<byte[]> connection : connections) {
+            assertFalse(connection.channel.isOpen());
+            assertEquals(ClientConnection.State.CLOSED, connection.getState());
+        }
+        Events events = new Events();
+        server.poll(events);
+        assertEquals(0, events.connected);
+        assertEquals(3, events.disconnected);
+
+        // handed over after the loop is gone
+        SocketChannel late = SocketChannel.open();
+        late.configureBlocking(false);
+        loop.add(new ClientConnection<>(3, late, loop, server));
+        assertFalse(late.isOpen());
+        server.poll(events);
+        assertEquals(4, events.disconnected);
+    }
+
+    @Test
+    public void stopDisconnectsEveryClient() throws IOException, InterruptedException {
+        Server<byte[]> server = new Server<>(MessageCodec.BYTES);
+        server.start(0, 2);
+        List<SocketChannel> clients = new ArrayList<>();
+        try {
+            for(int i = 0; i < 6; ++i) {
+                clients.add(SocketChannel.open(new InetSocketAddress("localhost", server.getPort())));
+            }
+            Events events = new Events();
+            for(int i = 0; i < 500 && events.connected < clients.size(); ++i) {
+                server.poll(events);
+                Thread.sleep(2);
+            }
+            assertEquals(clients.size(), events.connected);
+            server.stop();
+            server.poll(events);
+            assertEquals(clients.size(), events.disconnected);
+            assertEquals(0, server.getConnectionCount());
+            assertTrue(server.getConnections().isEmpty());
+        } finally {
+            server.stop();
+            for(SocketChannel client : clients) client.close();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.isaacph.server;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ServerTest {
+
+    private static final byte CLOSE = -1;
+
+    /**
+     * Echoes every message back and keeps what it was handed, closing a connection after any
+     * message that starts with {@link #CLOSE}
+     */
+    private static class Echo implements Server.Handler<byte[]> {
+        final List<ClientConnection<byte[]>> connected = new ArrayList<>(), disconnected = new ArrayList<>();
+        final List<byte[]> received = new ArrayList<>();
+
+        @Override
+        public void connected(ClientConnection<byte[]> connection) {
+            connected.add(connection);
+        }
+
+        @Override
+        public void received(ClientConnection<byte[]> connection, byte[] message) {
+            received.add(message);
+            connection.send(message);
+            if(message[0] == CLOSE) connection.close();
+        }
+
+        @Override
+        public void disconnected(ClientConnection<byte[]> connection) {
+            disconnected.add(connection);
+        }
+    }
+
+    private static byte[] message(int tag, int length) {
+        byte[] message = new byte[length];
+        for(int i = 0; i < length; ++i) message[i] = (byte) (tag * 31 + i);
+        message[0] = (byte) tag;
+        return message;
+    }
+
+    /**
+     * Ticks the server until the condition holds, failing after about five seconds
+     */
+    private static void tickUntil(Server<byte[]> server, Echo echo, BooleanSupplier condition, String what) throws InterruptedException {
+        for(int i = 0; i < 2500 && !condition.getAsBoolean(); ++i) {
+            server.poll(echo);
+            Thread.sleep(2);
+        }
+        assertTrue(what, condition.getAsBoolean());
+    }
+
+    private static void assertMessages(List<byte[]> expected, List<byte[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for(int i = 0; i < expected.size(); ++i) assertArrayEquals("message " + i, expected.get(i), actual.get(i));
+    }
+
+    /**
+     * A client sends frames and hangs up, a second one is closed by the server after a last
+     * message. Both get their frames echoed, and once gone hold no socket and no pooled buffer.
+     */
+    private static void loopback(Server.Mode mode) throws IOException, InterruptedException {
+        Server<byte[]> server = new Server<>(MessageCodec.BYTES);
+        server.start(0, mode, 2);
+        Echo echo = new Echo();
+        ServerConnection<byte[]> leaving = new ServerConnection<>("localhost", server.getPort(), MessageCodec.BYTES);
+        ServerConnection<byte[]> closed = new ServerConnection<>("localhost", server.getPort(), MessageCodec.BYTES);
+        try {
+            tickUntil(server, echo, () -> echo.connected.size() == 2, "both clients connected");
+            assertEquals(2, server.getConnectionCount());
+
+            List<byte[]> sent = new ArrayList<>();
+            for(int i = 0; i < 6; ++i) sent.add(message(i + 1, i == 3 ? 3 * BufferPool.DEFAULT_SIZE : 1 + i * 40));
+            for(byte[] message : sent) leaving.send(message);
+            List<byte[]> echoed = new ArrayList<>();
+            tickUntil(server, echo, () -> {
+                try {
+                    leaving.update(echoed::add);
+                } catch(IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return echoed.size() == sent.size();
+            }, "messages echoed");
+            assertMessages(sent, echo.received);
+            assertMessages(sent, echoed);
+
+            byte[] last = message(CLOSE, 100);
+            closed.send(last);
+            List<byte[]> closing = new ArrayList<>();
+            tickUntil(server, echo, () -> {
+                try {
+                    closed.update(closing::add);
+                } catch(IOException e) {
+                    // a reset instead of an orderly close also ends the connection
+                }
+                return !closed.isOpen();
+            }, "closed by the server");
+            assertMessages(List.of(last), closing);
+
+            leaving.close();
+            BufferPool pool = server.getBufferPool();
+            tickUntil(server, echo, () -> echo.disconnected.size() == 2 && pool.getFreeCount() == pool.getAllocations(), "both disconnected and released");
+            assertEquals(0, server.getConnectionCount());
+            for(ClientConnection<byte[]> connection : echo.connected) {
+                assertTrue(echo.disconnected.contains(connection));
+                assertEquals(ClientConnection.State.CLOSED, connection.getState());
+                assertFalse(connection.channel.isOpen());
+            }
+        } finally {
+            leaving.close();
+            closed.close();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void selectorLoopback() throws IOException, InterruptedException {
+        loopback(Server.Mode.SELECTOR);
+    }
+
+    @Test
+    public void virtualThreadLoopback() throws IOException, InterruptedException {
+        loopback(Server.Mode.VIRTUAL_THREADS);
+    }
+}
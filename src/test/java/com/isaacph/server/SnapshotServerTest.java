@@ -0,0 +1,106 @@
+package com.isaacph.server;
+
+import com.isaacph.entity.EntityStore;
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import com.isaacph.world.TestWorlds;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotServerTest {
+
+    private static final int GRIDS = 4;
+
+    /**
+     * A client whose connection is never registered, its snapshots are taken straight out of the
+     * connection's writer
+     */
+    private static class Client {
+        final ClientConnection<byte[]> connection;
+        final ByteGrid.Group group = new ByteGrid.Group();
+        final SnapshotClient snapshots = new SnapshotClient(group);
+
+        Client(int id, Server<byte[]> server) throws IOException {
+            connection = new ClientConnection<>(id, SocketChannel.open(), c -> {}, server);
+        }
+
+        List<byte[]> received() throws IOException {
+            ChokedChannel channel = new ChokedChannel(() -> Integer.MAX_VALUE);
+            assertTrue(connection.output.write(channel));
+            return FrameWriterTest.decode(channel.written.toByteArray());
+        }
+    }
+
+    @Test
+    public void clientsRebuildTheWorld() throws IOException {
+        Random random = new Random(1);
+        int side = GRIDS * ByteGrid.SIZE;
+        EntityStore store = new EntityStore();
+        List<Integer> ids = new ArrayList<>();
+        for(int i = 0; i < 200; ++i) ids.add(store.create(random.nextFloat() * side, random.nextFloat() * side, 0, 0, 4));
+        ByteGrid.Group group = TestWorlds.randomTiles(GRIDS, 4, random);
+        int tick = 0;
+        SnapshotServer snapshots = new SnapshotServer(store, group, tick);
+        Server<byte[]> server = new Server<>(MessageCodec.BYTES);
+        // acknowledges everything, every third snapshot, and goes quiet for longer than the history
+        Client steady = new Client(0, server), lossy = new Client(1, server), away = new Client(2, server);
+        List<Client> clients = List.of(steady, lossy, away);
+        for(Client client : clients) snapshots.addClient(client.connection);
+
+        EntitySnapshot expected = new EntitySnapshot();
+        int returnTick = 5 + SnapshotServer.HISTORY + 5;
+        long fullBeforeReturn = 0;
+        for(int t = 0; t < SnapshotServer.HISTORY * 3; ++t) {
+            snapshots.beginTick(++tick);
+            for(int i = 0; i < 10; ++i) {
+                int index = store.indexOf(ids.get(random.nextInt(ids.size())));
+                store.x[index] += random.nextFloat() - 0.5f;
+                store.frame[index] = random.nextInt(4);
+            }
+            for(int i = 0; i < 3; ++i) {
+                store.remove(ids.remove(random.nextInt(ids.size())));
+                ids.add(store.create(random.nextFloat() * side, random.nextFloat() * side, 0, 0, 4));
+            }
+            for(int i = 0; i < 5; ++i) group.setTile((byte) random.nextInt(4), random.nextInt(side), random.nextInt(side));
+            if(t % 20 == 0) {
+                ByteGrid replaced = new ByteGrid(random.nextInt(GRIDS), random.nextInt(GRIDS));
+                Arrays.fill(replaced.data, (byte) t);
+                group.putGrid(replaced);
+            }
+            snapshots.send();
+            expected.capture(store, tick);
+
+            boolean awayListening = t < 5 || t >= returnTick;
+            // the baseline it acknowledged before leaving is out of the ring by now
+            if(t == returnTick) fullBeforeReturn = snapshots.getClient(away.connection).getFullSnapshots() - 1;
+            for(Client client : clients) {
+                List<byte[]> messages = client.received();
+                assertEquals(1, messages.size());
+                if(client == away && !awayListening) continue;
+                byte[] ack = client.snapshots.received(messages.get(0));
+                assertNotNull(ack);
+                EntitySnapshot latest = client.snapshots.getLatest();
+                assertEquals(tick, latest.tick);
+                assertTrue("entities of client " + client.connection.getId() + " at tick " + tick, latest.matches(expected));
+                TestWorlds.assertSameTiles(group, client.group);
+                if(client != lossy || t % 3 == 0) snapshots.received(client.connection, ack);
+            }
+        }
+        // only the first snapshot is full, and for the client that went away the one it came back to
+        assertEquals(1, snapshots.getClient(steady.connection).getFullSnapshots());
+        assertEquals(1, snapshots.getClient(lossy.connection).getFullSnapshots());
+        assertTrue(fullBeforeReturn > 1);
+        assertEquals(fullBeforeReturn + 1, snapshots.getClient(away.connection).getFullSnapshots());
+        for(Client client : clients) client.connection.channel.close();
+        snapshots.cleanUp();
+    }
+}
@@ -0,0 +1,194 @@
+package com.isaacph.server;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import com.isaacph.world.TestWorlds;
+import org.joml.Vector2i;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TileChangeLogTest {
+
+    private static final int GRIDS = 4, HISTORY = 8;
+
+    private static void edit(ByteGrid.Group group, Random random, int edits) {
+        for(int i = 0; i < edits; ++i) {
+            group.setTile((byte) random.nextInt(4), random.nextInt(GRIDS * ByteGrid.SIZE), random.nextInt(GRIDS * ByteGrid.SIZE));
+        }
+    }
+
+    private static byte[] write(TileChangeLog log, int since, TileChangeLog.ChunkFilter filter) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+        log.write(since, output, filter);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void read(byte[] changes, ByteGrid.Group group) throws IOException {
+        CodedInputStream input = CodedInputStream.newInstance(changes);
+        TileChangeLog.read(input, group);
+        assertTrue("the whole change section is read", input.isAtEnd());
+    }
+
+    /**
+     * Grids sent as removed, the first varint of the change section
+     */
+    private static int removedGrids(byte[] changes) throws IOException {
+        return CodedInputStream.newInstance(changes).readUInt32();
+    }
+
+    /**
+     * Grids sent whole, the count after the removed grids
+     */
+    private static int wholeGrids(byte[] changes) throws IOException {
+        CodedInputStream input = CodedInputStream.newInstance(changes);
+        int removed = input.readUInt32();
+        for(int i = 0; i < removed * 2; ++i) input.readSInt32();
+        return input.readUInt32();
+    }
+
+    @Test
+    public void tileEditsSinceBaseline() throws IOException {
+        Random random = new Random(1);
+        ByteGrid.Group server = TestWorlds.randomTiles(GRIDS, 4, random);
+        TileChangeLog log = new TileChangeLog(server, 0, HISTORY);
+        ByteGrid.Group client = TestWorlds.copy(server);
+        for(int tick = 1; tick <= 20; ++tick) {
+            log.setTick(tick);
+            edit(server, random, 5);
+            assertTrue(log.covers(tick - 1));
+            byte[] changes = write(log, tick - 1, null);
+            assertEquals("single edits need no whole grids", 0, wholeGrids(changes));
+            read(changes, client);
+            TestWorlds.assertSameTiles(server, client);
+        }
+        log.cleanUp();
+    }
+
+    @Test
+    public void baselineOlderThanHistory() throws IOException {
+        Random random = new Random(2);
+        ByteGrid.Group server = TestWorlds.randomTiles(GRIDS, 4, random);
+        TileChangeLog log = new TileChangeLog(server, 0, HISTORY);
+        log.setTick(1);
+        edit(server, random, 3);
+        ByteGrid.Group client = TestWorlds.copy(server);
+        // edits only touch the first row of grids while the client is away
+        for(int tick = 2; tick < 2 + HISTORY * 2; ++tick) {
+            log.setTick(tick);
+            for(int i = 0; i < 4; ++i) server.setTile((byte) (4 + random.nextInt(4)), random.nextInt(GRIDS * ByteGrid.SIZE), random.nextInt(ByteGrid.SIZE));
+        }
+        assertFalse(log.covers(1));
+        assertTrue(log.covers(log.getTick() - HISTORY));
+        byte[] changes = write(log, 1, null);
+        int whole = wholeGrids(changes);
+        assertTrue("only grids changed since the baseline are sent, " + whole + " of " + GRIDS * GRIDS, whole > 0 && whole <= GRIDS);
+        read(changes, client);
+        TestWorlds.assertSameTiles(server, client);
+
+        // a reader with nothing gets every grid
+        ByteGrid.Group empty = new ByteGrid.Group();
+        changes = write(log, -1, null);
+        assertEquals(GRIDS * GRIDS, wholeGrids(changes));
+        read(changes, empty);
+        TestWorlds.assertSameTiles(server, empty);
+        log.cleanUp();
+    }
+
+    @Test
+    public void gridsReplacedWholesale() throws IOException {
+        Random random = new Random(3);
+        ByteGrid.Group server = TestWorlds.randomTiles(GRIDS, 4, random);
+        TileChangeLog log = new TileChangeLog(server, 0, HISTORY);
+        ByteGrid.Group client = TestWorlds.copy(server);
+        log.setTick(1);
+        edit(server, random, 10);
+        ByteGrid replaced = new ByteGrid(1, 2);
+        Arrays.fill(replaced.data, (byte) 9);
+        server.putGrid(replaced);
+        // a brand new grid outside the world, and an edit inside the replaced one that must not be sent twice
+        ByteGrid added = new ByteGrid(-3, 0);
+        Arrays.fill(added.data, (byte) 5);
+        server.putGrid(added);
+        server.setTile((byte) 1, ByteGrid.SIZE + 3, 2 * ByteGrid.SIZE + 4);
+        assertTrue(log.covers(0));
+        byte[] changes = write(log, 0, null);
+        assertEquals(2, wholeGrids(changes));
+        read(changes, client);
+        TestWorlds.assertSameTiles(server, client);
+        assertNotNull(client.map.get(new Vector2i(-3, 0)));
+        log.cleanUp();
+    }
+
+    @Test
+    public void filterLeavesOutOtherGrids() throws IOException {
+        Random random = new Random(4);
+        ByteGrid.Group server = TestWorlds.randomTiles(GRIDS, 4, random);
+        TileChangeLog log = new TileChangeLog(server, 0, HISTORY);
+        ByteGrid.Group client = TestWorlds.copy(server);
+        log.setTick(1);
+        edit(server, random, 200);
+        ByteGrid replaced = new ByteGrid(3, 3);
+        server.putGrid(replaced);
+        TileChangeLog.ChunkFilter leftHalf = (gx, gy) -> gx < GRIDS / 2;
+        read(write(log, 0, leftHalf), client);
+        for(var entry : server.map.entrySet()) {
+            boolean sent = entry.getKey().x < GRIDS / 2;
+            assertEquals("grid " + entry.getKey(), sent, Arrays.equals(entry.getValue().data, client.map.get(entry.getKey()).data));
+        }
+        log.cleanUp();
+    }
+
+    @Test
+    public void removedGridsReachEveryReader() throws IOException {
+        Random random = new Random(5);
+        ByteGrid.Group server = TestWorlds.randomTiles(GRIDS, 4, random);
+        TileChangeLog log = new TileChangeLog(server, 0, HISTORY);
+        ByteGrid.Group client = TestWorlds.copy(server), away = TestWorlds.copy(server);
+        log.setTick(1);
+        // an edit inside a grid removed later in the tick must not bring it back
+        server.setTile((byte) 3, 2 * ByteGrid.SIZE + 1, 1);
+        server.removeGrid(2, 0);
+        server.removeGrid(1, 1);
+        // removed and made again, which the reader gets whole
+        server.removeGrid(3, 3);
+        server.setTile((byte) 2, 3 * ByteGrid.SIZE, 3 * ByteGrid.SIZE);
+        byte[] changes = write(log, 0, null);
+        assertEquals(2, removedGrids(changes));
+        assertEquals(1, wholeGrids(changes));
+        read(changes, client);
+        TestWorlds.assertSameTiles(server, client);
+
+        // a baseline from before the removals but older than the history
+        for(int tick = 2; tick < 2 + HISTORY * 2; ++tick) {
+            log.setTick(tick);
+            // away from the removed grids, an edit there would make them again
+            server.setTile((byte) random.nextInt(4), random.nextInt(ByteGrid.SIZE), random.nextInt(ByteGrid.SIZE));
+        }
+        assertFalse(log.covers(0));
+        changes = write(log, 0, null);
+        assertEquals(2, removedGrids(changes));
+        read(changes, away);
+        TestWorlds.assertSameTiles(server, away);
+
+        // a reader with nothing is only sent the grids there are
+        ByteGrid.Group empty = new ByteGrid.Group();
+        changes = write(log, -1, null);
+        assertEquals(0, removedGrids(changes));
+        assertEquals(GRIDS * GRIDS - 2, wholeGrids(changes));
+        read(changes, empty);
+        TestWorlds.assertSameTiles(server, empty);
+        log.cleanUp();
+    }
+}
@@ -0,0 +1,164 @@
+package com.isaacph.world;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static com.isaacph.world.TestWorlds.WALL;
+import static com.isaacph.world.TestWorlds.WALLS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FieldOfViewTest {
+
+    private static final int TILES = 128, RADIUS = 10;
+
+    private static ByteGrid.Group map(Random random) {
+        return TestWorlds.scatteredWalls(TILES / ByteGrid.SIZE, TILES * TILES / 8, random);
+    }
+
+    private static void assertSameVisibility(FieldOfView.Viewer expected, FieldOfView.Viewer actual) {
+        assertEquals(expected.getVisibleCount(), actual.getVisibleCount());
+        int r = expected.getRadius();
+        for(int x = expected.getX() - r; x <= expected.getX() + r; ++x) {
+            for(int y = expected.getY() - r; y <= expected.getY() + r; ++y) {
+                assertEquals("tile " + x + ", " + y + " seen from " + expected.getX() + ", " + expected.getY(),
+                    expected.canSee(x, y), actual.canSee(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void openFieldSeesWholeRadius() {
+        ByteGrid.Group open = new ByteGrid.Group();
+        FieldOfView field = new FieldOfView(open, WALLS, 1);
+        try {
+            FieldOfView.Viewer viewer = field.addViewer(3, -7, RADIUS);
+            field.update();
+            int expected = 0;
+            for(int dx = -RADIUS; dx <= RADIUS; ++dx) {
+                for(int dy = -RADIUS; dy <= RADIUS; ++dy) {
+                    boolean inside = dx * dx + dy * dy <= RADIUS * RADIUS;
+                    if(inside) ++expected;
+                    assertEquals(dx + ", " + dy, inside, viewer.canSee(3 + dx, -7 + dy));
+                }
+            }
+            assertEquals(expected, viewer.getVisibleCount());
+        } finally {
+            field.cleanUp();
+        }
+    }
+
+    @Test
+    public void wallCastsShadow() {
+        ByteGrid.Group group = new ByteGrid.Group();
+        group.setTile(WALL, 3, 0);
+        FieldOfView field = new FieldOfView(group, WALLS, 1);
+        try {
+            FieldOfView.Viewer viewer = field.addViewer(0, 0, RADIUS);
+            field.update();
+            assertTrue(viewer.canSee(2, 0));
+            assertTrue("the wall itself is lit", viewer.canSee(3, 0));
+            for(int x = 4; x <= RADIUS; ++x) assertFalse("behind the wall at " + x, viewer.canSee(x, 0));
+            assertTrue(viewer.canSee(0, RADIUS));
+        } finally {
+            field.cleanUp();
+        }
+    }
+
+    @Test
+    public void parallelMatchesSingleThread() {
+        Random random = new Random(1);
+        ByteGrid.Group group = map(random);
+        FieldOfView field = new FieldOfView(group, WALLS, 3);
+        FieldOfView single = new FieldOfView(group, WALLS, 1);
+        try {
+            for(int i = 0; i < 200; ++i) {
+                int x = random.nextInt(TILES), y = random.nextInt(TILES);
+                field.addViewer(x, y, RADIUS);
+                single.addViewer(x, y, RADIUS);
+            }
+            field.compute(field.getViewers());
+            for(FieldOfView.Viewer viewer : single.getViewers()) single.compute(viewer);
+            for(int i = 0; i < field.getViewers().size(); ++i) {
+                assertSameVisibility(single.getViewers().get(i), field.getViewers().get(i));
+            }
+        } finally {
+            field.cleanUp();
+            single.cleanUp();
+        }
+    }
+
+    @Test
+    public void updateMatchesFullRecompute() {
+        Random random = new Random(2);
+        ByteGrid.Group group = map(random);
+        FieldOfView field = new FieldOfView(group, WALLS, 2);
+        try {
+            for(int i = 0; i < 100; ++i) field.addViewer(random.nextInt(TILES), random.nextInt(TILES), RADIUS);
+            assertEquals(100, field.update());
+            for(int round = 0; round < 5; ++round) {
+                for(int i = 0; i < 10; ++i) {
+                    int x = random.nextInt(TILES), y = random.nextInt(TILES);
+                    group.setTile(group.getTile(x, y) == WALL ? 0 : WALL, x, y);
+                }
+                field.getViewers().get(round).moveTo(random.nextInt(TILES), random.nextInt(TILES));
+                int recomputed = field.update();
+                assertTrue(recomputed > 0 && recomputed < 100);
+
+                FieldOfView fresh = new FieldOfView(group, WALLS, 1);
+                try {
+                    List<FieldOfView.Viewer> viewers = field.getViewers();
+                    for(FieldOfView.Viewer viewer : viewers) fresh.addViewer(viewer.getX(), viewer.getY(), RADIUS);
+                    fresh.update();
+                    for(int i = 0; i < viewers.size(); ++i) {
+                        assertFalse(viewers.get(i).isStale());
+                        assertSameVisibility(fresh.getViewers().get(i), viewers.get(i));
+                    }
+                } finally {
+                    fresh.cleanUp();
+                }
+            }
+        } finally {
+            field.cleanUp();
+        }
+    }
+
+    @Test
+    public void distantEditLeavesViewerFresh() {
+        ByteGrid.Group group = new ByteGrid.Group();
+        FieldOfView field = new FieldOfView(group, WALLS, 1);
+        try {
+            FieldOfView.Viewer near = field.addViewer(0, 0, RADIUS);
+            FieldOfView.Viewer far = field.addViewer(100, 100, RADIUS);
+            field.update();
+            group.setTile(WALL, 2, 2);
+            assertTrue(near.isStale());
+            assertFalse(far.isStale());
+            assertEquals(1, field.update());
+        } finally {
+            field.cleanUp();
+        }
+    }
+
+    @Test
+    public void removedGridLetsLightThrough() {
+        ByteGrid.Group group = new ByteGrid.Group();
+        group.setTile(WALL, 3, 0);
+        FieldOfView field = new FieldOfView(group, WALLS, 1);
+        try {
+            FieldOfView.Viewer viewer = field.addViewer(0, 0, RADIUS);
+            field.update();
+            assertFalse(viewer.canSee(6, 0));
+            group.removeGrid(0, 0);
+            assertTrue(viewer.isStale());
+            assertEquals(1, field.update());
+            assertTrue(viewer.canSee(6, 0));
+        } finally {
+            field.cleanUp();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.isaacph.world;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.isaacph.world.TestWorlds.WALL;
+import static com.isaacph.world.TestWorlds.WALLS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PathfinderTest {
+
+    private static final int GRIDS = 8, TILES = GRIDS * ByteGrid.SIZE, QUERIES = 300;
+
+    /**
+     * Scattered rocks and long walls with gaps in them, like the benchmark's map
+     */
+    private static ByteGrid.Group map(Random random) {
+        ByteGrid.Group group = TestWorlds.scatteredWalls(GRIDS, TILES * TILES / 10, random);
+        TestWorlds.wallLines(group, GRIDS, TILES / 4, random);
+        return group;
+    }
+
+    private static TileBitmap passable(ByteGrid.Group group) {
+        return passable(group, TILES, TILES);
+    }
+
+    private static TileBitmap passable(ByteGrid.Group group, int width, int height) {
+        TileBitmap whole = new TileBitmap();
+        whole.reset(0, 0, width, height);
+        for(int x = 0; x < width; ++x) {
+            for(int y = 0; y < height; ++y) {
+                if(group.getTile(x, y) != WALL) whole.set(x, y);
+            }
+        }
+        return whole;
+    }
+
+    private static int[] queries(Random random, TileBitmap whole) {
+        int[] queries = new int[QUERIES * 4];
+        for(int i = 0; i < QUERIES * 4; i += 2) {
+            int x, y;
+            do {
+                x = random.nextInt(TILES);
+                y = random.nextInt(TILES);
+            } while(!whole.get(x, y));
+            queries[i] = x;
+            queries[i + 1] = y;
+        }
+        return queries;
+    }
+
+    /**
+     * Every query finds a path exactly when plain A* over the whole map does, and the path is a
+     * walk of unit steps over open tiles from the start to the goal, never shorter than optimal
+     */
+    private static void assertAgrees(Pathfinder pathfinder, TileBitmap whole, int[] queries) {
+        GridAStar flat = new GridAStar();
+        Path path = new Path();
+        long extra = 0, optimalTotal = 0;
+        for(int i = 0; i < QUERIES; ++i) {
+            int sx = queries[i * 4], sy = queries[i * 4 + 1], tx = queries[i * 4 + 2], ty = queries[i * 4 + 3];
+            int optimal = flat.search(whole, sx, sy, tx, ty, null);
+            boolean found = pathfinder.findPath(sx, sy, tx, ty, path);
+            String query = sx + ", " + sy + " to " + tx + ", " + ty;
+            assertEquals("reachability of " + query, optimal >= 0, found);
+            if(!found) continue;
+            assertPath(query, path, whole, sx, sy, tx, ty);
+            assertTrue("shorter than optimal " + query, path.getSteps() >= optimal);
+            extra += path.getSteps() - optimal;
+            optimalTotal += optimal;
+        }
+        assertTrue("paths " + 100.0 * extra / optimalTotal + "% longer than optimal", extra * 10 <= optimalTotal);
+    }
+
+    private static void assertPath(String query, Path path, TileBitmap whole, int sx, int sy, int tx, int ty) {
+        assertTrue(query, path.length > 0);
+        assertEquals("start of " + query, sx, path.x[0]);
+        assertEquals("start of " + query, sy, path.y[0]);
+        assertEquals("goal of " + query, tx, path.x[path.length - 1]);
+        assertEquals("goal of " + query, ty, path.y[path.length - 1]);
+        for(int i = 0; i < path.length; ++i) {
+            if(!whole.get(path.x[i], path.y[i])) fail(query + " goes through a wall at " + path.x[i] + ", " + path.y[i]);
+            if(i > 0 && Math.abs(path.x[i] - path.x[i - 1]) + Math.abs(path.y[i] - path.y[i - 1]) != 1) {
+                fail(query + " jumps between steps " + (i - 1) + " and " + i);
+            }
+        }
+    }
+
+    @Test
+    public void agreesWithPlainAStar() {
+        Random random = new Random(1);
+        ByteGrid.Group group = map(random);
+        TileBitmap whole = passable(group);
+        Pathfinder pathfinder = new Pathfinder(group, WALLS, 2);
+        try {
+            assertAgrees(pathfinder, whole, queries(random, whole));
+        } finally {
+            pathfinder.cleanUp();
+        }
+    }
+
+    @Test
+    public void agreesAfterEdits() {
+        Random random = new Random(2);
+        ByteGrid.Group group = map(random);
+        Pathfinder pathfinder = new Pathfinder(group, WALLS, 2);
+        try {
+            for(int round = 0; round < 5; ++round) {
+                for(int i = 0; i < 40; ++i) {
+                    int x = random.nextInt(TILES), y = random.nextInt(TILES);
+                    group.setTile(group.getTile(x, y) == WALL ? 0 : WALL, x, y);
+                }
+                assertTrue(pathfinder.update() > 0);
+                TileBitmap whole = passable(group);
+                assertAgrees(pathfinder, whole, queries(random, whole));
+            }
+        } finally {
+            pathfinder.cleanUp();
+        }
+    }
+
+    @Test
+    public void wallCutsOffPath() {
+        ByteGrid.Group group = new ByteGrid.Group();
+        for(int gx = 0; gx < 3; ++gx) group.makeTileGrid(gx * ByteGrid.SIZE, 0);
+        Pathfinder pathfinder = new Pathfinder(group, WALLS, 1);
+        try {
+            Path path = new Path();
+            int goal = 3 * ByteGrid.SIZE - 1;
+            assertTrue(pathfinder.findPath(0, 0, goal, 0, path));
+            assertEquals(goal, path.getSteps());
+            // close the middle grid off with a wall across its whole height
+            for(int y = 0; y < ByteGrid.SIZE; ++y) group.setTile(WALL, ByteGrid.SIZE + 3, y);
+            pathfinder.update();
+            assertFalse(pathfinder.findPath(0, 0, goal, 0, path));
+            group.setTile((byte) 0, ByteGrid.SIZE + 3, 7);
+            pathfinder.update();
+            assertTrue(pathfinder.findPath(0, 0, goal, 0, path));
+            assertPath("through the gap", path, passable(group, 3 * ByteGrid.SIZE, ByteGrid.SIZE), 0, 0, goal, 0);
+        } finally {
+            pathfinder.cleanUp();
+        }
+    }
+
+    @Test
+    public void batchMatchesSingleQueries() {
+        Random random = new Random(3);
+        ByteGrid.Group group = map(random);
+        TileBitmap whole = passable(group);
+        int[] queries = queries(random, whole);
+        Pathfinder pathfinder = new Pathfinder(group, WALLS, 3);
+        try {
+            Path[] paths = pathfinder.findPaths(queries);
+            assertEquals(QUERIES, paths.length);
+            Path path = new Path();
+            for(int i = 0; i < QUERIES; ++i) {
+                boolean found = pathfinder.findPath(queries[i * 4], queries[i * 4 + 1], queries[i * 4 + 2], queries[i * 4 + 3], path);
+                if(!found) {
+                    assertNull("query " + i, paths[i]);
+                    continue;
+                }
+                assertNotNull("query " + i, paths[i]);
+                assertEquals("steps of query " + i, path.getSteps(), paths[i].getSteps());
+            }
+        } finally {
+            pathfinder.cleanUp();
+        }
+    }
+
+    @Test
+    public void removedGridCutsOffPath() {
+        ByteGrid.Group group = new ByteGrid.Group();
+        for(int gx = 0; gx < 3; ++gx) group.makeTileGrid(gx * ByteGrid.SIZE, 0);
+        Pathfinder pathfinder = new Pathfinder(group, WALLS, 1);
+        try {
+            Path path = new Path();
+            int goal = 3 * ByteGrid.SIZE - 1;
+            group.removeGrid(1, 0);
+            pathfinder.update();
+            assertFalse(pathfinder.findPath(0, 0, goal, 0, path));
+            // the entrances freed with the grid are reused when it comes back
+            group.makeTileGrid(ByteGrid.SIZE, 0);
+            pathfinder.update();
+            assertTrue(pathfinder.findPath(0, 0, goal, 0, path));
+            assertEquals(goal, path.getSteps());
+        } finally {
+            pathfinder.cleanUp();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.isaacph.world;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import com.isaacph.util.MathUtil;
+import org.joml.Vector2i;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.isaacph.world.TestWorlds.WALL;
+import static com.isaacph.world.TestWorlds.WALLS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RangeFinderTest {
+
+    private static final int GRIDS = 4, SIDE = GRIDS * ByteGrid.SIZE;
+    private static final int[] DISTANCES = {0, 1, 2, 7, 33, 70};
+
+    /**
+     * The repeated adjacentTiles expansion RangeFinder replaced, skipping tiles the filter blocks
+     * when given a group
+     */
+    private static Set<Vector2i> legacyRange(Set<Vector2i> seeds, int distance, ByteGrid.Group group, RangeFinder.TileFilter filter) {
+        Set<Vector2i> current = new HashSet<>(seeds);
+        for(int i = 0; i < distance; ++i) {
+            for(Vector2i tile : MathUtil.adjacentTiles(current)) {
+                if(group == null || !filter.blocks(group.getTile(tile.x, tile.y))) current.add(tile);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Seed sets from one tile to scattered groups, on and off the world, crossing negative
+     * coordinates and far enough apart that the search window spans several words a row
+     */
+    private static List<Set<Vector2i>> seedSets(Random random) {
+        Set<Vector2i> scattered = new HashSet<>();
+        for(int i = 0; i < 6; ++i) scattered.add(new Vector2i(random.nextInt(SIDE + 40) - 20, random.nextInt(SIDE + 40) - 20));
+        return List.of(
+            Set.of(new Vector2i(0, 0)),
+            Set.of(new Vector2i(5, 5), new Vector2i(6, 5), new Vector2i(5, 6), new Vector2i(6, 6)),
+            Set.of(new Vector2i(-1, SIDE - 1), new Vector2i(SIDE, 0)),
+            Set.of(new Vector2i(SIDE / 2, SIDE / 2), new Vector2i(SIDE / 2 + 130, SIDE / 2 - 3)),
+            scattered);
+    }
+
+    private static void assertMatches(Set<Vector2i> expected, RangeFinder finder, int count, String message) {
+        assertEquals(message, expected, finder.toSet());
+        assertEquals(message, expected.size(), count);
+        assertEquals(message, expected.size(), finder.getCount());
+        for(Vector2i tile : expected) assertTrue(message, finder.contains(tile.x, tile.y));
+    }
+
+    @Test
+    public void openMatchesLegacyExpansion() {
+        Random random = new Random(1);
+        RangeFinder finder = new RangeFinder();
+        for(Set<Vector2i> seeds : seedSets(random)) {
+            for(int distance : DISTANCES) {
+                Set<Vector2i> expected = legacyRange(seeds, distance, null, null);
+                String message = seeds + " distance " + distance;
+                assertMatches(expected, finder, finder.expand(seeds, distance), message);
+                assertEquals(message, expected, RangeFinder.adjacentTilesDistance(seeds, distance));
+            }
+        }
+    }
+
+    @Test
+    public void blockedMatchesLegacyExpansion() {
+        Random random = new Random(2);
+        // the range runs off the world, where missing grids read as open floor
+        ByteGrid.Group group = TestWorlds.scatteredWalls(GRIDS, SIDE * SIDE / 3, random);
+        TestWorlds.wallLines(group, GRIDS, 20, random);
+        RangeFinder finder = new RangeFinder();
+        for(Set<Vector2i> seeds : seedSets(random)) {
+            for(int distance : DISTANCES) {
+                assertMatches(legacyRange(seeds, distance, group, WALLS), finder, finder.expand(seeds, distance, group, WALLS), seeds + " distance " + distance);
+            }
+        }
+    }
+
+    @Test
+    public void edgeOfTheWorldBlocks() {
+        Random random = new Random(3);
+        ByteGrid.Group group = TestWorlds.scatteredWalls(GRIDS, SIDE * SIDE / 4, random);
+        // floor is 2 so a filter blocking 0 treats everything past the edge as wall
+        for(ByteGrid grid : group.map.values()) {
+            for(int i = 0; i < grid.data.length; ++i) if(grid.data[i] == 0) grid.data[i] = 2;
+        }
+        RangeFinder.TileFilter walledIn = tile -> tile == 0 || tile == WALL;
+        RangeFinder finder = new RangeFinder();
+        for(Set<Vector2i> seeds : List.of(Set.of(new Vector2i(0, 0)), Set.of(new Vector2i(SIDE - 1, SIDE - 1), new Vector2i(SIDE - 2, 3)))) {
+            for(int distance : DISTANCES) {
+                Set<Vector2i> expected = legacyRange(seeds, distance, group, walledIn);
+                assertMatches(expected, finder, finder.expand(seeds, distance, group, walledIn), seeds + " distance " + distance);
+                for(Vector2i tile : expected) {
+                    if(!seeds.contains(tile)) assertTrue(tile.x >= 0 && tile.y >= 0 && tile.x < SIDE && tile.y < SIDE);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void blockedSeedsStayInRange() {
+        ByteGrid.Group group = new ByteGrid.Group();
+        for(int x = -1; x <= 1; ++x) {
+            for(int y = -1; y <= 1; ++y) group.setTile(WALL, x, y);
+        }
+        RangeFinder finder = new RangeFinder();
+        assertEquals(1, finder.expand(Set.of(new Vector2i(0, 0)), 10, group, WALLS));
+        assertTrue(finder.contains(0, 0));
+        assertFalse(finder.contains(1, 0));
+
+        assertEquals(0, finder.expand(Set.of(), 10));
+        assertTrue(finder.toSet().isEmpty());
+        assertFalse(finder.contains(0, 0));
+    }
+}
@@ -0,0 +1,169 @@
+package com.isaacph.world;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.isaacph.world.TestWorlds.WALL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class RegionIndexTest {
+
+    private static final RegionIndex.TileClass ROOMS = tile -> tile == WALL ? RegionIndex.NONE : 0;
+
+    private static ByteGrid.Group map(int tiles, Random random) {
+        return TestWorlds.scatteredWalls(tiles / ByteGrid.SIZE, tiles * tiles * 2 / 5, random);
+    }
+
+    /**
+     * Labels every open tile by breadth first search
+     */
+    static int[] floodFill(ByteGrid.Group group, int tiles) {
+        int[] labels = new int[tiles * tiles];
+        Arrays.fill(labels, -1);
+        int[] queue = new int[tiles * tiles];
+        int next = 0;
+        for(int start = 0; start < labels.length; ++start) {
+            if(labels[start] >= 0 || group.getTile(start % tiles, start / tiles) == WALL) continue;
+            int head = 0, tail = 0;
+            queue[tail++] = start;
+            labels[start] = next;
+            while(head < tail) {
+                int tile = queue[head++];
+                int x = tile % tiles, y = tile / tiles;
+                int[] neighbours = {x > 0 ? tile - 1 : -1, x < tiles - 1 ? tile + 1 : -1,
+                    y > 0 ? tile - tiles : -1, y < tiles - 1 ? tile + tiles : -1};
+                for(int n : neighbours) {
+                    if(n < 0 || labels[n] >= 0 || group.getTile(n % tiles, n / tiles) == WALL) continue;
+                    labels[n] = next;
+                    queue[tail++] = n;
+                }
+            }
+            ++next;
+        }
+        return labels;
+    }
+
+    /**
+     * Each flood fill region maps to exactly one index region of the same size and back
+     */
+    private static void assertMatchesFloodFill(RegionIndex index, ByteGrid.Group group, int tiles) {
+        int[] labels = floodFill(group, tiles);
+        int regions = Arrays.stream(labels).max().orElse(-1) + 1;
+        int[] sizes = new int[regions];
+        for(int label : labels) if(label >= 0) ++sizes[label];
+        int[] toIndex = new int[regions];
+        Arrays.fill(toIndex, -2);
+        for(int i = 0; i < labels.length; ++i) {
+            int x = i % tiles, y = i / tiles;
+            int region = index.regionAt(x, y);
+            if(labels[i] < 0) {
+                assertEquals("wall at " + x + ", " + y, RegionIndex.NONE, region);
+                continue;
+            }
+            if(toIndex[labels[i]] == -2) toIndex[labels[i]] = region;
+            assertEquals("region split at " + x + ", " + y, toIndex[labels[i]], region);
+            assertEquals("size at " + x + ", " + y, sizes[labels[i]], index.regionSize(region));
+        }
+        assertEquals(regions, index.getRegionCount());
+        assertEquals("two regions merged", regions, Arrays.stream(toIndex).distinct().count());
+    }
+
+    @Test
+    public void buildMatchesFloodFill() {
+        Random random = new Random(1);
+        ByteGrid.Group group = map(128, random);
+        RegionIndex index = new RegionIndex(group, ROOMS);
+        assertMatchesFloodFill(index, group, 128);
+    }
+
+    @Test
+    public void editsMatchFloodFill() {
+        Random random = new Random(2);
+        ByteGrid.Group group = map(128, random);
+        RegionIndex index = new RegionIndex(group, ROOMS);
+        for(int i = 0; i < 300; ++i) {
+            int x = random.nextInt(128), y = random.nextInt(128);
+            group.setTile(group.getTile(x, y) == WALL ? 0 : WALL, x, y);
+            // several edits between checks, some in the same grid
+            if(i % 10 == 9) assertMatchesFloodFill(index, group, 128);
+        }
+    }
+
+    @Test
+    public void wallSplitsAndOpeningMerges() {
+        ByteGrid.Group group = map(64, new Random(3));
+        for(int x = 0; x < 64; ++x) {
+            for(int y = 0; y < 64; ++y) {
+                group.setTile((byte) 0, x, y);
+            }
+        }
+        RegionIndex index = new RegionIndex(group, ROOMS);
+        assertEquals(1, index.getRegionCount());
+        // a wall across the map on a grid border splits it in two
+        for(int y = 0; y < 64; ++y) group.setTile(WALL, 32, y);
+        assertEquals(2, index.getRegionCount());
+        assertNotEquals(index.regionAt(0, 0), index.regionAt(63, 0));
+        assertEquals(32 * 64, index.regionSizeAt(0, 0));
+        group.setTile((byte) 0, 32, 40);
+        assertEquals(1, index.getRegionCount());
+        assertEquals(64 * 64 - 63, index.regionSizeAt(63, 63));
+    }
+
+    @Test
+    public void editLeavesDistantRegionsAlone() {
+        ByteGrid.Group group = map(128, new Random(4));
+        RegionIndex index = new RegionIndex(group, ROOMS);
+        // an enclosed room far from the edit
+        for(int x = 100; x < 110; ++x) {
+            for(int y = 100; y < 110; ++y) {
+                boolean border = x == 100 || x == 109 || y == 100 || y == 109;
+                group.setTile(border ? WALL : 0, x, y);
+            }
+        }
+        int room = index.regionAt(105, 105);
+        group.setTile(group.getTile(5, 5) == WALL ? 0 : WALL, 5, 5);
+        index.update();
+        assertEquals(room, index.regionAt(105, 105));
+        assertEquals(64, index.regionSize(room));
+    }
+
+    @Test
+    public void regionSizeDoesNotUpdate() {
+        ByteGrid.Group group = map(32, new Random(5));
+        for(int x = 0; x < 32; ++x) {
+            for(int y = 0; y < 32; ++y) {
+                group.setTile((byte) 0, x, y);
+            }
+        }
+        RegionIndex index = new RegionIndex(group, ROOMS);
+        int region = index.regionAt(0, 0);
+        group.setTile(WALL, 3, 3);
+        // the id from before the edit still reads the size from before it
+        assertEquals(32 * 32, index.regionSize(region));
+        assertEquals(32 * 32 - 1, index.regionSizeAt(0, 0));
+    }
+
+    @Test
+    public void removedGridsSplitRegions() {
+        ByteGrid.Group group = map(64, new Random(6));
+        for(int x = 0; x < 64; ++x) {
+            for(int y = 0; y < 64; ++y) {
+                group.setTile((byte) 0, x, y);
+            }
+        }
+        RegionIndex index = new RegionIndex(group, ROOMS);
+        // taking out a column of grids leaves nothing to walk between the two sides
+        for(int gy = 0; gy < 4; ++gy) group.removeGrid(2, gy);
+        assertEquals(2, index.getRegionCount());
+        assertEquals(RegionIndex.NONE, index.regionAt(40, 10));
+        assertEquals(32 * 64, index.regionSizeAt(0, 0));
+        assertEquals(16 * 64, index.regionSizeAt(63, 0));
+        group.makeTileGrid(32, 48);
+        assertEquals(1, index.getRegionCount());
+        assertEquals(64 * 64 - 3 * 16 * 16, index.regionSizeAt(63, 0));
+    }
+}
@@ -0,0 +1,133 @@
+package com.isaacph.world;
+
+import com.isaacph.util.MathUtil;
+import org.joml.Vector2i;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShapePlacerTest {
+
+    private static final List<List<Vector2i>> SHAPES = List.of(
+        List.of(new Vector2i(0, 0)),
+        List.of(new Vector2i(0, 0), new Vector2i(1, 0), new Vector2i(0, 1), new Vector2i(1, 1)),
+        // an L, one that leaves out its own origin, and one reaching to negative offsets
+        List.of(new Vector2i(0, 0), new Vector2i(0, 1), new Vector2i(0, 2), new Vector2i(1, 0)),
+        List.of(new Vector2i(2, 3), new Vector2i(3, 3)),
+        List.of(new Vector2i(-2, 0), new Vector2i(-1, 0), new Vector2i(0, 0), new Vector2i(0, -1), new Vector2i(0, -1)));
+
+    /**
+     * The translate and compare search ShapePlacer replaced
+     */
+    private static Set<Vector2i> legacyOrigins(Set<Vector2i> collection, Collection<Vector2i> adjacentShape) {
+        Set<Vector2i> adjacent = new HashSet<>();
+        for(Vector2i tile : collection) {
+            for(Vector2i shapeTileOffset : adjacentShape) {
+                for(Vector2i direction : MathUtil.DIRECTIONS) {
+                    Vector2i next = new Vector2i(tile).sub(shapeTileOffset).add(direction);
+                    ArrayList<Vector2i> translatedShape = new ArrayList<>();
+                    for(Vector2i shapePos : adjacentShape) {
+                        translatedShape.add(new Vector2i(shapePos).add(tile).sub(shapeTileOffset).add(direction));
+                    }
+                    if(MathUtil.shapesIntersect(collection, translatedShape)) continue;
+                    if(!collection.contains(next)) {
+                        adjacent.add(next);
+                    }
+                }
+            }
+        }
+        return adjacent;
+    }
+
+    /**
+     * Formations with holes, at negative coordinates, and wide enough to span several words a row
+     */
+    private static List<Set<Vector2i>> formations(Random random) {
+        List<Set<Vector2i>> formations = new ArrayList<>();
+        formations.add(Set.of(new Vector2i(0, 0)));
+        Set<Vector2i> holes = new HashSet<>();
+        for(int x = -6; x < 6; ++x) {
+            for(int y = -9; y < 3; ++y) {
+                if(random.nextInt(5) != 0) holes.add(new Vector2i(x, y));
+            }
+        }
+        formations.add(holes);
+        // a ring with room for the square inside, and one too tight for it
+        Set<Vector2i> ring = new HashSet<>(), tightRing = new HashSet<>();
+        for(int i = 0; i < 6; ++i) {
+            ring.add(new Vector2i(i, 0));
+            ring.add(new Vector2i(i, 5));
+            ring.add(new Vector2i(0, i));
+            ring.add(new Vector2i(5, i));
+        }
+        for(int i = 0; i < 3; ++i) {
+            tightRing.add(new Vector2i(i - 20, 0));
+            tightRing.add(new Vector2i(i - 20, 2));
+            tightRing.add(new Vector2i(-20, i));
+            tightRing.add(new Vector2i(-18, i));
+        }
+        formations.add(ring);
+        formations.add(tightRing);
+        Set<Vector2i> wide = new HashSet<>();
+        for(int x = -70; x < 90; ++x) {
+            for(int y = 0; y < 4; ++y) {
+                if(random.nextInt(3) == 0) wide.add(new Vector2i(x, y));
+            }
+        }
+        formations.add(wide);
+        return formations;
+    }
+
+    @Test
+    public void matchesLegacySearch() {
+        ShapePlacer placer = new ShapePlacer();
+        for(Set<Vector2i> formation : formations(new Random(1))) {
+            for(List<Vector2i> shape : SHAPES) {
+                Set<Vector2i> expected = legacyOrigins(formation, shape);
+                String message = "shape " + shape + " next to " + formation.size() + " tiles";
+                assertEquals(message, expected.size(), placer.findOrigins(formation, shape));
+                assertEquals(message, expected, placer.toSet());
+                assertEquals(message, expected.size(), placer.getCount());
+                for(Vector2i origin : expected) assertTrue(message, placer.contains(origin.x, origin.y));
+                assertEquals(message, expected, ShapePlacer.adjacentShapeOrigins(formation, shape));
+            }
+        }
+    }
+
+    @Test
+    public void fitsInsideHoles() {
+        List<Vector2i> square = SHAPES.get(1);
+        Set<Vector2i> ring = formations(new Random(1)).get(2);
+        ShapePlacer placer = new ShapePlacer();
+        placer.findOrigins(ring, square);
+        assertTrue(placer.contains(1, 1));
+        assertTrue(placer.contains(3, 3));
+        assertFalse(placer.contains(2, 0));
+        // the tight ring's one tile hole fits a single tile but not the square
+        Set<Vector2i> tightRing = formations(new Random(1)).get(3);
+        placer.findOrigins(tightRing, square);
+        assertFalse(placer.contains(-19, 1));
+        placer.findOrigins(tightRing, SHAPES.get(0));
+        assertTrue(placer.contains(-19, 1));
+    }
+
+    @Test
+    public void emptyFindsNothing() {
+        ShapePlacer placer = new ShapePlacer();
+        placer.findOrigins(Set.of(new Vector2i(0, 0)), SHAPES.get(1));
+        assertEquals(0, placer.findOrigins(Set.of(), SHAPES.get(1)));
+        assertTrue(placer.toSet().isEmpty());
+        assertFalse(placer.contains(1, 0));
+        assertEquals(0, placer.findOrigins(Set.of(new Vector2i(0, 0)), List.of()));
+        assertEquals(0, placer.getCount());
+    }
+}
@@ -0,0 +1,106 @@
+package com.isaacph.world;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The worlds the tests build their indexes and streams over. Every generator makes its grids from
+ * the origin up, grids x grids of them, so no grid inside the world is missing.
+ */
+public final class TestWorlds {
+
+    public static final byte WALL = 1;
+    public static final RangeFinder.TileFilter WALLS = tile -> tile == WALL;
+
+    private TestWorlds() {
+    }
+
+    public static ByteGrid.Group empty(int grids) {
+        ByteGrid.Group group = new ByteGrid.Group();
+        for(int gx = 0; gx < grids; ++gx) {
+            for(int gy = 0; gy < grids; ++gy) {
+                group.makeTileGrid(gx * ByteGrid.SIZE, gy * ByteGrid.SIZE);
+            }
+        }
+        return group;
+    }
+
+    /**
+     * Every tile a random one below kinds
+     */
+    public static ByteGrid.Group randomTiles(int grids, int kinds, Random random) {
+        ByteGrid.Group group = empty(grids);
+        for(ByteGrid grid : group.map.values()) {
+            for(int i = 0; i < grid.data.length; ++i) grid.data[i] = (byte) random.nextInt(kinds);
+        }
+        return group;
+    }
+
+    /**
+     * Open floor with the given number of walls dropped on random tiles, some on the same tile
+     */
+    public static ByteGrid.Group scatteredWalls(int grids, int walls, Random random) {
+        ByteGrid.Group group = empty(grids);
+        int tiles = grids * ByteGrid.SIZE;
+        for(int i = 0; i < walls; ++i) {
+            group.setTile(WALL, random.nextInt(tiles), random.nextInt(tiles));
+        }
+        return group;
+    }
+
+    /**
+     * Adds straight walls 10 to 49 tiles long with a gap about every 12 tiles, cut off at the world's edge
+     */
+    public static void wallLines(ByteGrid.Group group, int grids, int count, Random random) {
+        int tiles = grids * ByteGrid.SIZE;
+        for(int i = 0; i < count; ++i) {
+            boolean horizontal = random.nextBoolean();
+            int x = random.nextInt(tiles), y = random.nextInt(tiles), length = 10 + random.nextInt(40);
+            for(int j = 0; j < length; ++j) {
+                if(random.nextInt(12) == 0) continue;
+                int wx = horizontal ? x + j : x, wy = horizontal ? y : y + j;
+                if(wx < tiles && wy < tiles) group.setTile(WALL, wx, wy);
+            }
+        }
+    }
+
+    /**
+     * Rooms of open floor with 40 walls dropped into about a quarter of the grids
+     */
+    public static ByteGrid.Group rooms(int grids, Random random) {
+        ByteGrid.Group group = empty(grids);
+        for(int gx = 0; gx < grids; ++gx) {
+            for(int gy = 0; gy < grids; ++gy) {
+                if(random.nextInt(4) != 0) continue;
+                for(int i = 0; i < 40; ++i) {
+                    group.setTile(WALL, gx * ByteGrid.SIZE + random.nextInt(ByteGrid.SIZE), gy * ByteGrid.SIZE + random.nextInt(ByteGrid.SIZE));
+                }
+            }
+        }
+        return group;
+    }
+
+    /**
+     * A deep copy, as a reader that was sent everything would hold
+     */
+    public static ByteGrid.Group copy(ByteGrid.Group group) {
+        ByteGrid.Group copy = new ByteGrid.Group();
+        for(ByteGrid grid : group.map.values()) {
+            ByteGrid clone = new ByteGrid(grid.x, grid.y);
+            clone.data = grid.data.clone();
+            copy.putGrid(clone);
+        }
+        return copy;
+    }
+
+    public static void assertSameTiles(ByteGrid.Group expected, ByteGrid.Group actual) {
+        assertEquals(expected.map.keySet(), actual.map.keySet());
+        for(var entry : expected.map.entrySet()) {
+            assertArrayEquals("grid " + entry.getKey().x + ", " + entry.getKey().y, entry.getValue().data, actual.map.get(entry.getKey()).data);
+        }
+    }
+}
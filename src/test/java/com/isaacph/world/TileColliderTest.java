@@ -0,0 +1,196 @@
+package com.isaacph.world;
+
+import com.isaacph.entity.EntityStore;
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import org.joml.Vector2f;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.isaacph.world.TestWorlds.WALL;
+import static com.isaacph.world.TestWorlds.WALLS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TileColliderTest {
+
+    private static final int TILES = 256;
+    private static final float HALF_SIZE = 0.3f;
+    private static final float TICK = 1.0f / 60.0f;
+    private static final float EPSILON = 1e-3f;
+
+    /**
+     * Rooms of open floor with walls scattered through a quarter of the grids, like the benchmark's map
+     */
+    private static ByteGrid.Group map(Random random) {
+        return TestWorlds.rooms(TILES / ByteGrid.SIZE, random);
+    }
+
+    @Test
+    public void sweepStopsAtWall() {
+        ByteGrid.Group group = new ByteGrid.Group();
+        group.setTile(WALL, 5, 0);
+        TileCollider collider = new TileCollider(group, WALLS, 1);
+        try {
+            TileCollider.Hit hit = new TileCollider.Hit();
+            assertTrue(collider.sweep(1, 0.2f, 2, 0.8f, 4, 0, hit));
+            assertEquals(0.75f, hit.time, EPSILON);
+            assertEquals(-1, hit.normalX);
+            assertEquals(0, hit.normalY);
+            assertEquals(5, hit.tileX);
+            assertEquals(0, hit.tileY);
+            assertFalse("passes below", collider.sweep(1, 1, 2, 1.5f, 4, 0, hit));
+            assertFalse("touching an edge is no overlap", collider.overlaps(4, 0, 5, 1));
+            assertTrue(collider.overlaps(4, 0, 5.1f, 1));
+        } finally {
+            collider.cleanUp();
+        }
+    }
+
+    @Test
+    public void slideKeepsSkinFromWall() {
+        ByteGrid.Group group = new ByteGrid.Group();
+        for(int y = -2; y <= 2; ++y) group.setTile(WALL, 5, y);
+        TileCollider collider = new TileCollider(group, WALLS, 1);
+        try {
+            TileCollider.Hit hit = new TileCollider.Hit();
+            Vector2f center = new Vector2f(3, 0.5f);
+            int blocked = collider.slide(center, HALF_SIZE, HALF_SIZE, 4, 1, hit);
+            assertEquals(TileCollider.BLOCKED_X, blocked);
+            assertEquals(5 - HALF_SIZE - TileCollider.SKIN, center.x, EPSILON);
+            assertEquals(1.5f, center.y, EPSILON);
+            assertFalse(collider.overlaps(center.x - HALF_SIZE, center.y - HALF_SIZE, center.x + HALF_SIZE, center.y + HALF_SIZE));
+        } finally {
+            collider.cleanUp();
+        }
+    }
+
+    @Test
+    public void followsEdits() {
+        ByteGrid.Group group = new ByteGrid.Group();
+        group.makeTileGrid(0, 0);
+        TileCollider collider = new TileCollider(group, WALLS, 1);
+        try {
+            assertFalse(collider.isSolid(3, 4));
+            group.setTile(WALL, 3, 4);
+            assertTrue(collider.isSolid(3, 4));
+            assertTrue(collider.overlaps(3.5f, 4.5f, 3.6f, 4.6f));
+            group.setTile((byte) 0, 3, 4);
+            assertFalse(collider.isSolid(3, 4));
+            // a grid made after the collider is read from the group
+            group.setTile(WALL, -20, 40);
+            assertTrue(collider.isSolid(-20, 40));
+        } finally {
+            collider.cleanUp();
+        }
+    }
+
+    @Test
+    public void moversAgreeWithNaive() {
+        Random random = new Random(1);
+        ByteGrid.Group group = map(random);
+        TileCollider collider = new TileCollider(group, WALLS, 3);
+        CollisionBenchmark.NaiveCollider naive = new CollisionBenchmark.NaiveCollider(group, WALLS);
+        collider.bounce = naive.bounce = true;
+        try {
+            // enough movers for the parallel path
+            int movers = TileCollider.PARALLEL_THRESHOLD * 2;
+            EntityStore fast = new EntityStore(movers), slow = new EntityStore(movers);
+            for(int i = 0; i < movers; ++i) {
+                float x, y;
+                do {
+                    x = 1 + random.nextFloat() * (TILES - 2);
+                    y = 1 + random.nextFloat() * (TILES - 2);
+                } while(collider.overlaps(x - HALF_SIZE, y - HALF_SIZE, x + HALF_SIZE, y + HALF_SIZE));
+                float vx = random.nextFloat() * 20 - 10, vy = random.nextFloat() * 20 - 10;
+                fast.create(x, y, vx, vy, 1);
+                slow.create(x, y, vx, vy, 1);
+            }
+            for(int tick = 0; tick < 120; ++tick) {
+                collider.resolve(fast, HALF_SIZE, HALF_SIZE, TICK);
+                naive.resolve(slow, HALF_SIZE, HALF_SIZE, TICK);
+            }
+            for(int i = 0; i < movers; ++i) {
+                assertEquals("x of mover " + i, slow.x[i], fast.x[i], EPSILON);
+                assertEquals("y of mover " + i, slow.y[i], fast.y[i], EPSILON);
+                assertFalse("mover " + i + " inside a wall",
+                    collider.overlaps(fast.x[i] - HALF_SIZE, fast.y[i] - HALF_SIZE, fast.x[i] + HALF_SIZE, fast.y[i] + HALF_SIZE));
+            }
+        } finally {
+            collider.cleanUp();
+            naive.cleanUp();
+        }
+    }
+
+    @Test
+    public void raysAgreeWithNaive() {
+        Random random = new Random(2);
+        ByteGrid.Group group = map(random);
+        TileCollider collider = new TileCollider(group, WALLS, 1);
+        CollisionBenchmark.NaiveCollider naive = new CollisionBenchmark.NaiveCollider(group, WALLS);
+        try {
+            TileCollider.Hit hit = new TileCollider.Hit(), expected = new TileCollider.Hit();
+            int hits = 0;
+            for(int i = 0; i < 5000; ++i) {
+                float ox = random.nextFloat() * TILES, oy = random.nextFloat() * TILES;
+                float dx = random.nextFloat() * 2 - 1, dy = random.nextFloat() * 2 - 1;
+                boolean a = naive.naiveRaycast(ox, oy, dx, dy, 100, expected);
+                boolean b = collider.raycast(ox, oy, dx, dy, 100, hit);
+                String ray = "ray " + i + " from " + ox + ", " + oy;
+                assertEquals(ray, a, b);
+                if(!a) continue;
+                ++hits;
+                assertEquals(ray, expected.tileX, hit.tileX);
+                assertEquals(ray, expected.tileY, hit.tileY);
+                assertEquals(ray, expected.time, hit.time, EPSILON);
+            }
+            assertTrue(hits > 0);
+        } finally {
+            collider.cleanUp();
+            naive.cleanUp();
+        }
+    }
+
+    @Test
+    public void endlessRaysStop() {
+        ByteGrid.Group group = new ByteGrid.Group();
+        group.setTile(WALL, 5000, 3);
+        TileCollider collider = new TileCollider(group, WALLS, 1);
+        try {
+            TileCollider.Hit hit = new TileCollider.Hit();
+            assertTrue(collider.raycast(0.5f, 3.5f, 1, 0, Float.POSITIVE_INFINITY, hit));
+            assertEquals(5000, hit.tileX);
+            assertEquals(4999.5f, hit.time, EPSILON);
+            // over empty space they walk as far as a ray may and give up
+            assertFalse(collider.raycast(0.5f, 3.5f, -1, 0.3f, Float.POSITIVE_INFINITY, hit));
+            assertEquals(TileCollider.MAX_RAY_DISTANCE, hit.time, 0);
+            assertFalse(collider.raycast(0.5f, 3.5f, 1, 1, 1e30f, hit));
+            assertFalse(collider.raycast(0.5f, 3.5f, 1, 0, Float.NaN, hit));
+        } finally {
+            collider.cleanUp();
+        }
+    }
+
+    @Test
+    public void removedGridsReadAsMissing() {
+        Random random = new Random(3);
+        ByteGrid.Group group = map(random);
+        TileCollider collider = new TileCollider(group, WALLS, 1);
+        try {
+            // enough removals to shift entries back through the collider's probe runs
+            for(int gx = 0; gx < TILES / ByteGrid.SIZE; ++gx) {
+                for(int gy = 0; gy < TILES / ByteGrid.SIZE; ++gy) {
+                    if(random.nextBoolean()) group.removeGrid(gx, gy);
+                }
+            }
+            for(int x = 0; x < TILES; ++x) {
+                for(int y = 0; y < TILES; ++y) {
+                    assertEquals(x + ", " + y, group.getTile(x, y) == WALL, collider.isSolid(x, y));
+                }
+            }
+        } finally {
+            collider.cleanUp();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.isaacph.world;
+
+import com.isaacph.render.TileGridRenderer.ByteGrid;
+import com.isaacph.util.VectorSupport;
+import org.joml.Vector2i;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TileScannerTest {
+
+    private static final byte RARE = (byte) 200;
+    private static final byte MASK = 0x06, VALUE = 0x02;
+    private static final int SIDE = 12 * ByteGrid.SIZE;
+
+    /**
+     * Random tiles in a square around the origin with a few grids left out, so rectangles
+     * cross negative coordinates and missing grids
+     */
+    private static ByteGrid.Group world(Random random) {
+        ByteGrid.Group group = new ByteGrid.Group();
+        for(int x = -SIDE / 2; x < SIDE / 2; x += ByteGrid.SIZE) {
+            for(int y = -SIDE / 2; y < SIDE / 2; y += ByteGrid.SIZE) {
+                if(random.nextInt(10) == 0) continue;
+                ByteGrid grid = group.makeTileGrid(x, y);
+                for(int i = 0; i < grid.data.length; ++i) grid.data[i] = (byte) random.nextInt(8);
+            }
+        }
+        return group;
+    }
+
+    private static boolean[] modes() {
+        return VectorSupport.AVAILABLE ? new boolean[] {false, true} : new boolean[] {false};
+    }
+
+    private static void assertRectangle(TileScanner scanner, ByteGrid.Group group, int rx, int ry, int rw, int rh) {
+        long expectedCount = 0;
+        long[] expectedHistogram = new long[256];
+        Vector2i expectedFirst = null;
+        for(int x = rx; x < rx + rw; ++x) {
+            for(int y = ry; y < ry + rh; ++y) {
+                byte tile = group.getTile(x, y);
+                if((tile & MASK) == VALUE) ++expectedCount;
+                ++expectedHistogram[tile & 0xFF];
+                if(tile == RARE && expectedFirst == null) expectedFirst = new Vector2i(x, y);
+            }
+        }
+        boolean[] table = new boolean[256];
+        for(int b = 0; b < 256; ++b) table[b] = ((byte) b & MASK) == VALUE;
+        TileBitmap expectedBits = new TileBitmap();
+        expectedBits.reset(rx, ry, rw, rh);
+        expectedBits.readTiles(group, table);
+
+        String rectangle = rw + "x" + rh + " at " + rx + ", " + ry;
+        for(boolean vectorized : modes()) {
+            scanner.vectorized = vectorized;
+            String query = rectangle + (vectorized ? " vectorized" : " scalar");
+            assertEquals("count of " + query, expectedCount, scanner.count(rx, ry, rw, rh, MASK, VALUE));
+            assertArrayEquals("histogram of " + query, expectedHistogram, scanner.histogram(rx, ry, rw, rh, null));
+            Vector2i first = new Vector2i();
+            boolean found = scanner.findFirst(rx, ry, rw, rh, (byte) -1, RARE, first);
+            assertEquals("find in " + query, expectedFirst != null, found);
+            if(found) assertEquals("find in " + query, expectedFirst, first);
+            TileBitmap bits = new TileBitmap();
+            bits.reset(rx, ry, rw, rh);
+            assertEquals("extract of " + query, expectedCount, scanner.extract(bits, MASK, VALUE));
+            assertArrayEquals("extract of " + query, Arrays.copyOf(expectedBits.bits, expectedBits.stride * expectedBits.height),
+                Arrays.copyOf(bits.bits, bits.stride * bits.height));
+        }
+    }
+
+    @Test
+    public void rectanglesMatchGetTile() {
+        Random random = new Random(1);
+        ByteGrid.Group group = world(random);
+        group.setTile(RARE, SIDE / 2 - 5, 3);
+        group.setTile(RARE, SIDE / 2 - 5, -20);
+        group.setTile(RARE, -7, 40);
+        // over PARALLEL_THRESHOLD grids so the larger rectangles are split across the pool
+        TileScanner scanner = new TileScanner(group, 3);
+        try {
+            assertRectangle(scanner, group, -SIDE / 2, -SIDE / 2, SIDE, SIDE);
+            // unaligned to the grids and reaching past the world into missing grids
+            assertRectangle(scanner, group, -SIDE / 2 + 5, -SIDE / 2 + 3, SIDE + 20, SIDE - 10);
+            assertRectangle(scanner, group, 3, 4, 1, 1);
+            assertRectangle(scanner, group, 0, 0, 0, 5);
+            for(int i = 0; i < 40; ++i) {
+                int rx = random.nextInt(SIDE) - SIDE / 2 - 8, ry = random.nextInt(SIDE) - SIDE / 2 - 8;
+                assertRectangle(scanner, group, rx, ry, 1 + random.nextInt(SIDE / 2), 1 + random.nextInt(SIDE / 2));
+            }
+        } finally {
+            scanner.cleanUp();
+        }
+    }
+
+    @Test
+    public void worldQueriesCoverEveryGrid() {
+        Random random = new Random(2);
+        ByteGrid.Group group = world(random);
+        group.setTile(RARE, 10, -30);
+        group.setTile(RARE, 10, -31);
+        long expectedCount = 0;
+        long[] expectedHistogram = new long[256];
+        for(ByteGrid grid : group.map.values()) {
+            for(byte tile : grid.data) {
+                if((tile & MASK) == VALUE) ++expectedCount;
+                ++expectedHistogram[tile & 0xFF];
+            }
+        }
+        TileScanner scanner = new TileScanner(group, 3);
+        try {
+            for(boolean vectorized : modes()) {
+                scanner.vectorized = vectorized;
+                assertEquals(expectedCount, scanner.count(MASK, VALUE));
+                assertArrayEquals(expectedHistogram, scanner.histogram(null));
+                Vector2i first = new Vector2i();
+                assertTrue(scanner.findFirst((byte) -1, RARE, first));
+                assertEquals(new Vector2i(10, -31), first);
+                assertFalse(scanner.findFirst((byte) -1, (byte) 100, first));
+            }
+        } finally {
+            scanner.cleanUp();
+        }
+    }
+
+    @Test
+    public void matchColumnsSetsBitPerTile() {
+        Random random = new Random(3);
+        byte[] data = new byte[ByteGrid.SIZE * ByteGrid.SIZE];
+        for(int i = 0; i < data.length; ++i) data[i] = (byte) random.nextInt(8);
+        int[] columns = new int[ByteGrid.SIZE + 2];
+        TileScanner.matchColumns(data, MASK, VALUE, columns, 2);
+        for(int x = 0; x < ByteGrid.SIZE; ++x) {
+            for(int y = 0; y < ByteGrid.SIZE; ++y) {
+                assertEquals(x + ", " + y, (data[x * ByteGrid.SIZE + y] & MASK) == VALUE, (columns[2 + x] >>> y & 1) != 0);
+            }
+        }
+    }
+}